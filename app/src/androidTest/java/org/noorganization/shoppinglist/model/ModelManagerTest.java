@@ -18,32 +18,38 @@
 
 package org.noorganization.shoppinglist.model;
 
-import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
+import org.noorganization.shoppinglist.model.storage.AndroidSqlDatabase;
+import org.noorganization.shoppinglist.model.storage.SqlDatabase;
+import org.noorganization.shoppinglist.model.storage.SqlStorage;
+import org.noorganization.shoppinglist.model.storage.SqlTraceLog;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.List;
+
 public class ModelManagerTest extends AndroidTestCase {
 
     public static final String DB_NAME = "nonOrganizationalTestBase.db";
 
-    SQLiteDatabase m_currentConnection;
+    StorageProvider m_currentConnection;
 
     public void setUp() throws Exception {
         super.setUp();
 
         ModelManager modelManager = ModelManager.getInstance();
 
-        ModelManager.DBOpenHelper openHelper = new ModelManager.DBOpenHelper(getContext(), DB_NAME, null,
-                ModelManager.DBOpenHelper.CURRENT_DATABASE_VERSION);
-        SQLiteDatabase testDb = openHelper.getWritableDatabase();
+        SqlStorage testStorage = AndroidSqlDatabase.openStorage(getContext(), DB_NAME);
+        SqlDatabase testDb = testStorage.getDatabase();
 
-        testDb.execSQL("INSERT INTO Units VALUES (1, 'kg')");
-        testDb.execSQL("INSERT INTO Products VALUES (1, 'Reis', 1.0, 1)");
-        testDb.execSQL("INSERT INTO ShoppingLists VALUES (1, 'Meine Einkaufsliste')");
-        testDb.execSQL("INSERT INTO ProductsInShoppingLists VALUES (1, 1, 2.0)");
+        testDb.execute("INSERT INTO Units VALUES (1, 'kg')");
+        testDb.execute("INSERT INTO Products VALUES (1, 'Reis', 1.0, 1)");
+        testDb.execute("INSERT INTO ShoppingLists VALUES (1, 'Meine Einkaufsliste')");
+        testDb.execute("INSERT INTO ProductsInShoppingLists VALUES (1, 1, 2.0)");
 
-        testDb.close();
+        testStorage.close();
 
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
     }
 
     public void tearDown() throws Exception {
@@ -52,7 +58,7 @@ public class ModelManagerTest extends AndroidTestCase {
         getContext().deleteDatabase(DB_NAME);
     }
 
-    public void testOpenAndReadDatabase() throws Exception {
+    public void testLoad() throws Exception {
 
         ModelManager modelManager = ModelManager.getInstance();
 
@@ -77,7 +83,7 @@ public class ModelManagerTest extends AndroidTestCase {
         assertEquals(1, testUnit.Id);
 
         m_currentConnection.close();
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
 
         assertEquals(1, modelManager.m_allLists.size());
         assertEquals(1, modelManager.m_allProducts.size());
@@ -99,7 +105,7 @@ public class ModelManagerTest extends AndroidTestCase {
 
         assertEquals(2, modelManager.m_allUnits.size());
         m_currentConnection.close();
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
         assertEquals(2, modelManager.m_allUnits.size());
     }
 
@@ -147,7 +153,7 @@ public class ModelManagerTest extends AndroidTestCase {
 
         assertEquals(2, modelManager.m_allProducts.size());
         m_currentConnection.close();
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
         assertEquals(2, modelManager.m_allProducts.size());
 
         testProduct = modelManager.getProductById(testProductForId.Id);
@@ -201,7 +207,7 @@ public class ModelManagerTest extends AndroidTestCase {
 
         assertEquals(2, modelManager.m_allLists.size());
         m_currentConnection.close();
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
         assertEquals(2, modelManager.m_allLists.size());
     }
 
@@ -213,7 +219,7 @@ public class ModelManagerTest extends AndroidTestCase {
         assertEquals(1, positiveShoppingList.Id);
         assertNotNull(positiveShoppingList.ListEntries);
         assertEquals(1, positiveShoppingList.ListEntries.keyAt(0));
-        assertEquals(2.0f, positiveShoppingList.ListEntries.valueAt(0).floatValue(), 0.001f);
+        assertEquals(2.0f, positiveShoppingList.ListEntries.valueAt(0), 0.001f);
         assertNotSame(positiveShoppingList, modelManager.m_allLists.get(0));
 
         assertNull(modelManager.getUnitById(ModelManager.INVALID_ID));
@@ -246,7 +252,7 @@ public class ModelManagerTest extends AndroidTestCase {
         assertNotNull(modelManager.getUnitById(1));
 
         m_currentConnection.close();
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
         assertNotNull(modelManager.getUnitById(1));
         assertEquals("blubbla", modelManager.getUnitById(1).UnitText);
     }
@@ -265,7 +271,7 @@ public class ModelManagerTest extends AndroidTestCase {
         assertNotNull(modelManager.getProductById(1));
 
         m_currentConnection.close();
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
         assertNotNull(modelManager.getProductById(1));
         assertEquals("blubbla", modelManager.getProductById(1).Title);
 
@@ -291,7 +297,7 @@ public class ModelManagerTest extends AndroidTestCase {
         assertNotNull(modelManager.getShoppingListById(1));
 
         m_currentConnection.close();
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
         assertNotNull(modelManager.getShoppingListById(1));
         assertEquals("blubbla", modelManager.getShoppingListById(1).Title);
 
@@ -308,7 +314,7 @@ public class ModelManagerTest extends AndroidTestCase {
         assertEquals(0, modelManager.getShoppingListById(1).ListEntries.size());
 
         m_currentConnection.close();
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
 
         assertNull(modelManager.getUnitById(1));
         assertNull(modelManager.getProductById(1));
@@ -325,7 +331,7 @@ public class ModelManagerTest extends AndroidTestCase {
         assertEquals(0, modelManager.getShoppingListById(1).ListEntries.size());
 
         m_currentConnection.close();
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
 
         assertNotNull(modelManager.getUnitById(1));
         assertNull(modelManager.getProductById(1));
@@ -342,10 +348,37 @@ public class ModelManagerTest extends AndroidTestCase {
         assertNull(modelManager.getShoppingListById(1));
 
         m_currentConnection.close();
-        m_currentConnection = modelManager.openAndReadDatabase(getContext(), DB_NAME);
+        m_currentConnection = modelManager.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
 
         assertNotNull(modelManager.getUnitById(1));
         assertNotNull(modelManager.getProductById(1));
         assertNull(modelManager.getShoppingListById(1));
     }
-}
\ No newline at end of file
+
+    public void testSqlTraceLog() throws Exception {
+        ModelManager modelManager = ModelManager.getInstance();
+        SqlTraceLog traceLog = ((SqlStorage) m_currentConnection).getTraceLog();
+        traceLog.clear();
+        traceLog.setRecordRecent(true);
+
+        modelManager.createUnit("l", m_currentConnection);
+        modelManager.deleteShoppingList(modelManager.getShoppingListById(1), m_currentConnection);
+
+        List<SqlTraceLog.Entry> recentStatements = traceLog.getRecent();
+        assertEquals(2, recentStatements.size());
+        assertEquals("INSERT INTO Units (id, title) VALUES (?, ?)", recentStatements.get(0).Statement);
+        assertEquals(2, recentStatements.get(0).BindCount);
+        assertEquals(1, recentStatements.get(0).RowsAffected);
+        assertEquals("DELETE FROM ShoppingLists WHERE id = ?", recentStatements.get(1).Statement);
+        assertEquals(1, recentStatements.get(1).BindCount);
+        assertEquals(1, recentStatements.get(1).RowsAffected);
+
+        for (int currentUnit = 0; currentUnit < SqlStorage.TRACE_CAPACITY; currentUnit++) {
+            modelManager.createUnit("unit " + currentUnit, m_currentConnection);
+        }
+        assertEquals(SqlStorage.TRACE_CAPACITY, traceLog.getRecent().size());
+
+        traceLog.setRecordRecent(false);
+        traceLog.clear();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import android.test.AndroidTestCase;
+
+public class AndroidSqlDatabaseTest extends AndroidTestCase {
+
+    public static final String DB_NAME = "androidSqlDatabaseTest.db";
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(DB_NAME);
+    }
+
+    public void tearDown() throws Exception {
+        getContext().deleteDatabase(DB_NAME);
+
+        super.tearDown();
+    }
+
+    public void testNewDatabasesVacuumIncrementally() throws Exception {
+        SqlStorage storage = AndroidSqlDatabase.openStorage(getContext(), DB_NAME);
+        try {
+            SqlCursor cursor = storage.getDatabase().query("PRAGMA auto_vacuum");
+            assertTrue(cursor.moveToNext());
+            assertEquals(2, cursor.getInt(0));
+            cursor.close();
+        } finally {
+            storage.close();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.presenter;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.storage.DatabaseScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class PresenterExecutorTest extends TestCase {
+
+    private PresenterExecutor m_executor;
+
+    public void setUp() throws Exception {
+        m_executor = PresenterExecutor.getInstance();
+    }
+
+    public void testWritesRunInOrder() throws Exception {
+        final List<Integer> order = new ArrayList<>();
+        Future<Void> lastWrite = null;
+        for (int currentWrite = 0; currentWrite < 20; currentWrite++) {
+            final int write = currentWrite;
+            lastWrite = m_executor.write(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    synchronized (order) {
+                        order.add(write);
+                    }
+                    return null;
+                }
+            }, null);
+        }
+        lastWrite.get();
+
+        synchronized (order) {
+            assertEquals(20, order.size());
+            for (int currentIndex = 0; currentIndex < order.size(); currentIndex++) {
+                assertEquals(currentIndex, (int) order.get(currentIndex));
+            }
+        }
+    }
+
+    public void testReadsWaitForPendingWrites() throws Exception {
+        final CountDownLatch writeMayFinish = new CountDownLatch(1);
+        final int written[] = new int[1];
+        m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                writeMayFinish.await();
+                written[0] = 42;
+                return null;
+            }
+        }, null);
+        Future<Integer> read = m_executor.read(null, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return written[0];
+            }
+        }, null);
+
+        writeMayFinish.countDown();
+        assertEquals(42, (int) read.get());
+    }
+
+    public void testReadsRunInParallel() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        Callable<Boolean> read = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                bothStarted.countDown();
+                return bothStarted.await(5, TimeUnit.SECONDS);
+            }
+        };
+        Future<Boolean> firstRead = m_executor.read(null, read, null);
+        Future<Boolean> secondRead = m_executor.read(null, read, null);
+
+        assertTrue(firstRead.get());
+        assertTrue(secondRead.get());
+    }
+
+    public void testSupersededQueryIsDropped() throws Exception {
+        final CountDownLatch writeMayFinish = new CountDownLatch(1);
+        m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                writeMayFinish.await();
+                return null;
+            }
+        }, null);
+        Future<String> staleQuery = m_executor.read("Test.search", new Callable<String>() {
+            @Override
+            public String call() {
+                return "stale";
+            }
+        }, null);
+        Future<String> query = m_executor.read("Test.search", new Callable<String>() {
+            @Override
+            public String call() {
+                return "current";
+            }
+        }, null);
+        Future<String> otherQuery = m_executor.read("Other.search", new Callable<String>() {
+            @Override
+            public String call() {
+                return "other";
+            }
+        }, null);
+        m_executor.discardQueries("Other.");
+
+        writeMayFinish.countDown();
+        assertEquals("current", query.get());
+        assertTrue(staleQuery.isCancelled());
+        assertTrue(otherQuery.isCancelled());
+    }
+
+    public void testFailuresReachTheCallback() throws Exception {
+        Callable<Void> failing = new Callable<Void>() {
+            @Override
+            public Void call() {
+                throw new IllegalStateException("broken");
+            }
+        };
+        // Without a callback the failure is only logged.
+        assertNull(PresenterExecutor.await(m_executor.write(failing, null)));
+
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final List<Throwable> errors = new ArrayList<>();
+        m_executor.write(failing, new ResultCallback<Void>() {
+            @Override
+            public void onResult(Void _result) {
+                fail("A failed write delivered a result.");
+            }
+
+            @Override
+            public void onError(Throwable _cause) {
+                errors.add(_cause);
+                delivered.countDown();
+            }
+        });
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals("broken", errors.get(0).getMessage());
+    }
+
+    public void testQueriesRunBetweenChunks() throws Exception {
+        final List<Future<Integer>> query = new ArrayList<>();
+        final int chunkCount[] = new int[1];
+        Future<Void> background = m_executor.background(new DatabaseScheduler.ChunkedWork() {
+            @Override
+            public boolean runChunk() {
+                chunkCount[0]++;
+                if (chunkCount[0] == 1) {
+                    query.add(m_executor.read(null, new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return chunkCount[0];
+                        }
+                    }, null));
+                }
+                return !query.get(0).isDone() && chunkCount[0] < 1000;
+            }
+        }, null);
+
+        background.get();
+        // The work stopped as soon as the query was done.
+        assertTrue(chunkCount[0] < 1000);
+        assertTrue(query.get(0).isDone());
+    }
+}
@@ -18,12 +18,14 @@
 
 package org.noorganization.shoppinglist.presenter;
 
-import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
 import org.noorganization.shoppinglist.model.ModelManager;
 import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ProductPages;
 import org.noorganization.shoppinglist.model.Unit;
+import org.noorganization.shoppinglist.model.storage.AndroidSqlDatabase;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
 
 import java.util.Iterator;
 import java.util.SortedMap;
@@ -33,12 +35,12 @@ public class ProductPresenterTest extends AndroidTestCase {
     public static final String DB_NAME = "nonOrganizationalTestBase.db";
 
     private ModelManager     m_model;
-    private SQLiteDatabase   m_db;
+    private StorageProvider  m_db;
     private ProductPresenter m_presenter;
 
     public void setUp() throws Exception {
         m_model = ModelManager.getInstance();
-        m_db = m_model.openAndReadDatabase(getContext(), DB_NAME);
+        m_db = m_model.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
 
         m_presenter = ProductPresenter.getInstance(getContext(), DB_NAME, true);
     }
@@ -64,6 +66,19 @@ public class ProductPresenterTest extends AndroidTestCase {
         assertEquals(p2.Id, filledMap.get("Product 2").intValue());
     }
 
+    public void testGetProductPages() throws Exception {
+        assertEquals(0, m_presenter.getProductPages().size());
+
+        Product p2 = m_model.createProduct("Product 2", 1.0f, Constants.NO_ID, m_db);
+        Product p1 = m_model.createProduct("Product 1", 1.0f, Constants.NO_ID, m_db);
+
+        ProductPages pages = m_presenter.getProductPages();
+        assertEquals(2, pages.size());
+        assertEquals("Product 1", pages.getTitleAt(0));
+        assertEquals(p1.Id, pages.getIdAt(0));
+        assertEquals(p2.Id, pages.getIdAt(1));
+    }
+
     public void testGetProductDetails() throws Exception{
         assertNull(m_presenter.getProductDetails(1));
 
@@ -20,16 +20,22 @@ package org.noorganization.shoppinglist.presenter;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
-import android.util.SparseArray;
 
+import org.noorganization.shoppinglist.model.ListEntryChanges;
 import org.noorganization.shoppinglist.model.ModelManager;
 import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.PurchaseHistory;
 import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.SparseFloatArray;
+import org.noorganization.shoppinglist.model.storage.AndroidSqlDatabase;
+import org.noorganization.shoppinglist.model.storage.SqlStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.SortedMap;
+import java.util.concurrent.Future;
 
 public class ShoppingListPresenterTest extends AndroidTestCase {
 
@@ -38,14 +44,14 @@ public class ShoppingListPresenterTest extends AndroidTestCase {
 
     private ShoppingListPresenter m_presenter;
     private ModelManager m_model;
-    private SQLiteDatabase m_modelConnection;
+    private StorageProvider m_modelConnection;
     private SharedPreferences m_prefs;
 
     public void setUp() throws Exception {
         super.setUp();
 
         m_model = ModelManager.getInstance();
-        m_modelConnection = m_model.openAndReadDatabase(getContext(), DB_NAME);
+        m_modelConnection = m_model.load(AndroidSqlDatabase.openStorage(getContext(), DB_NAME));
         m_prefs = getContext().getSharedPreferences(SP_NAME, Context.MODE_PRIVATE);
 
         m_presenter = ShoppingListPresenter.resetSingleton(getContext(), SP_NAME, DB_NAME);
@@ -124,6 +130,29 @@ public class ShoppingListPresenterTest extends AndroidTestCase {
         assertEquals(secResultingList.Id, allLists.get("List 2").intValue());
     }
 
+    public void testTemplatesAndClones() throws Exception {
+        Product testProduct = m_model.createProduct("Product", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        assertTrue(m_presenter.createList("List 1"));
+        m_presenter.activateListEntry(testProduct.Id, 2.0f);
+
+        assertTrue(m_presenter.saveActiveListAsTemplate("Template"));
+        assertFalse(m_presenter.saveActiveListAsTemplate("Template"));
+        assertEquals(1, m_presenter.getLists().size());
+        assertEquals(1, m_presenter.getTemplates().size());
+        assertEquals("List 1", m_presenter.getCurrentListTitle());
+
+        assertTrue(m_presenter.cloneList(m_presenter.getTemplates().get("Template"), "List 2"));
+        assertFalse(m_presenter.cloneList(m_presenter.getTemplates().get("Template"), "List 1"));
+        assertEquals("List 2", m_presenter.getCurrentListTitle());
+        assertEquals(2.0f, m_presenter.getValueOfEntry(testProduct.Id), 0.001f);
+        assertEquals(2, m_presenter.getLists().size());
+
+        // Templates are not chosen when the active list goes away.
+        assertTrue(m_presenter.deleteList(m_presenter.getCurrentListId()));
+        assertEquals("List 1", m_presenter.getCurrentListTitle());
+        assertFalse(m_presenter.deleteList(m_presenter.getCurrentListId()));
+    }
+
     public void testGetActiveListEntries() throws Exception {
         assertEquals(0, m_presenter.getActiveListEntries().size());
 
@@ -167,11 +196,73 @@ public class ShoppingListPresenterTest extends AndroidTestCase {
         m_presenter.selectList(testList.Id);
 
         m_presenter.activateListEntry(testProductActivated.Id, testProductActivated.DefaultValue);
-        SparseArray<Float> testActiveProducts = m_model.getShoppingListById(testList.Id).ListEntries;
+        SparseFloatArray testActiveProducts = m_model.getShoppingListById(testList.Id).ListEntries;
         assertEquals(1, testActiveProducts.size());
         assertEquals(testProductActivated.DefaultValue, testActiveProducts.get(testProductActivated.Id, Float.NaN), 0.001f);
     }
 
+    public void testGetFrequentProducts() throws Exception {
+        Product often = m_model.createProduct("Often", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        Product rarely = m_model.createProduct("Rarely", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        ShoppingList testList = m_model.createShoppingList("List 1", m_modelConnection);
+        m_presenter.selectList(testList.Id);
+
+        m_presenter.activateListEntry(often.Id, 1.0f);
+        m_presenter.deactivateListEntry(often.Id);
+        m_presenter.activateListEntry(often.Id, 1.0f);
+        m_presenter.deactivateListEntry(often.Id);
+        m_presenter.activateListEntry(rarely.Id, 1.0f);
+        m_presenter.deactivateListEntry(rarely.Id);
+
+        Iterator<String> frequentTitles = m_presenter.getFrequentProducts().keySet().iterator();
+        assertEquals("Often", frequentTitles.next());
+        assertEquals("Rarely", frequentTitles.next());
+        assertFalse(frequentTitles.hasNext());
+
+        // Products on the active list are not suggested.
+        m_presenter.activateListEntry(often.Id, 1.0f);
+        assertEquals(1, m_presenter.getFrequentProducts().size());
+    }
+
+    public void testApplyListEntryChanges() throws Exception {
+        Product flour = m_model.createProduct("Flour", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        Product sugar = m_model.createProduct("Sugar", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        Product eggs = m_model.createProduct("Eggs", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        ShoppingList testList = m_model.createShoppingList("List 1", m_modelConnection);
+        m_presenter.selectList(testList.Id);
+        m_presenter.activateListEntry(eggs.Id, 2.0f);
+
+        assertTrue(m_presenter.applyListEntryChanges(new ListEntryChanges().put(flour.Id, 0.5f).put(sugar.Id, 0.2f)
+                .put(eggs.Id, 0.0f).put(ModelManager.INVALID_ID, 1.0f)));
+
+        assertEquals(0.5f, m_presenter.getValueOfEntry(flour.Id), 0.001f);
+        assertTrue(Float.isNaN(m_presenter.getValueOfEntry(eggs.Id)));
+        SparseFloatArray savedEntries = m_model.getShoppingListById(testList.Id).ListEntries;
+        assertEquals(2, savedEntries.size());
+        assertEquals(0.2f, savedEntries.get(sugar.Id), 0.001f);
+        assertFalse(m_presenter.applyListEntryChanges(null));
+    }
+
+    public void testConcurrentChangeIsNotOverwritten() throws Exception {
+        Product flour = m_model.createProduct("Flour", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        Product sugar = m_model.createProduct("Sugar", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        ShoppingList testList = m_model.createShoppingList("List 1", m_modelConnection);
+        m_presenter.selectList(testList.Id);
+
+        // Another writer changes the list behind the presenter.
+        testList.ListEntries.put(sugar.Id, 3.0f);
+        assertTrue(m_model.updateShoppingList(testList, m_modelConnection));
+
+        m_presenter.activateListEntry(flour.Id, 1.0f);
+        assertTrue(Float.isNaN(m_presenter.getValueOfEntry(flour.Id)));
+        assertEquals(3.0f, m_presenter.getValueOfEntry(sugar.Id), 0.001f);
+
+        // Based on the current version now, so it succeeds.
+        m_presenter.activateListEntry(flour.Id, 1.0f);
+        assertEquals(1.0f, m_model.getListEntryValue(testList.Id, flour.Id), 0.001f);
+        assertEquals(3.0f, m_model.getListEntryValue(testList.Id, sugar.Id), 0.001f);
+    }
+
     public void testDeactivateListEntry() throws Exception {
         Product testProductDeactivated = m_model.createProduct("Active Product", 1.0f, ModelManager.INVALID_ID,
                 m_modelConnection);
@@ -182,10 +273,45 @@ public class ShoppingListPresenterTest extends AndroidTestCase {
         m_presenter.selectList(testList.Id);
 
         m_presenter.deactivateListEntry(testProductDeactivated.Id);
-        SparseArray<Float> testActiveProducts = m_model.getShoppingListById(testList.Id).ListEntries;
+        SparseFloatArray testActiveProducts = m_model.getShoppingListById(testList.Id).ListEntries;
         assertEquals(0, testActiveProducts.size());
     }
 
+    public void testPurchasesAreRecorded() throws Exception {
+        Product milk = m_model.createProduct("Milk", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        ShoppingList testList = m_model.createShoppingList("List 1", m_modelConnection);
+        m_presenter.selectList(testList.Id);
+        assertEquals(PurchaseHistory.NEVER, m_presenter.getLastPurchaseMillis(milk.Id));
+
+        long startTime = System.currentTimeMillis();
+        m_presenter.activateListEntry(milk.Id, 2.0f);
+        m_presenter.deactivateListEntry(milk.Id);
+        m_presenter.deactivateListEntry(milk.Id);
+        assertTrue(m_presenter.getLastPurchaseMillis(milk.Id) >= startTime);
+        assertEquals(1, m_presenter.getPurchaseCount(milk.Id, startTime, System.currentTimeMillis() + 1));
+
+        m_presenter.onPause();
+        assertEquals(1, ((SqlStorage) m_modelConnection).countPurchaseRows());
+    }
+
+    public void testGetDueProducts() throws Exception {
+        long dayMillis = 24L * 60 * 60 * 1000;
+        long nowMillis = System.currentTimeMillis();
+        Product milk = m_model.createProduct("Milk", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        Product rice = m_model.createProduct("Rice", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+        ShoppingList testList = m_model.createShoppingList("List 1", m_modelConnection);
+        m_model.recordPurchase(milk.Id, nowMillis - 10 * dayMillis, 1.0f, m_modelConnection);
+        m_model.recordPurchase(milk.Id, nowMillis - 8 * dayMillis, 1.0f, m_modelConnection);
+        m_model.recordPurchase(rice.Id, nowMillis - 30 * dayMillis, 1.0f, m_modelConnection);
+        m_model.recordPurchase(rice.Id, nowMillis - dayMillis, 1.0f, m_modelConnection);
+        m_prefs.edit().putInt(Constants.SP_CURRENT_LIST_ID, testList.Id).apply();
+        m_presenter = ShoppingListPresenter.resetSingleton(getContext(), SP_NAME, DB_NAME);
+
+        assertEquals("[Milk]", m_presenter.getDueProducts().keySet().toString());
+        m_presenter.activateListEntry(milk.Id, 1.0f);
+        assertTrue(m_presenter.getDueProducts().isEmpty());
+    }
+
     public void testDeleteList() throws Exception {
         ShoppingList testList1 = m_model.createShoppingList("List 1", m_modelConnection);
 
@@ -208,10 +334,21 @@ public class ShoppingListPresenterTest extends AndroidTestCase {
         m_model.updateShoppingList(testList, m_modelConnection);
         m_presenter.selectList(testList.Id);
 
+        m_presenter.editListEntry(testProduct.Id, 4.0f);
         m_presenter.editListEntry(testProduct.Id, 5.0f);
 
+        // Shown at once, saved on pause.
+        assertEquals(5.0f, m_presenter.getValueOfEntry(testProduct.Id), 0.001f);
+        assertEquals(1.0f, m_model.getShoppingListById(testList.Id).ListEntries.get(testProduct.Id), 0.001f);
+        m_presenter.onPause();
         testList = m_model.getShoppingListById(testList.Id);
         assertEquals(5.0f, testList.ListEntries.get(testProduct.Id), 0.001f);
+
+        // Pending edits are saved before other changes.
+        m_presenter.editListEntry(testProduct.Id, 6.0f);
+        m_presenter.deactivateListEntry(testProduct.Id);
+        m_presenter.onPause();
+        assertEquals(0, m_model.getShoppingListById(testList.Id).ListEntries.size());
     }
 
     public void testGetValueOfEntry() throws Exception {
@@ -224,4 +361,22 @@ public class ShoppingListPresenterTest extends AndroidTestCase {
 
         assertEquals(2.0f, m_presenter.getValueOfEntry(testProduct.Id), 0.001f);
     }
-}
\ No newline at end of file
+
+    public void testAsyncPresenter() throws Exception {
+        AsyncShoppingListPresenter asyncPresenter = AsyncShoppingListPresenter.wrap(m_presenter);
+        m_presenter.setUndoEnabled(true);
+        Product testProduct = m_model.createProduct("Product", 1.0f, ModelManager.INVALID_ID, m_modelConnection);
+
+        // Queries called after changes see them, without waiting in between.
+        asyncPresenter.createList("Async list", null);
+        asyncPresenter.activateListEntry(testProduct.Id, 3.0f, null);
+        Future<SortedMap<String, Integer>> activeEntries = asyncPresenter.getActiveListEntries(null);
+        Future<String> listTitle = asyncPresenter.getCurrentListTitle(null);
+
+        assertEquals(testProduct.Id, (int) activeEntries.get().get("3 Product"));
+        assertEquals("Async list", listTitle.get());
+        assertEquals(3.0f, asyncPresenter.getValueOfEntry(testProduct.Id, null).get(), 0.001f);
+        assertTrue(asyncPresenter.undo(null).get());
+        assertEquals(0, asyncPresenter.getActiveListEntries(null).get().size());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.provider;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ReadTransaction;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.Unit;
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+public class ModelCursorTest extends AndroidTestCase {
+
+    private ModelManager    m_model;
+    private StorageProvider m_storage;
+    private Unit            m_kilos;
+    private Product         m_flour;
+    private ShoppingList    m_list;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        m_model   = ModelManager.getInstance();
+        m_storage = m_model.load(new InMemoryStorage());
+        m_kilos   = m_model.createUnit("kg", m_storage);
+        m_flour   = m_model.createProduct("Mehl", 2.0f, m_kilos.Id, m_storage);
+        m_list    = m_model.createShoppingList("Wocheneinkauf", m_storage);
+        m_list.ListEntries.put(m_flour.Id, 1.5f);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+    }
+
+    public void tearDown() throws Exception {
+        m_storage.close();
+
+        super.tearDown();
+    }
+
+    public void testProjection() throws Exception {
+        ReadTransaction transaction = m_model.beginRead();
+        Cursor cursor = new ModelCursor(transaction, ModelCursor.TABLE_PRODUCTS, ModelManager.INVALID_ID,
+                transaction.getProductIds(), new String[] { ShoppingListProvider.COLUMN_TITLE,
+                ShoppingListProvider.COLUMN_ID });
+
+        assertEquals(1, cursor.getCount());
+        assertEquals(2, cursor.getColumnCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Mehl", cursor.getString(0));
+        assertEquals(m_flour.Id, cursor.getInt(1));
+        cursor.close();
+        assertEquals(0, m_model.getOpenReadCount());
+    }
+
+    public void testEntriesArePinned() throws Exception {
+        ReadTransaction transaction = m_model.beginRead();
+        Cursor cursor = new ModelCursor(transaction, ModelCursor.TABLE_ENTRIES, m_list.Id,
+                transaction.getListEntryProductIds(m_list.Id), null);
+        m_model.deleteProduct(m_flour, m_storage);
+
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(m_list.Id, cursor.getInt(cursor.getColumnIndexOrThrow(ShoppingListProvider.COLUMN_LIST_ID)));
+        assertEquals("Mehl", cursor.getString(cursor.getColumnIndexOrThrow(ShoppingListProvider.COLUMN_TITLE)));
+        assertEquals(1.5f, cursor.getFloat(cursor.getColumnIndexOrThrow(ShoppingListProvider.COLUMN_VALUE)), 0.001f);
+        assertEquals(m_kilos.Id, cursor.getInt(cursor.getColumnIndexOrThrow(ShoppingListProvider.COLUMN_UNIT_ID)));
+        cursor.close();
+    }
+
+    public void testUnknownColumn() throws Exception {
+        ReadTransaction transaction = m_model.beginRead();
+        try {
+            new ModelCursor(transaction, ModelCursor.TABLE_UNITS, ModelManager.INVALID_ID, transaction.getUnitIds(),
+                    new String[] { ShoppingListProvider.COLUMN_VALUE });
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        transaction.close();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+
+package org.noorganization.shoppinglist.provider;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentResolver;
+
+import org.noorganization.shoppinglist.model.ChangeLog;
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class NotifierTest extends AndroidTestCase {
+
+    private ModelManager                  m_model;
+    private StorageProvider               m_storage;
+    private Product                       m_flour;
+    private ShoppingList                  m_list;
+    private Handler                       m_handler;
+    private RecordingResolver             m_resolver;
+    private ShoppingListProvider.Notifier m_notifier;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        m_model   = ModelManager.getInstance();
+        m_storage = m_model.load(new InMemoryStorage());
+        m_flour   = m_model.createProduct("Mehl", 2.0f, ModelManager.INVALID_ID, m_storage);
+        m_list    = m_model.createShoppingList("Wocheneinkauf", m_storage);
+        m_list.ListEntries.put(m_flour.Id, 1.5f);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+
+        m_handler  = new Handler(Looper.getMainLooper());
+        m_resolver = new RecordingResolver();
+        m_notifier = new ShoppingListProvider.Notifier(m_resolver, m_handler);
+    }
+
+    public void tearDown() throws Exception {
+        m_storage.close();
+
+        super.tearDown();
+    }
+
+    public void testInactiveListIsNotifiedById() throws Exception {
+        m_notifier.onChanged(ChangeLog.KIND_SHOPPING_LIST, m_list.Id);
+        assertEquals(setOf(listUri(String.valueOf(m_list.Id))), flush());
+    }
+
+    public void testActiveListIsNotifiedByIdAndAsActive() throws Exception {
+        m_notifier.onActiveListChanged(m_list.Id);
+        assertEquals(setOf(listUri(ShoppingListProvider.PATH_ACTIVE)), flush());
+
+        m_notifier.onChanged(ChangeLog.KIND_SHOPPING_LIST, m_list.Id);
+        assertEquals(setOf(listUri(String.valueOf(m_list.Id)), listUri(ShoppingListProvider.PATH_ACTIVE)), flush());
+
+        m_notifier.onChanged(ChangeLog.KIND_PRODUCT, m_flour.Id);
+        assertEquals(setOf(Uri.withAppendedPath(ShoppingListProvider.PRODUCTS_URI, String.valueOf(m_flour.Id)),
+                Uri.withAppendedPath(listUri(String.valueOf(m_list.Id)), ShoppingListProvider.PATH_ENTRIES),
+                ShoppingListProvider.ACTIVE_ENTRIES_URI), flush());
+    }
+
+    private static Uri listUri(String _listSegment) {
+        return Uri.withAppendedPath(ShoppingListProvider.LISTS_URI, _listSegment);
+    }
+
+    private static Set<Uri> setOf(Uri... _uris) {
+        Set<Uri> rtn = new HashSet<>();
+        for (Uri currentUri : _uris) {
+            rtn.add(currentUri);
+        }
+        return rtn;
+    }
+
+    /**
+     * @return The URIs notified since the last call. The notifier posts to the same handler, so it has run when a task
+     *         posted afterwards runs.
+     */
+    private Set<Uri> flush() throws Exception {
+        final CountDownLatch flushed = new CountDownLatch(1);
+        m_handler.post(new Runnable() {
+            @Override
+            public void run() {
+                flushed.countDown();
+            }
+        });
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        return m_resolver.takeNotified();
+    }
+
+    private static class RecordingResolver extends MockContentResolver {
+
+        private final Set<Uri> m_notified = new HashSet<>();
+
+        @Override
+        public synchronized void notifyChange(Uri _uri, ContentObserver _observer) {
+            m_notified.add(_uri);
+        }
+
+        synchronized Set<Uri> takeNotified() {
+            Set<Uri> rtn = new HashSet<>(m_notified);
+            m_notified.clear();
+            return rtn;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * {@link SqlDatabase} on top of Android's SQLiteDatabase. Compiled statements are cached per SQL text and thread:
+ * SQLiteDatabase may be used by several threads (a transaction belongs to the thread which began it), but the
+ * bindings of a statement may not be shared.
+ */
+public class AndroidSqlDatabase implements SqlDatabase {
+
+    private SQLiteDatabase                                m_db;
+    private ThreadLocal<HashMap<String, SQLiteStatement>> m_statements;
+    // The caches of all threads, so they are closed together with the database.
+    private final List<HashMap<String, SQLiteStatement>>  m_allStatements;
+
+    public AndroidSqlDatabase(SQLiteDatabase _db) {
+        if (_db == null) {
+            throw new IllegalArgumentException("Database was null.");
+        }
+        m_db            = _db;
+        m_allStatements = new ArrayList<>();
+        m_statements    = new ThreadLocal<HashMap<String, SQLiteStatement>>() {
+            @Override
+            protected HashMap<String, SQLiteStatement> initialValue() {
+                HashMap<String, SQLiteStatement> rtn = new HashMap<>();
+                synchronized (m_allStatements) {
+                    m_allStatements.add(rtn);
+                }
+                return rtn;
+            }
+        };
+    }
+
+    /**
+     * Opens or creates a database in this context with the specified name. It's opened without Android's localized
+     * collators, which nothing here uses: setting them up creates the table android_metadata in a new file, and once
+     * a table exists, SQLite ignores the auto_vacuum mode SqlStorage sets for new databases.
+     * @param _context Null is not allowed.
+     * @param _name Null is not allowed. ".db" is appended if missing.
+     * @return The storage of the model in this database.
+     */
+    public static SqlStorage openStorage(Context _context, String _name) {
+        if (_context == null || _name == null) {
+            throw new IllegalArgumentException("A parameter was null.");
+        }
+
+        String realFilename = _name;
+        if (!realFilename.endsWith(".db")) {
+            realFilename = realFilename.concat(".db");
+        }
+
+        File databaseFile = _context.getDatabasePath(realFilename);
+        File databaseDir  = databaseFile.getParentFile();
+        if (!databaseDir.isDirectory() && !databaseDir.mkdirs()) {
+            throw new StorageException("Could not create " + databaseDir + ".");
+        }
+        try {
+            return new SqlStorage(new AndroidSqlDatabase(SQLiteDatabase.openDatabase(databaseFile.getPath(), null,
+                    SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS)));
+        } catch (SQLException e) {
+            throw new StorageException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int execute(String _sql, Object... _bindArgs) {
+        try {
+            int statementType = DatabaseUtils.getSqlStatementType(_sql);
+            if (statementType == DatabaseUtils.STATEMENT_PRAGMA || statementType == DatabaseUtils.STATEMENT_DDL) {
+                // Neither changes rows, and a compiled pragma would never be stepped.
+                m_db.execSQL(_sql, _bindArgs);
+                return 0;
+            }
+
+            HashMap<String, SQLiteStatement> statements = m_statements.get();
+            SQLiteStatement statement = statements.get(_sql);
+            if (statement == null) {
+                statement = m_db.compileStatement(_sql);
+                statements.put(_sql, statement);
+            }
+            statement.clearBindings();
+            for (int currentArg = 0; currentArg < _bindArgs.length; currentArg++) {
+                bind(statement, currentArg + 1, _bindArgs[currentArg]);
+            }
+            return statement.executeUpdateDelete();
+        } catch (SQLException e) {
+            throw new StorageException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public SqlCursor query(String _sql, Object... _bindArgs) {
+        String selectionArgs[] = new String[_bindArgs.length];
+        for (int currentArg = 0; currentArg < _bindArgs.length; currentArg++) {
+            selectionArgs[currentArg] = (_bindArgs[currentArg] == null ? null : _bindArgs[currentArg].toString());
+        }
+        try {
+            return new AndroidCursor(m_db.rawQuery(_sql, selectionArgs));
+        } catch (SQLException e) {
+            throw new StorageException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void beginTransaction() {
+        m_db.beginTransaction();
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        m_db.setTransactionSuccessful();
+    }
+
+    @Override
+    public void endTransaction() {
+        m_db.endTransaction();
+    }
+
+    /**
+     * Closes the database. Other threads must not use it any more.
+     */
+    @Override
+    public void close() {
+        synchronized (m_allStatements) {
+            for (HashMap<String, SQLiteStatement> currentStatements : m_allStatements) {
+                for (SQLiteStatement currentStatement : currentStatements.values()) {
+                    currentStatement.close();
+                }
+                currentStatements.clear();
+            }
+        }
+        m_db.close();
+    }
+
+    private static void bind(SQLiteStatement _statement, int _index, Object _value) {
+        if (_value == null) {
+            _statement.bindNull(_index);
+        } else if (_value instanceof Integer || _value instanceof Long) {
+            _statement.bindLong(_index, ((Number) _value).longValue());
+        } else if (_value instanceof Float || _value instanceof Double) {
+            _statement.bindDouble(_index, ((Number) _value).doubleValue());
+        } else if (_value instanceof byte[]) {
+            _statement.bindBlob(_index, (byte[]) _value);
+        } else {
+            _statement.bindString(_index, _value.toString());
+        }
+    }
+
+    private static class AndroidCursor implements SqlCursor {
+
+        private Cursor m_cursor;
+
+        AndroidCursor(Cursor _cursor) {
+            m_cursor = _cursor;
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return m_cursor.moveToNext();
+        }
+
+        @Override
+        public boolean isNull(int _column) {
+            return m_cursor.isNull(_column);
+        }
+
+        @Override
+        public int getInt(int _column) {
+            return m_cursor.getInt(_column);
+        }
+
+        @Override
+        public long getLong(int _column) {
+            return m_cursor.getLong(_column);
+        }
+
+        @Override
+        public float getFloat(int _column) {
+            return m_cursor.getFloat(_column);
+        }
+
+        @Override
+        public double getDouble(int _column) {
+            return m_cursor.getDouble(_column);
+        }
+
+        @Override
+        public String getString(int _column) {
+            return m_cursor.getString(_column);
+        }
+
+        @Override
+        public byte[] getBlob(int _column) {
+            return m_cursor.getBlob(_column);
+        }
+
+        @Override
+        public void close() {
+            m_cursor.close();
+        }
+    }
+}
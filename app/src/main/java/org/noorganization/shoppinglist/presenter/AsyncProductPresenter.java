@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.presenter;
+
+import android.content.Context;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Variant of {@link ProductPresenter} which doesn't block the calling thread, see {@link AsyncShoppingListPresenter}
+ * for how calls are run. Both share the background threads, so changes of Products and of lists are run in the order
+ * of the calls, too.
+ */
+public class AsyncProductPresenter {
+
+    private static final String QUERY_PREFIX = "ProductPresenter.";
+
+    private static AsyncProductPresenter s_presenter;
+
+    private final PresenterExecutor   m_executor;
+    private volatile ProductPresenter m_presenter;
+
+    private AsyncProductPresenter(final Callable<ProductPresenter> _loader) {
+        m_executor = PresenterExecutor.getInstance();
+        m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                m_presenter = _loader.call();
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Has to be called on the main thread. The model is loaded in the background.
+     */
+    public static AsyncProductPresenter getInstance(Context _context) {
+        if (s_presenter == null) {
+            final Context appContext = _context.getApplicationContext();
+            s_presenter = new AsyncProductPresenter(new Callable<ProductPresenter>() {
+                @Override
+                public ProductPresenter call() {
+                    return ProductPresenter.getInstance(appContext);
+                }
+            });
+        }
+        return s_presenter;
+    }
+
+    static AsyncProductPresenter wrap(final ProductPresenter _presenter) {
+        return new AsyncProductPresenter(new Callable<ProductPresenter>() {
+            @Override
+            public ProductPresenter call() {
+                return _presenter;
+            }
+        });
+    }
+
+    /**
+     * Drops the results of all pending queries, e.g. when the activity showing them is stopped.
+     */
+    public void cancelQueries() {
+        m_executor.discardQueries(QUERY_PREFIX);
+    }
+
+    public Future<SortedMap<String, Integer>> getProducts(ResultCallback<SortedMap<String, Integer>> _callback) {
+        return m_executor.read(QUERY_PREFIX + "getProducts", new Callable<SortedMap<String, Integer>>() {
+            @Override
+            public SortedMap<String, Integer> call() {
+                return m_presenter.getProducts();
+            }
+        }, _callback);
+    }
+
+    /**
+     * Supersedes the former search, so only the results for the latest text are delivered while the user types.
+     */
+    public Future<Map<String, Integer>> searchProducts(final String _query, final int _maxResults,
+                                                       ResultCallback<Map<String, Integer>> _callback) {
+        return m_executor.read(QUERY_PREFIX + "searchProducts", new Callable<Map<String, Integer>>() {
+            @Override
+            public Map<String, Integer> call() {
+                return m_presenter.searchProducts(_query, _maxResults);
+            }
+        }, _callback);
+    }
+
+    /**
+     * Not superseded by other calls, since they may ask for other Products.
+     */
+    public Future<ProductDetails> getProductDetails(final int _productId, ResultCallback<ProductDetails> _callback) {
+        return m_executor.read(null, new Callable<ProductDetails>() {
+            @Override
+            public ProductDetails call() {
+                return m_presenter.getProductDetails(_productId);
+            }
+        }, _callback);
+    }
+
+    public Future<Void> editProduct(final int _id, final String _title, final float _defValue, final int _unitId,
+                                    ResultCallback<Void> _callback) {
+        return m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                m_presenter.editProduct(_id, _title, _defValue, _unitId);
+                return null;
+            }
+        }, _callback);
+    }
+
+    public Future<Void> deleteProduct(final int _id, ResultCallback<Void> _callback) {
+        return m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                m_presenter.deleteProduct(_id);
+                return null;
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> canUndo(ResultCallback<Boolean> _callback) {
+        return m_executor.read(QUERY_PREFIX + "canUndo", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.canUndo();
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> undo(ResultCallback<Boolean> _callback) {
+        return m_executor.write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.undo();
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> redo(ResultCallback<Boolean> _callback) {
+        return m_executor.write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.redo();
+            }
+        }, _callback);
+    }
+}
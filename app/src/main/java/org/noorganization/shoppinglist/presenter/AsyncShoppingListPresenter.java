@@ -0,0 +1,346 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.presenter;
+
+import android.content.Context;
+
+import org.noorganization.shoppinglist.model.ListEntryChanges;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Variant of {@link ShoppingListPresenter} which doesn't block the calling thread. Every call runs on a background
+ * thread; its result is delivered to the callback on the main thread and can be waited for by the returned Future.
+ * Changes run one after another in the order of the calls. Queries run in parallel, but after all changes called
+ * before them. A query is superseded by a later call of the same query (e.g. while the user is still typing), then
+ * its result is dropped.
+ * <p>
+ * The synchronous presenter must not be used while calls of this one are pending.
+ */
+public class AsyncShoppingListPresenter {
+
+    private static final String QUERY_PREFIX = "ShoppingListPresenter.";
+
+    private static AsyncShoppingListPresenter s_presenter;
+
+    private final PresenterExecutor        m_executor;
+    private volatile ShoppingListPresenter m_presenter;
+
+    /**
+     * @param _loader Loads the presenter, it's the first change.
+     */
+    private AsyncShoppingListPresenter(final Callable<ShoppingListPresenter> _loader) {
+        m_executor = PresenterExecutor.getInstance();
+        m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                m_presenter = _loader.call();
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Has to be called on the main thread. The model is loaded in the background.
+     */
+    public static AsyncShoppingListPresenter getInstance(Context _context) {
+        if (s_presenter == null) {
+            final Context appContext = _context.getApplicationContext();
+            s_presenter = new AsyncShoppingListPresenter(new Callable<ShoppingListPresenter>() {
+                @Override
+                public ShoppingListPresenter call() {
+                    return ShoppingListPresenter.getInstance(appContext);
+                }
+            });
+        }
+        return s_presenter;
+    }
+
+    static AsyncShoppingListPresenter wrap(final ShoppingListPresenter _presenter) {
+        return new AsyncShoppingListPresenter(new Callable<ShoppingListPresenter>() {
+            @Override
+            public ShoppingListPresenter call() {
+                return _presenter;
+            }
+        });
+    }
+
+    /**
+     * Waits for all changes called before and writes pending edits, see {@link ShoppingListPresenter#onPause()}.
+     */
+    public void onPause() {
+        PresenterExecutor.await(m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                m_presenter.onPause();
+                return null;
+            }
+        }, null));
+    }
+
+    /**
+     * Drops the results of all pending queries, e.g. when the activity showing them is stopped.
+     */
+    public void cancelQueries() {
+        m_executor.discardQueries(QUERY_PREFIX);
+    }
+
+    public Future<Boolean> needsToCreateAList(ResultCallback<Boolean> _callback) {
+        return m_executor.read(QUERY_PREFIX + "needsToCreateAList", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.needsToCreateAList();
+            }
+        }, _callback);
+    }
+
+    public Future<String> getCurrentListTitle(ResultCallback<String> _callback) {
+        return m_executor.read(QUERY_PREFIX + "getCurrentListTitle", new Callable<String>() {
+            @Override
+            public String call() {
+                return m_presenter.getCurrentListTitle();
+            }
+        }, _callback);
+    }
+
+    public Future<Integer> getCurrentListId(ResultCallback<Integer> _callback) {
+        return m_executor.read(QUERY_PREFIX + "getCurrentListId", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return m_presenter.getCurrentListId();
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> createList(final String _newListTitle, ResultCallback<Boolean> _callback) {
+        return m_executor.write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.createList(_newListTitle);
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> cloneList(final int _sourceListId, final String _newListTitle,
+                                     ResultCallback<Boolean> _callback) {
+        return m_executor.write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.cloneList(_sourceListId, _newListTitle);
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> saveActiveListAsTemplate(final String _templateTitle, ResultCallback<Boolean> _callback) {
+        return m_executor.write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.saveActiveListAsTemplate(_templateTitle);
+            }
+        }, _callback);
+    }
+
+    public Future<SortedMap<String, Integer>> getLists(ResultCallback<SortedMap<String, Integer>> _callback) {
+        return m_executor.read(QUERY_PREFIX + "getLists", new Callable<SortedMap<String, Integer>>() {
+            @Override
+            public SortedMap<String, Integer> call() {
+                return m_presenter.getLists();
+            }
+        }, _callback);
+    }
+
+    public Future<SortedMap<String, Integer>> getTemplates(ResultCallback<SortedMap<String, Integer>> _callback) {
+        return m_executor.read(QUERY_PREFIX + "getTemplates", new Callable<SortedMap<String, Integer>>() {
+            @Override
+            public SortedMap<String, Integer> call() {
+                return m_presenter.getTemplates();
+            }
+        }, _callback);
+    }
+
+    public Future<Void> selectList(final int _newList, ResultCallback<Void> _callback) {
+        return m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                m_presenter.selectList(_newList);
+                return null;
+            }
+        }, _callback);
+    }
+
+    public Future<SortedMap<String, Integer>> getActiveListEntries(
+            ResultCallback<SortedMap<String, Integer>> _callback) {
+        return m_executor.read(QUERY_PREFIX + "getActiveListEntries", new Callable<SortedMap<String, Integer>>() {
+            @Override
+            public SortedMap<String, Integer> call() {
+                return m_presenter.getActiveListEntries();
+            }
+        }, _callback);
+    }
+
+    public Future<SortedMap<String, Integer>> getInactiveListEntries(
+            ResultCallback<SortedMap<String, Integer>> _callback) {
+        return m_executor.read(QUERY_PREFIX + "getInactiveListEntries", new Callable<SortedMap<String, Integer>>() {
+            @Override
+            public SortedMap<String, Integer> call() {
+                return m_presenter.getInactiveListEntries();
+            }
+        }, _callback);
+    }
+
+    public Future<Void> deactivateListEntry(final int _productToDeactivate, ResultCallback<Void> _callback) {
+        return m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                m_presenter.deactivateListEntry(_productToDeactivate);
+                return null;
+            }
+        }, _callback);
+    }
+
+    public Future<Long> getLastPurchaseMillis(final int _productId, ResultCallback<Long> _callback) {
+        return m_executor.read(null, new Callable<Long>() {
+            @Override
+            public Long call() {
+                return m_presenter.getLastPurchaseMillis(_productId);
+            }
+        }, _callback);
+    }
+
+    public Future<Integer> getPurchaseCount(final int _productId, final long _fromMillis, final long _toMillis,
+                                            ResultCallback<Integer> _callback) {
+        return m_executor.read(null, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return m_presenter.getPurchaseCount(_productId, _fromMillis, _toMillis);
+            }
+        }, _callback);
+    }
+
+    public Future<Void> activateListEntry(final int _productToActivate, final float _value,
+                                          ResultCallback<Void> _callback) {
+        return m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                m_presenter.activateListEntry(_productToActivate, _value);
+                return null;
+            }
+        }, _callback);
+    }
+
+    /**
+     * @param _changes Must not be changed until the result is delivered.
+     */
+    public Future<Boolean> applyListEntryChanges(final ListEntryChanges _changes, ResultCallback<Boolean> _callback) {
+        return m_executor.write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.applyListEntryChanges(_changes);
+            }
+        }, _callback);
+    }
+
+    public Future<Map<String, Integer>> getFrequentProducts(ResultCallback<Map<String, Integer>> _callback) {
+        return m_executor.read(QUERY_PREFIX + "getFrequentProducts", new Callable<Map<String, Integer>>() {
+            @Override
+            public Map<String, Integer> call() {
+                return m_presenter.getFrequentProducts();
+            }
+        }, _callback);
+    }
+
+    public Future<Map<String, Integer>> getDueProducts(ResultCallback<Map<String, Integer>> _callback) {
+        return m_executor.read(QUERY_PREFIX + "getDueProducts", new Callable<Map<String, Integer>>() {
+            @Override
+            public Map<String, Integer> call() {
+                return m_presenter.getDueProducts();
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> deleteList(final int _listToDelete, ResultCallback<Boolean> _callback) {
+        return m_executor.write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.deleteList(_listToDelete);
+            }
+        }, _callback);
+    }
+
+    public Future<Void> editListEntry(final int _listEntryId, final float _newValue, ResultCallback<Void> _callback) {
+        return m_executor.write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                m_presenter.editListEntry(_listEntryId, _newValue);
+                return null;
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> canUndo(ResultCallback<Boolean> _callback) {
+        return m_executor.read(QUERY_PREFIX + "canUndo", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.canUndo();
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> canRedo(ResultCallback<Boolean> _callback) {
+        return m_executor.read(QUERY_PREFIX + "canRedo", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.canRedo();
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> undo(ResultCallback<Boolean> _callback) {
+        return m_executor.write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.undo();
+            }
+        }, _callback);
+    }
+
+    public Future<Boolean> redo(ResultCallback<Boolean> _callback) {
+        return m_executor.write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return m_presenter.redo();
+            }
+        }, _callback);
+    }
+
+    /**
+     * Not superseded by other calls, since they may ask for other entries.
+     */
+    public Future<Float> getValueOfEntry(final int _listEntryId, ResultCallback<Float> _callback) {
+        return m_executor.read(null, new Callable<Float>() {
+            @Override
+            public Float call() {
+                return m_presenter.getValueOfEntry(_listEntryId);
+            }
+        }, _callback);
+    }
+}
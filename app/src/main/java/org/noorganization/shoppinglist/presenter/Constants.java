@@ -26,5 +26,17 @@ class Constants {
     static final String SHARED_PREFERENCES_NAME = "276cea13-7254-40e5-b10a-e3f8e52a9f4c";
 
     static final String SP_CURRENT_LIST_ID = "current_list_id";
+    /**
+     * Whether Products are read on demand instead of being loaded at start, for catalogs too big for memory.
+     */
+    static final String SP_PAGED_CATALOG = "paged_catalog";
+    /**
+     * When the database maintenance was started last, in milliseconds since the epoch.
+     */
+    static final String SP_LAST_MAINTENANCE = "last_maintenance";
+    /**
+     * When the purchase history was compacted last, in milliseconds since the epoch.
+     */
+    static final String SP_LAST_PURCHASE_COMPACTION = "last_purchase_compaction";
 
 }
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.presenter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.noorganization.shoppinglist.metrics.Metrics;
+import org.noorganization.shoppinglist.model.storage.DatabaseScheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs the tasks of the async presenters on a few background threads and delivers their results on the main thread.
+ * <p>
+ * Writes run one after another in the order they were submitted, each holding the model exclusively. Reads run in
+ * parallel while no write is pending. A read submitted while writes are pending is queued behind them, so it sees
+ * their results. A query can be superseded by a newer one of the same key; the older one is cancelled if it hasn't
+ * started and its result is never delivered.
+ * <p>
+ * The threads are those of a {@link DatabaseScheduler}: Reads are interactive, writes user visible, and long work
+ * (see {@link #background(DatabaseScheduler.ChunkedWork, ResultCallback)}) runs in the background between them.
+ * <p>
+ * A failed task passes its exception to {@link ResultCallback#onError(Throwable)}. Without a callback it is only
+ * logged, so failed background work doesn't stop the app.
+ */
+class PresenterExecutor {
+
+    static final int THREAD_COUNT = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final String LOG_TAG = "PresenterExecutor";
+
+    private static PresenterExecutor s_instance;
+
+    private final DatabaseScheduler              m_scheduler;
+    private final ReentrantReadWriteLock         m_modelLock;
+    private final Handler                        m_mainHandler;
+    // Writes and the reads behind them, in order. m_writing is set while one of them runs.
+    private final ArrayDeque<DeliveringTask<?>>  m_queue;
+    private boolean                              m_writing;
+    private final Map<String, DeliveringTask<?>> m_queries;
+
+    private PresenterExecutor() {
+        m_scheduler   = new DatabaseScheduler("Presenter", THREAD_COUNT, DatabaseScheduler.DEFAULT_AGING_MILLIS,
+                DatabaseScheduler.DEFAULT_SLICE_MILLIS);
+        // Fair, so a waiting query gets the model before the next chunk of background work.
+        m_modelLock   = new ReentrantReadWriteLock(true);
+        m_mainHandler = new Handler(Looper.getMainLooper());
+        m_queue       = new ArrayDeque<>();
+        m_writing     = false;
+        m_queries     = new HashMap<>();
+    }
+
+    static synchronized PresenterExecutor getInstance() {
+        if (s_instance == null) {
+            s_instance = new PresenterExecutor();
+        }
+        return s_instance;
+    }
+
+    /**
+     * Queues a change of the model behind all pending writes.
+     * @param _callback Gets the result, may be null.
+     */
+    <T> Future<T> write(Callable<T> _task, ResultCallback<T> _callback) {
+        DeliveringTask<T> rtn = new DeliveringTask<>(null, DatabaseScheduler.PRIORITY_USER_VISIBLE,
+                locked(_task, m_modelLock.writeLock()), _callback);
+        enqueue(rtn);
+        return rtn;
+    }
+
+    /**
+     * Runs a query of the model, in parallel to other queries.
+     * @param _queryKey A former query with the same key is superseded. May be null, then it's never superseded.
+     * @param _callback Gets the result, may be null.
+     */
+    <T> Future<T> read(String _queryKey, Callable<T> _task, ResultCallback<T> _callback) {
+        DeliveringTask<T> rtn = new DeliveringTask<>(_queryKey, DatabaseScheduler.PRIORITY_INTERACTIVE,
+                locked(_task, m_modelLock.readLock()), _callback);
+        if (_queryKey != null) {
+            DeliveringTask<?> superseded;
+            synchronized (m_queries) {
+                superseded = m_queries.put(_queryKey, rtn);
+            }
+            if (superseded != null) {
+                superseded.discard();
+            }
+        }
+        synchronized (m_queue) {
+            if (m_writing) {
+                enqueue(rtn);
+                return rtn;
+            }
+        }
+        m_scheduler.execute(rtn.m_priority, rtn);
+        return rtn;
+    }
+
+    /**
+     * Runs long work, e.g. an import, in the background. Each chunk holds the model exclusively; queries and writes
+     * submitted meanwhile run between two chunks, in no particular order to the chunks.
+     * @return Done after the last chunk. Cancelling it stops the work before the next chunk.
+     */
+    Future<Void> background(final DatabaseScheduler.ChunkedWork _work, ResultCallback<Void> _callback) {
+        final DeliveringTask<Void> rtn = new DeliveringTask<>(null, DatabaseScheduler.PRIORITY_BACKGROUND,
+                new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        return null;
+                    }
+                }, _callback);
+        m_scheduler.executeChunked(DatabaseScheduler.PRIORITY_BACKGROUND, new DatabaseScheduler.ChunkedWork() {
+            @Override
+            public boolean runChunk() {
+                if (rtn.isCancelled()) {
+                    return false;
+                }
+                boolean workLeft;
+                m_modelLock.writeLock().lock();
+                try {
+                    workLeft = _work.runChunk();
+                } catch (RuntimeException e) {
+                    rtn.fail(e);
+                    return false;
+                } finally {
+                    m_modelLock.writeLock().unlock();
+                }
+                if (!workLeft) {
+                    rtn.run();
+                }
+                return workLeft;
+            }
+        });
+        return rtn;
+    }
+
+    /**
+     * Discards all pending queries whose key starts with the given prefix, e.g. when their results aren't shown any
+     * more.
+     */
+    void discardQueries(String _keyPrefix) {
+        List<DeliveringTask<?>> discarded = new ArrayList<>();
+        synchronized (m_queries) {
+            Iterator<Map.Entry<String, DeliveringTask<?>>> queries = m_queries.entrySet().iterator();
+            while (queries.hasNext()) {
+                Map.Entry<String, DeliveringTask<?>> currentQuery = queries.next();
+                if (currentQuery.getKey().startsWith(_keyPrefix)) {
+                    discarded.add(currentQuery.getValue());
+                    queries.remove();
+                }
+            }
+        }
+        // Outside of the lock, since cancelling calls done().
+        for (DeliveringTask<?> currentQuery : discarded) {
+            currentQuery.discard();
+        }
+    }
+
+    /**
+     * Runs a change of the model on the calling thread, while no task of this executor accesses the model.
+     */
+    void runExclusive(Runnable _task) {
+        m_modelLock.writeLock().lock();
+        try {
+            _task.run();
+        } finally {
+            m_modelLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for a task (without a timeout), e.g. for the last write before the app may be stopped.
+     * @return The result of the task. Null if it failed; the failure was delivered to its callback or logged.
+     */
+    static <T> T await(Future<T> _task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return _task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void enqueue(DeliveringTask<?> _task) {
+        synchronized (m_queue) {
+            m_queue.add(_task);
+            if (!m_writing) {
+                runNextQueued();
+            }
+        }
+    }
+
+    private void runNextQueued() {
+        synchronized (m_queue) {
+            final DeliveringTask<?> next = m_queue.poll();
+            m_writing = (next != null);
+            if (next != null) {
+                m_scheduler.execute(next.m_priority, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            next.run();
+                        } finally {
+                            runNextQueued();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private static <T> Callable<T> locked(final Callable<T> _task, final Lock _lock) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                _lock.lock();
+                try {
+                    return _task.call();
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        };
+    }
+
+    private class DeliveringTask<T> extends FutureTask<T> {
+
+        private final String            m_queryKey;
+        private final int               m_priority;
+        private final ResultCallback<T> m_callback;
+        private volatile boolean        m_discarded;
+
+        DeliveringTask(String _queryKey, int _priority, Callable<T> _task, ResultCallback<T> _callback) {
+            super(_task);
+            m_queryKey  = _queryKey;
+            m_priority  = _priority;
+            m_callback  = _callback;
+            m_discarded = false;
+        }
+
+        void fail(Throwable _cause) {
+            setException(_cause);
+        }
+
+        void discard() {
+            m_discarded = true;
+            if (cancel(false)) {
+                Metrics.count("PresenterExecutor.superseded", 1);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (m_queryKey != null) {
+                synchronized (m_queries) {
+                    if (m_queries.get(m_queryKey) == this) {
+                        m_queries.remove(m_queryKey);
+                    }
+                }
+            }
+            if (isCancelled()) {
+                return;
+            }
+            m_mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+        }
+
+        private void deliver() {
+            if (m_discarded) {
+                return;
+            }
+            T result;
+            try {
+                result = get();
+            } catch (InterruptedException e) {
+                // It's done already, so get() doesn't wait.
+                deliverError(e);
+                return;
+            } catch (ExecutionException e) {
+                deliverError(e.getCause());
+                return;
+            }
+            if (m_callback != null) {
+                m_callback.onResult(result);
+            }
+        }
+
+        private void deliverError(Throwable _cause) {
+            if (m_callback != null) {
+                m_callback.onError(_cause);
+            } else {
+                Log.w(LOG_TAG, "Task without callback failed.", _cause);
+            }
+        }
+    }
+}
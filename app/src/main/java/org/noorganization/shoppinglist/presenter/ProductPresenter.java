@@ -19,25 +19,33 @@
 package org.noorganization.shoppinglist.presenter;
 
 import android.content.Context;
-import android.database.sqlite.SQLiteDatabase;
-import android.util.Log;
 
+import org.noorganization.shoppinglist.metrics.LatencyHistogram;
+import org.noorganization.shoppinglist.metrics.Metrics;
 import org.noorganization.shoppinglist.model.ModelManager;
 import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ProductPages;
+import org.noorganization.shoppinglist.model.ProductStore;
+import org.noorganization.shoppinglist.model.storage.AndroidSqlDatabase;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 public class ProductPresenter {
 
+    private static final LatencyHistogram TIME_GET_PRODUCTS = Metrics.histogram("ProductPresenter.getProducts");
+
     private static ProductPresenter m_presenter;
 
-    private ModelManager   m_model;
-    private SQLiteDatabase m_db;
+    private ModelManager    m_model;
+    private StorageProvider m_storage;
 
-    private ProductPresenter(Context _context, String _dbName) {
-        m_model = ModelManager.getInstance();
-        m_db = m_model.openAndReadDatabase(_context, _dbName);
+    private ProductPresenter(StorageProvider _storage, boolean _paged) {
+        m_model   = ModelManager.getInstance();
+        m_storage = (_paged ? m_model.loadPaged(_storage) : m_model.load(_storage));
     }
 
     public static ProductPresenter getInstance(Context _context) {
@@ -46,19 +54,67 @@ public class ProductPresenter {
 
     static ProductPresenter getInstance(Context _context, String _dbName, boolean _forceNew) {
         if (m_presenter == null || _forceNew) {
-            m_presenter = new ProductPresenter(_context, _dbName);
+            boolean paged = _context.getSharedPreferences(Constants.SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE)
+                    .getBoolean(Constants.SP_PAGED_CATALOG, false);
+            m_presenter = new ProductPresenter(AndroidSqlDatabase.openStorage(_context, _dbName), paged);
         }
         return m_presenter;
     }
 
+    /**
+     * Maps titles of all Products to their ids. Holds the whole catalog, so prefer {@link #getProductPages()} for big
+     * ones.
+     */
     public SortedMap<String, Integer> getProducts() {
-        SortedMap<String, Integer> allProducts = new TreeMap<>();
-
-        for (Product currentProduct : m_model.getAllProducts()) {
-            allProducts.put(currentProduct.Title, currentProduct.Id);
+        long startTime = Metrics.start();
+        try {
+            SortedMap<String, Integer> allProducts = new TreeMap<>();
+
+            if (m_model.isPaged()) {
+                ProductPages productPages = m_model.getProductPages(ModelManager.INVALID_ID);
+                for (int currentPosition = 0; currentPosition < productPages.size(); currentPosition++) {
+                    allProducts.put(productPages.getTitleAt(currentPosition), productPages.getIdAt(currentPosition));
+                }
+                return allProducts;
+            }
+
+            ProductStore productStore = m_model.getProductStore();
+            for (int currentIndex = 0; currentIndex < productStore.size(); currentIndex++) {
+                allProducts.put(productStore.titleAt(currentIndex), productStore.idAt(currentIndex));
+            }
+
+            return allProducts;
+        } finally {
+            TIME_GET_PRODUCTS.stop(startTime);
         }
+    }
+
+    /**
+     * @return All Products ordered by title, read page by page. An adapter can show any catalog size with it while
+     * only a few pages are held in memory.
+     */
+    public ProductPages getProductPages() {
+        return m_model.getProductPages(ModelManager.INVALID_ID);
+    }
 
-        return allProducts;
+    /**
+     * Finds Products by title, tolerating typos and matching parts of compound words.
+     * @param _query Text as typed by the user.
+     * @param _maxResults How many Products are returned at most.
+     * @return Titles of the matching Products mapped to their ids, best match first. Never null.
+     */
+    public Map<String, Integer> searchProducts(String _query, int _maxResults) {
+        Map<String, Integer> rtn = new LinkedHashMap<>();
+        if (_query == null) {
+            return rtn;
+        }
+        for (int currentId : m_model.searchProducts(_query, _maxResults)) {
+            Product currentProduct = m_model.getProductById(currentId);
+            if (currentProduct != null && !rtn.containsKey(currentProduct.Title)) {
+                rtn.put(currentProduct.Title, currentId);
+            }
+        }
+        return rtn;
     }
 
     public ProductDetails getProductDetails(int _ProductId) {
@@ -86,7 +142,7 @@ public class ProductPresenter {
         productToEdit.UnitId       = _unitId;
         productToEdit.DefaultValue = _defValue;
 
-        m_model.updateProduct(productToEdit, m_db);
+        m_model.updateProduct(productToEdit, m_storage);
     }
 
     public void deleteProduct(int _id) {
@@ -94,6 +150,30 @@ public class ProductPresenter {
         if (productToDelete == null) {
             return;
         }
-        m_model.deleteProduct(productToDelete, m_db);
+        m_model.deleteProduct(productToDelete, m_storage);
+    }
+
+    /**
+     * Undo is off by default, since its history keeps a second copy of the model. It's shared with the
+     * {@link ShoppingListPresenter}.
+     */
+    public void setUndoEnabled(boolean _enabled) {
+        m_model.setHistoryLimit(_enabled ? ModelManager.DEFAULT_HISTORY_LIMIT : 0);
+    }
+
+    public boolean canUndo() {
+        return m_model.canUndo();
+    }
+
+    /**
+     * Reverts the last change, e.g. a deleted Product together with its list entries.
+     * @return Whether something was reverted.
+     */
+    public boolean undo() {
+        return m_model.undo(m_storage);
+    }
+
+    public boolean redo() {
+        return m_model.redo(m_storage);
     }
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.presenter;
+
+/**
+ * Receives the result of a call to an async presenter, on the main thread.
+ */
+public interface ResultCallback<T> {
+
+    void onResult(T _result);
+
+    /**
+     * Called instead of {@link #onResult(Object)}, when the call failed.
+     */
+    void onError(Throwable _cause);
+}
@@ -20,45 +20,182 @@ package org.noorganization.shoppinglist.presenter;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.database.sqlite.SQLiteDatabase;
-
+import android.os.Handler;
+import android.os.Looper;
+
+import org.noorganization.shoppinglist.metrics.LatencyHistogram;
+import org.noorganization.shoppinglist.metrics.Metrics;
+import org.noorganization.shoppinglist.model.ConsumptionPrediction;
+import org.noorganization.shoppinglist.model.ListEntryChanges;
+import org.noorganization.shoppinglist.model.ListEntryCoalescer;
 import org.noorganization.shoppinglist.model.ModelManager;
 import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ProductPages;
+import org.noorganization.shoppinglist.model.ProductStore;
+import org.noorganization.shoppinglist.model.PurchaseHistory;
+import org.noorganization.shoppinglist.model.ReadTransaction;
 import org.noorganization.shoppinglist.model.ShoppingList;
 import org.noorganization.shoppinglist.model.Unit;
+import org.noorganization.shoppinglist.model.storage.AndroidSqlDatabase;
+import org.noorganization.shoppinglist.model.storage.ConsumptionStore;
+import org.noorganization.shoppinglist.model.storage.DatabaseMaintenance;
+import org.noorganization.shoppinglist.model.storage.PurchaseHistoryStore;
+import org.noorganization.shoppinglist.model.storage.SqlStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
 
 import java.text.DecimalFormat;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ShoppingListPresenter {
-    private ShoppingList      m_activeList;
-    private SharedPreferences m_prefs;
-    private ModelManager      m_model;
-    private SQLiteDatabase    m_db;
+    /**
+     * Products running out within this time are suggested by {@link #getDueProducts()}.
+     */
+    public static final long DUE_SOON_MILLIS = 2L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Told when another list becomes the active one, on the thread which selected it.
+     */
+    public interface ActiveListListener {
+        void onActiveListChanged(int _newListId);
+    }
+
+    private static final LatencyHistogram TIME_GET_ACTIVE_LIST_ENTRIES   =
+            Metrics.histogram("ShoppingListPresenter.getActiveListEntries");
+    private static final LatencyHistogram TIME_GET_INACTIVE_LIST_ENTRIES =
+            Metrics.histogram("ShoppingListPresenter.getInactiveListEntries");
+
+    private ShoppingList        m_activeList;
+    private long                m_activeListVersion;
+    private SharedPreferences   m_prefs;
+    private ModelManager        m_model;
+    private StorageProvider     m_storage;
+    private ListEntryCoalescer  m_entryWrites;
+    // Null if the storage keeps no history.
+    private PurchaseHistory     m_purchases;
+    // Null if the storage is no database.
+    private DatabaseMaintenance m_maintenance;
 
     private static ShoppingListPresenter s_presenter;
 
-    private ShoppingListPresenter(Context _context, String _sharedPrefName, String _dbName) {
+    private static final List<ActiveListListener> s_activeListListeners = new CopyOnWriteArrayList<>();
+
+    private ShoppingListPresenter(Context _context, String _sharedPrefName, StorageProvider _storage) {
         //m_context = _context;
         m_prefs = _context.getSharedPreferences(_sharedPrefName, Context.MODE_PRIVATE);
         m_model = ModelManager.getInstance();
         m_activeList = null;
-
-        m_db = m_model.openAndReadDatabase(_context, _dbName);
+        m_activeListVersion = ModelManager.ANY_VERSION;
+
+        m_storage = (m_prefs.getBoolean(Constants.SP_PAGED_CATALOG, false) ? m_model.loadPaged(_storage) :
+                m_model.load(_storage));
+        m_entryWrites = createEntryWrites();
+        m_purchases = (m_storage instanceof PurchaseHistoryStore ? new PurchaseHistory((PurchaseHistoryStore) m_storage,
+                m_storage instanceof ConsumptionStore ? (ConsumptionStore) m_storage : null) : null);
+        if (m_purchases != null) {
+            m_purchases.setLastCompactionMillis(m_prefs.getLong(Constants.SP_LAST_PURCHASE_COMPACTION, 0));
+        }
+        m_maintenance = (_storage instanceof SqlStorage ? new DatabaseMaintenance((SqlStorage) _storage) : null);
 
         if (m_prefs.contains(Constants.SP_CURRENT_LIST_ID)) {
-            m_activeList = m_model.getShoppingListById(m_prefs.getInt(Constants.SP_CURRENT_LIST_ID, ModelManager.INVALID_ID));
+            setActiveList(m_model.getShoppingListById(m_prefs.getInt(Constants.SP_CURRENT_LIST_ID,
+                    ModelManager.INVALID_ID)));
         }
-        if (m_activeList == null && m_model.getCountOfShoppingLists() != 0) {
-            m_activeList = new ShoppingList(m_model.getAllShoppingLists()[0]);
+        if (m_activeList == null && firstListId() != ModelManager.INVALID_ID) {
+            setActiveList(m_model.getShoppingListById(firstListId()));
             SharedPreferences.Editor editorForActiveList = m_prefs.edit();
             editorForActiveList.putInt(Constants.SP_CURRENT_LIST_ID, m_activeList.Id);
             editorForActiveList.apply();
         }
     }
 
+    /**
+     * Edits are written after a short pause of the user, on the main thread. Tasks of the
+     * {@link AsyncShoppingListPresenter} may access the model meanwhile, so the writes wait for them.
+     */
+    private ListEntryCoalescer createEntryWrites() {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        ListEntryCoalescer.Scheduler scheduler = new ListEntryCoalescer.Scheduler() {
+            private Map<Runnable, Runnable> m_exclusiveTasks = new HashMap<>();
+
+            @Override
+            public void schedule(final Runnable _task, long _delayMillis) {
+                Runnable exclusiveTask = m_exclusiveTasks.get(_task);
+                if (exclusiveTask == null) {
+                    exclusiveTask = new Runnable() {
+                        @Override
+                        public void run() {
+                            PresenterExecutor.getInstance().runExclusive(_task);
+                        }
+                    };
+                    m_exclusiveTasks.put(_task, exclusiveTask);
+                }
+                mainHandler.postDelayed(exclusiveTask, _delayMillis);
+            }
+
+            @Override
+            public void cancel(Runnable _task) {
+                Runnable exclusiveTask = m_exclusiveTasks.get(_task);
+                if (exclusiveTask != null) {
+                    mainHandler.removeCallbacks(exclusiveTask);
+                }
+            }
+        };
+        return new ListEntryCoalescer(m_model, m_storage, scheduler, ListEntryCoalescer.DEFAULT_QUIET_MILLIS,
+                new ListEntryCoalescer.Listener() {
+                    @Override
+                    public void onWritten(int _shoppingListId, long _newVersion) {
+                        if (m_activeList != null && m_activeList.Id == _shoppingListId) {
+                            m_activeListVersion = _newVersion;
+                        }
+                    }
+
+                    @Override
+                    public void onWriteFailed(int _shoppingListId, ListEntryChanges _changes) {
+                        if (m_activeList != null && m_activeList.Id == _shoppingListId) {
+                            rollBack(_changes);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Writes pending edits (see {@link #editListEntry(int, float)}) and purchases. Has to be called when the app is
+     * paused, since the process may be stopped afterwards. Once a day, the database is maintained in the background
+     * afterwards, while the user does not wait for it.
+     */
+    public void onPause() {
+        m_entryWrites.flush();
+        if (m_purchases != null && m_purchases.getPendingCount() > 0) {
+            m_purchases.flush();
+        }
+        if (m_purchases != null &&
+                m_purchases.getLastCompactionMillis() != m_prefs.getLong(Constants.SP_LAST_PURCHASE_COMPACTION, 0)) {
+            m_prefs.edit().putLong(Constants.SP_LAST_PURCHASE_COMPACTION, m_purchases.getLastCompactionMillis())
+                    .apply();
+        }
+
+        long nowMillis = System.currentTimeMillis();
+        if (m_maintenance != null &&
+                nowMillis - m_prefs.getLong(Constants.SP_LAST_MAINTENANCE, 0) >= DatabaseMaintenance.INTERVAL_MILLIS &&
+                m_maintenance.start()) {
+            m_prefs.edit().putLong(Constants.SP_LAST_MAINTENANCE, nowMillis).apply();
+            PresenterExecutor.getInstance().background(m_maintenance, null);
+        }
+    }
+
+    /**
+     * @return The outcome of the last database maintenance of this process, or null.
+     */
+    public DatabaseMaintenance.Report getLastMaintenanceReport() {
+        return (m_maintenance == null ? null : m_maintenance.getLastReport());
+    }
+
     public boolean needsToCreateAList() {
         return (m_activeList == null);
     }
@@ -76,13 +213,17 @@ public class ShoppingListPresenter {
 
     static ShoppingListPresenter getInstance(Context _context, String _sharedPrefName, String _dbName) {
         if (s_presenter == null) {
-            s_presenter = new ShoppingListPresenter(_context, _sharedPrefName, _dbName);
+            s_presenter = new ShoppingListPresenter(_context, _sharedPrefName,
+                    AndroidSqlDatabase.openStorage(_context, _dbName));
         }
 
         return s_presenter;
     }
 
     static ShoppingListPresenter resetSingleton(Context _context, String _sharedPrefName, String _dbName) {
+        if (s_presenter != null) {
+            s_presenter.onPause();
+        }
         s_presenter = null;
         return getInstance(_context, _sharedPrefName, _dbName);
     }
@@ -93,125 +234,443 @@ public class ShoppingListPresenter {
      * @return Whether creating was successful.
      */
     public boolean createList(String _newListTitle) {
-        if (_newListTitle == null) {
+        if (_newListTitle == null || isTitleTaken(_newListTitle, false)) {
             return false;
         }
-        for (ShoppingList listToCheck : m_model.getAllShoppingLists()) {
-            if (listToCheck.Title.equals(_newListTitle)) {
-                return false;
-            }
-        }
 
-        ShoppingList newList = m_model.createShoppingList(_newListTitle, m_db);
+        m_entryWrites.flush();
+        ShoppingList newList = m_model.createShoppingList(_newListTitle, m_storage);
         selectList(newList.Id);
 
         return true;
     }
 
     /**
-     * Creates a Map of list-titles to internal id's, that have to be used for writing operations.
+     * Creates a list with the entries of another one (which may be a template) and selects it. The entries are copied
+     * inside the database and shared in memory until changed, so big lists are cloned quickly.
+     * @param _sourceListId The list or template to copy.
+     * @param _newListTitle Title of the new list. May not be null.
+     * @return Whether cloning was successful.
+     */
+    public boolean cloneList(int _sourceListId, String _newListTitle) {
+        ShoppingList source = m_model.getShoppingListById(_sourceListId);
+        if (source == null || _newListTitle == null || isTitleTaken(_newListTitle, false)) {
+            return false;
+        }
+
+        m_entryWrites.flush();
+        ShoppingList newList = m_model.cloneShoppingList(source, _newListTitle, m_storage);
+        if (newList == null) {
+            return false;
+        }
+        selectList(newList.Id);
+        return true;
+    }
+
+    /**
+     * Saves the entries of the active list as template. The active list stays selected.
+     * @param _templateTitle May not be null.
+     * @return Whether saving was successful.
+     */
+    public boolean saveActiveListAsTemplate(String _templateTitle) {
+        if (m_activeList == null || _templateTitle == null || isTitleTaken(_templateTitle, true)) {
+            return false;
+        }
+        m_entryWrites.flush();
+        return m_model.createTemplate(m_activeList, _templateTitle, m_storage) != null;
+    }
+
+    /**
+     * Creates a Map of list-titles to internal id's, that have to be used for writing operations. Templates are not
+     * included.
      * @return the created map. Never null.
      */
     public SortedMap<String, Integer> getLists() {
+        return mapListsByTitle(false);
+    }
+
+    /**
+     * Like {@link #getLists()}, but for the templates. Use {@link #cloneList(int, String)} to create a list from one.
+     * @return the created map. Never null.
+     */
+    public SortedMap<String, Integer> getTemplates() {
+        return mapListsByTitle(true);
+    }
+
+    private SortedMap<String, Integer> mapListsByTitle(boolean _templates) {
         SortedMap<String, Integer> listMap = new TreeMap<>();
 
         for (ShoppingList currentListToMap : m_model.getAllShoppingLists()) {
-            listMap.put(currentListToMap.Title, currentListToMap.Id);
+            if (m_model.isTemplate(currentListToMap.Id) == _templates) {
+                listMap.put(currentListToMap.Title, currentListToMap.Id);
+            }
         }
 
         return listMap;
     }
 
+    private boolean isTitleTaken(String _title, boolean _template) {
+        return mapListsByTitle(_template).containsKey(_title);
+    }
+
+    /**
+     * @return The id of the first list, which is not a template. {@link ModelManager#INVALID_ID} if there is none.
+     */
+    private int firstListId() {
+        for (ShoppingList currentList : m_model.getAllShoppingLists()) {
+            if (!m_model.isTemplate(currentList.Id)) {
+                return currentList.Id;
+            }
+        }
+        return ModelManager.INVALID_ID;
+    }
+
     public void selectList(int _newList) {
+        m_entryWrites.flush();
         ShoppingList selectedList = m_model.getShoppingListById(_newList);
         if (selectedList == null) {
             return;
         }
 
-        m_activeList = selectedList;
+        setActiveList(selectedList);
         SharedPreferences.Editor prefEditor = m_prefs.edit();
         prefEditor.putInt(Constants.SP_CURRENT_LIST_ID, m_activeList.Id);
         prefEditor.apply();
     }
 
     public SortedMap<String, Integer> getActiveListEntries() {
-        if (m_activeList == null) {
-            return new TreeMap<>();
-        }
+        long startTime = Metrics.start();
+        try {
+            if (m_activeList == null) {
+                return new TreeMap<>();
+            }
+
+            SortedMap<String, Integer> activeEntries = new TreeMap<>();
 
-        SortedMap<String, Integer> activeEntries = new TreeMap<>();
+            for (int currentPosition = 0; currentPosition < m_activeList.ListEntries.size(); currentPosition++) {
+                Product currentProduct = m_model.getProductById(m_activeList.ListEntries.keyAt(currentPosition));
+                Unit currentUnit = m_model.getUnitById(currentProduct.UnitId);
 
-        for (int currentPosition = 0; currentPosition < m_activeList.ListEntries.size(); currentPosition++) {
-            Product currentProduct = m_model.getProductById(m_activeList.ListEntries.keyAt(currentPosition));
-            Unit currentUnit = m_model.getUnitById(currentProduct.UnitId);
+                String unitString = (currentUnit == null ? "" : currentUnit.UnitText);
+                float value = m_activeList.ListEntries.valueAt(currentPosition);
+                String entryString = currentProduct.Title;
+                if (value > 1.001f || value < 0.999f || !unitString.isEmpty()) {
+                    entryString = new DecimalFormat("#.###").format(value) + unitString + " " + entryString;
+                }
 
-            String unitString = (currentUnit == null ? "" : currentUnit.UnitText);
-            float value = m_activeList.ListEntries.valueAt(currentPosition);
-            String entryString = currentProduct.Title;
-            if (value > 1.001f || value < 0.999f || !unitString.isEmpty()) {
-                entryString = new DecimalFormat("#.###").format(value) + unitString + " " + entryString;
+                activeEntries.put(entryString, currentProduct.Id);
             }
 
-            activeEntries.put(entryString, currentProduct.Id);
+            return activeEntries;
+        } finally {
+            TIME_GET_ACTIVE_LIST_ENTRIES.stop(startTime);
         }
-
-        return activeEntries;
     }
 
+    /**
+     * Maps titles of the Products not on the active list to their ids. Holds the whole catalog, so prefer {@link
+     * #getInactiveListEntryPages()} for big ones. Products running out soon can be shown first, see
+     * {@link #getDueProducts()}.
+     */
     public SortedMap<String, Integer> getInactiveListEntries() {
+        long startTime = Metrics.start();
+        try {
+            SortedMap<String, Integer> inactiveEntries = new TreeMap<>();
+            if (m_activeList == null) {
+                return inactiveEntries;
+            }
 
-        SortedMap<String, Integer> inactiveEntries = new TreeMap<>();
-        for (Product currentProduct : m_model.getAllProducts()) {
-            if (m_activeList != null && m_activeList.ListEntries.indexOfKey(currentProduct.Id) < 0) {
-                inactiveEntries.put(currentProduct.Title, currentProduct.Id);
+            if (m_model.isPaged()) {
+                ProductPages inactivePages = getInactiveListEntryPages();
+                for (int currentPosition = 0; currentPosition < inactivePages.size(); currentPosition++) {
+                    inactiveEntries.put(inactivePages.getTitleAt(currentPosition),
+                            inactivePages.getIdAt(currentPosition));
+                }
+                return inactiveEntries;
             }
+
+            ProductStore productStore = m_model.getProductStore();
+            for (int currentIndex = 0; currentIndex < productStore.size(); currentIndex++) {
+                int currentProductId = productStore.idAt(currentIndex);
+                if (m_activeList.ListEntries.indexOfKey(currentProductId) < 0) {
+                    inactiveEntries.put(productStore.titleAt(currentIndex), currentProductId);
+                }
+            }
+
+            return inactiveEntries;
+        } finally {
+            TIME_GET_INACTIVE_LIST_ENTRIES.stop(startTime);
         }
+    }
 
-        return inactiveEntries;
+    /**
+     * @return The Products not on the active list ordered by title, read page by page. Without an active list, all
+     * Products.
+     */
+    public ProductPages getInactiveListEntryPages() {
+        return m_model.getProductPages(m_activeList == null ? ModelManager.INVALID_ID : m_activeList.Id);
     }
 
+    /**
+     * Removes the entry from the active list, since it was bought. The purchase is recorded in the history; it's
+     * written by background work along with the updated statistics, so this stays quick. It also updates when the Product will be due again, see
+     * {@link #getDueProducts()}.
+     */
     public void deactivateListEntry(int _productToDeactivate) {
-        if (m_activeList != null) {
-            m_activeList.ListEntries.remove(_productToDeactivate);
-            if (!m_model.updateShoppingList(m_activeList, m_db)) {
-                m_activeList = m_model.getShoppingListById(m_activeList.Id);
-            }
+        if (m_activeList == null) {
+            return;
+        }
+        float boughtValue = m_activeList.ListEntries.get(_productToDeactivate, Float.NaN);
+        if (changeActiveListEntries(new ListEntryChanges().remove(_productToDeactivate)) &&
+                !Float.isNaN(boughtValue)) {
+            recordPurchase(_productToDeactivate, boughtValue);
+        }
+    }
+
+    private void recordPurchase(int _productId, float _value) {
+        long nowMillis = System.currentTimeMillis();
+        if (m_purchases == null) {
+            m_model.recordPurchase(_productId, nowMillis, _value, m_storage);
+            return;
+        }
+        // The changed statistics are saved by the background work, too.
+        ConsumptionPrediction.Statistics statistics = m_model.countPurchase(_productId, nowMillis, _value);
+        if (m_purchases.record(_productId, nowMillis, _value, statistics)) {
+            PresenterExecutor.getInstance().background(m_purchases, null);
+        }
+    }
+
+    /**
+     * @return When the Product was bought last, as milliseconds since the epoch. Purchases older than a month are
+     * only known by day, older than a year only by week. {@link PurchaseHistory#NEVER} if it wasn't bought in the
+     * last five years.
+     */
+    public long getLastPurchaseMillis(int _productId) {
+        return (m_purchases == null ? PurchaseHistory.NEVER : m_purchases.getLastPurchaseMillis(_productId));
+    }
+
+    /**
+     * @return How often the Product was bought in [_fromMillis, _toMillis). Purchases rolled up into days or weeks
+     * count if their day or week starts in the range.
+     */
+    public int getPurchaseCount(int _productId, long _fromMillis, long _toMillis) {
+        if (m_purchases == null) {
+            return 0;
         }
+        final int rtn[] = { 0 };
+        m_purchases.readPurchases(_productId, _fromMillis, _toMillis, new PurchaseHistoryStore.PurchaseCallback() {
+            @Override
+            public void onPurchases(int _productId, long _startMillis, long _spanMillis, int _count,
+                                    double _valueSum) {
+                rtn[0] += _count;
+            }
+        });
+        return rtn[0];
     }
 
     public void activateListEntry(int _productToActivate, float _value) {
         if (m_model.getProductById(_productToActivate) != null && _value > 0.0f && m_activeList != null) {
-            m_activeList.ListEntries.put(_productToActivate, _value);
-            if (!m_model.updateShoppingList(m_activeList, m_db)) {
-                m_activeList = m_model.getShoppingListById(m_activeList.Id);
+            changeActiveListEntries(new ListEntryChanges().put(_productToActivate, _value));
+        }
+    }
+
+    /**
+     * Applies many activations, edits and deactivations to the active list at once, e.g. all ingredients of a recipe.
+     * They are saved in one transaction, which writes only the changed entries. Like {@link #editListEntry(int,
+     * float)}, values below 0.001 deactivate the entry; Products which don't exist are left out.
+     * @param _changes Not null.
+     * @return Whether the changes were saved. If not, the active list is unchanged.
+     */
+    public boolean applyListEntryChanges(ListEntryChanges _changes) {
+        if (m_activeList == null || _changes == null) {
+            return false;
+        }
+
+        ListEntryChanges validChanges = new ListEntryChanges();
+        for (int currentIndex = 0; currentIndex < _changes.size(); currentIndex++) {
+            int currentProductId = _changes.productIdAt(currentIndex);
+            if (_changes.isRemovalAt(currentIndex) || _changes.valueAt(currentIndex) < 0.001f) {
+                validChanges.remove(currentProductId);
+            } else if (m_model.getProductById(currentProductId) != null) {
+                validChanges.put(currentProductId, _changes.valueAt(currentIndex));
+            }
+        }
+        return changeActiveListEntries(validChanges);
+    }
+
+    /**
+     * Saves the changes and counts the usage of newly activated Products.
+     */
+    private boolean changeActiveListEntries(ListEntryChanges _changes) {
+        // Pending edits first, so a failed write of them can't revert these changes later.
+        m_entryWrites.flush();
+        if (m_activeList == null) {
+            return false;
+        }
+
+        ListEntryChanges activations = new ListEntryChanges();
+        for (int currentIndex = 0; currentIndex < _changes.size(); currentIndex++) {
+            int currentProductId = _changes.productIdAt(currentIndex);
+            if (!_changes.isRemovalAt(currentIndex) && m_activeList.ListEntries.indexOfKey(currentProductId) < 0) {
+                activations.put(currentProductId, _changes.valueAt(currentIndex));
+            }
+        }
+
+        // Optimistic: the change is shown at once and rolled back if it's rejected.
+        _changes.applyTo(m_activeList.ListEntries);
+        if (m_model.changeListEntries(m_activeList.Id, _changes, m_activeListVersion, m_storage) == null) {
+            rollBack(_changes);
+            return false;
+        }
+        m_activeListVersion = m_model.getShoppingListVersion(m_activeList.Id);
+
+        int activatedIds[] = new int[activations.size()];
+        for (int currentIndex = 0; currentIndex < activatedIds.length; currentIndex++) {
+            activatedIds[currentIndex] = activations.productIdAt(currentIndex);
+        }
+        m_model.recordUsages(activatedIds, System.currentTimeMillis(), m_storage);
+        return true;
+    }
+
+    /**
+     * Reverts rejected changes of the active list. If the list was changed otherwise since it was read, it's read
+     * again (which shares the entries with the model, so it's cheap). Otherwise just the changed entries are restored.
+     */
+    private void rollBack(ListEntryChanges _changes) {
+        if (m_model.getShoppingListVersion(m_activeList.Id) != m_activeListVersion) {
+            refreshActiveList();
+            return;
+        }
+        for (int currentIndex = 0; currentIndex < _changes.size(); currentIndex++) {
+            int currentProductId = _changes.productIdAt(currentIndex);
+            float savedValue = m_model.getListEntryValue(m_activeList.Id, currentProductId);
+            if (Float.isNaN(savedValue)) {
+                m_activeList.ListEntries.remove(currentProductId);
+            } else {
+                m_activeList.ListEntries.put(currentProductId, savedValue);
             }
         }
     }
 
+    private void setActiveList(ShoppingList _list) {
+        int previousListId = getCurrentListId();
+        m_activeList        = _list;
+        m_activeListVersion = (_list == null ? ModelManager.ANY_VERSION : m_model.getShoppingListVersion(_list.Id));
+        if (getCurrentListId() != previousListId) {
+            for (ActiveListListener currentListener : s_activeListListeners) {
+                currentListener.onActiveListChanged(getCurrentListId());
+            }
+        }
+    }
+
+    /**
+     * Adds a listener for all presenters, including those created later. May be called on any thread.
+     */
+    public static void addActiveListListener(ActiveListListener _listener) {
+        if (_listener == null) {
+            throw new IllegalArgumentException("Listener was null.");
+        }
+        s_activeListListeners.add(_listener);
+    }
+
+    public static void removeActiveListListener(ActiveListListener _listener) {
+        s_activeListListeners.remove(_listener);
+    }
+
     /**
-     * Deletes a List if it's not last and selected. The last list can't be deleted.
+     * Pins the current state of the model for a reader on another thread, e.g. a cursor of a ContentProvider. Waits
+     * for a running task of the {@link AsyncShoppingListPresenter}. Has to be called on the main thread, like all
+     * methods of this presenter.
+     * @return The transaction, which has to be closed.
+     * @throws IllegalStateException With a paged catalog, see {@link ModelManager#beginRead()}.
+     */
+    public ReadTransaction beginRead() {
+        m_entryWrites.flush();
+        final ReadTransaction rtn[] = new ReadTransaction[1];
+        PresenterExecutor.getInstance().runExclusive(new Runnable() {
+            @Override
+            public void run() {
+                rtn[0] = m_model.beginRead();
+            }
+        });
+        return rtn[0];
+    }
+
+    /**
+     * Maps titles of the most frequently activated Products, which are not on the active list, to their ids. Recent
+     * activations count more than old ones.
+     * @return The map ordered by frequency, most frequent first. Never null.
+     */
+    public Map<String, Integer> getFrequentProducts() {
+        Map<String, Integer> rtn = new LinkedHashMap<>();
+        for (int currentProductId : m_model.getUsageRanking().getTopProductIds()) {
+            if (m_activeList != null && m_activeList.ListEntries.indexOfKey(currentProductId) >= 0) {
+                continue;
+            }
+            Product currentProduct = m_model.getProductById(currentProductId);
+            if (currentProduct != null && !rtn.containsKey(currentProduct.Title)) {
+                rtn.put(currentProduct.Title, currentProductId);
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * Maps titles of the Products, which are not on the active list and probably run out within
+     * {@link #DUE_SOON_MILLIS}, to their ids. Takes time proportional to the count of due Products, not to the
+     * catalog.
+     * @return The map ordered by due time, earliest first. Never null.
+     */
+    public Map<String, Integer> getDueProducts() {
+        Map<String, Integer> rtn = new LinkedHashMap<>();
+        long untilMillis = System.currentTimeMillis() + DUE_SOON_MILLIS;
+        for (int currentProductId : m_model.getConsumptionPrediction().getDueProductIds(untilMillis)) {
+            if (m_activeList != null && m_activeList.ListEntries.indexOfKey(currentProductId) >= 0) {
+                continue;
+            }
+            Product currentProduct = m_model.getProductById(currentProductId);
+            if (currentProduct != null && !rtn.containsKey(currentProduct.Title)) {
+                rtn.put(currentProduct.Title, currentProductId);
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * Deletes a List if it's not last and selected. The last list can't be deleted; templates don't count.
      * @param _listToDelete The list id to delete.
      * @return Whether deletion was successful.
      */
     public boolean deleteList(int _listToDelete) {
+        m_entryWrites.flush();
         if (m_activeList != null && m_activeList.Id == _listToDelete) {
-            if (m_model.getCountOfShoppingLists() == 1) {
+            int remainingListCount = getLists().size() - (m_model.isTemplate(m_activeList.Id) ? 0 : 1);
+            if (remainingListCount == 0) {
                 return false;
             }
 
-            m_model.deleteShoppingList(m_activeList, m_db);
-            selectList(m_model.getAllShoppingLists()[0].Id);
+            m_model.deleteShoppingList(m_activeList, m_storage);
+            selectList(firstListId());
         } else {
             ShoppingList toDelete = m_model.getShoppingListById(_listToDelete);
             if (toDelete != null) {
-                m_model.deleteShoppingList(toDelete, m_db);
+                m_model.deleteShoppingList(toDelete, m_storage);
             }
         }
 
         return true;
     }
 
+    /**
+     * Changes the value of an entry on the active list. Rapid edits are coalesced: the new value is in the model at
+     * once, but written only after a short pause or by {@link #onPause()}. A value below 0.001 deactivates the entry
+     * at once.
+     */
     public void editListEntry(int _listEntryId, float _newValue) {
+        if (m_activeList != null && m_model.getShoppingListVersion(m_activeList.Id) != m_activeListVersion) {
+            // Changed by someone else.
+            refreshActiveList();
+        }
         if (m_activeList == null || m_activeList.ListEntries.indexOfKey(_listEntryId) < 0) {
             return;
         }
@@ -220,7 +679,63 @@ public class ShoppingListPresenter {
             deactivateListEntry(_listEntryId);
         } else {
             m_activeList.ListEntries.put(_listEntryId, _newValue);
-            m_model.updateShoppingList(m_activeList, m_db);
+            m_entryWrites.put(m_activeList.Id, _listEntryId, _newValue);
+            m_activeListVersion = m_model.getShoppingListVersion(m_activeList.Id);
+        }
+    }
+
+    /**
+     * Undo is off by default, since its history keeps a second copy of the model. It's shared with the
+     * {@link ProductPresenter}.
+     */
+    public void setUndoEnabled(boolean _enabled) {
+        m_model.setHistoryLimit(_enabled ? ModelManager.DEFAULT_HISTORY_LIMIT : 0);
+    }
+
+    public boolean canUndo() {
+        return m_model.canUndo();
+    }
+
+    public boolean canRedo() {
+        return m_model.canRedo();
+    }
+
+    /**
+     * Reverts the last change, e.g. a deactivated entry or a deleted list.
+     * @return Whether something was reverted.
+     */
+    public boolean undo() {
+        m_entryWrites.flush();
+        if (!m_model.undo(m_storage)) {
+            return false;
+        }
+        refreshActiveList();
+        return true;
+    }
+
+    /**
+     * Repeats the last reverted change.
+     * @return Whether something was repeated.
+     */
+    public boolean redo() {
+        m_entryWrites.flush();
+        if (!m_model.redo(m_storage)) {
+            return false;
+        }
+        refreshActiveList();
+        return true;
+    }
+
+    /**
+     * Reloads the active list after the model changed below it. If it's gone, the first list (not template) is
+     * selected.
+     */
+    private void refreshActiveList() {
+        if (m_activeList != null) {
+            setActiveList(m_model.getShoppingListById(m_activeList.Id));
+        }
+        if (m_activeList == null) {
+            selectList(firstListId());
         }
     }
 
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.provider;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.ReadTransaction;
+
+/**
+ * Cursor over a {@link ReadTransaction}. Only the ids of the rows are collected when it's created; every field is read
+ * from the pinned model when it's asked for, so nothing is copied into rows. The pinned state never changes, so the
+ * cursor may be read on any thread. Closing the cursor closes the transaction.
+ */
+class ModelCursor extends AbstractCursor {
+
+    static final int TABLE_PRODUCTS = 1;
+    static final int TABLE_UNITS    = 2;
+    static final int TABLE_LISTS    = 3;
+    static final int TABLE_ENTRIES  = 4;
+
+    private static final int COLUMN_ID            = 0;
+    private static final int COLUMN_TITLE         = 1;
+    private static final int COLUMN_DEFAULT_VALUE = 2;
+    private static final int COLUMN_UNIT_ID       = 3;
+    private static final int COLUMN_UNIT_TEXT     = 4;
+    private static final int COLUMN_LIST_ID       = 5;
+    private static final int COLUMN_VALUE         = 6;
+
+    // By column, so the names are shared by all tables.
+    private static final String COLUMN_NAMES[] = {
+            ShoppingListProvider.COLUMN_ID,
+            ShoppingListProvider.COLUMN_TITLE,
+            ShoppingListProvider.COLUMN_DEFAULT_VALUE,
+            ShoppingListProvider.COLUMN_UNIT_ID,
+            ShoppingListProvider.COLUMN_UNIT_TEXT,
+            ShoppingListProvider.COLUMN_LIST_ID,
+            ShoppingListProvider.COLUMN_VALUE
+    };
+
+    private static final int PRODUCT_COLUMNS[] = { COLUMN_ID, COLUMN_TITLE, COLUMN_DEFAULT_VALUE, COLUMN_UNIT_ID };
+    private static final int UNIT_COLUMNS[]    = { COLUMN_ID, COLUMN_UNIT_TEXT };
+    private static final int LIST_COLUMNS[]    = { COLUMN_ID, COLUMN_TITLE };
+    private static final int ENTRY_COLUMNS[]   = { COLUMN_ID, COLUMN_LIST_ID, COLUMN_TITLE, COLUMN_VALUE,
+            COLUMN_UNIT_ID };
+
+    private final ReadTransaction m_transaction;
+    private final int             m_table;
+    // The list of the entries, if the table is TABLE_ENTRIES.
+    private final int             m_listId;
+    private final int             m_ids[];
+    // The projection as columns of the table.
+    private final int             m_columns[];
+    private final String          m_columnNames[];
+
+    /**
+     * @param _ids Ids of the rows, in their order.
+     * @param _projection Names of the columns to return. Null for all columns of the table.
+     * @throws IllegalArgumentException If a column does not exist in the table.
+     */
+    ModelCursor(ReadTransaction _transaction, int _table, int _listId, int _ids[], String _projection[]) {
+        m_transaction = _transaction;
+        m_table       = _table;
+        m_listId      = _listId;
+        m_ids         = _ids;
+        m_columns     = project(columnsOf(_table), _projection);
+        m_columnNames = new String[m_columns.length];
+        for (int currentIndex = 0; currentIndex < m_columns.length; currentIndex++) {
+            m_columnNames[currentIndex] = COLUMN_NAMES[m_columns[currentIndex]];
+        }
+    }
+
+    /**
+     * @return The names of all columns of the table, in their order.
+     */
+    static String[] getAllColumnNames(int _table) {
+        int columns[] = columnsOf(_table);
+        String rtn[] = new String[columns.length];
+        for (int currentIndex = 0; currentIndex < columns.length; currentIndex++) {
+            rtn[currentIndex] = COLUMN_NAMES[columns[currentIndex]];
+        }
+        return rtn;
+    }
+
+    @Override
+    public int getCount() {
+        return m_ids.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return m_columnNames;
+    }
+
+    @Override
+    public int getType(int _column) {
+        switch (m_columns[_column]) {
+            case COLUMN_TITLE:
+            case COLUMN_UNIT_TEXT:
+                return (isNull(_column) ? Cursor.FIELD_TYPE_NULL : Cursor.FIELD_TYPE_STRING);
+            case COLUMN_DEFAULT_VALUE:
+            case COLUMN_VALUE:
+                return Cursor.FIELD_TYPE_FLOAT;
+            default:
+                return (isNull(_column) ? Cursor.FIELD_TYPE_NULL : Cursor.FIELD_TYPE_INTEGER);
+        }
+    }
+
+    @Override
+    public boolean isNull(int _column) {
+        switch (m_columns[_column]) {
+            case COLUMN_TITLE:
+            case COLUMN_UNIT_TEXT:
+                return stringAt(_column) == null;
+            case COLUMN_UNIT_ID:
+                return longAt(_column) == ModelManager.INVALID_ID;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public String getString(int _column) {
+        switch (m_columns[_column]) {
+            case COLUMN_TITLE:
+            case COLUMN_UNIT_TEXT:
+                return stringAt(_column);
+            case COLUMN_DEFAULT_VALUE:
+            case COLUMN_VALUE:
+                return String.valueOf(doubleAt(_column));
+            default:
+                return (isNull(_column) ? null : String.valueOf(longAt(_column)));
+        }
+    }
+
+    @Override
+    public short getShort(int _column) {
+        return (short) getLong(_column);
+    }
+
+    @Override
+    public int getInt(int _column) {
+        return (int) getLong(_column);
+    }
+
+    @Override
+    public long getLong(int _column) {
+        switch (m_columns[_column]) {
+            case COLUMN_TITLE:
+            case COLUMN_UNIT_TEXT:
+                return Long.parseLong(stringAt(_column));
+            case COLUMN_DEFAULT_VALUE:
+            case COLUMN_VALUE:
+                return (long) doubleAt(_column);
+            default:
+                return (isNull(_column) ? 0 : longAt(_column));
+        }
+    }
+
+    @Override
+    public float getFloat(int _column) {
+        return (float) getDouble(_column);
+    }
+
+    @Override
+    public double getDouble(int _column) {
+        switch (m_columns[_column]) {
+            case COLUMN_TITLE:
+            case COLUMN_UNIT_TEXT:
+                return Double.parseDouble(stringAt(_column));
+            case COLUMN_DEFAULT_VALUE:
+            case COLUMN_VALUE:
+                return doubleAt(_column);
+            default:
+                return getLong(_column);
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        m_transaction.close();
+    }
+
+    private int currentId() {
+        checkPosition();
+        return m_ids[getPosition()];
+    }
+
+    private String stringAt(int _column) {
+        int id = currentId();
+        switch (m_columns[_column]) {
+            case COLUMN_TITLE:
+                return (m_table == TABLE_LISTS ? m_transaction.getShoppingListTitle(id) :
+                        m_transaction.getProductTitle(id));
+            default:
+                return m_transaction.getUnitText(id);
+        }
+    }
+
+    private long longAt(int _column) {
+        int id = currentId();
+        switch (m_columns[_column]) {
+            case COLUMN_UNIT_ID:
+                return m_transaction.getProductUnitId(id);
+            case COLUMN_LIST_ID:
+                return m_listId;
+            default:
+                return id;
+        }
+    }
+
+    private double doubleAt(int _column) {
+        int id = currentId();
+        switch (m_columns[_column]) {
+            case COLUMN_DEFAULT_VALUE:
+                return m_transaction.getProductDefaultValue(id);
+            default:
+                return m_transaction.getListEntryValue(m_listId, id);
+        }
+    }
+
+    private static int[] columnsOf(int _table) {
+        switch (_table) {
+            case TABLE_PRODUCTS:
+                return PRODUCT_COLUMNS;
+            case TABLE_UNITS:
+                return UNIT_COLUMNS;
+            case TABLE_LISTS:
+                return LIST_COLUMNS;
+            case TABLE_ENTRIES:
+                return ENTRY_COLUMNS;
+            default:
+                throw new IllegalArgumentException("Unknown table: " + _table);
+        }
+    }
+
+    private static int[] project(int _tableColumns[], String _projection[]) {
+        if (_projection == null) {
+            return _tableColumns;
+        }
+        int rtn[] = new int[_projection.length];
+        for (int currentIndex = 0; currentIndex < _projection.length; currentIndex++) {
+            rtn[currentIndex] = -1;
+            for (int currentColumn : _tableColumns) {
+                if (COLUMN_NAMES[currentColumn].equals(_projection[currentIndex])) {
+                    rtn[currentIndex] = currentColumn;
+                    break;
+                }
+            }
+            if (rtn[currentIndex] < 0) {
+                throw new IllegalArgumentException("Unknown column: " + _projection[currentIndex]);
+            }
+        }
+        return rtn;
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.provider;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import org.noorganization.shoppinglist.model.ChangeLog;
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.ReadTransaction;
+import org.noorganization.shoppinglist.presenter.ShoppingListPresenter;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Lets a widget or other apps read Products, Units, ShoppingLists and their entries, without a copy of the database.
+ * A query pins the state of the model (see {@link ModelManager#beginRead()}) and returns a cursor reading it in place.
+ * Rows are ordered by id; selections and sort orders are not supported. The provider is read-only.
+ * <p>
+ * Changes are notified per object: a changed Product notifies its URI and the entries of the lists it is on, a changed
+ * list its URI (including its entries). Loading the model again notifies everything. Notifications are collected and
+ * sent from the main thread, so a change with many objects (e.g. an undo) is sent at once.
+ * <p>
+ * With a paged catalog, the Products are not held in memory, so queries return null.
+ */
+public class ShoppingListProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "org.noorganization.shoppinglist.provider";
+
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
+
+    public static final String PATH_PRODUCTS = "products";
+    public static final String PATH_UNITS    = "units";
+    public static final String PATH_LISTS    = "lists";
+    public static final String PATH_ENTRIES  = "entries";
+    /**
+     * Instead of the id of a list: the list selected in the app.
+     */
+    public static final String PATH_ACTIVE   = "active";
+
+    public static final Uri PRODUCTS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_PRODUCTS);
+    public static final Uri UNITS_URI    = Uri.withAppendedPath(CONTENT_URI, PATH_UNITS);
+    public static final Uri LISTS_URI    = Uri.withAppendedPath(CONTENT_URI, PATH_LISTS);
+    /**
+     * The entries of the list selected in the app.
+     */
+    public static final Uri ACTIVE_ENTRIES_URI = LISTS_URI.buildUpon().appendPath(PATH_ACTIVE)
+            .appendPath(PATH_ENTRIES).build();
+
+    public static final String COLUMN_ID            = BaseColumns._ID;
+    /**
+     * Of Products, lists and entries, where it's the title of the Product.
+     */
+    public static final String COLUMN_TITLE         = "title";
+    public static final String COLUMN_DEFAULT_VALUE = "default_value";
+    /**
+     * Of Products and entries. Null if the Product has no Unit.
+     */
+    public static final String COLUMN_UNIT_ID       = "unit_id";
+    public static final String COLUMN_UNIT_TEXT     = "unit_text";
+    public static final String COLUMN_LIST_ID       = "list_id";
+    public static final String COLUMN_VALUE         = "value";
+
+    private static final String LOG_TAG = "ShoppingListProvider";
+
+    private static final String MIME_PREFIX = "vnd.org.noorganization.shoppinglist.";
+
+    private static final int MATCH_PRODUCTS       = 1;
+    private static final int MATCH_PRODUCT        = 2;
+    private static final int MATCH_UNITS          = 3;
+    private static final int MATCH_UNIT           = 4;
+    private static final int MATCH_LISTS          = 5;
+    private static final int MATCH_LIST           = 6;
+    private static final int MATCH_ENTRIES        = 7;
+    private static final int MATCH_ACTIVE_LIST    = 8;
+    private static final int MATCH_ACTIVE_ENTRIES = 9;
+
+    private static final UriMatcher s_matcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        s_matcher.addURI(AUTHORITY, PATH_PRODUCTS, MATCH_PRODUCTS);
+        s_matcher.addURI(AUTHORITY, PATH_PRODUCTS + "/#", MATCH_PRODUCT);
+        s_matcher.addURI(AUTHORITY, PATH_UNITS, MATCH_UNITS);
+        s_matcher.addURI(AUTHORITY, PATH_UNITS + "/#", MATCH_UNIT);
+        s_matcher.addURI(AUTHORITY, PATH_LISTS, MATCH_LISTS);
+        s_matcher.addURI(AUTHORITY, PATH_LISTS + "/" + PATH_ACTIVE, MATCH_ACTIVE_LIST);
+        s_matcher.addURI(AUTHORITY, PATH_LISTS + "/" + PATH_ACTIVE + "/" + PATH_ENTRIES, MATCH_ACTIVE_ENTRIES);
+        s_matcher.addURI(AUTHORITY, PATH_LISTS + "/#", MATCH_LIST);
+        s_matcher.addURI(AUTHORITY, PATH_LISTS + "/#/" + PATH_ENTRIES, MATCH_ENTRIES);
+    }
+
+    private Handler  m_mainHandler;
+    private Notifier m_notifier;
+
+    @Override
+    public boolean onCreate() {
+        m_mainHandler = new Handler(Looper.getMainLooper());
+        m_notifier    = new Notifier(getContext().getContentResolver(), m_mainHandler);
+        ModelManager.getInstance().getChangeLog().addListener(m_notifier);
+        ShoppingListPresenter.addActiveListListener(m_notifier);
+        return true;
+    }
+
+    /**
+     * Stops notifying changes. Only called by tests; a running provider lives as long as its process.
+     */
+    @Override
+    public void shutdown() {
+        ModelManager.getInstance().getChangeLog().removeListener(m_notifier);
+        ShoppingListPresenter.removeActiveListListener(m_notifier);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the URI is unknown, a selection or sort order is given or the projection
+     *                                  contains an unknown column.
+     */
+    @Override
+    public Cursor query(Uri _uri, String _projection[], String _selection, String _selectionArgs[],
+                        String _sortOrder) {
+        int match = s_matcher.match(_uri);
+        if (match == UriMatcher.NO_MATCH) {
+            throw new IllegalArgumentException("Unknown URI: " + _uri);
+        }
+        if (_selection != null || _sortOrder != null) {
+            throw new IllegalArgumentException("Selections and sort orders are not supported.");
+        }
+
+        int activeListId[] = { ModelManager.INVALID_ID };
+        ReadTransaction transaction = beginRead(activeListId);
+        if (transaction == null) {
+            return null;
+        }
+        try {
+            ModelCursor rtn = createCursor(transaction, match, _uri, activeListId[0], _projection);
+            rtn.setNotificationUri(getContext().getContentResolver(), _uri);
+            return rtn;
+        } catch (RuntimeException e) {
+            transaction.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getType(Uri _uri) {
+        switch (s_matcher.match(_uri)) {
+            case MATCH_PRODUCTS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + MIME_PREFIX + "product";
+            case MATCH_PRODUCT:
+                return ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + MIME_PREFIX + "product";
+            case MATCH_UNITS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + MIME_PREFIX + "unit";
+            case MATCH_UNIT:
+                return ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + MIME_PREFIX + "unit";
+            case MATCH_LISTS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + MIME_PREFIX + "list";
+            case MATCH_LIST:
+            case MATCH_ACTIVE_LIST:
+                return ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + MIME_PREFIX + "list";
+            case MATCH_ENTRIES:
+            case MATCH_ACTIVE_ENTRIES:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + MIME_PREFIX + "entry";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Uri insert(Uri _uri, ContentValues _values) {
+        throw new UnsupportedOperationException("The provider is read-only.");
+    }
+
+    @Override
+    public int delete(Uri _uri, String _selection, String _selectionArgs[]) {
+        throw new UnsupportedOperationException("The provider is read-only.");
+    }
+
+    @Override
+    public int update(Uri _uri, ContentValues _values, String _selection, String _selectionArgs[]) {
+        throw new UnsupportedOperationException("The provider is read-only.");
+    }
+
+    /**
+     * Pins the model on the main thread, where the app changes it.
+     * @param _activeListId Gets the id of the list selected in the app.
+     * @return Null if the model can't be pinned.
+     */
+    private ReadTransaction beginRead(final int _activeListId[]) {
+        FutureTask<ReadTransaction> task = new FutureTask<>(new Callable<ReadTransaction>() {
+            @Override
+            public ReadTransaction call() {
+                ShoppingListPresenter presenter = ShoppingListPresenter.getInstance(getContext());
+                _activeListId[0] = presenter.getCurrentListId();
+                return presenter.beginRead();
+            }
+        });
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            task.run();
+        } else {
+            m_mainHandler.post(task);
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalStateException) {
+                Log.w(LOG_TAG, "Can't read the model: " + e.getCause().getMessage());
+                return null;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static ModelCursor createCursor(ReadTransaction _transaction, int _match, Uri _uri, int _activeListId,
+                                            String _projection[]) {
+        switch (_match) {
+            case MATCH_PRODUCTS:
+                return new ModelCursor(_transaction, ModelCursor.TABLE_PRODUCTS, ModelManager.INVALID_ID,
+                        _transaction.getProductIds(), _projection);
+            case MATCH_PRODUCT: {
+                int id = idOf(_uri, 1);
+                return new ModelCursor(_transaction, ModelCursor.TABLE_PRODUCTS, ModelManager.INVALID_ID,
+                        (_transaction.getProductTitle(id) == null ? new int[0] : new int[] { id }), _projection);
+            }
+            case MATCH_UNITS:
+                return new ModelCursor(_transaction, ModelCursor.TABLE_UNITS, ModelManager.INVALID_ID,
+                        _transaction.getUnitIds(), _projection);
+            case MATCH_UNIT: {
+                int id = idOf(_uri, 1);
+                return new ModelCursor(_transaction, ModelCursor.TABLE_UNITS, ModelManager.INVALID_ID,
+                        (_transaction.getUnitText(id) == null ? new int[0] : new int[] { id }), _projection);
+            }
+            case MATCH_LISTS:
+                return new ModelCursor(_transaction, ModelCursor.TABLE_LISTS, ModelManager.INVALID_ID,
+                        _transaction.getShoppingListIds(), _projection);
+            case MATCH_LIST:
+            case MATCH_ACTIVE_LIST: {
+                int id = (_match == MATCH_LIST ? idOf(_uri, 1) : _activeListId);
+                return new ModelCursor(_transaction, ModelCursor.TABLE_LISTS, ModelManager.INVALID_ID,
+                        (_transaction.getShoppingListTitle(id) == null ? new int[0] : new int[] { id }),
+                        _projection);
+            }
+            default: {
+                int listId = (_match == MATCH_ENTRIES ? idOf(_uri, 1) : _activeListId);
+                return new ModelCursor(_transaction, ModelCursor.TABLE_ENTRIES, listId,
+                        _transaction.getListEntryProductIds(listId), _projection);
+            }
+        }
+    }
+
+    /**
+     * @return The id in a path segment. Ids are random ints, so a matched number may still be out of range.
+     */
+    private static int idOf(Uri _uri, int _segment) {
+        try {
+            return Integer.parseInt(_uri.getPathSegments().get(_segment));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown URI: " + _uri);
+        }
+    }
+
+    /**
+     * Collects the URIs of changed objects on the thread changing the model and notifies them on the main thread. The
+     * active ShoppingList is notified under its id and under {@link #PATH_ACTIVE}, since clients may watch either.
+     */
+    static class Notifier implements ChangeLog.Listener, ShoppingListPresenter.ActiveListListener, Runnable {
+
+        private final ContentResolver m_resolver;
+        private final Handler         m_handler;
+        private final Set<Uri>        m_pending;
+        private boolean               m_posted;
+        private volatile int          m_activeListId;
+
+        Notifier(ContentResolver _resolver, Handler _handler) {
+            m_resolver     = _resolver;
+            m_handler      = _handler;
+            m_pending      = new HashSet<>();
+            m_posted       = false;
+            m_activeListId = ModelManager.INVALID_ID;
+        }
+
+        @Override
+        public void onChanged(int _kind, int _id) {
+            switch (_kind) {
+                case ChangeLog.KIND_UNIT:
+                    add(Uri.withAppendedPath(UNITS_URI, String.valueOf(_id)));
+                    break;
+                case ChangeLog.KIND_PRODUCT:
+                    add(Uri.withAppendedPath(PRODUCTS_URI, String.valueOf(_id)));
+                    // Entries show the title and unit of their Product.
+                    for (int currentListId : ModelManager.getInstance().getShoppingListIdsWith(_id)) {
+                        addList(currentListId, PATH_ENTRIES);
+                    }
+                    break;
+                case ChangeLog.KIND_SHOPPING_LIST:
+                    addList(_id, null);
+                    break;
+            }
+        }
+
+        @Override
+        public void onReset() {
+            add(CONTENT_URI);
+        }
+
+        @Override
+        public void onActiveListChanged(int _newListId) {
+            m_activeListId = _newListId;
+            add(Uri.withAppendedPath(LISTS_URI, PATH_ACTIVE));
+        }
+
+        /**
+         * Sends the collected notifications.
+         */
+        @Override
+        public void run() {
+            Uri changedUris[];
+            synchronized (m_pending) {
+                changedUris = m_pending.toArray(new Uri[m_pending.size()]);
+                m_pending.clear();
+                m_posted = false;
+            }
+            for (Uri currentUri : changedUris) {
+                m_resolver.notifyChange(currentUri, null);
+            }
+        }
+
+        /**
+         * @param _subPath Appended to the URI of the list, e.g. {@link #PATH_ENTRIES}. May be null.
+         */
+        private void addList(int _listId, String _subPath) {
+            add(listUriOf(String.valueOf(_listId), _subPath));
+            if (_listId == m_activeListId) {
+                add(listUriOf(PATH_ACTIVE, _subPath));
+            }
+        }
+
+        private static Uri listUriOf(String _listSegment, String _subPath) {
+            Uri rtn = Uri.withAppendedPath(LISTS_URI, _listSegment);
+            return (_subPath == null ? rtn : Uri.withAppendedPath(rtn, _subPath));
+        }
+
+        private void add(Uri _uri) {
+            synchronized (m_pending) {
+                m_pending.add(_uri);
+                if (!m_posted) {
+                    m_posted = true;
+                    m_handler.post(this);
+                }
+            }
+        }
+    }
+}
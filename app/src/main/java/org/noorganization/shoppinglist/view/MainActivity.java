@@ -98,6 +98,13 @@ public class MainActivity extends FragmentActivity {
         super.onResume();
     }
 
+    @Override
+    public void onPause() {
+        // The process may be stopped without further notice from now on.
+        m_presenter.onPause();
+        super.onPause();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu _menu) {
         getMenuInflater().inflate(R.menu.menu_shoppinglist, _menu);
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.benchmark;
+
+import android.content.Context;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.Unit;
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.JdbcSqlDatabase;
+import org.noorganization.shoppinglist.model.storage.JournalStorage;
+import org.noorganization.shoppinglist.model.storage.SqlDatabase;
+import org.noorganization.shoppinglist.model.storage.SqlStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates benchmark catalogs of a given size. Products get the ids 1 to catalog size, every Product references one of
+ * {@link #UNIT_COUNT} Units and the only ShoppingList (id 1) contains {@link #ACTIVE_ENTRY_COUNT} entries.
+ */
+public class CatalogFixture {
+
+    public static final String DB_NAME            = "benchmark.db";
+    public static final String SP_NAME            = "benchmark";
+    public static final int    UNIT_COUNT         = 20;
+    public static final int    ACTIVE_ENTRY_COUNT = 30;
+    public static final int    LIST_ID            = 1;
+
+    /**
+     * Values of a "storage" parameter: SQLite through JDBC, {@link InMemoryStorage} or {@link JournalStorage}. The
+     * synchronous journal waits for the sync of every mutation, like SQLite does, so only it compares to SQLite.
+     */
+    public static final String STORAGE_SQLITE       = "sqlite";
+    public static final String STORAGE_MEMORY       = "memory";
+    public static final String STORAGE_JOURNAL      = "journal";
+    public static final String STORAGE_JOURNAL_SYNC = "journal-sync";
+
+    public static final String JOURNAL_DIR_NAME = "journal";
+
+    private CatalogFixture() {
+    }
+
+    /**
+     * @return A Context with an own, new database directory.
+     */
+    public static Context createContext() throws IOException {
+        File databaseDir = File.createTempFile("shoppinglist-benchmark", "");
+        if (!databaseDir.delete()) {
+            throw new IOException("Could not prepare " + databaseDir);
+        }
+        return new Context(databaseDir);
+    }
+
+    /**
+     * @return The SQLite database {@link #DB_NAME} of the Context, opened through JDBC.
+     */
+    public static SqlStorage openStorage(Context _context) {
+        return new SqlStorage(JdbcSqlDatabase.openSqlite(_context.getDatabasePath(DB_NAME).getPath()));
+    }
+
+    /**
+     * @param _storageKind {@link #STORAGE_SQLITE}, {@link #STORAGE_MEMORY}, {@link #STORAGE_JOURNAL} or
+     *                     {@link #STORAGE_JOURNAL_SYNC}.
+     * @return A new, filled storage.
+     */
+    public static StorageProvider createStorage(Context _context, String _storageKind, int _productCount) {
+        StorageProvider rtn;
+        if (STORAGE_SQLITE.equals(_storageKind)) {
+            rtn = openStorage(_context);
+        } else if (STORAGE_MEMORY.equals(_storageKind)) {
+            rtn = new InMemoryStorage();
+        } else if (STORAGE_JOURNAL.equals(_storageKind) || STORAGE_JOURNAL_SYNC.equals(_storageKind)) {
+            rtn = new JournalStorage(_context.getDatabasePath(JOURNAL_DIR_NAME));
+        } else {
+            throw new IllegalArgumentException("Unknown storage " + _storageKind);
+        }
+        populate(rtn, _productCount);
+        if (STORAGE_JOURNAL_SYNC.equals(_storageKind)) {
+            // Filled asynchronously, only the measured mutations wait for their syncs.
+            ((JournalStorage) rtn).setSynchronous(true);
+        }
+        return rtn;
+    }
+
+    /**
+     * Fills the storage through the storage SPI. SQLite storages are filled in one transaction.
+     */
+    public static void populate(StorageProvider _storage, int _productCount) {
+        SqlDatabase db = (_storage instanceof SqlStorage ? ((SqlStorage) _storage).getDatabase() : null);
+        if (db != null) {
+            db.beginTransaction();
+        }
+        try {
+            for (int currentUnit = 1; currentUnit <= UNIT_COUNT; currentUnit++) {
+                Unit newUnit = new Unit();
+                newUnit.Id       = currentUnit;
+                newUnit.UnitText = "unit " + currentUnit;
+                _storage.insertUnit(newUnit);
+            }
+            Product newProduct = new Product();
+            for (int currentProduct = 1; currentProduct <= _productCount; currentProduct++) {
+                newProduct.Id           = currentProduct;
+                newProduct.Title        = "Product " + currentProduct;
+                newProduct.DefaultValue = 1.0f;
+                newProduct.UnitId       = 1 + currentProduct % UNIT_COUNT;
+                _storage.insertProduct(newProduct);
+            }
+            ShoppingList newList = new ShoppingList();
+            newList.Id    = LIST_ID;
+            newList.Title = "Benchmark list";
+            int entryCount = Math.min(ACTIVE_ENTRY_COUNT, _productCount);
+            for (int currentEntry = 0; currentEntry < entryCount; currentEntry++) {
+                newList.ListEntries.put(1 + (int) ((long) currentEntry * _productCount / entryCount), 2.0f);
+            }
+            _storage.insertShoppingList(newList);
+            if (db != null) {
+                db.setTransactionSuccessful();
+            }
+        } finally {
+            if (db != null) {
+                db.endTransaction();
+            }
+        }
+    }
+
+    public static void delete(Context _context) {
+        File databaseFile = _context.getDatabasePath(DB_NAME);
+        _context.deleteDatabase(DB_NAME);
+        File journalDir = _context.getDatabasePath(JOURNAL_DIR_NAME);
+        File journalFiles[] = journalDir.listFiles();
+        if (journalFiles != null) {
+            for (File currentFile : journalFiles) {
+                currentFile.delete();
+            }
+            journalDir.delete();
+        }
+        File databaseDir = databaseFile.getParentFile();
+        if (databaseDir != null) {
+            databaseDir.delete();
+        }
+    }
+}
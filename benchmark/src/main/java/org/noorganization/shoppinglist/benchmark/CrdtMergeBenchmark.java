@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.benchmark;
+
+import org.noorganization.shoppinglist.sync.ListCrdt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging changes of another replica into a shared list of listSize entries. Merging a delta should not depend on
+ * listSize; merging a whole state, as needed when a replica joins, is linear in it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrdtMergeBenchmark {
+
+    @Param({ "100", "10000", "100000" })
+    public int listSize;
+
+    private ListCrdt m_local;
+    private ListCrdt m_remote;
+    private byte     m_remoteState[];
+    private Random   m_random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        m_random = new Random(42);
+        m_local  = new ListCrdt(1);
+        for (int currentEntry = 0; currentEntry < listSize; currentEntry++) {
+            m_local.setEntry(currentEntry, 1.0f);
+        }
+        m_remote = new ListCrdt(2);
+        m_remote.join(m_local);
+        // Concurrent changes of a tenth of the list on both sides.
+        for (int currentChange = 0; currentChange < listSize / 10; currentChange++) {
+            m_local.setEntry(m_random.nextInt(listSize), 2.0f);
+            m_remote.setEntry(m_random.nextInt(listSize), 3.0f);
+        }
+        m_remoteState = m_remote.encode();
+    }
+
+    @Benchmark
+    public ListCrdt mergeDelta() {
+        ListCrdt delta = m_remote.setEntry(m_random.nextInt(listSize), m_random.nextFloat());
+        m_local.join(ListCrdt.decode(delta.encode(), ListCrdt.NO_REPLICA));
+        return m_local;
+    }
+
+    @Benchmark
+    public ListCrdt mergeState() {
+        m_local.join(ListCrdt.decode(m_remoteState, ListCrdt.NO_REPLICA));
+        return m_local;
+    }
+
+    @Benchmark
+    public byte[] encodeState() {
+        return m_local.encode();
+    }
+}
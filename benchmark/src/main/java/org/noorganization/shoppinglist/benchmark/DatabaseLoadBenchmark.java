@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.benchmark;
+
+import android.content.Context;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a whole catalog from SQLite through {@link ModelManager#load(StorageProvider)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseLoadBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int catalogSize;
+
+    private Context m_context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        m_context = CatalogFixture.createContext();
+        CatalogFixture.createStorage(m_context, CatalogFixture.STORAGE_SQLITE, catalogSize).close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CatalogFixture.delete(m_context);
+    }
+
+    @Benchmark
+    public int load() {
+        ModelManager model = ModelManager.getInstance();
+        model.load(CatalogFixture.openStorage(m_context)).close();
+        return model.getCountOfShoppingLists();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+
+package org.noorganization.shoppinglist.benchmark;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Locale;
+
+/**
+ * Measures the heap kept alive by the Products of a loaded model and, for comparison, by a LinkedList of Product
+ * objects, as the model kept them before. The catalog of {@link CatalogFixture} has a unique title per Product. The
+ * title Strings are held by the storage in both cases, so they are not counted.
+ * <p>
+ * Not a JMH benchmark: run it with <code>./gradlew :benchmark:footprint -PcatalogSize=100000</code>.
+ */
+public class HeapFootprint {
+
+    private HeapFootprint() {
+    }
+
+    public static void main(String _args[]) throws InterruptedException {
+        int productCount = (_args.length > 0 ? Integer.parseInt(_args[0]) : 100000);
+        InMemoryStorage storage = new InMemoryStorage();
+        CatalogFixture.populate(storage, productCount);
+
+        long emptyBytes = usedBytes();
+        ModelManager model = ModelManager.getInstance();
+        model.load(storage);
+        long modelBytes = usedBytes() - emptyBytes;
+
+        LinkedList<Product> products = new LinkedList<>(Arrays.asList(model.getAllProducts()));
+        long listBytes = usedBytes() - emptyBytes - modelBytes;
+
+        System.out.println(String.format(Locale.US, "%d Products with unique titles, title Strings not counted:",
+                products.size()));
+        print("loaded model", modelBytes, productCount);
+        print("LinkedList of Products", listBytes, productCount);
+        System.out.println("  pooled Strings: " + model.getStringPool().size());
+        // Keeps both alive until measured.
+        System.out.println(model.getProductStore().size() == products.size() ? "" : "size mismatch");
+    }
+
+    private static void print(String _what, long _bytes, int _productCount) {
+        System.out.println(String.format(Locale.US, "  %-24s %6.2f MiB, %5.1f bytes per Product", _what,
+                _bytes / (1024.0 * 1024.0), (double) _bytes / _productCount));
+    }
+
+    private static long usedBytes() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long rtn = Long.MAX_VALUE;
+        // Several collections, until the used heap stops shrinking.
+        for (int currentRound = 0; currentRound < 10; currentRound++) {
+            System.gc();
+            Thread.sleep(50);
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            if (used >= rtn) {
+                break;
+            }
+            rtn = used;
+        }
+        return rtn;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.benchmark;
+
+import android.content.Context;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single operations of the {@link ModelManager} on a loaded catalog. Run against SQLite, against the append-only
+ * journal and against the in-memory storage, which shows the cost of the model itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelManagerBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int catalogSize;
+
+    @Param({ CatalogFixture.STORAGE_SQLITE, CatalogFixture.STORAGE_MEMORY, CatalogFixture.STORAGE_JOURNAL,
+            CatalogFixture.STORAGE_JOURNAL_SYNC })
+    public String storage;
+
+    private Context         m_context;
+    private ModelManager    m_model;
+    private StorageProvider m_storage;
+    private ShoppingList    m_list;
+    private Random          m_random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        m_context = CatalogFixture.createContext();
+
+        m_model   = ModelManager.getInstance();
+        m_storage = m_model.load(CatalogFixture.createStorage(m_context, storage, catalogSize));
+        m_list    = m_model.getShoppingListById(CatalogFixture.LIST_ID);
+        m_random  = new Random(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        m_storage.close();
+        CatalogFixture.delete(m_context);
+    }
+
+    private int randomProductId() {
+        return 1 + m_random.nextInt(catalogSize);
+    }
+
+    @Benchmark
+    public Product getProductById() {
+        return m_model.getProductById(randomProductId());
+    }
+
+    @Benchmark
+    public Product[] getAllProducts() {
+        return m_model.getAllProducts();
+    }
+
+    @Benchmark
+    public ShoppingList getShoppingListById() {
+        return m_model.getShoppingListById(CatalogFixture.LIST_ID);
+    }
+
+    @Benchmark
+    public Product createAndDeleteProduct() {
+        Product createdProduct = m_model.createProduct("Benchmark product", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_model.deleteProduct(createdProduct, m_storage);
+        return createdProduct;
+    }
+
+    @Benchmark
+    public boolean updateProduct() {
+        Product productToUpdate = m_model.getProductById(randomProductId());
+        productToUpdate.DefaultValue = m_random.nextFloat();
+        return m_model.updateProduct(productToUpdate, m_storage);
+    }
+
+    @Benchmark
+    public boolean updateShoppingList() {
+        m_list.ListEntries.setValueAt(m_random.nextInt(m_list.ListEntries.size()), 1.0f + m_random.nextInt(5));
+        return m_model.updateShoppingList(m_list, m_storage);
+    }
+}
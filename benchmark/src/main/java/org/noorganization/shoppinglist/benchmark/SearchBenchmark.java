@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.benchmark;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fuzzy search over catalogs of compound titles built from a small vocabulary, so common trigrams have long postings.
+ * Queries are typed prefixes, compounds parts and misspellings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final String WORDS[] = { "Voll", "korn", "brot", "Milch", "Kaese", "Wurst", "Apfel", "saft",
+            "Kartoffel", "Suess", "Tomaten", "Sosse", "Nudeln", "Reis", "Bio", "Joghurt", "Butter", "Mehl", "Zucker",
+            "Schinken", "Salat", "Gurke", "Paprika", "Zwiebel", "Knoblauch", "Hafer", "Flocken", "Mineral", "wasser" };
+
+    private static final String QUERIES[] = { "brot", "Vollkornbrot", "kartofel", "apfelsaft", "mil", "Zwibel" };
+
+    @Param({ "1000", "100000" })
+    public int productCount;
+
+    private ModelManager    m_model;
+    private StorageProvider m_storage;
+    private int             m_nextQuery;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        m_model   = ModelManager.getInstance();
+        m_storage = m_model.load(new InMemoryStorage());
+        m_model.setHistoryLimit(0);
+        for (int currentProduct = 0; currentProduct < productCount; currentProduct++) {
+            String title = WORDS[random.nextInt(WORDS.length)] + WORDS[random.nextInt(WORDS.length)].toLowerCase();
+            if (random.nextBoolean()) {
+                title = title + " " + WORDS[random.nextInt(WORDS.length)] + " " + currentProduct;
+            }
+            m_model.createProduct(title, 1.0f, ModelManager.INVALID_ID, m_storage);
+        }
+        m_model.getSearchIndex();
+    }
+
+    @Benchmark
+    public int[] search() {
+        m_nextQuery = (m_nextQuery + 1) % QUERIES.length;
+        return m_model.searchProducts(QUERIES[m_nextQuery], 20);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.benchmark;
+
+import android.content.Context;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+import org.noorganization.shoppinglist.sync.LocalSyncServer;
+import org.noorganization.shoppinglist.sync.SyncClient;
+import org.noorganization.shoppinglist.sync.SyncResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sync after changing some Products of a catalog, which was synced before. The time should follow changeCount and not
+ * catalogSize.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SyncBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int catalogSize;
+
+    @Param({ "1", "10", "100" })
+    public int changeCount;
+
+    private Context         m_context;
+    private ModelManager    m_model;
+    private StorageProvider m_storage;
+    private SyncClient      m_client;
+    private Random          m_random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        m_context = CatalogFixture.createContext();
+
+        m_model   = ModelManager.getInstance();
+        m_storage = m_model.load(CatalogFixture.createStorage(m_context, CatalogFixture.STORAGE_MEMORY, catalogSize));
+        m_client  = new SyncClient(m_model, m_storage, new LocalSyncServer(), "benchmark");
+        m_client.sync();
+        m_random  = new Random(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        m_storage.close();
+        CatalogFixture.delete(m_context);
+    }
+
+    @Benchmark
+    public SyncResult changeAndSync() {
+        for (int currentChange = 0; currentChange < changeCount; currentChange++) {
+            Product productToChange = m_model.getProductById(1 + m_random.nextInt(catalogSize));
+            productToChange.DefaultValue = m_random.nextFloat();
+            m_model.updateProduct(productToChange, m_storage);
+        }
+        return m_client.sync();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.presenter;
+
+import android.content.Context;
+
+import org.noorganization.shoppinglist.benchmark.CatalogFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queries the views issue on every refresh. Lives in the presenter package to reach the package private factory
+ * methods, which allow choosing the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PresenterBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int catalogSize;
+
+    private Context               m_context;
+    private ShoppingListPresenter m_listPresenter;
+    private ProductPresenter      m_productPresenter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        m_context = CatalogFixture.createContext();
+        CatalogFixture.createStorage(m_context, CatalogFixture.STORAGE_SQLITE, catalogSize).close();
+
+        m_listPresenter = ShoppingListPresenter.resetSingleton(m_context, CatalogFixture.SP_NAME,
+                CatalogFixture.DB_NAME);
+        m_productPresenter = ProductPresenter.getInstance(m_context, CatalogFixture.DB_NAME, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CatalogFixture.delete(m_context);
+    }
+
+    @Benchmark
+    public SortedMap<String, Integer> getActiveListEntries() {
+        return m_listPresenter.getActiveListEntries();
+    }
+
+    @Benchmark
+    public SortedMap<String, Integer> getInactiveListEntries() {
+        return m_listPresenter.getInactiveListEntries();
+    }
+
+    @Benchmark
+    public SortedMap<String, Integer> getProducts() {
+        return m_productPresenter.getProducts();
+    }
+}
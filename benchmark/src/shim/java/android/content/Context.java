@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package android.content;
+
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * JVM stand-in for android.content.Context. Databases are kept in a directory of the local file system (see the
+ * stand-in of {@link org.noorganization.shoppinglist.model.storage.AndroidSqlDatabase}), shared preferences only in
+ * memory.
+ */
+public class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    private File                                 m_databaseDir;
+    private HashMap<String, InMemoryPreferences> m_preferences;
+
+    public Context(File _databaseDir) {
+        m_databaseDir = _databaseDir;
+        m_preferences = new HashMap<>();
+        if (!m_databaseDir.isDirectory() && !m_databaseDir.mkdirs()) {
+            throw new IllegalStateException("Could not create " + m_databaseDir);
+        }
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getDatabasePath(String _name) {
+        return new File(m_databaseDir, _name);
+    }
+
+    public boolean deleteDatabase(String _name) {
+        new File(m_databaseDir, _name + "-journal").delete();
+        return getDatabasePath(_name).delete();
+    }
+
+    public SharedPreferences getSharedPreferences(String _name, int _mode) {
+        InMemoryPreferences preferences = m_preferences.get(_name);
+        if (preferences == null) {
+            preferences = new InMemoryPreferences();
+            m_preferences.put(_name, preferences);
+        }
+        return preferences;
+    }
+
+    private static class InMemoryPreferences implements SharedPreferences, SharedPreferences.Editor {
+
+        private HashMap<String, Object> m_values = new HashMap<>();
+
+        @Override
+        public boolean contains(String _key) {
+            return m_values.containsKey(_key);
+        }
+
+        @Override
+        public int getInt(String _key, int _defValue) {
+            Object value = m_values.get(_key);
+            return (value instanceof Integer ? (Integer) value : _defValue);
+        }
+
+        @Override
+        public long getLong(String _key, long _defValue) {
+            Object value = m_values.get(_key);
+            return (value instanceof Long ? (Long) value : _defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String _key, boolean _defValue) {
+            Object value = m_values.get(_key);
+            return (value instanceof Boolean ? (Boolean) value : _defValue);
+        }
+
+        @Override
+        public Editor edit() {
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String _key, int _value) {
+            m_values.put(_key, _value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String _key, long _value) {
+            m_values.put(_key, _value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String _key, boolean _value) {
+            m_values.put(_key, _value);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            m_values.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return true;
+        }
+
+        @Override
+        public void apply() {
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package android.content;
+
+/**
+ * JVM stand-in for android.content.SharedPreferences. Only covers what the presenters use.
+ */
+public interface SharedPreferences {
+
+    boolean contains(String _key);
+
+    int getInt(String _key, int _defValue);
+
+    long getLong(String _key, long _defValue);
+
+    boolean getBoolean(String _key, boolean _defValue);
+
+    Editor edit();
+
+    interface Editor {
+        Editor putInt(String _key, int _value);
+
+        Editor putLong(String _key, long _value);
+
+        Editor putBoolean(String _key, boolean _value);
+
+        Editor clear();
+
+        boolean commit();
+
+        void apply();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package android.os;
+
+import java.util.HashMap;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * JVM stand-in for android.os.Handler. Delayed tasks run on a shared timer thread instead of the looper's thread, so
+ * benchmarks must not rely on them; presenters only use them for writes, which are flushed explicitly as well.
+ */
+public class Handler {
+
+    private static final Timer TIMER = new Timer("Handler", true);
+
+    private HashMap<Runnable, TimerTask> m_pending;
+
+    public Handler(Looper _looper) {
+        m_pending = new HashMap<>();
+    }
+
+    public boolean post(Runnable _task) {
+        return postDelayed(_task, 0);
+    }
+
+    public synchronized boolean postDelayed(final Runnable _task, long _delayMillis) {
+        TimerTask timerTask = new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (Handler.this) {
+                    m_pending.remove(_task);
+                }
+                _task.run();
+            }
+        };
+        removeCallbacks(_task);
+        m_pending.put(_task, timerTask);
+        TIMER.schedule(timerTask, Math.max(_delayMillis, 0));
+        return true;
+    }
+
+    public synchronized void removeCallbacks(Runnable _task) {
+        TimerTask timerTask = m_pending.remove(_task);
+        if (timerTask != null) {
+            timerTask.cancel();
+        }
+    }
+}
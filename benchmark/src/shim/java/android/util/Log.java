@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+
+package android.util;
+
+/**
+ * JVM stand-in for android.util.Log, which writes warnings to standard error.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int w(String _tag, String _message) {
+        return w(_tag, _message, null);
+    }
+
+    public static int w(String _tag, String _message, Throwable _cause) {
+        System.err.println("W/" + _tag + ": " + _message);
+        if (_cause != null) {
+            _cause.printStackTrace();
+        }
+        return 0;
+    }
+}
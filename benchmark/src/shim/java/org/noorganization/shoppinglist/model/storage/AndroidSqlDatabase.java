@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import android.content.Context;
+
+/**
+ * JVM stand-in for the app's AndroidSqlDatabase, so the presenters run unchanged: the database of the Context is
+ * opened through the SQLite JDBC driver.
+ */
+public class AndroidSqlDatabase {
+
+    private AndroidSqlDatabase() {
+    }
+
+    public static SqlStorage openStorage(Context _context, String _name) {
+        if (_context == null || _name == null) {
+            throw new IllegalArgumentException("A parameter was null.");
+        }
+
+        String realFilename = _name;
+        if (!realFilename.endsWith(".db")) {
+            realFilename = realFilename.concat(".db");
+        }
+
+        return new SqlStorage(JdbcSqlDatabase.openSqlite(_context.getDatabasePath(realFilename).getPath()));
+    }
+}
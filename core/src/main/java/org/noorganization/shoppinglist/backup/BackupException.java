@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.backup;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a backup is damaged, truncated or of an unknown format version.
+ */
+public class BackupException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BackupException(String _message) {
+        super(_message);
+    }
+
+    public BackupException(String _message, Throwable _cause) {
+        super(_message, _cause);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.backup;
+
+import org.noorganization.shoppinglist.model.storage.BulkInsert;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Reads a backup written by {@link BackupWriter} record by record, so the memory needed does not depend on its size.
+ */
+public class BackupReader {
+
+    /**
+     * Limit for the length of strings, so a damaged backup can't allocate huge arrays.
+     */
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+    private static final int BUFFER_SIZE       = 64 * 1024;
+
+    private BackupReader() {
+    }
+
+    /**
+     * Restores a backup into a storage through its {@link BulkInsert}. If the backup is damaged, the bulk insert is
+     * aborted. Restore into an empty storage and load the model from it afterwards.
+     * @param _input Is not closed.
+     * @return Whether all objects were stored.
+     * @throws BackupException If the backup is damaged.
+     */
+    public static boolean restore(InputStream _input, StorageProvider _storage) throws IOException {
+        if (_input == null || _storage == null) {
+            throw new IllegalArgumentException("A parameter was null.");
+        }
+
+        BulkInsert bulkInsert = _storage.beginBulkInsert();
+        boolean committed = false;
+        try {
+            read(_input, bulkInsert);
+            committed = true;
+            return bulkInsert.commit();
+        } finally {
+            if (!committed) {
+                bulkInsert.abort();
+            }
+        }
+    }
+
+    /**
+     * Passes all objects of a backup to the callback, in the order they were written. The last objects may have been
+     * passed already when a damage is detected.
+     * @param _input Is not closed.
+     * @throws BackupException If the backup is damaged.
+     */
+    public static void read(InputStream _input, StorageProvider.LoadCallback _callback) throws IOException {
+        if (_input == null || _callback == null) {
+            throw new IllegalArgumentException("A parameter was null.");
+        }
+
+        CheckedInputStream checkedInput = new CheckedInputStream(new BufferedInputStream(_input, BUFFER_SIZE),
+                new CRC32());
+        DataInputStream input = new DataInputStream(checkedInput);
+        try {
+            byte magic[] = new byte[BackupWriter.MAGIC.length];
+            input.readFully(magic);
+            if (!Arrays.equals(BackupWriter.MAGIC, magic)) {
+                throw new BackupException("Not a backup.");
+            }
+            int formatVersion = input.readUnsignedByte();
+            if (formatVersion != BackupWriter.FORMAT_VERSION) {
+                throw new BackupException("Backup has unknown format version " + formatVersion + ".");
+            }
+
+            long recordCount = 0;
+            while (true) {
+                int recordType = input.readUnsignedByte();
+                switch (recordType) {
+                    case BackupWriter.RECORD_UNIT: {
+                        int id = input.readInt();
+                        _callback.onUnit(id, readString(input));
+                        break;
+                    }
+                    case BackupWriter.RECORD_PRODUCT: {
+                        int id = input.readInt();
+                        String title = readString(input);
+                        float defaultValue = input.readFloat();
+                        _callback.onProduct(id, title, defaultValue, input.readInt());
+                        break;
+                    }
+                    case BackupWriter.RECORD_SHOPPING_LIST: {
+                        int id = input.readInt();
+                        _callback.onShoppingList(id, readString(input));
+                        break;
+                    }
+                    case BackupWriter.RECORD_LIST_ENTRY: {
+                        int shoppingListId = input.readInt();
+                        int productId = input.readInt();
+                        _callback.onListEntry(shoppingListId, productId, input.readFloat());
+                        break;
+                    }
+                    case BackupWriter.RECORD_END: {
+                        int expectedChecksum = (int) checkedInput.getChecksum().getValue();
+                        if (input.readLong() != recordCount || input.readInt() != expectedChecksum) {
+                            throw new BackupException("Backup is damaged.");
+                        }
+                        return;
+                    }
+                    default:
+                        throw new BackupException("Backup contains unknown record type " + recordType + ".");
+                }
+                recordCount++;
+            }
+        } catch (EOFException e) {
+            throw new BackupException("Backup is truncated.", e);
+        }
+    }
+
+    private static String readString(DataInputStream _input) throws IOException {
+        int length = _input.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new BackupException("String of length " + length + " is not valid.");
+        }
+        char chars[] = new char[length];
+        for (int currentIndex = 0; currentIndex < length; currentIndex++) {
+            chars[currentIndex] = _input.readChar();
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.backup;
+
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes a backup of all Units, Products and ShoppingLists. Every object is written as soon as the storage reads it,
+ * so the memory needed does not depend on the size of the catalog or the lists.
+ * <p>
+ * Format: the bytes "EKLB", the format version and one record per object in the order of {@link
+ * StorageProvider#load(StorageProvider.LoadCallback)}. Each record starts with its type. Numbers are big endian, floats
+ * keep their bits and strings are written as their count of chars followed by the chars, so nothing gets lost. The
+ * last record holds the count of records and a CRC32 of all bytes before it, to detect truncated or damaged backups.
+ */
+public class BackupWriter implements StorageProvider.LoadCallback {
+
+    public static final int FORMAT_VERSION = 1;
+
+    static final byte MAGIC[] = { 'E', 'K', 'L', 'B' };
+
+    static final int RECORD_END           = 0;
+    static final int RECORD_UNIT          = 1;
+    static final int RECORD_PRODUCT       = 2;
+    static final int RECORD_SHOPPING_LIST = 3;
+    static final int RECORD_LIST_ENTRY    = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CheckedOutputStream m_checkedOutput;
+    private DataOutputStream    m_output;
+    private long                m_recordCount;
+
+    private BackupWriter(OutputStream _output) throws IOException {
+        m_checkedOutput = new CheckedOutputStream(new BufferedOutputStream(_output, BUFFER_SIZE), new CRC32());
+        m_output        = new DataOutputStream(m_checkedOutput);
+        m_recordCount   = 0;
+
+        m_output.write(MAGIC);
+        m_output.writeByte(FORMAT_VERSION);
+    }
+
+    /**
+     * Writes a backup of everything in the storage. The storage must not be changed meanwhile, so call it on the
+     * thread changing the model.
+     * @param _output Is flushed, but not closed.
+     */
+    public static void export(StorageProvider _storage, OutputStream _output) throws IOException {
+        if (_storage == null || _output == null) {
+            throw new IllegalArgumentException("A parameter was null.");
+        }
+
+        BackupWriter writer = new BackupWriter(_output);
+        try {
+            _storage.load(writer);
+        } catch (WriteFailure e) {
+            throw e.Cause;
+        }
+        writer.finish();
+    }
+
+    @Override
+    public void onUnit(int _id, String _unitText) {
+        try {
+            startRecord(RECORD_UNIT);
+            m_output.writeInt(_id);
+            writeString(_unitText);
+        } catch (IOException e) {
+            throw new WriteFailure(e);
+        }
+    }
+
+    @Override
+    public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+        try {
+            startRecord(RECORD_PRODUCT);
+            m_output.writeInt(_id);
+            writeString(_title);
+            m_output.writeFloat(_defaultValue);
+            m_output.writeInt(_unitId);
+        } catch (IOException e) {
+            throw new WriteFailure(e);
+        }
+    }
+
+    @Override
+    public void onShoppingList(int _id, String _title) {
+        try {
+            startRecord(RECORD_SHOPPING_LIST);
+            m_output.writeInt(_id);
+            writeString(_title);
+        } catch (IOException e) {
+            throw new WriteFailure(e);
+        }
+    }
+
+    @Override
+    public void onListEntry(int _shoppingListId, int _productId, float _value) {
+        try {
+            startRecord(RECORD_LIST_ENTRY);
+            m_output.writeInt(_shoppingListId);
+            m_output.writeInt(_productId);
+            m_output.writeFloat(_value);
+        } catch (IOException e) {
+            throw new WriteFailure(e);
+        }
+    }
+
+    private void startRecord(int _type) throws IOException {
+        m_output.writeByte(_type);
+        m_recordCount++;
+    }
+
+    private void writeString(String _string) throws IOException {
+        m_output.writeInt(_string.length());
+        m_output.writeChars(_string);
+    }
+
+    private void finish() throws IOException {
+        m_output.writeByte(RECORD_END);
+        long checksum = m_checkedOutput.getChecksum().getValue();
+        m_output.writeLong(m_recordCount);
+        m_output.writeInt((int) checksum);
+        m_output.flush();
+    }
+
+    /**
+     * Carries an IOException through the callback, which can't throw it.
+     */
+    private static class WriteFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final IOException Cause;
+
+        WriteFailure(IOException _cause) {
+            super(_cause);
+            Cause = _cause;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.metrics;
+
+/**
+ * An immutable copy of a {@link LatencyHistogram}. All durations are in nanoseconds.
+ */
+public class HistogramSnapshot {
+
+    public final String Name;
+    public final long   Count;
+    public final long   TotalNanos;
+    public final long   MaxNanos;
+
+    private final long m_bucketCounts[];
+
+    HistogramSnapshot(String _name, long _count, long _totalNanos, long _maxNanos, long _bucketCounts[]) {
+        Name           = _name;
+        Count          = _count;
+        TotalNanos     = _totalNanos;
+        MaxNanos       = _maxNanos;
+        m_bucketCounts = _bucketCounts;
+    }
+
+    public long getMeanNanos() {
+        return (Count == 0 ? 0 : TotalNanos / Count);
+    }
+
+    /**
+     * @param _percentile Between 0.0 and 100.0.
+     * @return The upper bound of the bucket containing the percentile, but never more than the recorded maximum.
+     * 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double _percentile) {
+        if (Count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Count * Math.min(100.0, Math.max(0.0, _percentile)) / 100.0);
+        rank = Math.max(1, rank);
+        long seenCount = 0;
+        for (int currentBucket = 0; currentBucket < m_bucketCounts.length; currentBucket++) {
+            seenCount += m_bucketCounts[currentBucket];
+            if (seenCount >= rank) {
+                return Math.min(LatencyHistogram.bucketUpperBound(currentBucket), MaxNanos);
+            }
+        }
+        return MaxNanos;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds. Values are counted in log-linear buckets: every power of two is
+ * split into {@link #SUB_BUCKET_COUNT} buckets, so percentiles have a relative error of at most 12.5%. Recording is a
+ * few atomic increments and can be done from any thread.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS  = 3;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT     = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final String          m_name;
+    private final AtomicLongArray m_buckets;
+    private final AtomicLong      m_sum;
+    private final AtomicLong      m_max;
+
+    LatencyHistogram(String _name) {
+        m_name    = _name;
+        m_buckets = new AtomicLongArray(BUCKET_COUNT);
+        m_sum     = new AtomicLong();
+        m_max     = new AtomicLong();
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Records the time elapsed since _startNanos.
+     * @param _startNanos A value returned by {@link Metrics#start()}. If metrics were disabled, nothing is recorded.
+     */
+    public void stop(long _startNanos) {
+        if (_startNanos == Metrics.NOT_STARTED) {
+            return;
+        }
+        record(System.nanoTime() - _startNanos);
+    }
+
+    /**
+     * Records a duration. Negative durations are counted as 0.
+     */
+    public void record(long _nanos) {
+        long value = Math.max(0, _nanos);
+        m_buckets.incrementAndGet(bucketIndex(value));
+        m_sum.addAndGet(value);
+
+        long currentMax = m_max.get();
+        while (value > currentMax && !m_max.compareAndSet(currentMax, value)) {
+            currentMax = m_max.get();
+        }
+    }
+
+    /**
+     * Copies the current state. Concurrent recordings may be partially contained.
+     */
+    public HistogramSnapshot snapshot() {
+        long bucketCounts[] = new long[BUCKET_COUNT];
+        long totalCount = 0;
+        for (int currentBucket = 0; currentBucket < BUCKET_COUNT; currentBucket++) {
+            bucketCounts[currentBucket] = m_buckets.get(currentBucket);
+            totalCount += bucketCounts[currentBucket];
+        }
+        return new HistogramSnapshot(m_name, totalCount, m_sum.get(), m_max.get(), bucketCounts);
+    }
+
+    void reset() {
+        for (int currentBucket = 0; currentBucket < BUCKET_COUNT; currentBucket++) {
+            m_buckets.set(currentBucket, 0);
+        }
+        m_sum.set(0);
+        m_max.set(0);
+    }
+
+    static int bucketIndex(long _value) {
+        if (_value < SUB_BUCKET_COUNT) {
+            return (int) _value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(_value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (_value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return The biggest value counted in the bucket.
+     */
+    static long bucketUpperBound(int _index) {
+        if (_index < SUB_BUCKET_COUNT) {
+            return _index;
+        }
+        int shift = _index / SUB_BUCKET_COUNT - 1;
+        int subBucket = _index % SUB_BUCKET_COUNT;
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+}
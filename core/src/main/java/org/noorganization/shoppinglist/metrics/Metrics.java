@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of counters and latency histograms for model and presenter operations. Metrics are disabled by default;
+ * then {@link #start()} returns {@link #NOT_STARTED} without reading the clock and stopping a histogram returns at once.
+ * <p>
+ * Usage:
+ * <pre>
+ * long startTime = Metrics.start();
+ * try {
+ *     ...
+ * } finally {
+ *     HISTOGRAM.stop(startTime);
+ * }
+ * </pre>
+ */
+public class Metrics {
+
+    public static final long NOT_STARTED = 0L;
+
+    private static volatile boolean s_enabled = false;
+
+    private static final ConcurrentHashMap<String, LatencyHistogram> s_histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, AtomicLong>       s_counters   = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static void setEnabled(boolean _enabled) {
+        s_enabled = _enabled;
+    }
+
+    public static boolean isEnabled() {
+        return s_enabled;
+    }
+
+    /**
+     * @return The current time in nanoseconds or {@link #NOT_STARTED} if metrics are disabled.
+     */
+    public static long start() {
+        if (!s_enabled) {
+            return NOT_STARTED;
+        }
+        long now = System.nanoTime();
+        return (now == NOT_STARTED ? 1L : now);
+    }
+
+    /**
+     * Gets or registers a histogram. Keep the returned object instead of looking it up for every recording.
+     */
+    public static LatencyHistogram histogram(String _name) {
+        LatencyHistogram rtn = s_histograms.get(_name);
+        if (rtn == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram(_name);
+            rtn = s_histograms.putIfAbsent(_name, newHistogram);
+            if (rtn == null) {
+                rtn = newHistogram;
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * Increments a counter, if metrics are enabled.
+     */
+    public static void count(String _name, long _delta) {
+        if (!s_enabled) {
+            return;
+        }
+        AtomicLong counter = s_counters.get(_name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = s_counters.putIfAbsent(_name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(_delta);
+    }
+
+    /**
+     * @return Snapshots of all histograms, which recorded something, sorted by name.
+     */
+    public static List<HistogramSnapshot> snapshotHistograms() {
+        List<HistogramSnapshot> rtn = new ArrayList<>();
+        for (LatencyHistogram currentHistogram : s_histograms.values()) {
+            HistogramSnapshot currentSnapshot = currentHistogram.snapshot();
+            if (currentSnapshot.Count > 0) {
+                rtn.add(currentSnapshot);
+            }
+        }
+        Collections.sort(rtn, new Comparator<HistogramSnapshot>() {
+            @Override
+            public int compare(HistogramSnapshot _lhs, HistogramSnapshot _rhs) {
+                return _lhs.Name.compareTo(_rhs.Name);
+            }
+        });
+        return rtn;
+    }
+
+    /**
+     * @return The current value of all counters, sorted by name.
+     */
+    public static Map<String, Long> snapshotCounters() {
+        Map<String, Long> rtn = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> currentCounter : s_counters.entrySet()) {
+            rtn.put(currentCounter.getKey(), currentCounter.getValue().get());
+        }
+        return rtn;
+    }
+
+    /**
+     * Writes all metrics as a human readable table. Durations are in microseconds.
+     */
+    public static String dump() {
+        StringBuilder rtn = new StringBuilder();
+        rtn.append(String.format(Locale.US, "%-48s %9s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "mean", "p50", "p90", "p99", "max"));
+        for (HistogramSnapshot currentSnapshot : snapshotHistograms()) {
+            rtn.append(String.format(Locale.US, "%-48s %9d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    currentSnapshot.Name,
+                    currentSnapshot.Count,
+                    currentSnapshot.getMeanNanos() / 1000.0,
+                    currentSnapshot.getPercentileNanos(50.0) / 1000.0,
+                    currentSnapshot.getPercentileNanos(90.0) / 1000.0,
+                    currentSnapshot.getPercentileNanos(99.0) / 1000.0,
+                    currentSnapshot.MaxNanos / 1000.0));
+        }
+        for (Map.Entry<String, Long> currentCounter : snapshotCounters().entrySet()) {
+            rtn.append(String.format(Locale.US, "%-48s %9d%n", currentCounter.getKey(), currentCounter.getValue()));
+        }
+        return rtn.toString();
+    }
+
+    /**
+     * Clears all recorded values. Registered histograms stay valid.
+     */
+    public static void reset() {
+        for (LatencyHistogram currentHistogram : s_histograms.values()) {
+            currentHistogram.reset();
+        }
+        s_counters.clear();
+    }
+}
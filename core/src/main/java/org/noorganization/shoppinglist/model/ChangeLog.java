@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Remembers for every Unit, Product and ShoppingList the sequence number of its last change (including deletion). The
+ * sequence counts all changes made through the {@link ModelManager} since the model was loaded, so the objects
+ * changed after a known sequence number can be found in O(k log n) for k changes.
+ * <p>
+ * Loading the model starts a new epoch with an empty log. Sequence numbers of different epochs can't be compared.
+ * <p>
+ * Listeners are told about every change as it's recorded, e.g. to notify observers of exactly the changed objects.
+ */
+public class ChangeLog {
+
+    public static final int KIND_UNIT          = 1;
+    public static final int KIND_PRODUCT       = 2;
+    public static final int KIND_SHOPPING_LIST = 3;
+
+    public interface Visitor {
+        void visit(int _kind, int _id, long _sequence);
+    }
+
+    /**
+     * Called on the thread changing the model, in the middle of the change, so it should only take note of it.
+     */
+    public interface Listener {
+        void onChanged(int _kind, int _id);
+
+        /**
+         * The model was loaded again, so every object may have changed.
+         */
+        void onReset();
+    }
+
+    private static int s_nextEpoch = 1;
+
+    private Map<Long, Long>     m_sequenceByObject;
+    private TreeMap<Long, Long> m_objectBySequence;
+    private long                m_sequence;
+    private int                 m_epoch;
+    private List<Listener>      m_listeners;
+
+    ChangeLog() {
+        m_sequenceByObject = new HashMap<>();
+        m_objectBySequence = new TreeMap<>();
+        m_listeners        = new CopyOnWriteArrayList<>();
+        reset();
+    }
+
+    /**
+     * Adds a listener, which may be done on any thread.
+     */
+    public void addListener(Listener _listener) {
+        if (_listener == null) {
+            throw new IllegalArgumentException("Listener was null.");
+        }
+        m_listeners.add(_listener);
+    }
+
+    public void removeListener(Listener _listener) {
+        m_listeners.remove(_listener);
+    }
+
+    /**
+     * @return The sequence number of the last change. 0 if nothing changed in this epoch.
+     */
+    public long getSequence() {
+        return m_sequence;
+    }
+
+    public int getEpoch() {
+        return m_epoch;
+    }
+
+    /**
+     * @return How many objects changed in this epoch.
+     */
+    public int size() {
+        return m_sequenceByObject.size();
+    }
+
+    /**
+     * Visits every object changed after the sequence number, ordered by its last change.
+     */
+    public void visitChangesSince(long _sequence, Visitor _visitor) {
+        for (Map.Entry<Long, Long> currentChange : m_objectBySequence.tailMap(_sequence, false).entrySet()) {
+            long object = currentChange.getValue();
+            _visitor.visit((int) (object >>> 32), (int) object, currentChange.getKey());
+        }
+    }
+
+    /**
+     * @return The version of an object. It changes with every change of the object and with every load of the model, so
+     * a writer can check whether the object changed since it was read. Versions are only compared for equality.
+     */
+    public long getVersion(int _kind, int _id) {
+        Long lastSequence = m_sequenceByObject.get(objectOf(_kind, _id));
+        // 2^40 changes per epoch are never reached by a single process.
+        return ((long) m_epoch << 40) | (lastSequence == null ? 0 : lastSequence);
+    }
+
+    void record(int _kind, int _id) {
+        long object = objectOf(_kind, _id);
+        m_sequence++;
+        Long previousSequence = m_sequenceByObject.put(object, m_sequence);
+        if (previousSequence != null) {
+            m_objectBySequence.remove(previousSequence);
+        }
+        m_objectBySequence.put(m_sequence, object);
+        for (Listener currentListener : m_listeners) {
+            currentListener.onChanged(_kind, _id);
+        }
+    }
+
+    private static long objectOf(int _kind, int _id) {
+        return ((long) _kind << 32) | (_id & 0xFFFFFFFFL);
+    }
+
+    void reset() {
+        m_sequenceByObject.clear();
+        m_objectBySequence.clear();
+        m_sequence = 0;
+        synchronized (ChangeLog.class) {
+            m_epoch = s_nextEpoch++;
+        }
+        for (Listener currentListener : m_listeners) {
+            currentListener.onReset();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import org.noorganization.shoppinglist.model.storage.ConsumptionStore;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Estimates when Products run out, from how often and how much of them was bought. Per Product, the mean and variance
+ * of the intervals between purchases and the mean bought value are kept as running statistics (Welford's method), so a
+ * purchase updates them in constant time without reading the history.
+ * <p>
+ * A Product is due when the last purchase is used up: after the mean interval, scaled by how much more or less than
+ * usual was bought last time. It's due one standard deviation early, so irregularly bought Products are suggested in
+ * time. Products are kept ordered by due time, so the due ones are found without looking at the others.
+ */
+public class ConsumptionPrediction {
+
+    /**
+     * Due time of a Product which was bought less than twice.
+     */
+    public static final long UNKNOWN = Long.MAX_VALUE;
+
+    /**
+     * Purchases closer than this are merged, e.g. when a Product is bought from two lists in the same trip.
+     */
+    public static final long MIN_INTERVAL_MILLIS = 60L * 60 * 1000;
+
+    /**
+     * The statistics of a Product at one time, e.g. to save them later on another thread.
+     */
+    public static final class Statistics {
+        public final int    ProductId;
+        public final int    PurchaseCount;
+        public final long   LastPurchaseMillis;
+        public final float  LastValue;
+        public final double IntervalMean;
+        public final double IntervalSquaredDeviations;
+        public final double ValueMean;
+
+        Statistics(Consumption _consumption) {
+            ProductId                 = _consumption.ProductId;
+            PurchaseCount             = _consumption.PurchaseCount;
+            LastPurchaseMillis        = _consumption.LastPurchaseMillis;
+            LastValue                 = _consumption.LastValue;
+            IntervalMean              = _consumption.IntervalMean;
+            IntervalSquaredDeviations = _consumption.IntervalSquaredDeviations;
+            ValueMean                 = _consumption.ValueMean;
+        }
+
+        /**
+         * @return False if the store rejected them, e.g. since the Product was deleted.
+         */
+        public boolean saveTo(ConsumptionStore _store) {
+            return _store.saveConsumption(ProductId, PurchaseCount, LastPurchaseMillis, LastValue, IntervalMean,
+                    IntervalSquaredDeviations, ValueMean);
+        }
+    }
+
+    private static class Consumption {
+        final int ProductId;
+        int       PurchaseCount;
+        long      LastPurchaseMillis;
+        float     LastValue;
+        double    IntervalMean;
+        // Sum of squared deviations from the mean interval.
+        double    IntervalSquaredDeviations;
+        double    ValueMean;
+        long      DueMillis;
+
+        Consumption(int _productId) {
+            ProductId = _productId;
+            DueMillis = UNKNOWN;
+        }
+    }
+
+    private static final Comparator<Consumption> BY_DUE_AND_ID = new Comparator<Consumption>() {
+        @Override
+        public int compare(Consumption _left, Consumption _right) {
+            int dueOrder = Long.compare(_left.DueMillis, _right.DueMillis);
+            return (dueOrder != 0 ? dueOrder : Integer.compare(_left.ProductId, _right.ProductId));
+        }
+    };
+
+    private Map<Integer, Consumption> m_consumptionById;
+    // Products with a known due time, earliest first.
+    private TreeSet<Consumption>      m_byDue;
+
+    ConsumptionPrediction() {
+        m_consumptionById = new HashMap<>();
+        m_byDue           = new TreeSet<>(BY_DUE_AND_ID);
+    }
+
+    /**
+     * @return The count of Products bought at least once.
+     */
+    public int size() {
+        return m_consumptionById.size();
+    }
+
+    /**
+     * @return When the Product probably runs out, or {@link #UNKNOWN}.
+     */
+    public long getDueMillis(int _productId) {
+        Consumption consumption = m_consumptionById.get(_productId);
+        return (consumption == null ? UNKNOWN : consumption.DueMillis);
+    }
+
+    /**
+     * @return Ids of the Products running out until the given time, earliest first. Takes time proportional to their
+     * count, not to the count of all Products. Never null.
+     */
+    public int[] getDueProductIds(long _untilMillis) {
+        int rtn[] = new int[8];
+        int count = 0;
+        for (Consumption currentConsumption : m_byDue) {
+            if (currentConsumption.DueMillis > _untilMillis) {
+                break;
+            }
+            if (count == rtn.length) {
+                rtn = Arrays.copyOf(rtn, count * 2);
+            }
+            rtn[count++] = currentConsumption.ProductId;
+        }
+        return Arrays.copyOf(rtn, count);
+    }
+
+    /**
+     * @return How often the Product was bought. Purchases merged because of {@link #MIN_INTERVAL_MILLIS} count once.
+     */
+    public int getPurchaseCount(int _productId) {
+        Consumption consumption = m_consumptionById.get(_productId);
+        return (consumption == null ? 0 : consumption.PurchaseCount);
+    }
+
+    /**
+     * @return The mean time between purchases, or 0 if the Product was bought less than twice.
+     */
+    public double getIntervalMeanMillis(int _productId) {
+        Consumption consumption = m_consumptionById.get(_productId);
+        return (consumption == null ? 0.0 : consumption.IntervalMean);
+    }
+
+    /**
+     * @return The sample standard deviation of the time between purchases, or 0 if there are less than two intervals.
+     */
+    public double getIntervalDeviationMillis(int _productId) {
+        Consumption consumption = m_consumptionById.get(_productId);
+        return (consumption == null ? 0.0 : deviationOf(consumption));
+    }
+
+    /**
+     * @return How much of the Product is bought usually, e.g. to suggest the value of a new list entry. 0 if it was
+     * never bought.
+     */
+    public double getValueMean(int _productId) {
+        Consumption consumption = m_consumptionById.get(_productId);
+        return (consumption == null ? 0.0 : consumption.ValueMean);
+    }
+
+    /**
+     * Counts a purchase of the Product.
+     * @param _value How much was bought. Has to be positive.
+     */
+    void record(int _productId, long _timeMillis, float _value) {
+        Consumption consumption = m_consumptionById.get(_productId);
+        if (consumption == null) {
+            consumption = new Consumption(_productId);
+            m_consumptionById.put(_productId, consumption);
+        }
+
+        m_byDue.remove(consumption);
+        if (consumption.PurchaseCount > 0 && _timeMillis - consumption.LastPurchaseMillis < MIN_INTERVAL_MILLIS) {
+            // Part of the last purchase, or bought before it (e.g. a clock was reset): no new interval.
+            consumption.ValueMean += _value / consumption.PurchaseCount;
+            consumption.LastValue += _value;
+        } else {
+            if (consumption.PurchaseCount > 0) {
+                double interval = _timeMillis - consumption.LastPurchaseMillis;
+                double deviation = interval - consumption.IntervalMean;
+                consumption.IntervalMean              += deviation / consumption.PurchaseCount;
+                consumption.IntervalSquaredDeviations += deviation * (interval - consumption.IntervalMean);
+            }
+            consumption.PurchaseCount++;
+            consumption.ValueMean          += (_value - consumption.ValueMean) / consumption.PurchaseCount;
+            consumption.LastPurchaseMillis = _timeMillis;
+            consumption.LastValue          = _value;
+        }
+        place(consumption);
+    }
+
+    /**
+     * Sets the statistics of a Product as loaded from storage.
+     */
+    void put(int _productId, int _purchaseCount, long _lastPurchaseMillis, float _lastValue, double _intervalMean,
+             double _intervalSquaredDeviations, double _valueMean) {
+        Consumption consumption = m_consumptionById.get(_productId);
+        if (consumption == null) {
+            consumption = new Consumption(_productId);
+            m_consumptionById.put(_productId, consumption);
+        }
+        m_byDue.remove(consumption);
+        consumption.PurchaseCount             = _purchaseCount;
+        consumption.LastPurchaseMillis        = _lastPurchaseMillis;
+        consumption.LastValue                 = _lastValue;
+        consumption.IntervalMean              = _intervalMean;
+        consumption.IntervalSquaredDeviations = _intervalSquaredDeviations;
+        consumption.ValueMean                 = _valueMean;
+        place(consumption);
+    }
+
+    /**
+     * @return A copy of the statistics of a Product, or null if it was never bought.
+     */
+    Statistics getStatistics(int _productId) {
+        Consumption consumption = m_consumptionById.get(_productId);
+        return (consumption == null ? null : new Statistics(consumption));
+    }
+
+    /**
+     * Forgets a deleted Product.
+     */
+    void remove(int _productId) {
+        Consumption consumption = m_consumptionById.remove(_productId);
+        if (consumption != null) {
+            m_byDue.remove(consumption);
+        }
+    }
+
+    void clear() {
+        m_consumptionById.clear();
+        m_byDue.clear();
+    }
+
+    /**
+     * Computes the due time and orders the Product by it, if it's known. The Product must not be in the order.
+     */
+    private void place(Consumption _consumption) {
+        if (_consumption.PurchaseCount < 2 || _consumption.ValueMean <= 0.0) {
+            _consumption.DueMillis = UNKNOWN;
+            return;
+        }
+        double lastingFactor = _consumption.LastValue / _consumption.ValueMean;
+        double lastingMillis = Math.max(0.0, (_consumption.IntervalMean - deviationOf(_consumption)) * lastingFactor);
+        _consumption.DueMillis = _consumption.LastPurchaseMillis + (long) Math.min(lastingMillis, Long.MAX_VALUE / 2);
+        m_byDue.add(_consumption);
+    }
+
+    private static double deviationOf(Consumption _consumption) {
+        int intervalCount = _consumption.PurchaseCount - 1;
+        return (intervalCount < 2 ? 0.0 : Math.sqrt(_consumption.IntervalSquaredDeviations / (intervalCount - 1)));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+/**
+ * Collects changes of the entries of one ShoppingList, which are applied together by {@link
+ * ModelManager#changeListEntries}. A later change of the same Product replaces the earlier one. Not thread-safe.
+ */
+public class ListEntryChanges {
+
+    /**
+     * Marks a removed entry. No valid value, since NaN is never equal to anything.
+     */
+    private static final float REMOVED = Float.NaN;
+
+    private SparseFloatArray m_changes;
+
+    public ListEntryChanges() {
+        m_changes = new SparseFloatArray();
+    }
+
+    /**
+     * Adds the Product to the list or changes its value.
+     */
+    public ListEntryChanges put(int _productId, float _value) {
+        if (Float.isNaN(_value)) {
+            throw new IllegalArgumentException("NaN is no valid value.");
+        }
+        m_changes.put(_productId, _value);
+        return this;
+    }
+
+    /**
+     * Removes the Product from the list. Removing a Product not on the list is no error.
+     */
+    public ListEntryChanges remove(int _productId) {
+        m_changes.put(_productId, REMOVED);
+        return this;
+    }
+
+    /**
+     * @return Count of changed Products.
+     */
+    public int size() {
+        return m_changes.size();
+    }
+
+    /**
+     * @return Whether the Product was changed.
+     */
+    public boolean contains(int _productId) {
+        return m_changes.indexOfKey(_productId) >= 0;
+    }
+
+    /**
+     * @param _index Between 0 and {@link #size()}. Changes are ordered by Product id.
+     */
+    public int productIdAt(int _index) {
+        return m_changes.keyAt(_index);
+    }
+
+    public boolean isRemovalAt(int _index) {
+        return Float.isNaN(m_changes.valueAt(_index));
+    }
+
+    /**
+     * @return The new value. Undefined for removals.
+     */
+    public float valueAt(int _index) {
+        return m_changes.valueAt(_index);
+    }
+
+    public void clear() {
+        m_changes.clear();
+    }
+
+    /**
+     * Applies the changes to entries in memory, e.g. to show them before they are saved.
+     */
+    public void applyTo(SparseFloatArray _entries) {
+        for (int currentIndex = 0; currentIndex < m_changes.size(); currentIndex++) {
+            if (isRemovalAt(currentIndex)) {
+                _entries.remove(m_changes.keyAt(currentIndex));
+            } else {
+                _entries.put(m_changes.keyAt(currentIndex), m_changes.valueAt(currentIndex));
+            }
+        }
+    }
+}
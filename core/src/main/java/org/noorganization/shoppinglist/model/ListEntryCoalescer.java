@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import org.noorganization.shoppinglist.metrics.Metrics;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Coalesces rapid changes of list entries (e.g. tapping +/- on a value) into few writes. Every change is applied to the
+ * model at once (see {@link ModelManager#changeListEntriesUnsaved(int, ListEntryChanges, long)}), so all readers see
+ * it; only writing is deferred. Once no change came in for the quiet period, or at once by {@link #flush()}, the
+ * current values of all changed entries are written by {@link ModelManager#writeListEntries(int, int[],
+ * StorageProvider)}, one write per list. Callers have to flush before the process may be stopped (e.g. when the app is
+ * paused). If the storage rejects a write, the changes are reverted in the model.
+ * <p>
+ * Not thread-safe. Has to be used on the thread changing the model; the scheduler has to run the flush there, too.
+ */
+public class ListEntryCoalescer {
+
+    public static final long DEFAULT_QUIET_MILLIS = 500;
+
+    /**
+     * Runs the delayed flush, e.g. an android.os.Handler of the main thread.
+     */
+    public interface Scheduler {
+        void schedule(Runnable _task, long _delayMillis);
+
+        void cancel(Runnable _task);
+    }
+
+    /**
+     * Informed about the outcome of every flushed list.
+     */
+    public interface Listener {
+        /**
+         * @param _newVersion The version of the list after the write.
+         */
+        void onWritten(int _shoppingListId, long _newVersion);
+
+        /**
+         * The storage rejected the write or the list does not exist. The changes were reverted in the model.
+         */
+        void onWriteFailed(int _shoppingListId, ListEntryChanges _changes);
+    }
+
+    private static class Pending {
+        final ListEntryChanges Changes;
+        // The entries before the first pending change of each, to revert a rejected write.
+        final ListEntryChanges Originals;
+
+        Pending() {
+            Changes   = new ListEntryChanges();
+            Originals = new ListEntryChanges();
+        }
+    }
+
+    private ModelManager                    m_model;
+    private StorageProvider                 m_storage;
+    private Scheduler                       m_scheduler;
+    private long                            m_quietMillis;
+    private Listener                        m_listener;
+    private LinkedHashMap<Integer, Pending> m_pending;
+    private Runnable                        m_flushTask;
+
+    /**
+     * @param _quietMillis How long to wait after the last change. 0 or less writes every change at once.
+     * @param _listener May be null.
+     */
+    public ListEntryCoalescer(ModelManager _model, StorageProvider _storage, Scheduler _scheduler, long _quietMillis,
+                              Listener _listener) {
+        if (_model == null || _storage == null || _scheduler == null) {
+            throw new IllegalArgumentException("A parameter was null. This is not allowed.");
+        }
+        m_model           = _model;
+        m_storage         = _storage;
+        m_scheduler       = _scheduler;
+        m_quietMillis     = _quietMillis;
+        m_listener        = _listener;
+        m_pending         = new LinkedHashMap<>();
+        m_flushTask       = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Sets the value of an entry in the model, replacing a pending write of it.
+     */
+    public void put(int _shoppingListId, int _productId, float _value) {
+        change(_shoppingListId, new ListEntryChanges().put(_productId, _value));
+    }
+
+    /**
+     * Removes an entry from the model, replacing a pending write of it.
+     */
+    public void remove(int _shoppingListId, int _productId) {
+        change(_shoppingListId, new ListEntryChanges().remove(_productId));
+    }
+
+    public boolean hasPending() {
+        return !m_pending.isEmpty();
+    }
+
+    /**
+     * Writes all pending changes now.
+     * @return False if changes of a list could not be written. They are reverted and the listener is informed.
+     */
+    public boolean flush() {
+        m_scheduler.cancel(m_flushTask);
+        // Swapped first, so a listener changing entries again starts a new round.
+        LinkedHashMap<Integer, Pending> toWrite = m_pending;
+        m_pending = new LinkedHashMap<>();
+
+        boolean rtn = true;
+        for (Map.Entry<Integer, Pending> currentPending : toWrite.entrySet()) {
+            int listId = currentPending.getKey();
+            Pending pending = currentPending.getValue();
+            int productIds[] = new int[pending.Changes.size()];
+            for (int currentIndex = 0; currentIndex < productIds.length; currentIndex++) {
+                productIds[currentIndex] = pending.Changes.productIdAt(currentIndex);
+            }
+            boolean written = m_model.writeListEntries(listId, productIds, m_storage);
+            if (!written) {
+                m_model.changeListEntriesUnsaved(listId, pending.Originals, ModelManager.ANY_VERSION);
+            }
+            rtn = rtn && written;
+            if (m_listener == null) {
+                continue;
+            }
+            if (written) {
+                m_listener.onWritten(listId, m_model.getShoppingListVersion(listId));
+            } else {
+                m_listener.onWriteFailed(listId, pending.Changes);
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * Applies the change of a single entry to the model and schedules writing it.
+     */
+    private void change(int _shoppingListId, ListEntryChanges _change) {
+        int productId = _change.productIdAt(0);
+        float originalValue = m_model.getListEntryValue(_shoppingListId, productId);
+        if (m_model.changeListEntriesUnsaved(_shoppingListId, _change, ModelManager.ANY_VERSION) == null) {
+            // The list does not exist.
+            if (m_listener != null) {
+                m_listener.onWriteFailed(_shoppingListId, _change);
+            }
+            return;
+        }
+
+        Pending pending = m_pending.get(_shoppingListId);
+        if (pending == null) {
+            pending = new Pending();
+            m_pending.put(_shoppingListId, pending);
+        } else {
+            Metrics.count("ListEntryCoalescer.coalesced", 1);
+        }
+        if (!pending.Originals.contains(productId)) {
+            if (Float.isNaN(originalValue)) {
+                pending.Originals.remove(productId);
+            } else {
+                pending.Originals.put(productId, originalValue);
+            }
+        }
+        if (_change.isRemovalAt(0)) {
+            pending.Changes.remove(productId);
+        } else {
+            pending.Changes.put(productId, _change.valueAt(0));
+        }
+
+        if (m_quietMillis <= 0) {
+            flush();
+            return;
+        }
+        m_scheduler.cancel(m_flushTask);
+        m_scheduler.schedule(m_flushTask, m_quietMillis);
+    }
+}
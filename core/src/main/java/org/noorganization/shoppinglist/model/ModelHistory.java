@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The current {@link ModelVersion} of the {@link ModelManager} with the versions before (undo) and after it (redo).
+ * Versions share their unchanged parts, so every step only costs the memory of its changes. The current version is
+ * also what read transactions pin; it is null while neither undo nor a reader needs versions.
+ */
+final class ModelHistory {
+
+    private ModelVersion        m_current;
+    private Deque<ModelVersion> m_undoVersions;
+    private Deque<ModelVersion> m_redoVersions;
+    private int                 m_limit;
+
+    ModelHistory(int _limit) {
+        m_current      = null;
+        m_undoVersions = new ArrayDeque<>();
+        m_redoVersions = new ArrayDeque<>();
+        m_limit        = _limit;
+    }
+
+    /**
+     * @return Whether steps are kept for undo.
+     */
+    boolean isRecording() {
+        return m_limit > 0;
+    }
+
+    int getLimit() {
+        return m_limit;
+    }
+
+    /**
+     * Drops all steps and starts over with the version.
+     * @param _current Null to stop tracking versions.
+     */
+    void reset(ModelVersion _current) {
+        m_current = _current;
+        m_undoVersions.clear();
+        m_redoVersions.clear();
+    }
+
+    void setLimit(int _limit) {
+        m_limit = _limit;
+        while (m_undoVersions.size() > m_limit) {
+            m_undoVersions.removeLast();
+        }
+        if (!isRecording()) {
+            m_redoVersions.clear();
+        }
+    }
+
+    ModelVersion getCurrent() {
+        return m_current;
+    }
+
+    /**
+     * Makes the version the current one. The old one can be restored by undo, redo is not possible anymore.
+     */
+    void commit(ModelVersion _next) {
+        if (m_current == null || _next == m_current) {
+            return;
+        }
+        if (isRecording()) {
+            m_undoVersions.addFirst(m_current);
+            if (m_undoVersions.size() > m_limit) {
+                m_undoVersions.removeLast();
+            }
+            m_redoVersions.clear();
+        }
+        m_current = _next;
+    }
+
+    /**
+     * @return The version an undo goes back to or null, if there is none.
+     */
+    ModelVersion peekUndo() {
+        return m_undoVersions.peekFirst();
+    }
+
+    /**
+     * @return The version a redo goes forward to or null, if there is none.
+     */
+    ModelVersion peekRedo() {
+        return m_redoVersions.peekFirst();
+    }
+
+    /**
+     * Makes the version of {@link #peekUndo()} the current one.
+     */
+    void stepBack() {
+        m_redoVersions.addFirst(m_current);
+        m_current = m_undoVersions.removeFirst();
+    }
+
+    /**
+     * Makes the version of {@link #peekRedo()} the current one.
+     */
+    void stepForward() {
+        m_undoVersions.addFirst(m_current);
+        m_current = m_redoVersions.removeFirst();
+    }
+}
@@ -0,0 +1,1730 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import org.noorganization.shoppinglist.metrics.LatencyHistogram;
+import org.noorganization.shoppinglist.metrics.Metrics;
+import org.noorganization.shoppinglist.model.storage.ConsumptionStore;
+import org.noorganization.shoppinglist.model.storage.ListEntryStore;
+import org.noorganization.shoppinglist.model.storage.PagedProductSource;
+import org.noorganization.shoppinglist.model.storage.ProductSource;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+import org.noorganization.shoppinglist.model.storage.TemplateStore;
+import org.noorganization.shoppinglist.model.storage.UsageStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ModelManager {
+
+    public static final int INVALID_ID = 0xFFFFFFFF;
+
+    /**
+     * How many steps a UI offering undo should keep (see {@link #setHistoryLimit(int)}). The history is off by
+     * default, since it keeps a second copy of every Product.
+     */
+    public static final int DEFAULT_HISTORY_LIMIT = 20;
+
+    /**
+     * Passed as expected version, if a change must not be checked against concurrent ones.
+     */
+    public static final long ANY_VERSION = -1;
+
+    private static final Random ID_GENERATOR = new Random();
+
+    private static final LatencyHistogram TIME_CREATE_PRODUCT          = timer("createProduct");
+    private static final LatencyHistogram TIME_CREATE_SHOPPING_LIST    = timer("createShoppingList");
+    private static final LatencyHistogram TIME_CREATE_UNIT             = timer("createUnit");
+    private static final LatencyHistogram TIME_LOAD                    = timer("load");
+    private static final LatencyHistogram TIME_GET_ALL_PRODUCTS        = timer("getAllProducts");
+    private static final LatencyHistogram TIME_GET_ALL_UNITS           = timer("getAllUnits");
+    private static final LatencyHistogram TIME_GET_ALL_SHOPPING_LISTS  = timer("getAllShoppingLists");
+    private static final LatencyHistogram TIME_GET_PRODUCT_BY_ID       = timer("getProductById");
+    private static final LatencyHistogram TIME_GET_UNIT_BY_ID          = timer("getUnitById");
+    private static final LatencyHistogram TIME_GET_SHOPPING_LIST_BY_ID = timer("getShoppingListById");
+    private static final LatencyHistogram TIME_UPDATE_UNIT             = timer("updateUnit");
+    private static final LatencyHistogram TIME_UPDATE_PRODUCT          = timer("updateProduct");
+    private static final LatencyHistogram TIME_UPDATE_SHOPPING_LIST    = timer("updateShoppingList");
+    private static final LatencyHistogram TIME_DELETE_UNIT             = timer("deleteUnit");
+    private static final LatencyHistogram TIME_DELETE_PRODUCT          = timer("deleteProduct");
+    private static final LatencyHistogram TIME_DELETE_SHOPPING_LIST    = timer("deleteShoppingList");
+    private static final LatencyHistogram TIME_UNDO                    = timer("undo");
+    private static final LatencyHistogram TIME_REDO                    = timer("redo");
+    private static final LatencyHistogram TIME_BEGIN_READ              = timer("beginRead");
+    private static final LatencyHistogram TIME_SEARCH_PRODUCTS         = timer("searchProducts");
+    private static final LatencyHistogram TIME_RECORD_USAGE            = timer("recordUsage");
+    private static final LatencyHistogram TIME_RECORD_PURCHASE         = timer("recordPurchase");
+    private static final LatencyHistogram TIME_CLONE_SHOPPING_LIST     = timer("cloneShoppingList");
+    private static final LatencyHistogram TIME_CHANGE_LIST_ENTRIES     = timer("changeListEntries");
+    private static final LatencyHistogram TIME_WRITE_LIST_ENTRIES      = timer("writeListEntries");
+
+    private static final ProductSource.ProductCallback IGNORE_PRODUCT = new ProductSource.ProductCallback() {
+        @Override
+        public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+        }
+    };
+
+    ProductStore          m_allProducts;
+    List<ShoppingList>    m_allLists;
+    List<Unit>            m_allUnits;
+    StringPool            m_strings;
+    ModelHistory          m_history;
+    ChangeLog             m_changeLog;
+    AtomicInteger         m_openReadCount;
+    boolean               m_keepsReadVersion;
+    boolean               m_loaded;
+    PagedProductSource    m_pagedSource;
+    ProductSearchIndex    m_searchIndex;
+    UsageRanking          m_usage;
+    ConsumptionPrediction m_consumption;
+    Set<Integer>          m_templateIds;
+
+    static ModelManager m_sInstance;
+
+    private ModelManager() {
+        m_strings       = new StringPool();
+        m_allProducts   = new ProductStore();
+        m_allLists      = new LinkedList<>();
+        m_allUnits      = new LinkedList<>();
+        m_history       = new ModelHistory(0);
+        m_changeLog     = new ChangeLog();
+        m_openReadCount    = new AtomicInteger();
+        m_keepsReadVersion = false;
+        m_loaded           = false;
+        m_pagedSource   = null;
+        m_searchIndex   = null;
+        m_usage         = new UsageRanking(UsageRanking.DEFAULT_TOP_COUNT, UsageRanking.DEFAULT_HALF_LIFE_MILLIS);
+        m_consumption   = new ConsumptionPrediction();
+        m_templateIds   = new HashSet<>();
+
+        m_history.reset(null);
+    }
+
+    /**
+     * Creates a new Product and registers it. This method is does not throw anything if saving to database fails (see
+     * return value).
+     * @param _title A name for the Product. null is not allowed
+     * @param _defaultValue The default value when adding to a shopping list.
+     * @param _unitId The id of the referencing Unit returned by {@link Unit#Id}. {@link #INVALID_ID} is also allowed
+     *                and means something like "this product should have no unit".
+     * @param _storage Open storage to save to.
+     * @return The created Product. Null if saving to database failed.
+     */
+    public Product createProduct(String _title, float _defaultValue, int _unitId, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null || _title == null) {
+                throw new IllegalArgumentException("Title or storage parameter was null.");
+            }
+
+            Product newProduct = new Product();
+            newProduct.Title        = _title;
+            newProduct.DefaultValue = _defaultValue;
+            newProduct.UnitId       = _unitId;
+            newProduct.Id           = (m_pagedSource == null ? generateId(m_allProducts) : generatePagedProductId());
+
+            if (!addProduct(newProduct, _storage)) {
+                return null;
+            }
+
+            return new Product(newProduct);
+        } finally {
+            TIME_CREATE_PRODUCT.stop(startTime);
+        }
+    }
+
+    /**
+     * Creates a ShoppingList and registers it automatically to the List of ShoppingList's. No exception is thrown when
+     * saving fails. Check the returned object.
+     * @param _title Title for the new List, simply not null.
+     * @param _storage Open storage to save to.
+     * @return The constructed and registered ShoppingList, Or null if saving to database failed.
+     */
+    public ShoppingList createShoppingList(String _title, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null || _title == null) {
+                throw new IllegalArgumentException("A parameter was not valid, because null is not allowed.");
+            }
+
+            ShoppingList newList = new ShoppingList();
+            newList.Title       = m_strings.intern(_title);
+            newList.Id          = generateId(m_allLists.toArray(new ShoppingList[m_allLists.size()]));
+            newList.ListEntries = new SparseFloatArray();
+
+            if (!addShoppingList(newList, _storage)) {
+                return null;
+            }
+
+            return new ShoppingList(newList);
+        } finally {
+            TIME_CREATE_SHOPPING_LIST.stop(startTime);
+        }
+    }
+
+    /**
+     * Creates a Unit and registers it automatically in the list of all Units. No exception will be thrown if saving
+     * fails.
+     * @param _unitText The "name" of the unit e.g. "kg" (kilogram) or "l" (liter). null is not valid.
+     * @param _storage Open storage to save to.
+     * @return The created and saved object or null if saving did not work.
+     */
+    public Unit createUnit(String _unitText, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null || _unitText == null) {
+                throw new IllegalArgumentException("A parameter was null. This is not allowed.");
+            }
+
+            Unit newUnit = new Unit();
+            newUnit.UnitText = m_strings.intern(_unitText);
+            newUnit.Id       = generateId(m_allUnits.toArray(new IdentificableModelObject[m_allUnits.size()]));
+
+            if (!addUnit(newUnit, _storage)) {
+                return null;
+            }
+
+            return new Unit(newUnit);
+        } finally {
+            TIME_CREATE_UNIT.stop(startTime);
+        }
+    }
+
+    /**
+     * Creates or replaces the Unit with the id of the given one. Used to take over objects from elsewhere, e.g. from
+     * another device.
+     * @return Whether saving succeeded.
+     */
+    public boolean putUnit(Unit _unit, StorageProvider _storage) {
+        if (_storage == null || _unit == null || _unit.UnitText == null || _unit.Id == INVALID_ID) {
+            throw new IllegalArgumentException("A parameter was not valid.");
+        }
+
+        if (idExists(_unit.Id, m_allUnits.toArray(new Unit[m_allUnits.size()]))) {
+            return updateUnit(_unit, _storage);
+        }
+        Unit newUnit = new Unit(_unit);
+        newUnit.UnitText = m_strings.intern(newUnit.UnitText);
+        return addUnit(newUnit, _storage);
+    }
+
+    /**
+     * Creates or replaces the Product with the id of the given one. See {@link #putUnit(Unit, StorageProvider)}.
+     */
+    public boolean putProduct(Product _product, StorageProvider _storage) {
+        if (_storage == null || _product == null || _product.Title == null || _product.Id == INVALID_ID) {
+            throw new IllegalArgumentException("A parameter was not valid.");
+        }
+
+        if (productExists(_product.Id)) {
+            return updateProduct(_product, _storage);
+        }
+        return addProduct(new Product(_product), _storage);
+    }
+
+    /**
+     * Creates or replaces the ShoppingList with the id of the given one. See {@link #putUnit(Unit, StorageProvider)}.
+     */
+    public boolean putShoppingList(ShoppingList _shoppingList, StorageProvider _storage) {
+        if (_storage == null || _shoppingList == null || _shoppingList.Title == null ||
+                _shoppingList.ListEntries == null || _shoppingList.Id == INVALID_ID) {
+            throw new IllegalArgumentException("A parameter was not valid.");
+        }
+
+        if (idExists(_shoppingList.Id, m_allLists.toArray(new ShoppingList[m_allLists.size()]))) {
+            return updateShoppingList(_shoppingList, _storage);
+        }
+        ShoppingList newList = new ShoppingList(_shoppingList);
+        newList.Title = m_strings.intern(newList.Title);
+        return addShoppingList(newList, _storage);
+    }
+
+    private boolean addUnit(Unit _newUnit, StorageProvider _storage) {
+        if (!_storage.insertUnit(_newUnit)) {
+            return false;
+        }
+
+        m_allUnits.add(_newUnit);
+        ModelVersion trackedVersion = trackedVersion();
+        if (trackedVersion != null) {
+            m_history.commit(trackedVersion.withUnit(_newUnit));
+        }
+        m_changeLog.record(ChangeLog.KIND_UNIT, _newUnit.Id);
+        return true;
+    }
+
+    private boolean addProduct(Product _newProduct, StorageProvider _storage) {
+        if (!_storage.insertProduct(_newProduct)) {
+            return false;
+        }
+
+        if (m_pagedSource == null) {
+            m_allProducts.put(_newProduct);
+        }
+        if (m_searchIndex != null) {
+            m_searchIndex.add(_newProduct.Id, _newProduct.Title);
+        }
+        ModelVersion trackedVersion = trackedVersion();
+        if (trackedVersion != null) {
+            m_history.commit(trackedVersion.withProduct(_newProduct));
+        }
+        m_changeLog.record(ChangeLog.KIND_PRODUCT, _newProduct.Id);
+        return true;
+    }
+
+    private boolean addShoppingList(ShoppingList _newList, StorageProvider _storage) {
+        if (!_storage.insertShoppingList(_newList)) {
+            return false;
+        }
+
+        m_allLists.add(_newList);
+        ModelVersion trackedVersion = trackedVersion();
+        if (trackedVersion != null) {
+            m_history.commit(trackedVersion.withShoppingList(_newList));
+        }
+        m_changeLog.record(ChangeLog.KIND_SHOPPING_LIST, _newList.Id);
+        return true;
+    }
+
+    /**
+     * Generates a unique id for an IdentificableModelObject object.
+     * @return A collision-free, random id
+     */
+    static int generateId(IdentificableModelObject _existingObjects[]) {
+        while (true) {
+            int newId = ID_GENERATOR.nextInt();
+            if (newId == INVALID_ID) {
+                continue;
+            }
+            if (!idExists(newId, _existingObjects)) {
+                return newId;
+            }
+        }
+    }
+
+    /**
+     * Generates a unique id for a Product.
+     * @return A collision-free, random id
+     */
+    static int generateId(ProductStore _existingProducts) {
+        while (true) {
+            int newId = ID_GENERATOR.nextInt();
+            if (newId != INVALID_ID && _existingProducts.indexOfId(newId) < 0) {
+                return newId;
+            }
+        }
+    }
+
+    /**
+     * Generates a unique id for a Product, which is checked against the storage in paged mode.
+     */
+    private int generatePagedProductId() {
+        while (true) {
+            int newId = ID_GENERATOR.nextInt();
+            if (newId != INVALID_ID && !productExists(newId)) {
+                return newId;
+            }
+        }
+    }
+
+    /**
+     * @return The title of the Product or null, if it does not exist. Read from the storage in paged mode.
+     */
+    private String titleOfProduct(int _id) {
+        if (m_pagedSource != null) {
+            final String rtn[] = new String[1];
+            m_pagedSource.readProduct(_id, new ProductSource.ProductCallback() {
+                @Override
+                public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                    rtn[0] = _title;
+                }
+            });
+            return rtn[0];
+        }
+        int index = m_allProducts.indexOfId(_id);
+        return (index < 0 ? null : m_allProducts.titleAt(index));
+    }
+
+    private void unindexProduct(int _id) {
+        if (m_searchIndex == null) {
+            return;
+        }
+        String title = titleOfProduct(_id);
+        if (title != null) {
+            m_searchIndex.remove(_id, title);
+        }
+    }
+
+    private boolean productExists(int _id) {
+        if (m_pagedSource != null) {
+            return m_pagedSource.readProduct(_id, IGNORE_PRODUCT);
+        }
+        return m_allProducts.indexOfId(_id) >= 0;
+    }
+
+    static boolean idExists(int _idToCheck, IdentificableModelObject _existingObjects[]) {
+        for (IdentificableModelObject currentObject : _existingObjects) {
+            if (currentObject.Id == _idToCheck) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces all loaded objects with the ones in the storage.
+     * @param _storage Open storage. Null is not allowed.
+     * @return The storage, which can be used for all model-modifying methods.
+     */
+    public StorageProvider load(StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null) {
+                throw new IllegalArgumentException("A parameter was null.");
+            }
+
+            m_allUnits.clear();
+            m_allProducts.clear();
+            m_allLists.clear();
+            m_pagedSource = null;
+            m_searchIndex = null;
+
+            _storage.load(createLoadCallback());
+            loadUsage(_storage);
+            loadConsumption(_storage);
+            loadTemplateIds(_storage);
+
+            m_history.reset(needsVersions() ? buildVersion() : null);
+            m_changeLog.reset();
+            m_loaded = true;
+
+            return _storage;
+        } finally {
+            TIME_LOAD.stop(startTime);
+        }
+    }
+
+    /**
+     * Replaces all loaded objects with the ones in the storage like {@link #load(StorageProvider)}, except for
+     * Products. They stay in the storage and are read on demand, so the memory needed for them does not grow with the
+     * catalog. Use {@link #getProductPages(int)} to show them. Units, ShoppingLists and their entries are still held in
+     * memory.
+     * <p>
+     * Paged mode has no undo history and no read transactions, since both keep versions of all Products. It ends with
+     * the next call of {@link #load(StorageProvider)}.
+     * @param _storage Open storage, which has to implement {@link PagedProductSource}.
+     * @return The storage, which can be used for all model-modifying methods.
+     */
+    public StorageProvider loadPaged(StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (!(_storage instanceof PagedProductSource)) {
+                throw new IllegalArgumentException("Storage can't serve pages of Products.");
+            }
+
+            m_allUnits.clear();
+            m_allProducts.clear();
+            m_allLists.clear();
+            m_pagedSource = (PagedProductSource) _storage;
+            m_searchIndex = null;
+
+            m_pagedSource.loadWithoutProducts(createLoadCallback());
+            loadUsage(_storage);
+            loadConsumption(_storage);
+            loadTemplateIds(_storage);
+
+            m_history.reset(null);
+            m_changeLog.reset();
+            m_loaded = true;
+
+            return _storage;
+        } finally {
+            TIME_LOAD.stop(startTime);
+        }
+    }
+
+    /**
+     * @return Whether Products are read on demand, see {@link #loadPaged(StorageProvider)}.
+     */
+    public boolean isPaged() {
+        return m_pagedSource != null;
+    }
+
+    /**
+     * Creates a view of the Products ordered by title, which reads them in pages. In paged mode the pages come from the
+     * storage, otherwise from memory.
+     * @param _excludedListId Products on this ShoppingList are left out. {@link #INVALID_ID} to see all.
+     */
+    public ProductPages getProductPages(int _excludedListId) {
+        return getProductPages(_excludedListId, ProductPages.DEFAULT_PAGE_SIZE, ProductPages.DEFAULT_CACHED_PAGES);
+    }
+
+    /**
+     * See {@link #getProductPages(int)}. The view holds at most _pageSize * _maxCachedPages Products.
+     */
+    public ProductPages getProductPages(int _excludedListId, int _pageSize, int _maxCachedPages) {
+        return new ProductPages((m_pagedSource == null ? new StoreProductSource(this) : m_pagedSource), m_changeLog,
+                _excludedListId, _pageSize, _maxCachedPages);
+    }
+
+    /**
+     * @return The live ShoppingList with the id or null.
+     */
+    ShoppingList findShoppingList(int _id) {
+        for (ShoppingList currentList : m_allLists) {
+            if (currentList.Id == _id) {
+                return currentList;
+            }
+        }
+        return null;
+    }
+
+    private void loadTemplateIds(StorageProvider _storage) {
+        m_templateIds.clear();
+        if (_storage instanceof TemplateStore) {
+            for (int currentId : ((TemplateStore) _storage).loadTemplateIds()) {
+                m_templateIds.add(currentId);
+            }
+        }
+    }
+
+    private void loadUsage(StorageProvider _storage) {
+        m_usage.clear();
+        if (_storage instanceof UsageStore) {
+            ((UsageStore) _storage).loadUsage(new UsageStore.UsageCallback() {
+                @Override
+                public void onUsage(int _productId, double _score, int _useCount, long _lastUsedMillis) {
+                    m_usage.put(_productId, _score, _useCount, _lastUsedMillis);
+                }
+            });
+        }
+    }
+
+    private void loadConsumption(StorageProvider _storage) {
+        m_consumption.clear();
+        if (_storage instanceof ConsumptionStore) {
+            ((ConsumptionStore) _storage).loadConsumption(new ConsumptionStore.ConsumptionCallback() {
+                @Override
+                public void onConsumption(int _productId, int _purchaseCount, long _lastPurchaseMillis,
+                                          float _lastValue, double _intervalMean, double _intervalSquaredDeviations,
+                                          double _valueMean) {
+                    m_consumption.put(_productId, _purchaseCount, _lastPurchaseMillis, _lastValue, _intervalMean,
+                            _intervalSquaredDeviations, _valueMean);
+                }
+            });
+        }
+    }
+
+    private StorageProvider.LoadCallback createLoadCallback() {
+        return new StorageProvider.LoadCallback() {
+            private Map<Integer, ShoppingList> m_listsById = new HashMap<>();
+
+            @Override
+            public void onUnit(int _id, String _unitText) {
+                Unit existingUnit = new Unit();
+                existingUnit.UnitText = m_strings.intern(_unitText);
+                existingUnit.Id       = _id;
+                m_allUnits.add(existingUnit);
+            }
+
+            @Override
+            public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                // Products come ordered by id, so the ProductStore only has to append.
+                Product existingProduct = new Product();
+                existingProduct.DefaultValue = _defaultValue;
+                existingProduct.Title        = _title;
+                existingProduct.Id           = _id;
+                existingProduct.UnitId       = _unitId;
+                m_allProducts.put(existingProduct);
+            }
+
+            @Override
+            public void onShoppingList(int _id, String _title) {
+                ShoppingList existingList = new ShoppingList();
+                existingList.Title = m_strings.intern(_title);
+                existingList.Id    = _id;
+                m_allLists.add(existingList);
+                m_listsById.put(_id, existingList);
+            }
+
+            @Override
+            public void onListEntry(int _shoppingListId, int _productId, float _value) {
+                // Entries come ordered by product, so appending keeps them sorted.
+                ShoppingList existingList = m_listsById.get(_shoppingListId);
+                if (existingList != null) {
+                    existingList.ListEntries.append(_productId, _value);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return A list with copies of all Products. The array is not sorted. null wont be returned even if no Products
+     * are loaded. In paged mode, all Products are read from the storage.
+     */
+    public Product[] getAllProducts() {
+        long startTime = Metrics.start();
+        try {
+            if (m_pagedSource != null) {
+                final List<Product> allProducts = new ArrayList<>();
+                ProductSource.ProductCallback collector = new ProductSource.ProductCallback() {
+                    @Override
+                    public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                        allProducts.add(productOf(_id, _title, _defaultValue, _unitId));
+                    }
+                };
+                m_pagedSource.readProductsAt(INVALID_ID, 0, Integer.MAX_VALUE, collector);
+                return allProducts.toArray(new Product[allProducts.size()]);
+            }
+            if (m_allProducts.size() == 0) {
+                return new Product[0];
+            }
+
+            Product rtn[] = new Product[m_allProducts.size()];
+            for (int index = 0; index < rtn.length; index++) {
+                rtn[index] = m_allProducts.get(index);
+            }
+            return rtn;
+        } finally {
+            TIME_GET_ALL_PRODUCTS.stop(startTime);
+        }
+    }
+
+    /**
+     * Gives read access to the columnar storage of all Products without copying them. Preferable for scanning many
+     * Products.
+     * @return The live ProductStore. Indexes into it are only valid until the next modification of Products.
+     * @throws IllegalStateException In paged mode, where Products are not held in memory.
+     */
+    public ProductStore getProductStore() {
+        if (m_pagedSource != null) {
+            throw new IllegalStateException("Products are paged, use getProductPages().");
+        }
+        return m_allProducts;
+    }
+
+    /**
+     * @return A list with copies of all Units. The array is not sorted. null wont be returned even if no Units are
+     * loaded.
+     */
+    public Unit[] getAllUnits() {
+        long startTime = Metrics.start();
+        try {
+            if (m_allUnits.size() == 0) {
+                return new Unit[0];
+            }
+
+            Unit rtn[] = new Unit[m_allUnits.size()];
+            int index = 0;
+            for (Unit currentUnit : m_allUnits) {
+                rtn[index] = new Unit(currentUnit);
+                index++;
+            }
+            return rtn;
+        } finally {
+            TIME_GET_ALL_UNITS.stop(startTime);
+        }
+    }
+
+    /**
+     * @return A list of all ShoppingLists (as copies). Never null. Not sorted.
+     */
+    public ShoppingList[] getAllShoppingLists() {
+        long startTime = Metrics.start();
+        try {
+            if (m_allLists.size() == 0) {
+                return new ShoppingList[0];
+            }
+
+            ShoppingList rtn[] = new ShoppingList[m_allLists.size()];
+            int index = 0;
+            for (ShoppingList currentList : m_allLists) {
+                rtn[index] = new ShoppingList(currentList);
+                index++;
+            }
+            return rtn;
+        } finally {
+            TIME_GET_ALL_SHOPPING_LISTS.stop(startTime);
+        }
+    }
+
+    /**
+     * @param _id Internal id of Product. If {@link #INVALID_ID}, none will be found.
+     * @return A copy of the Product or null, if nothing found.
+     */
+    public Product getProductById(int _id) {
+        long startTime = Metrics.start();
+        try {
+            if (_id == INVALID_ID) {
+                return null;
+            }
+            if (m_pagedSource != null) {
+                final Product rtn[] = new Product[1];
+                m_pagedSource.readProduct(_id, new ProductSource.ProductCallback() {
+                    @Override
+                    public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                        rtn[0] = productOf(_id, _title, _defaultValue, _unitId);
+                    }
+                });
+                return rtn[0];
+            }
+            int index = m_allProducts.indexOfId(_id);
+            return (index < 0 ? null : m_allProducts.get(index));
+        } finally {
+            TIME_GET_PRODUCT_BY_ID.stop(startTime);
+        }
+    }
+
+    /**
+     * Searches a Unit by it's id.
+     * @param _id The internal id of the unit. If {@link #INVALID_ID} is provided, no object will be found.
+     * @return A Unit if found or null if no Unit was found.
+     */
+    public Unit getUnitById(int _id) {
+        long startTime = Metrics.start();
+        try {
+            if (_id == INVALID_ID) {
+                return null;
+            }
+            for (Unit CurrentUnit : m_allUnits) {
+                if (CurrentUnit.Id == _id) {
+                    return new Unit(CurrentUnit);
+                }
+            }
+            return null;
+        } finally {
+            TIME_GET_UNIT_BY_ID.stop(startTime);
+        }
+    }
+
+    /**
+     * @param _id Internal id of the list. If {@link #INVALID_ID}, none will be found.
+     * @return A copy of the ShoppingList or null, if nothing found.
+     */
+    public ShoppingList getShoppingListById(int _id) {
+        long startTime = Metrics.start();
+        try {
+            if (_id == INVALID_ID) {
+                return null;
+            }
+            for (ShoppingList currentList : m_allLists) {
+                if (currentList.Id == _id) {
+                    return new ShoppingList(currentList);
+                }
+            }
+            return null;
+        } finally {
+            TIME_GET_SHOPPING_LIST_BY_ID.stop(startTime);
+        }
+    }
+
+    /**
+     * @param _unitToUpdate The changed unit. Changing the id is dangerous, since another unit may be overwritten.
+     * @param _storage Open storage to save to.
+     * @return Whether update succeeded.
+     */
+    public boolean updateUnit(Unit _unitToUpdate, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null || _unitToUpdate == null || _unitToUpdate.UnitText == null) {
+                throw new IllegalArgumentException("A parameter was not valid.");
+            }
+
+            if (!idExists(_unitToUpdate.Id, m_allUnits.toArray(new Unit[m_allUnits.size()]))) {
+                return false;
+            }
+
+            if (!_storage.updateUnit(_unitToUpdate)) {
+                return false;
+            }
+
+            for (int currentIndex = 0; currentIndex < m_allUnits.size(); currentIndex++) {
+                if (m_allUnits.get(currentIndex).Id == _unitToUpdate.Id) {
+                    Unit updatedUnit = new Unit(_unitToUpdate);
+                    updatedUnit.UnitText = m_strings.intern(updatedUnit.UnitText);
+                    m_allUnits.set(currentIndex, updatedUnit);
+                    ModelVersion trackedVersion = trackedVersion();
+                    if (trackedVersion != null) {
+                        m_history.commit(trackedVersion.withUnit(updatedUnit));
+                    }
+                    m_changeLog.record(ChangeLog.KIND_UNIT, updatedUnit.Id);
+                }
+            }
+
+            return true;
+        } finally {
+            TIME_UPDATE_UNIT.stop(startTime);
+        }
+    }
+
+    /**
+     * Does not throw an exception if update of database fails. Check return value.
+     * @param _productToUpdate The changed Product. Changing id is not recommended and may fail (if not another Product
+     *                         will be overwritten).
+     * @param _storage Open storage to save to.
+     * @return Whether update succeeded.
+     */
+    public boolean updateProduct(Product _productToUpdate, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null || _productToUpdate == null || _productToUpdate.Title == null) {
+                throw new IllegalArgumentException("A parameter was not valid.");
+            }
+
+            String previousTitle = titleOfProduct(_productToUpdate.Id);
+            if (previousTitle == null) {
+                return false;
+            }
+
+            if (!_storage.updateProduct(_productToUpdate)) {
+                return false;
+            }
+
+            if (m_pagedSource == null) {
+                m_allProducts.put(_productToUpdate);
+            }
+            if (m_searchIndex != null) {
+                m_searchIndex.remove(_productToUpdate.Id, previousTitle);
+                m_searchIndex.add(_productToUpdate.Id, _productToUpdate.Title);
+            }
+            ModelVersion trackedVersion = trackedVersion();
+            if (trackedVersion != null) {
+                m_history.commit(trackedVersion.withProduct(_productToUpdate));
+            }
+            m_changeLog.record(ChangeLog.KIND_PRODUCT, _productToUpdate.Id);
+
+            return true;
+        } finally {
+            TIME_UPDATE_PRODUCT.stop(startTime);
+        }
+    }
+
+    /**
+     * Does not throw an exception if update of database fails. Check return value.
+     * @param _shoppingListToUpdate The changed list. Changing id is not recommended and may fail (if not, another
+     *                              ShoppingList will be overwritten).
+     * @param _storage Open storage to save to.
+     * @return Whether update succeeded.
+     */
+    public boolean updateShoppingList(ShoppingList _shoppingListToUpdate, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null || _shoppingListToUpdate == null || _shoppingListToUpdate.Title == null ||
+                    _shoppingListToUpdate.ListEntries == null) {
+                throw new IllegalArgumentException("A parameter was null or not valid. This is not allowed.");
+            }
+
+            if (!idExists(_shoppingListToUpdate.Id, m_allLists.toArray(new ShoppingList[m_allLists.size()]))) {
+                return false;
+            }
+
+            if (!_storage.updateShoppingList(_shoppingListToUpdate)) {
+                Metrics.count("ModelManager.updateShoppingList.failed", 1);
+                return false;
+            }
+
+            for (int currentListIndex = 0; currentListIndex < m_allLists.size(); currentListIndex++) {
+                if (m_allLists.get(currentListIndex).Id == _shoppingListToUpdate.Id) {
+                    ShoppingList updatedList = new ShoppingList(_shoppingListToUpdate);
+                    updatedList.Title = m_strings.intern(updatedList.Title);
+                    m_allLists.set(currentListIndex, updatedList);
+                    ModelVersion trackedVersion = trackedVersion();
+                    if (trackedVersion != null) {
+                        m_history.commit(trackedVersion.withShoppingList(updatedList));
+                    }
+                    m_changeLog.record(ChangeLog.KIND_SHOPPING_LIST, updatedList.Id);
+                    break;
+                }
+            }
+
+            return true;
+        } finally {
+            TIME_UPDATE_SHOPPING_LIST.stop(startTime);
+        }
+    }
+
+    /**
+     * Applies many changes to the entries of a ShoppingList at once: one write to the storage, one change in the log and
+     * one undo step. A storage implementing {@link ListEntryStore} writes only the changed entries, others rewrite the
+     * list.
+     * @param _shoppingListId The list to change.
+     * @param _changes Not null. Products put on the list have to exist.
+     * @param _storage Open storage to save to.
+     * @return The changed list (as copy). Null if the list does not exist or saving failed; nothing was changed then.
+     */
+    public ShoppingList changeListEntries(int _shoppingListId, ListEntryChanges _changes, StorageProvider _storage) {
+        return changeListEntries(_shoppingListId, _changes, ANY_VERSION, _storage);
+    }
+
+    /**
+     * Like {@link #changeListEntries(int, ListEntryChanges, StorageProvider)}, but only if the list was not changed
+     * since it was read (optimistic concurrency).
+     * @param _expectedVersion The version the changes are based on, see {@link #getShoppingListVersion(int)}. {@link
+     *                         #ANY_VERSION} to skip the check.
+     * @return The changed list (as copy). Null if the list does not exist, has another version or saving failed.
+     */
+    public ShoppingList changeListEntries(int _shoppingListId, ListEntryChanges _changes, long _expectedVersion,
+                                          StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null || _changes == null) {
+                throw new IllegalArgumentException("A parameter was null. This is not allowed.");
+            }
+
+            ShoppingList liveList = findShoppingList(_shoppingListId);
+            if (liveList == null) {
+                return null;
+            }
+            if (_expectedVersion != ANY_VERSION && getShoppingListVersion(_shoppingListId) != _expectedVersion) {
+                Metrics.count("ModelManager.changeListEntries.conflict", 1);
+                return null;
+            }
+            if (_changes.size() == 0) {
+                return new ShoppingList(liveList);
+            }
+
+            ShoppingList changedList = new ShoppingList(liveList);
+            _changes.applyTo(changedList.ListEntries);
+            boolean written = (_storage instanceof ListEntryStore ?
+                    ((ListEntryStore) _storage).changeListEntries(_shoppingListId, _changes) :
+                    _storage.updateShoppingList(changedList));
+            if (!written) {
+                Metrics.count("ModelManager.changeListEntries.failed", 1);
+                return null;
+            }
+
+            replaceShoppingList(liveList, changedList);
+            return new ShoppingList(changedList);
+        } finally {
+            TIME_CHANGE_LIST_ENTRIES.stop(startTime);
+        }
+    }
+
+    /**
+     * Like {@link #changeListEntries(int, ListEntryChanges, long, StorageProvider)}, but changes only the model, so
+     * readers see the changes at once while writing them is deferred (see {@link ListEntryCoalescer}). The caller has
+     * to write them later by {@link #writeListEntries(int, int[], StorageProvider)}.
+     * @return The changed list (as copy). Null if the list does not exist or has another version.
+     */
+    public ShoppingList changeListEntriesUnsaved(int _shoppingListId, ListEntryChanges _changes,
+                                                 long _expectedVersion) {
+        long startTime = Metrics.start();
+        try {
+            if (_changes == null) {
+                throw new IllegalArgumentException("Changes were null.");
+            }
+
+            ShoppingList liveList = findShoppingList(_shoppingListId);
+            if (liveList == null) {
+                return null;
+            }
+            if (_expectedVersion != ANY_VERSION && getShoppingListVersion(_shoppingListId) != _expectedVersion) {
+                Metrics.count("ModelManager.changeListEntries.conflict", 1);
+                return null;
+            }
+            if (_changes.size() == 0) {
+                return new ShoppingList(liveList);
+            }
+
+            ShoppingList changedList = new ShoppingList(liveList);
+            _changes.applyTo(changedList.ListEntries);
+            replaceShoppingList(liveList, changedList);
+            return new ShoppingList(changedList);
+        } finally {
+            TIME_CHANGE_LIST_ENTRIES.stop(startTime);
+        }
+    }
+
+    /**
+     * Writes the entries of some Products on a ShoppingList as they are in the model now, e.g. after changes by
+     * {@link #changeListEntriesUnsaved(int, ListEntryChanges, long)}. Writing the current values keeps the storage
+     * equal to the model, even if the entries were changed otherwise meanwhile.
+     * @param _productIds Not null.
+     * @return False if the storage rejected the write. True if the list does not exist anymore.
+     */
+    public boolean writeListEntries(int _shoppingListId, int _productIds[], StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_productIds == null || _storage == null) {
+                throw new IllegalArgumentException("A parameter was null. This is not allowed.");
+            }
+
+            ShoppingList liveList = findShoppingList(_shoppingListId);
+            if (liveList == null || _productIds.length == 0) {
+                return true;
+            }
+            if (!(_storage instanceof ListEntryStore)) {
+                return _storage.updateShoppingList(liveList);
+            }
+            ListEntryChanges currentEntries = new ListEntryChanges();
+            for (int productId : _productIds) {
+                float value = liveList.ListEntries.get(productId, Float.NaN);
+                if (Float.isNaN(value)) {
+                    currentEntries.remove(productId);
+                } else {
+                    currentEntries.put(productId, value);
+                }
+            }
+            return ((ListEntryStore) _storage).changeListEntries(_shoppingListId, currentEntries);
+        } finally {
+            TIME_WRITE_LIST_ENTRIES.stop(startTime);
+        }
+    }
+
+    /**
+     * Puts the changed copy of a list in place of the live one, in the history and the change log, too.
+     */
+    private void replaceShoppingList(ShoppingList _liveList, ShoppingList _changedList) {
+        m_allLists.set(m_allLists.indexOf(_liveList), _changedList);
+        ModelVersion trackedVersion = trackedVersion();
+        if (trackedVersion != null) {
+            m_history.commit(trackedVersion.withShoppingList(_changedList));
+        }
+        m_changeLog.record(ChangeLog.KIND_SHOPPING_LIST, _changedList.Id);
+    }
+
+    /**
+     * Deletes a Unit and all Product's that depend on it. Does not throw anything unless _storage is null.
+     */
+    public void deleteUnit(Unit _unitToDelete, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null) {
+                throw new IllegalArgumentException("Storage must be an open StorageProvider.");
+            }
+
+            if (_unitToDelete == null) {
+                return;
+            }
+
+            // The storage cascades by itself, so the Products are only removed from memory.
+            int productIds[] = (m_pagedSource == null ? m_allProducts.getIdsByUnit(_unitToDelete.Id) :
+                    m_pagedSource.getProductIdsByUnit(_unitToDelete.Id));
+            for (int currentProductId : productIds) {
+                forgetProduct(currentProductId);
+            }
+            ModelVersion trackedVersion = trackedVersion();
+            if (trackedVersion != null) {
+                m_history.commit(trackedVersion.withoutUnit(_unitToDelete.Id, productIds));
+            }
+            m_changeLog.record(ChangeLog.KIND_UNIT, _unitToDelete.Id);
+
+            for (int currentUnitIndex = 0; currentUnitIndex < m_allUnits.size(); currentUnitIndex++) {
+                Unit currentUnit = m_allUnits.get(currentUnitIndex);
+                if (currentUnit.Id == _unitToDelete.Id) {
+                    m_allUnits.remove(currentUnitIndex);
+                    break;
+                }
+            }
+
+            _storage.deleteUnit(_unitToDelete.Id);
+        } finally {
+            TIME_DELETE_UNIT.stop(startTime);
+        }
+    }
+
+    /**
+     * Removes the Product from all ShoppingList's and deletes it from database. Does not throw anything if both
+     * parameters are not null.
+     */
+    public void deleteProduct(Product _productToDelete, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null) {
+                throw new IllegalArgumentException("Storage must be an open StorageProvider.");
+            }
+
+            if (_productToDelete == null) {
+                return;
+            }
+
+            forgetProduct(_productToDelete.Id);
+            ModelVersion trackedVersion = trackedVersion();
+            if (trackedVersion != null) {
+                m_history.commit(trackedVersion.withoutProduct(_productToDelete.Id));
+            }
+
+            _storage.deleteProduct(_productToDelete.Id);
+        } finally {
+            TIME_DELETE_PRODUCT.stop(startTime);
+        }
+    }
+
+    /**
+     * Removes a Product from memory, including its entries in all ShoppingList's.
+     */
+    private void forgetProduct(int _productId) {
+        unindexProduct(_productId);
+        m_usage.remove(_productId);
+        m_consumption.remove(_productId);
+        for (ShoppingList currentList : m_allLists) {
+            int entryIndex = currentList.ListEntries.indexOfKey(_productId);
+            if (entryIndex >= 0) {
+                currentList.ListEntries.removeAt(entryIndex);
+                m_changeLog.record(ChangeLog.KIND_SHOPPING_LIST, currentList.Id);
+            }
+        }
+
+        // In paged mode the Product is only in the storage, which deletes it right after.
+        if (m_allProducts.remove(_productId) || m_pagedSource != null) {
+            m_changeLog.record(ChangeLog.KIND_PRODUCT, _productId);
+        }
+    }
+
+    /**
+     * Finds Products by a fuzzy match of their titles, see {@link ProductSearchIndex#search(String, int)}.
+     * @param _query Text as typed by the user. null is not allowed.
+     * @return Ids of the best matching Products, best first. Never null.
+     */
+    public int[] searchProducts(String _query, int _maxResults) {
+        long startTime = Metrics.start();
+        try {
+            return getSearchIndex().search(_query, _maxResults);
+        } finally {
+            TIME_SEARCH_PRODUCTS.stop(startTime);
+        }
+    }
+
+    /**
+     * @return The index of all Product titles. It's built on first use, in paged mode by reading all Products once, and
+     * kept up to date by every later change. Building is synchronized, since readers may run in parallel (as long as
+     * nothing changes the model meanwhile).
+     */
+    public synchronized ProductSearchIndex getSearchIndex() {
+        if (m_searchIndex == null) {
+            final ProductSearchIndex newIndex = new ProductSearchIndex();
+            if (m_pagedSource != null) {
+                ProductSource.ProductCallback indexer = new ProductSource.ProductCallback() {
+                    @Override
+                    public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                        newIndex.add(_id, _title);
+                    }
+                };
+                m_pagedSource.readProductsAt(INVALID_ID, 0, Integer.MAX_VALUE, indexer);
+            } else {
+                for (int currentIndex = 0; currentIndex < m_allProducts.size(); currentIndex++) {
+                    newIndex.add(m_allProducts.idAt(currentIndex), m_allProducts.titleAt(currentIndex));
+                }
+            }
+            m_searchIndex = newIndex;
+        }
+        return m_searchIndex;
+    }
+
+    /**
+     * Counts that the Product was put on a list, see {@link UsageRanking}. The usage is saved if the storage
+     * implements {@link UsageStore}; it's not part of the undo history.
+     * @param _nowMillis Time of the use, usually {@link System#currentTimeMillis()}.
+     * @return False if the Product does not exist.
+     */
+    public boolean recordUsage(int _productId, long _nowMillis, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null) {
+                throw new IllegalArgumentException("Storage must be an open StorageProvider.");
+            }
+
+            if (!productExists(_productId)) {
+                return false;
+            }
+            m_usage.record(_productId, _nowMillis);
+            if (_storage instanceof UsageStore) {
+                ((UsageStore) _storage).saveUsage(_productId, m_usage.getScore(_productId),
+                        m_usage.getUseCount(_productId), m_usage.getLastUsedMillis(_productId));
+            }
+            return true;
+        } finally {
+            TIME_RECORD_USAGE.stop(startTime);
+        }
+    }
+
+    /**
+     * Counts that several Products were put on a list, like {@link #recordUsage(int, long, StorageProvider)}, but
+     * saves them together in one transaction.
+     * @return How many of the Products exist and were counted.
+     */
+    public int recordUsages(int _productIds[], long _nowMillis, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_productIds == null || _storage == null) {
+                throw new IllegalArgumentException("A parameter was null.");
+            }
+
+            int existingIds[] = new int[_productIds.length];
+            int rtn = 0;
+            for (int productId : _productIds) {
+                if (productExists(productId)) {
+                    m_usage.record(productId, _nowMillis);
+                    existingIds[rtn++] = productId;
+                }
+            }
+            if (rtn > 0 && _storage instanceof UsageStore) {
+                int    productIds[]     = Arrays.copyOf(existingIds, rtn);
+                double scores[]         = new double[rtn];
+                int    useCounts[]      = new int[rtn];
+                long   lastUsedMillis[] = new long[rtn];
+                for (int currentIndex = 0; currentIndex < rtn; currentIndex++) {
+                    scores[currentIndex]         = m_usage.getScore(productIds[currentIndex]);
+                    useCounts[currentIndex]      = m_usage.getUseCount(productIds[currentIndex]);
+                    lastUsedMillis[currentIndex] = m_usage.getLastUsedMillis(productIds[currentIndex]);
+                }
+                ((UsageStore) _storage).saveUsages(productIds, scores, useCounts, lastUsedMillis);
+            }
+            return rtn;
+        } finally {
+            TIME_RECORD_USAGE.stop(startTime);
+        }
+    }
+
+    /**
+     * @return How often Products were used, including the most used ones.
+     */
+    public UsageRanking getUsageRanking() {
+        return m_usage;
+    }
+
+    /**
+     * Counts that the Product was bought, see {@link ConsumptionPrediction}. The statistics are saved if the storage
+     * implements {@link ConsumptionStore}; they are not part of the undo history.
+     * @param _timeMillis Time of the purchase, usually {@link System#currentTimeMillis()}.
+     * @param _value How much was bought, e.g. the value of the list entry. If not positive, the default value of the
+     *               Product is counted.
+     * @return False if the Product does not exist.
+     */
+    public boolean recordPurchase(int _productId, long _timeMillis, float _value, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null) {
+                throw new IllegalArgumentException("Storage must be an open StorageProvider.");
+            }
+
+            ConsumptionPrediction.Statistics statistics = countPurchaseInMemory(_productId, _timeMillis, _value);
+            if (statistics == null) {
+                return false;
+            }
+            if (_storage instanceof ConsumptionStore) {
+                statistics.saveTo((ConsumptionStore) _storage);
+            }
+            return true;
+        } finally {
+            TIME_RECORD_PURCHASE.stop(startTime);
+        }
+    }
+
+    /**
+     * Counts that the Product was bought like {@link #recordPurchase(int, long, float, StorageProvider)}, but leaves
+     * saving the statistics to the caller, e.g. to {@link PurchaseHistory} writing them in the background.
+     * @return The statistics to save, or null if the Product does not exist.
+     */
+    public ConsumptionPrediction.Statistics countPurchase(int _productId, long _timeMillis, float _value) {
+        long startTime = Metrics.start();
+        try {
+            return countPurchaseInMemory(_productId, _timeMillis, _value);
+        } finally {
+            TIME_RECORD_PURCHASE.stop(startTime);
+        }
+    }
+
+    private ConsumptionPrediction.Statistics countPurchaseInMemory(int _productId, long _timeMillis, float _value) {
+        float value = _value;
+        if (!(value > 0.0f)) {
+            Product product = getProductById(_productId);
+            if (product == null) {
+                return null;
+            }
+            value = (product.DefaultValue > 0.0f ? product.DefaultValue : 1.0f);
+        } else if (!productExists(_productId)) {
+            return null;
+        }
+        m_consumption.record(_productId, _timeMillis, value);
+        return m_consumption.getStatistics(_productId);
+    }
+
+    /**
+     * @return When Products probably run out, e.g. to suggest the ones due soon.
+     */
+    public ConsumptionPrediction getConsumptionPrediction() {
+        return m_consumption;
+    }
+
+    /**
+     * @return The pool deduplicating titles and unit texts. Its hit and miss counts show how much is shared.
+     */
+    public StringPool getStringPool() {
+        return m_strings;
+    }
+
+    /**
+     * @return The log of changes made since loading, e.g. for sending them to other devices.
+     */
+    public ChangeLog getChangeLog() {
+        return m_changeLog;
+    }
+
+    /**
+     * Creates a ShoppingList with the entries of another one. In memory, both share their entries until one of them is
+     * changed. A storage implementing {@link TemplateStore} copies the entries itself, without reading them.
+     * @param _source The list to copy. Null is not allowed.
+     * @param _title Title of the copy. Null is not allowed.
+     * @param _storage Open storage to save to.
+     * @return The copy. Null if the source list does not exist or saving failed.
+     */
+    public ShoppingList cloneShoppingList(ShoppingList _source, String _title, StorageProvider _storage) {
+        return cloneShoppingList(_source, _title, false, _storage);
+    }
+
+    /**
+     * Saves a copy of a ShoppingList as template, see {@link #cloneShoppingList(ShoppingList, String,
+     * StorageProvider)}. Templates are ShoppingLists too, so they can be changed, cloned and deleted like all others.
+     * A template brought back by undo or redo is restored as an ordinary list.
+     * @return The template. Null if the source list does not exist, saving failed or the storage can't mark templates.
+     */
+    public ShoppingList createTemplate(ShoppingList _source, String _title, StorageProvider _storage) {
+        if (!(_storage instanceof TemplateStore)) {
+            return null;
+        }
+        return cloneShoppingList(_source, _title, true, _storage);
+    }
+
+    private ShoppingList cloneShoppingList(ShoppingList _source, String _title, boolean _asTemplate,
+            StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null || _source == null || _title == null) {
+                throw new IllegalArgumentException("A parameter was not valid, because null is not allowed.");
+            }
+
+            ShoppingList source = findShoppingList(_source.Id);
+            if (source == null) {
+                return null;
+            }
+            ShoppingList newList = new ShoppingList(source);
+            newList.Title = m_strings.intern(_title);
+            newList.Id    = generateId(m_allLists.toArray(new ShoppingList[m_allLists.size()]));
+
+            if (_storage instanceof TemplateStore) {
+                if (!((TemplateStore) _storage).cloneShoppingList(source.Id, newList.Id, newList.Title, _asTemplate)) {
+                    return null;
+                }
+            } else if (!_storage.insertShoppingList(newList)) {
+                return null;
+            }
+
+            m_allLists.add(newList);
+            if (_asTemplate) {
+                m_templateIds.add(newList.Id);
+            }
+            ModelVersion trackedVersion = trackedVersion();
+            if (trackedVersion != null) {
+                m_history.commit(trackedVersion.withShoppingListCopy(source.Id, newList.Id, newList.Title));
+            }
+            m_changeLog.record(ChangeLog.KIND_SHOPPING_LIST, newList.Id);
+            return new ShoppingList(newList);
+        } finally {
+            TIME_CLONE_SHOPPING_LIST.stop(startTime);
+        }
+    }
+
+    /**
+     * @return The version of the ShoppingList, which changes with every change of it (and every load of the model).
+     */
+    public long getShoppingListVersion(int _shoppingListId) {
+        return m_changeLog.getVersion(ChangeLog.KIND_SHOPPING_LIST, _shoppingListId);
+    }
+
+    /**
+     * Reads a single entry without copying the list.
+     * @return The value of the Product on the ShoppingList. NaN if it's not on the list or the list does not exist.
+     */
+    public float getListEntryValue(int _shoppingListId, int _productId) {
+        ShoppingList list = findShoppingList(_shoppingListId);
+        return (list == null ? Float.NaN : list.ListEntries.get(_productId, Float.NaN));
+    }
+
+    /**
+     * @return The ids of the ShoppingLists (including templates) the Product is on. Not sorted, never null.
+     */
+    public int[] getShoppingListIdsWith(int _productId) {
+        int rtn[] = new int[m_allLists.size()];
+        int count = 0;
+        for (ShoppingList currentList : m_allLists) {
+            if (currentList.ListEntries.indexOfKey(_productId) >= 0) {
+                rtn[count++] = currentList.Id;
+            }
+        }
+        return Arrays.copyOf(rtn, count);
+    }
+
+    /**
+     * @return Whether the ShoppingList was saved as template.
+     */
+    public boolean isTemplate(int _shoppingListId) {
+        return m_templateIds.contains(_shoppingListId);
+    }
+
+    /**
+     * @return The ids of all templates. Not sorted, never null.
+     */
+    public int[] getTemplateIds() {
+        int rtn[] = new int[m_templateIds.size()];
+        int templateCount = 0;
+        for (int currentId : m_templateIds) {
+            rtn[templateCount++] = currentId;
+        }
+        return rtn;
+    }
+
+    public int getCountOfShoppingLists() {
+        return m_allLists.size();
+    }
+
+    /**
+     * Deletes a ShoppingList. Does not throw anything if saving did not work or List was not found. Only throws if a
+     * parameter is null.
+     */
+    public void deleteShoppingList(ShoppingList _shoppingListToDelete, StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null) {
+                throw new IllegalArgumentException("Storage must be an open StorageProvider.");
+            }
+
+            if (_shoppingListToDelete == null) {
+                return;
+            }
+
+            for (int currentIndex = 0; currentIndex < m_allLists.size(); currentIndex++) {
+                if (m_allLists.get(currentIndex).Id == _shoppingListToDelete.Id) {
+                    m_allLists.remove(currentIndex);
+                    m_templateIds.remove(_shoppingListToDelete.Id);
+                    m_changeLog.record(ChangeLog.KIND_SHOPPING_LIST, _shoppingListToDelete.Id);
+                    break;
+                }
+            }
+            ModelVersion trackedVersion = trackedVersion();
+            if (trackedVersion != null) {
+                m_history.commit(trackedVersion.withoutShoppingList(_shoppingListToDelete.Id));
+            }
+
+            _storage.deleteShoppingList(_shoppingListToDelete.Id);
+        } finally {
+            TIME_DELETE_SHOPPING_LIST.stop(startTime);
+        }
+    }
+
+    /**
+     * Enables or disables undo. The history is off by default; enabling it builds a copy of the model, which later
+     * loads build again.
+     * @param _steps How many changes can be undone. 0 disables the history, which saves the memory of a second copy
+     *               of the model unless read transactions keep it (see {@link #beginRead()}).
+     */
+    public void setHistoryLimit(int _steps) {
+        m_history.setLimit(Math.max(_steps, 0));
+        if (needsVersions() && m_history.getCurrent() == null) {
+            m_history.reset(buildVersion());
+        }
+        trackedVersion();
+    }
+
+    /**
+     * Pins the current state for a long-running reader like an export. The reader sees this state until it closes the
+     * transaction, while the model can be changed as usual; neither side waits for the other. A pinned state shares
+     * all unchanged objects with the live model, so only later changes cost memory. It's freed once no transaction
+     * and no undo step needs it anymore.
+     * <p>
+     * The first transaction copies the model. From then on the current state is kept and updated with every change,
+     * so later transactions, like one per ContentProvider query, start without copying anything. This costs the
+     * memory of that copy for as long as the model is held.
+     * <p>
+     * Has to be called on the thread changing the model. The transaction can be used and closed on any thread.
+     * @return The transaction, which has to be closed.
+     * @throws IllegalStateException In paged mode, where the state of all Products is not held in memory.
+     */
+    public ReadTransaction beginRead() {
+        long startTime = Metrics.start();
+        try {
+            if (m_pagedSource != null) {
+                throw new IllegalStateException("Read transactions are not available in paged mode.");
+            }
+            m_openReadCount.incrementAndGet();
+            m_keepsReadVersion = true;
+            if (m_history.getCurrent() == null) {
+                m_history.reset(buildVersion());
+            }
+            return new ReadTransaction(this, m_history.getCurrent());
+        } finally {
+            TIME_BEGIN_READ.stop(startTime);
+        }
+    }
+
+    /**
+     * @return How many read transactions are not closed yet.
+     */
+    public int getOpenReadCount() {
+        return m_openReadCount.get();
+    }
+
+    /**
+     * Called by {@link ReadTransaction#close()}, maybe on another thread.
+     */
+    void endRead() {
+        m_openReadCount.decrementAndGet();
+    }
+
+    private boolean needsVersions() {
+        return m_pagedSource == null && (m_history.isRecording() || m_keepsReadVersion);
+    }
+
+    /**
+     * @return The current version, if versions are needed by the history or read transactions. Otherwise null; then a
+     * version kept only for a history that was disabled is dropped.
+     */
+    private ModelVersion trackedVersion() {
+        if (!needsVersions()) {
+            m_history.reset(null);
+        }
+        return m_history.getCurrent();
+    }
+
+    public boolean canUndo() {
+        return m_history.peekUndo() != null;
+    }
+
+    public boolean canRedo() {
+        return m_history.peekRedo() != null;
+    }
+
+    /**
+     * Reverts the last change. Only the objects differing between the two versions are written to the storage.
+     * @param _storage Open storage to save to.
+     * @return Whether a change was reverted. If the storage rejected a write, the model is reloaded from it and the
+     * history is lost.
+     */
+    public boolean undo(StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null) {
+                throw new IllegalArgumentException("Storage must be an open StorageProvider.");
+            }
+
+            ModelVersion previousVersion = m_history.peekUndo();
+            if (previousVersion == null || !switchTo(previousVersion, _storage)) {
+                return false;
+            }
+            m_history.stepBack();
+            return true;
+        } finally {
+            TIME_UNDO.stop(startTime);
+        }
+    }
+
+    /**
+     * Repeats the last undone change. Works like {@link #undo(StorageProvider)}.
+     */
+    public boolean redo(StorageProvider _storage) {
+        long startTime = Metrics.start();
+        try {
+            if (_storage == null) {
+                throw new IllegalArgumentException("Storage must be an open StorageProvider.");
+            }
+
+            ModelVersion nextVersion = m_history.peekRedo();
+            if (nextVersion == null || !switchTo(nextVersion, _storage)) {
+                return false;
+            }
+            m_history.stepForward();
+            return true;
+        } finally {
+            TIME_REDO.stop(startTime);
+        }
+    }
+
+    private ModelVersion buildVersion() {
+        ModelVersion rtn = ModelVersion.EMPTY;
+        for (Unit currentUnit : m_allUnits) {
+            rtn = rtn.withUnit(currentUnit);
+        }
+        for (int currentIndex = 0; currentIndex < m_allProducts.size(); currentIndex++) {
+            rtn = rtn.withProduct(m_allProducts.get(currentIndex));
+        }
+        for (ShoppingList currentList : m_allLists) {
+            rtn = rtn.withShoppingList(currentList);
+        }
+        return rtn;
+    }
+
+    /**
+     * Writes the differences between the current version and the target to storage and memory. Objects are written in
+     * an order, which never breaks a reference.
+     * @return False if the storage rejected a write. The model is reloaded then.
+     */
+    private boolean switchTo(ModelVersion _target, StorageProvider _storage) {
+        ModelVersion current = m_history.getCurrent();
+        VersionDelta<Unit> unitDelta = new VersionDelta<>();
+        VersionDelta<Product> productDelta = new VersionDelta<>();
+        VersionDelta<ModelVersion.ListVersion> listDelta = new VersionDelta<>();
+        PersistentIntMap.diff(current.Units, _target.Units, unitDelta);
+        PersistentIntMap.diff(current.Products, _target.Products, productDelta);
+        PersistentIntMap.diff(current.Lists, _target.Lists, listDelta);
+
+        boolean written = true;
+        for (Unit currentUnit : unitDelta.Added) {
+            written = written && _storage.insertUnit(currentUnit);
+        }
+        for (Unit currentUnit : unitDelta.Changed) {
+            written = written && _storage.updateUnit(currentUnit);
+        }
+        for (Product currentProduct : productDelta.Added) {
+            written = written && _storage.insertProduct(currentProduct);
+        }
+        for (Product currentProduct : productDelta.Changed) {
+            written = written && _storage.updateProduct(currentProduct);
+        }
+        for (ModelVersion.ListVersion currentList : listDelta.Added) {
+            written = written && _storage.insertShoppingList(currentList.toShoppingList());
+        }
+        for (ModelVersion.ListVersion currentList : listDelta.Changed) {
+            written = written && _storage.updateShoppingList(currentList.toShoppingList());
+        }
+        if (!written) {
+            load(_storage);
+            return false;
+        }
+        for (int currentListId : listDelta.RemovedIds) {
+            _storage.deleteShoppingList(currentListId);
+        }
+        for (int currentProductId : productDelta.RemovedIds) {
+            _storage.deleteProduct(currentProductId);
+        }
+        for (int currentUnitId : unitDelta.RemovedIds) {
+            _storage.deleteUnit(currentUnitId);
+        }
+
+        unitDelta.record(m_changeLog, ChangeLog.KIND_UNIT);
+        productDelta.record(m_changeLog, ChangeLog.KIND_PRODUCT);
+        listDelta.record(m_changeLog, ChangeLog.KIND_SHOPPING_LIST);
+        for (int currentUnitId : unitDelta.RemovedIds) {
+            removeById(m_allUnits, currentUnitId);
+        }
+        for (Unit currentUnit : unitDelta.Added) {
+            m_allUnits.add(new Unit(currentUnit));
+        }
+        for (Unit currentUnit : unitDelta.Changed) {
+            removeById(m_allUnits, currentUnit.Id);
+            m_allUnits.add(new Unit(currentUnit));
+        }
+        for (int currentProductId : productDelta.RemovedIds) {
+            unindexProduct(currentProductId);
+            m_usage.remove(currentProductId);
+            m_consumption.remove(currentProductId);
+            m_allProducts.remove(currentProductId);
+        }
+        for (Product currentProduct : productDelta.Added) {
+            m_allProducts.put(currentProduct);
+            if (m_searchIndex != null) {
+                m_searchIndex.add(currentProduct.Id, currentProduct.Title);
+            }
+        }
+        for (Product currentProduct : productDelta.Changed) {
+            unindexProduct(currentProduct.Id);
+            m_allProducts.put(currentProduct);
+            if (m_searchIndex != null) {
+                m_searchIndex.add(currentProduct.Id, currentProduct.Title);
+            }
+        }
+        for (int currentListId : listDelta.RemovedIds) {
+            removeById(m_allLists, currentListId);
+            m_templateIds.remove(currentListId);
+        }
+        for (ModelVersion.ListVersion currentList : listDelta.Added) {
+            m_allLists.add(currentList.toShoppingList());
+        }
+        for (ModelVersion.ListVersion currentList : listDelta.Changed) {
+            removeById(m_allLists, currentList.Id);
+            m_allLists.add(currentList.toShoppingList());
+        }
+        return true;
+    }
+
+    private static void removeById(List<? extends IdentificableModelObject> _objects, int _id) {
+        for (int currentIndex = 0; currentIndex < _objects.size(); currentIndex++) {
+            if (_objects.get(currentIndex).Id == _id) {
+                _objects.remove(currentIndex);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Collects the differences between two maps of a {@link ModelVersion}.
+     */
+    private static class VersionDelta<V> implements PersistentIntMap.DiffVisitor<V> {
+        final List<V>       Added      = new ArrayList<>();
+        final List<V>       Changed    = new ArrayList<>();
+        final List<Integer> RemovedIds = new ArrayList<>();
+        final List<Integer> AllIds     = new ArrayList<>();
+
+        @Override
+        public void onDifference(int _key, V _fromValue, V _toValue) {
+            if (_toValue == null) {
+                RemovedIds.add(_key);
+            } else if (_fromValue == null) {
+                Added.add(_toValue);
+            } else {
+                Changed.add(_toValue);
+            }
+            AllIds.add(_key);
+        }
+
+        void record(ChangeLog _changeLog, int _kind) {
+            for (int currentId : AllIds) {
+                _changeLog.record(_kind, currentId);
+            }
+        }
+    }
+
+    private static Product productOf(int _id, String _title, float _defaultValue, int _unitId) {
+        Product rtn = new Product();
+        rtn.Id           = _id;
+        rtn.Title        = _title;
+        rtn.DefaultValue = _defaultValue;
+        rtn.UnitId       = _unitId;
+        return rtn;
+    }
+
+    private static LatencyHistogram timer(String _methodName) {
+        return Metrics.histogram("ModelManager." + _methodName);
+    }
+
+    public static ModelManager getInstance() {
+        if (m_sInstance == null) {
+            m_sInstance = new ModelManager();
+        }
+
+        return m_sInstance;
+    }
+}
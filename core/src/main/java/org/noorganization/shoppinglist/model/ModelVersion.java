@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+/**
+ * Immutable state of the whole model at one point of the history. Versions are built from each other through
+ * {@link PersistentIntMap}s, so a version differing in one object from its predecessor only costs O(log n) memory.
+ * The contained Units and Products must never be modified.
+ */
+final class ModelVersion {
+
+    /**
+     * Immutable form of a {@link ShoppingList}. The entries map Product ids to values.
+     */
+    static final class ListVersion {
+        final int                     Id;
+        final String                  Title;
+        final PersistentIntMap<Float> Entries;
+
+        ListVersion(int _id, String _title, PersistentIntMap<Float> _entries) {
+            Id      = _id;
+            Title   = _title;
+            Entries = _entries;
+        }
+
+        ShoppingList toShoppingList() {
+            final ShoppingList rtn = new ShoppingList();
+            rtn.Id          = Id;
+            rtn.Title       = Title;
+            rtn.ListEntries = new SparseFloatArray(Entries.size());
+            Entries.forEach(new PersistentIntMap.Visitor<Float>() {
+                @Override
+                public void visit(int _productId, Float _value) {
+                    rtn.ListEntries.put(_productId, _value);
+                }
+            });
+            return rtn;
+        }
+    }
+
+    /**
+     * Lets a visitor replace a map. An array would do, but arrays of generic types can't be created without warnings.
+     */
+    private static final class MapHolder<V> {
+        PersistentIntMap<V> Map;
+
+        MapHolder(PersistentIntMap<V> _map) {
+            Map = _map;
+        }
+    }
+
+    static final ModelVersion EMPTY = new ModelVersion(PersistentIntMap.<Unit>empty(),
+            PersistentIntMap.<Product>empty(), PersistentIntMap.<ListVersion>empty());
+
+    final PersistentIntMap<Unit>        Units;
+    final PersistentIntMap<Product>     Products;
+    final PersistentIntMap<ListVersion> Lists;
+
+    private ModelVersion(PersistentIntMap<Unit> _units, PersistentIntMap<Product> _products,
+                         PersistentIntMap<ListVersion> _lists) {
+        Units    = _units;
+        Products = _products;
+        Lists    = _lists;
+    }
+
+    /**
+     * @return This version, if nothing changed.
+     */
+    private ModelVersion with(PersistentIntMap<Unit> _units, PersistentIntMap<Product> _products,
+                              PersistentIntMap<ListVersion> _lists) {
+        if (_units == Units && _products == Products && _lists == Lists) {
+            return this;
+        }
+        return new ModelVersion(_units, _products, _lists);
+    }
+
+    ModelVersion withUnit(Unit _unit) {
+        return with(Units.put(_unit.Id, new Unit(_unit)), Products, Lists);
+    }
+
+    /**
+     * Removes the Unit and, like the storage, the Products using it.
+     * @param _productIds The ids of the Products using the Unit.
+     */
+    ModelVersion withoutUnit(int _unitId, int _productIds[]) {
+        ModelVersion rtn = this;
+        for (int currentProductId : _productIds) {
+            rtn = rtn.withoutProduct(currentProductId);
+        }
+        return rtn.with(rtn.Units.remove(_unitId), rtn.Products, rtn.Lists);
+    }
+
+    ModelVersion withProduct(Product _product) {
+        return with(Units, Products.put(_product.Id, new Product(_product)), Lists);
+    }
+
+    /**
+     * Removes the Product and its entries in all lists.
+     */
+    ModelVersion withoutProduct(final int _productId) {
+        if (!Products.containsKey(_productId)) {
+            return this;
+        }
+
+        final MapHolder<ListVersion> changedLists = new MapHolder<>(Lists);
+        Lists.forEach(new PersistentIntMap.Visitor<ListVersion>() {
+            @Override
+            public void visit(int _listId, ListVersion _list) {
+                if (_list.Entries.containsKey(_productId)) {
+                    changedLists.Map = changedLists.Map.put(_listId,
+                            new ListVersion(_list.Id, _list.Title, _list.Entries.remove(_productId)));
+                }
+            }
+        });
+        return with(Units, Products.remove(_productId), changedLists.Map);
+    }
+
+    /**
+     * Only the changed entries of the list cost memory.
+     */
+    ModelVersion withShoppingList(final ShoppingList _list) {
+        ListVersion oldList = Lists.get(_list.Id);
+        PersistentIntMap<Float> entries = (oldList == null ? PersistentIntMap.<Float>empty() : oldList.Entries);
+        for (int currentIndex = 0; currentIndex < _list.ListEntries.size(); currentIndex++) {
+            entries = entries.put(_list.ListEntries.keyAt(currentIndex), _list.ListEntries.valueAt(currentIndex));
+        }
+        if (entries.size() > _list.ListEntries.size()) {
+            final MapHolder<Float> remainingEntries = new MapHolder<>(entries);
+            entries.forEach(new PersistentIntMap.Visitor<Float>() {
+                @Override
+                public void visit(int _productId, Float _value) {
+                    if (_list.ListEntries.indexOfKey(_productId) < 0) {
+                        remainingEntries.Map = remainingEntries.Map.remove(_productId);
+                    }
+                }
+            });
+            entries = remainingEntries.Map;
+        }
+
+        if (oldList != null && oldList.Entries == entries && oldList.Title.equals(_list.Title)) {
+            return this;
+        }
+        return with(Units, Products, Lists.put(_list.Id, new ListVersion(_list.Id, _list.Title, entries)));
+    }
+
+    /**
+     * Adds a copy of a list, which shares all entries with it.
+     * @return This version if the source list is unknown.
+     */
+    ModelVersion withShoppingListCopy(int _sourceListId, int _newListId, String _newTitle) {
+        ListVersion sourceList = Lists.get(_sourceListId);
+        if (sourceList == null) {
+            return this;
+        }
+        return with(Units, Products, Lists.put(_newListId, new ListVersion(_newListId, _newTitle,
+                sourceList.Entries)));
+    }
+
+    ModelVersion withoutShoppingList(int _listId) {
+        return with(Units, Products, Lists.remove(_listId));
+    }
+}
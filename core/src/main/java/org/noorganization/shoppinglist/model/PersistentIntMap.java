@@ -0,0 +1,336 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+/**
+ * Immutable map of int keys to values. Changing it returns a new map, which shares all untouched nodes with the old
+ * one, so a change costs O(log n) memory and old versions stay valid for free.
+ * <p>
+ * The map is a hash array mapped trie using the key bits directly: every level consumes five bits, starting with the
+ * lowest. Since the shape only depends on the contained keys, two versions can be compared by skipping shared subtrees
+ * (see {@link #diff(PersistentIntMap, PersistentIntMap, DiffVisitor)}). Iteration order is not the key order.
+ */
+public final class PersistentIntMap<V> {
+
+    public interface Visitor<V> {
+        void visit(int _key, V _value);
+    }
+
+    public interface DiffVisitor<V> {
+        /**
+         * @param _fromValue The value in the first map or null, if the key was added.
+         * @param _toValue The value in the second map or null, if the key was removed.
+         */
+        void onDifference(int _key, V _fromValue, V _toValue);
+    }
+
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK     = (1 << BITS_PER_LEVEL) - 1;
+
+    private static final PersistentIntMap<Object> EMPTY = new PersistentIntMap<>(new Node(0, new Object[0]), 0);
+
+    private final Node m_root;
+    private final int  m_size;
+
+    private PersistentIntMap(Node _root, int _size) {
+        m_root = _root;
+        m_size = _size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public boolean containsKey(int _key) {
+        return findLeaf(m_root, 0, _key) != null;
+    }
+
+    /**
+     * @return The value or null, if the key is not mapped.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int _key) {
+        Leaf leaf = findLeaf(m_root, 0, _key);
+        return (leaf == null ? null : (V) leaf.Value);
+    }
+
+    /**
+     * @param _value Not null.
+     * @return A map with the key mapped to the value. This map, if the key is already mapped to an equal value.
+     */
+    public PersistentIntMap<V> put(int _key, V _value) {
+        if (_value == null) {
+            throw new IllegalArgumentException("Value was null.");
+        }
+
+        Leaf existingLeaf = findLeaf(m_root, 0, _key);
+        if (existingLeaf != null && isEqual(existingLeaf.Value, _value)) {
+            return this;
+        }
+        return new PersistentIntMap<>(put(m_root, 0, new Leaf(_key, _value)),
+                (existingLeaf == null ? m_size + 1 : m_size));
+    }
+
+    /**
+     * @return A map without the key. This map, if the key is not mapped.
+     */
+    public PersistentIntMap<V> remove(int _key) {
+        if (findLeaf(m_root, 0, _key) == null) {
+            return this;
+        }
+        return new PersistentIntMap<>(remove(m_root, 0, _key), m_size - 1);
+    }
+
+    /**
+     * Visits all mappings in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> _visitor) {
+        forEach(m_root, (Visitor<Object>) _visitor);
+    }
+
+    /**
+     * Reports every key mapped differently in the two maps. Subtrees shared by both maps are skipped, so comparing two
+     * versions with k changes between them takes O(k log n).
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> void diff(PersistentIntMap<V> _from, PersistentIntMap<V> _to,
+                                DiffVisitor<? super V> _visitor) {
+        diff(_from.m_root, _to.m_root, (DiffVisitor<Object>) _visitor);
+    }
+
+    private static boolean isEqual(Object _lhs, Object _rhs) {
+        return _lhs == _rhs || (_lhs != null && _lhs.equals(_rhs));
+    }
+
+    private static int bitOf(int _key, int _shift) {
+        return 1 << ((_key >>> _shift) & LEVEL_MASK);
+    }
+
+    private static Leaf findLeaf(Node _node, int _shift, int _key) {
+        Node currentNode = _node;
+        int currentShift = _shift;
+        while (true) {
+            int bit = bitOf(_key, currentShift);
+            if ((currentNode.Bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = currentNode.Slots[currentNode.indexOf(bit)];
+            if (slot instanceof Leaf) {
+                return (((Leaf) slot).Key == _key ? (Leaf) slot : null);
+            }
+            currentNode = (Node) slot;
+            currentShift += BITS_PER_LEVEL;
+        }
+    }
+
+    private static Node put(Node _node, int _shift, Leaf _leaf) {
+        int bit = bitOf(_leaf.Key, _shift);
+        int index = _node.indexOf(bit);
+        if ((_node.Bitmap & bit) == 0) {
+            return _node.withInsertedSlot(bit, index, _leaf);
+        }
+
+        Object slot = _node.Slots[index];
+        if (slot instanceof Node) {
+            return _node.withReplacedSlot(index, put((Node) slot, _shift + BITS_PER_LEVEL, _leaf));
+        }
+        Leaf existingLeaf = (Leaf) slot;
+        if (existingLeaf.Key == _leaf.Key) {
+            return _node.withReplacedSlot(index, _leaf);
+        }
+        return _node.withReplacedSlot(index, merge(existingLeaf, _leaf, _shift + BITS_PER_LEVEL));
+    }
+
+    /**
+     * Builds the subtree holding two leaves, which share the bits below the shift. Different keys differ in one of
+     * their 32 bits, so this ends at the latest with the seventh level.
+     */
+    private static Node merge(Leaf _first, Leaf _second, int _shift) {
+        int firstBit = bitOf(_first.Key, _shift);
+        int secondBit = bitOf(_second.Key, _shift);
+        if (firstBit == secondBit) {
+            return new Node(firstBit, new Object[] { merge(_first, _second, _shift + BITS_PER_LEVEL) });
+        }
+        int bitmap = firstBit | secondBit;
+        Object slots[] = new Object[2];
+        slots[Integer.bitCount(bitmap & (firstBit - 1))]  = _first;
+        slots[Integer.bitCount(bitmap & (secondBit - 1))] = _second;
+        return new Node(bitmap, slots);
+    }
+
+    private static Node remove(Node _node, int _shift, int _key) {
+        int bit = bitOf(_key, _shift);
+        int index = _node.indexOf(bit);
+        Object slot = _node.Slots[index];
+        if (slot instanceof Leaf) {
+            return _node.withRemovedSlot(bit, index);
+        }
+
+        Node changedChild = remove((Node) slot, _shift + BITS_PER_LEVEL, _key);
+        if (changedChild.Slots.length == 1 && changedChild.Slots[0] instanceof Leaf) {
+            // A single leaf moves up, so the shape stays the same as if the key was never there.
+            return _node.withReplacedSlot(index, changedChild.Slots[0]);
+        }
+        return _node.withReplacedSlot(index, changedChild);
+    }
+
+    private static void forEach(Node _node, Visitor<Object> _visitor) {
+        for (Object currentSlot : _node.Slots) {
+            if (currentSlot instanceof Leaf) {
+                _visitor.visit(((Leaf) currentSlot).Key, ((Leaf) currentSlot).Value);
+            } else {
+                forEach((Node) currentSlot, _visitor);
+            }
+        }
+    }
+
+    private static void diff(Node _from, Node _to, DiffVisitor<Object> _visitor) {
+        if (_from == _to) {
+            return;
+        }
+        int remainingBits = _from.Bitmap | _to.Bitmap;
+        while (remainingBits != 0) {
+            int bit = Integer.lowestOneBit(remainingBits);
+            remainingBits &= ~bit;
+            Object fromSlot = ((_from.Bitmap & bit) == 0 ? null : _from.Slots[_from.indexOf(bit)]);
+            Object toSlot = ((_to.Bitmap & bit) == 0 ? null : _to.Slots[_to.indexOf(bit)]);
+            diffSlots(fromSlot, toSlot, _visitor);
+        }
+    }
+
+    private static void diffSlots(Object _fromSlot, Object _toSlot, final DiffVisitor<Object> _visitor) {
+        if (_fromSlot == _toSlot) {
+            return;
+        }
+        if (_fromSlot == null || _toSlot == null) {
+            final boolean added = (_fromSlot == null);
+            Visitor<Object> reporter = new Visitor<Object>() {
+                @Override
+                public void visit(int _key, Object _value) {
+                    _visitor.onDifference(_key, (added ? null : _value), (added ? _value : null));
+                }
+            };
+            visitSlot((added ? _toSlot : _fromSlot), reporter);
+            return;
+        }
+
+        if (_fromSlot instanceof Node && _toSlot instanceof Node) {
+            diff((Node) _fromSlot, (Node) _toSlot, _visitor);
+        } else if (_fromSlot instanceof Leaf && _toSlot instanceof Leaf) {
+            Leaf fromLeaf = (Leaf) _fromSlot;
+            Leaf toLeaf = (Leaf) _toSlot;
+            if (fromLeaf.Key == toLeaf.Key) {
+                if (!isEqual(fromLeaf.Value, toLeaf.Value)) {
+                    _visitor.onDifference(fromLeaf.Key, fromLeaf.Value, toLeaf.Value);
+                }
+            } else {
+                _visitor.onDifference(fromLeaf.Key, fromLeaf.Value, null);
+                _visitor.onDifference(toLeaf.Key, null, toLeaf.Value);
+            }
+        } else if (_fromSlot instanceof Leaf) {
+            diffLeafAndNode((Leaf) _fromSlot, (Node) _toSlot, true, _visitor);
+        } else {
+            diffLeafAndNode((Leaf) _toSlot, (Node) _fromSlot, false, _visitor);
+        }
+    }
+
+    private static void diffLeafAndNode(final Leaf _leaf, Node _node, final boolean _leafIsFrom,
+                                        final DiffVisitor<Object> _visitor) {
+        final boolean found[] = new boolean[1];
+        forEach(_node, new Visitor<Object>() {
+            @Override
+            public void visit(int _key, Object _value) {
+                if (_key == _leaf.Key) {
+                    found[0] = true;
+                    if (!isEqual(_leaf.Value, _value)) {
+                        _visitor.onDifference(_key, (_leafIsFrom ? _leaf.Value : _value),
+                                (_leafIsFrom ? _value : _leaf.Value));
+                    }
+                } else {
+                    _visitor.onDifference(_key, (_leafIsFrom ? null : _value), (_leafIsFrom ? _value : null));
+                }
+            }
+        });
+        if (!found[0]) {
+            _visitor.onDifference(_leaf.Key, (_leafIsFrom ? _leaf.Value : null), (_leafIsFrom ? null : _leaf.Value));
+        }
+    }
+
+    private static void visitSlot(Object _slot, Visitor<Object> _visitor) {
+        if (_slot instanceof Leaf) {
+            _visitor.visit(((Leaf) _slot).Key, ((Leaf) _slot).Value);
+        } else {
+            forEach((Node) _slot, _visitor);
+        }
+    }
+
+    private static final class Leaf {
+        final int    Key;
+        final Object Value;
+
+        Leaf(int _key, Object _value) {
+            Key   = _key;
+            Value = _value;
+        }
+    }
+
+    /**
+     * Slots hold a {@link Leaf} or a child Node for every set bit, ordered by bit.
+     */
+    private static final class Node {
+        final int    Bitmap;
+        final Object Slots[];
+
+        Node(int _bitmap, Object _slots[]) {
+            Bitmap = _bitmap;
+            Slots  = _slots;
+        }
+
+        int indexOf(int _bit) {
+            return Integer.bitCount(Bitmap & (_bit - 1));
+        }
+
+        Node withInsertedSlot(int _bit, int _index, Object _slot) {
+            Object newSlots[] = new Object[Slots.length + 1];
+            System.arraycopy(Slots, 0, newSlots, 0, _index);
+            newSlots[_index] = _slot;
+            System.arraycopy(Slots, _index, newSlots, _index + 1, Slots.length - _index);
+            return new Node(Bitmap | _bit, newSlots);
+        }
+
+        Node withReplacedSlot(int _index, Object _slot) {
+            Object newSlots[] = Slots.clone();
+            newSlots[_index] = _slot;
+            return new Node(Bitmap, newSlots);
+        }
+
+        Node withRemovedSlot(int _bit, int _index) {
+            Object newSlots[] = new Object[Slots.length - 1];
+            System.arraycopy(Slots, 0, newSlots, 0, _index);
+            System.arraycopy(Slots, _index + 1, newSlots, _index, Slots.length - _index - 1);
+            return new Node(Bitmap & ~_bit, newSlots);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import org.noorganization.shoppinglist.model.storage.ProductSource;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only view of Products ordered by title and then by id, which is read in pages of fixed size. Only the most
+ * recently used pages are kept, so the memory used does not grow with the count of Products. A page following a cached
+ * one is read by seeking to its first title instead of skipping all Products before it.
+ * <p>
+ * All cached pages are dropped, when anything in the model changed. Like the {@link ModelManager}, a view must only be
+ * used on the thread changing the model.
+ */
+public class ProductPages {
+
+    public static final int DEFAULT_PAGE_SIZE = 64;
+
+    public static final int DEFAULT_CACHED_PAGES = 16;
+
+    private ProductSource                m_source;
+    private ChangeLog                    m_changeLog;
+    private int                          m_excludedListId;
+    private int                          m_pageSize;
+    private LinkedHashMap<Integer, Page> m_pages;
+    private int                          m_size;
+    private long                         m_readSequence;
+    private int                          m_readEpoch;
+    private long                         m_loadCount;
+
+    ProductPages(ProductSource _source, ChangeLog _changeLog, int _excludedListId, int _pageSize,
+            final int _maxCachedPages) {
+        if (_pageSize < 1 || _maxCachedPages < 1) {
+            throw new IllegalArgumentException("Page size and count of cached pages have to be positive.");
+        }
+        m_source         = _source;
+        m_changeLog      = _changeLog;
+        m_excludedListId = _excludedListId;
+        m_pageSize       = _pageSize;
+        m_pages          = new LinkedHashMap<Integer, Page>(_maxCachedPages + 1, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> _eldest) {
+                return size() > _maxCachedPages;
+            }
+        };
+        m_size           = -1;
+        m_loadCount      = 0;
+    }
+
+    /**
+     * @return The count of Products in the view. Counted once after every change of the model.
+     */
+    public int size() {
+        checkFresh();
+        if (m_size < 0) {
+            m_size = m_source.countProducts(m_excludedListId);
+        }
+        return m_size;
+    }
+
+    public int getIdAt(int _position) {
+        return pageOf(_position).Ids[_position % m_pageSize];
+    }
+
+    public String getTitleAt(int _position) {
+        return pageOf(_position).Titles[_position % m_pageSize];
+    }
+
+    public float getDefaultValueAt(int _position) {
+        return pageOf(_position).DefaultValues[_position % m_pageSize];
+    }
+
+    public int getUnitIdAt(int _position) {
+        return pageOf(_position).UnitIds[_position % m_pageSize];
+    }
+
+    /**
+     * @return How many pages are cached at the moment. Never more than the limit given on creation.
+     */
+    public int getCachedPageCount() {
+        return m_pages.size();
+    }
+
+    /**
+     * @return How many pages were read from the source since the view was created.
+     */
+    public long getLoadCount() {
+        return m_loadCount;
+    }
+
+    /**
+     * Drops all cached pages, e.g. after the storage was changed without the {@link ModelManager}.
+     */
+    public void invalidate() {
+        m_pages.clear();
+        m_size = -1;
+    }
+
+    private void checkFresh() {
+        if (m_readSequence != m_changeLog.getSequence() || m_readEpoch != m_changeLog.getEpoch()) {
+            invalidate();
+            m_readSequence = m_changeLog.getSequence();
+            m_readEpoch    = m_changeLog.getEpoch();
+        }
+    }
+
+    private Page pageOf(int _position) {
+        if (_position < 0 || _position >= size()) {
+            throw new IndexOutOfBoundsException("Position " + _position + " is not in a view of " + m_size + ".");
+        }
+
+        int pageIndex = _position / m_pageSize;
+        Page rtn = m_pages.get(pageIndex);
+        if (rtn == null) {
+            rtn = new Page(m_pageSize);
+            Page previousPage = m_pages.get(pageIndex - 1);
+            if (previousPage != null && previousPage.Count == m_pageSize) {
+                int lastIndex = m_pageSize - 1;
+                m_source.readProductsAfter(m_excludedListId, previousPage.Titles[lastIndex],
+                        previousPage.Ids[lastIndex], m_pageSize, rtn);
+            } else {
+                m_source.readProductsAt(m_excludedListId, pageIndex * m_pageSize, m_pageSize, rtn);
+            }
+            m_loadCount++;
+            m_pages.put(pageIndex, rtn);
+        }
+        if (_position % m_pageSize >= rtn.Count) {
+            // The source changed without the ChangeLog knowing about it.
+            throw new IndexOutOfBoundsException("Position " + _position + " is not in the source anymore.");
+        }
+        return rtn;
+    }
+
+    private static class Page implements ProductSource.ProductCallback {
+        final int    Ids[];
+        final String Titles[];
+        final float  DefaultValues[];
+        final int    UnitIds[];
+        int          Count;
+
+        Page(int _capacity) {
+            Ids           = new int[_capacity];
+            Titles        = new String[_capacity];
+            DefaultValues = new float[_capacity];
+            UnitIds       = new int[_capacity];
+            Count         = 0;
+        }
+
+        @Override
+        public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+            if (Count == Ids.length) {
+                return;
+            }
+            Ids[Count]           = _id;
+            Titles[Count]        = _title;
+            DefaultValues[Count] = _defaultValue;
+            UnitIds[Count]       = _unitId;
+            Count++;
+        }
+    }
+}
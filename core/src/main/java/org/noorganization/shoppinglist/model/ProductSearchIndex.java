@@ -0,0 +1,391 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Inverted index from trigrams of normalized Product titles to the Products containing them. A query matches titles
+ * sharing enough of its trigrams, so typos and parts of compounds are found, too ("brot" finds "Vollkornbrot").
+ * <p>
+ * Titles are normalized by lowercasing, folding umlauts and &szlig; ("S&uuml;&szlig;kartoffel" becomes
+ * "suesskartoffel"), dropping other accents and treating everything but letters and digits as word separators. Every
+ * word is padded with a space on both sides before cutting trigrams, so trigrams at word starts and ends are
+ * distinguished.
+ * <p>
+ * Products are numbered densely inside the index, so counting shared trigrams needs no map lookup per posting. The
+ * index is maintained by the {@link ModelManager}; like the model, it must only be used on one thread.
+ */
+public class ProductSearchIndex {
+
+    /**
+     * A title matches if it contains at least this share of the query's trigrams.
+     */
+    public static final float MIN_SHARED_RATIO = 0.5f;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The documents containing one trigram, unsorted.
+     */
+    private static class Posting {
+        int Docs[] = new int[4];
+        int Size   = 0;
+
+        void add(int _doc) {
+            if (Size == Docs.length) {
+                Docs = Arrays.copyOf(Docs, Size * 2);
+            }
+            Docs[Size] = _doc;
+            Size++;
+        }
+
+        void remove(int _doc) {
+            for (int currentIndex = 0; currentIndex < Size; currentIndex++) {
+                if (Docs[currentIndex] == _doc) {
+                    Size--;
+                    Docs[currentIndex] = Docs[Size];
+                    return;
+                }
+            }
+        }
+    }
+
+    private Map<Long, Posting> m_postings;
+    // Product ids sorted, with the document of each.
+    private int                m_sortedIds[];
+    private int                m_docsOfSortedIds[];
+    private int                m_size;
+    // By document: Product id and count of distinct trigrams; free documents are reused.
+    private int                m_idOfDoc[];
+    private int                m_trigramCountOfDoc[];
+    private int                m_docCount;
+    private int                m_freeDocs[];
+    private int                m_freeDocCount;
+    // Shared trigram counts of the current search, by document.
+    private int                m_sharedOfDoc[];
+
+    ProductSearchIndex() {
+        m_postings          = new HashMap<>();
+        m_sortedIds         = new int[INITIAL_CAPACITY];
+        m_docsOfSortedIds   = new int[INITIAL_CAPACITY];
+        m_size              = 0;
+        m_idOfDoc           = new int[INITIAL_CAPACITY];
+        m_trigramCountOfDoc = new int[INITIAL_CAPACITY];
+        m_docCount          = 0;
+        m_freeDocs          = new int[INITIAL_CAPACITY];
+        m_freeDocCount      = 0;
+        m_sharedOfDoc       = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @return The count of indexed Products.
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * @return The count of distinct trigrams in all titles.
+     */
+    public int getTrigramCount() {
+        return m_postings.size();
+    }
+
+    /**
+     * Finds the Products best matching the query. Titles sharing more trigrams with the query come first; among equal
+     * ones, titles with fewer trigrams (closer to the query's length) come first.
+     * @param _query Text as typed by the user. null is not allowed.
+     * @param _maxResults How many ids are returned at most.
+     * @return Ids of the matching Products, best first. Never null. Concurrent searches are serialized, because they
+     * share the counts by document.
+     */
+    public synchronized int[] search(String _query, int _maxResults) {
+        if (_query == null) {
+            throw new IllegalArgumentException("Query was null.");
+        }
+        long queryTrigrams[] = trigramsOf(normalize(_query));
+        if (queryTrigrams.length == 0 || _maxResults <= 0) {
+            return new int[0];
+        }
+
+        if (m_sharedOfDoc.length < m_docCount) {
+            m_sharedOfDoc = new int[m_idOfDoc.length];
+        }
+        int touchedDocs[] = new int[INITIAL_CAPACITY];
+        int touchedCount = 0;
+        for (long currentTrigram : queryTrigrams) {
+            Posting posting = m_postings.get(currentTrigram);
+            if (posting == null) {
+                continue;
+            }
+            for (int currentIndex = 0; currentIndex < posting.Size; currentIndex++) {
+                int currentDoc = posting.Docs[currentIndex];
+                if (m_sharedOfDoc[currentDoc] == 0) {
+                    if (touchedCount == touchedDocs.length) {
+                        touchedDocs = Arrays.copyOf(touchedDocs, touchedCount * 2);
+                    }
+                    touchedDocs[touchedCount] = currentDoc;
+                    touchedCount++;
+                }
+                m_sharedOfDoc[currentDoc]++;
+            }
+        }
+
+        // Keeps the best matches in a heap with the worst on top.
+        int minShared = Math.max(1, (int) Math.ceil(queryTrigrams.length * MIN_SHARED_RATIO));
+        int heap[] = new int[Math.min(_maxResults, touchedCount)];
+        int heapSize = 0;
+        for (int currentIndex = 0; currentIndex < touchedCount; currentIndex++) {
+            int currentDoc = touchedDocs[currentIndex];
+            if (m_sharedOfDoc[currentDoc] < minShared) {
+                continue;
+            }
+            if (heapSize < heap.length) {
+                heap[heapSize] = currentDoc;
+                siftUp(heap, heapSize);
+                heapSize++;
+            } else if (isBetter(currentDoc, heap[0])) {
+                heap[0] = currentDoc;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        int rtn[] = new int[heapSize];
+        for (int currentIndex = heapSize - 1; currentIndex >= 0; currentIndex--) {
+            rtn[currentIndex] = m_idOfDoc[heap[0]];
+            heapSize--;
+            heap[0] = heap[heapSize];
+            siftDown(heap, heapSize);
+        }
+        for (int currentIndex = 0; currentIndex < touchedCount; currentIndex++) {
+            m_sharedOfDoc[touchedDocs[currentIndex]] = 0;
+        }
+        return rtn;
+    }
+
+    /**
+     * Indexes the title of a Product, which is not indexed yet.
+     */
+    void add(int _id, String _title) {
+        int position = Arrays.binarySearch(m_sortedIds, 0, m_size, _id);
+        if (position >= 0) {
+            throw new IllegalStateException("Product " + _id + " is indexed already.");
+        }
+        int doc = allocateDoc();
+        position = -position - 1;
+        if (m_size == m_sortedIds.length) {
+            m_sortedIds       = Arrays.copyOf(m_sortedIds, m_size * 2);
+            m_docsOfSortedIds = Arrays.copyOf(m_docsOfSortedIds, m_size * 2);
+        }
+        System.arraycopy(m_sortedIds, position, m_sortedIds, position + 1, m_size - position);
+        System.arraycopy(m_docsOfSortedIds, position, m_docsOfSortedIds, position + 1, m_size - position);
+        m_sortedIds[position]       = _id;
+        m_docsOfSortedIds[position] = doc;
+        m_size++;
+
+        long trigrams[] = trigramsOf(normalize(_title));
+        for (long currentTrigram : trigrams) {
+            Posting posting = m_postings.get(currentTrigram);
+            if (posting == null) {
+                posting = new Posting();
+                m_postings.put(currentTrigram, posting);
+            }
+            posting.add(doc);
+        }
+        m_idOfDoc[doc]           = _id;
+        m_trigramCountOfDoc[doc] = trigrams.length;
+    }
+
+    /**
+     * Removes a Product from the index.
+     * @param _title The title the Product was indexed with.
+     */
+    void remove(int _id, String _title) {
+        int position = Arrays.binarySearch(m_sortedIds, 0, m_size, _id);
+        if (position < 0) {
+            return;
+        }
+        int doc = m_docsOfSortedIds[position];
+        System.arraycopy(m_sortedIds, position + 1, m_sortedIds, position, m_size - position - 1);
+        System.arraycopy(m_docsOfSortedIds, position + 1, m_docsOfSortedIds, position, m_size - position - 1);
+        m_size--;
+
+        for (long currentTrigram : trigramsOf(normalize(_title))) {
+            Posting posting = m_postings.get(currentTrigram);
+            if (posting != null) {
+                posting.remove(doc);
+                if (posting.Size == 0) {
+                    m_postings.remove(currentTrigram);
+                }
+            }
+        }
+        if (m_freeDocCount == m_freeDocs.length) {
+            m_freeDocs = Arrays.copyOf(m_freeDocs, m_freeDocCount * 2);
+        }
+        m_freeDocs[m_freeDocCount] = doc;
+        m_freeDocCount++;
+    }
+
+    /**
+     * Lowercases, folds umlauts and &szlig;, drops accents and replaces runs of other characters by a single space.
+     */
+    static String normalize(String _text) {
+        String lowerText = _text.toLowerCase(Locale.GERMAN);
+        StringBuilder folded = new StringBuilder(lowerText.length() + 4);
+        for (int currentIndex = 0; currentIndex < lowerText.length(); currentIndex++) {
+            char currentChar = lowerText.charAt(currentIndex);
+            switch (currentChar) {
+                case '\u00e4':
+                    folded.append("ae");
+                    break;
+                case '\u00f6':
+                    folded.append("oe");
+                    break;
+                case '\u00fc':
+                    folded.append("ue");
+                    break;
+                case '\u00df':
+                    folded.append("ss");
+                    break;
+                default:
+                    folded.append(currentChar);
+            }
+        }
+
+        String decomposed = Normalizer.normalize(folded, Normalizer.Form.NFD);
+        StringBuilder rtn = new StringBuilder(decomposed.length());
+        for (int currentIndex = 0; currentIndex < decomposed.length(); currentIndex++) {
+            char currentChar = decomposed.charAt(currentIndex);
+            if (Character.getType(currentChar) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(currentChar)) {
+                rtn.append(currentChar);
+            } else if (rtn.length() > 0 && rtn.charAt(rtn.length() - 1) != ' ') {
+                rtn.append(' ');
+            }
+        }
+        if (rtn.length() > 0 && rtn.charAt(rtn.length() - 1) == ' ') {
+            rtn.setLength(rtn.length() - 1);
+        }
+        return rtn.toString();
+    }
+
+    /**
+     * @param _normalizedText Text as returned by {@link #normalize(String)}.
+     * @return The distinct trigrams of all padded words, each packed into a long.
+     */
+    static long[] trigramsOf(String _normalizedText) {
+        if (_normalizedText.isEmpty()) {
+            return new long[0];
+        }
+        String padded = " " + _normalizedText.replace(" ", "  ") + " ";
+        long rtn[] = new long[padded.length()];
+        int trigramCount = 0;
+        for (int currentIndex = 0; currentIndex + 3 <= padded.length(); currentIndex++) {
+            // Two spaces only occur between words.
+            if (padded.charAt(currentIndex + 1) == ' ') {
+                continue;
+            }
+            rtn[trigramCount] = ((long) padded.charAt(currentIndex) << 32) |
+                    ((long) padded.charAt(currentIndex + 1) << 16) | padded.charAt(currentIndex + 2);
+            trigramCount++;
+        }
+        rtn = Arrays.copyOf(rtn, trigramCount);
+        Arrays.sort(rtn);
+        int distinctCount = 0;
+        for (int currentIndex = 0; currentIndex < trigramCount; currentIndex++) {
+            if (distinctCount == 0 || rtn[distinctCount - 1] != rtn[currentIndex]) {
+                rtn[distinctCount] = rtn[currentIndex];
+                distinctCount++;
+            }
+        }
+        return Arrays.copyOf(rtn, distinctCount);
+    }
+
+    private int allocateDoc() {
+        if (m_freeDocCount > 0) {
+            m_freeDocCount--;
+            return m_freeDocs[m_freeDocCount];
+        }
+        if (m_docCount == m_idOfDoc.length) {
+            m_idOfDoc           = Arrays.copyOf(m_idOfDoc, m_docCount * 2);
+            m_trigramCountOfDoc = Arrays.copyOf(m_trigramCountOfDoc, m_docCount * 2);
+        }
+        m_docCount++;
+        return m_docCount - 1;
+    }
+
+    /**
+     * More shared trigrams are better; with equally many, fewer trigrams of the title are better. Ties are broken by
+     * Product id, so results are stable.
+     */
+    private boolean isBetter(int _doc, int _otherDoc) {
+        if (m_sharedOfDoc[_doc] != m_sharedOfDoc[_otherDoc]) {
+            return m_sharedOfDoc[_doc] > m_sharedOfDoc[_otherDoc];
+        }
+        if (m_trigramCountOfDoc[_doc] != m_trigramCountOfDoc[_otherDoc]) {
+            return m_trigramCountOfDoc[_doc] < m_trigramCountOfDoc[_otherDoc];
+        }
+        return m_idOfDoc[_doc] < m_idOfDoc[_otherDoc];
+    }
+
+    private void siftUp(int _heap[], int _index) {
+        int index = _index;
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!isBetter(_heap[parent], _heap[index])) {
+                return;
+            }
+            swap(_heap, parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int _heap[], int _size) {
+        int index = 0;
+        while (true) {
+            int worst = index;
+            int left = index * 2 + 1;
+            int right = left + 1;
+            if (left < _size && isBetter(_heap[worst], _heap[left])) {
+                worst = left;
+            }
+            if (right < _size && isBetter(_heap[worst], _heap[right])) {
+                worst = right;
+            }
+            if (worst == index) {
+                return;
+            }
+            swap(_heap, index, worst);
+            index = worst;
+        }
+    }
+
+    private static void swap(int _values[], int _first, int _second) {
+        int value = _values[_first];
+        _values[_first]  = _values[_second];
+        _values[_second] = value;
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import org.noorganization.shoppinglist.metrics.Metrics;
+import org.noorganization.shoppinglist.model.storage.ConsumptionStore;
+import org.noorganization.shoppinglist.model.storage.DatabaseScheduler;
+import org.noorganization.shoppinglist.model.storage.PurchaseHistoryStore;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps when Products were bought, e.g. to tell when milk was bought last. Recording a purchase only appends it in
+ * memory, which is fine for the UI thread. Writing is background work: each chunk appends some purchases in one
+ * transaction. Afterwards the stored history is compacted once a day: purchases older than a month are rolled up into
+ * days, days older than a year into weeks, and weeks older than five years are dropped. So however long the app is
+ * used, a Product keeps at most its purchases of a month, a year of days and five years of weeks. Each chunk of a
+ * compaction handles one step for a few hundred Products, so no chunk holds the database for the whole history. The
+ * time of the last compaction should be kept across processes (see {@link #setLastCompactionMillis(long)}), else the
+ * first write of each process starts a compaction.
+ * <p>
+ * The consumption statistics updated by a purchase (see {@link ConsumptionPrediction}) can be queued along with it, so
+ * they are saved by the same background work.
+ * <p>
+ * Thread-safe. Queries include the purchases not written yet.
+ */
+public class PurchaseHistory implements DatabaseScheduler.ChunkedWork {
+
+    public static final long NEVER = -1;
+
+    public static final long DAY_MILLIS  = 24L * 60 * 60 * 1000;
+    public static final long WEEK_MILLIS = 7 * DAY_MILLIS;
+
+    public static final long SINGLE_RETENTION_MILLIS = 31 * DAY_MILLIS;
+    public static final long DAILY_RETENTION_MILLIS  = 366 * DAY_MILLIS;
+    public static final long RETENTION_MILLIS        = 5 * 366 * DAY_MILLIS;
+
+    static final int  CHUNK_SIZE                 = 256;
+    static final long COMPACTION_INTERVAL_MILLIS = DAY_MILLIS;
+    static final int  COMPACTION_PRODUCT_COUNT   = 256;
+
+    private static final int COMPACTION_STEPS = 3;
+
+    private final PurchaseHistoryStore                     m_store;
+    private final ConsumptionStore                         m_consumptionStore;
+    // Serializes reading the store with writing to it, so a purchase is neither missed nor passed twice.
+    private final Object                                   m_storeLock;
+    // Recorded purchases not written yet, in recorded order.
+    private int                                            m_pendingProductIds[];
+    private long                                           m_pendingTimes[];
+    private float                                          m_pendingValues[];
+    private int                                            m_pendingCount;
+    // Latest statistics per Product not saved yet.
+    private Map<Integer, ConsumptionPrediction.Statistics> m_pendingStatistics;
+    private boolean                                        m_writeQueued;
+    private long                                           m_lastCompactionMillis;
+    // Time the running compaction started at, or NEVER if none is running.
+    private long                                           m_compactionNowMillis;
+    private int                                            m_nextCompactionStep;
+    // Products with purchases when the running compaction started, ascending.
+    private int                                            m_compactionProductIds[];
+    private int                                            m_nextCompactionIndex;
+
+    public PurchaseHistory(PurchaseHistoryStore _store) {
+        this(_store, null);
+    }
+
+    /**
+     * @param _consumptionStore Where queued statistics are saved. If null, they are dropped.
+     */
+    public PurchaseHistory(PurchaseHistoryStore _store, ConsumptionStore _consumptionStore) {
+        if (_store == null) {
+            throw new IllegalArgumentException("Store was null.");
+        }
+        m_store                = _store;
+        m_consumptionStore     = _consumptionStore;
+        m_storeLock            = new Object();
+        m_pendingProductIds    = new int[16];
+        m_pendingTimes         = new long[16];
+        m_pendingValues        = new float[16];
+        m_pendingCount         = 0;
+        m_pendingStatistics    = new LinkedHashMap<>();
+        m_writeQueued          = false;
+        m_lastCompactionMillis = 0;
+        m_compactionNowMillis  = NEVER;
+        m_nextCompactionStep   = 0;
+        m_compactionProductIds = null;
+        m_nextCompactionIndex  = 0;
+    }
+
+    /**
+     * Records a purchase in memory.
+     * @param _value How much was bought, e.g. the value of the list entry.
+     * @return Whether the caller has to run this as background work, so the purchase is written. It's true only once
+     * until the work is done.
+     */
+    public boolean record(int _productId, long _timeMillis, float _value) {
+        return record(_productId, _timeMillis, _value, null);
+    }
+
+    /**
+     * Records a purchase in memory, together with the statistics it changed.
+     * @param _statistics Saved with the purchase, replacing older ones of the Product not saved yet. May be null.
+     * @return Whether the caller has to run this as background work, see {@link #record(int, long, float)}.
+     */
+    public synchronized boolean record(int _productId, long _timeMillis, float _value,
+                                       ConsumptionPrediction.Statistics _statistics) {
+        if (_statistics != null && m_consumptionStore != null) {
+            m_pendingStatistics.remove(_statistics.ProductId);
+            m_pendingStatistics.put(_statistics.ProductId, _statistics);
+        }
+        if (m_pendingCount == m_pendingTimes.length) {
+            m_pendingProductIds = Arrays.copyOf(m_pendingProductIds, m_pendingCount * 2);
+            m_pendingTimes      = Arrays.copyOf(m_pendingTimes, m_pendingCount * 2);
+            m_pendingValues     = Arrays.copyOf(m_pendingValues, m_pendingCount * 2);
+        }
+        m_pendingProductIds[m_pendingCount] = _productId;
+        m_pendingTimes[m_pendingCount]      = _timeMillis;
+        m_pendingValues[m_pendingCount]     = _value;
+        m_pendingCount++;
+
+        boolean rtn = !m_writeQueued;
+        m_writeQueued = true;
+        return rtn;
+    }
+
+    /**
+     * @return The count of purchases and statistics not written yet.
+     */
+    public synchronized int getPendingCount() {
+        return m_pendingCount + m_pendingStatistics.size();
+    }
+
+    /**
+     * Writes a chunk of pending purchases. Once all are written, compacts the history in a few chunks, if it wasn't
+     * compacted for a day.
+     */
+    @Override
+    public boolean runChunk() {
+        try {
+            if (writePending(CHUNK_SIZE) || compactStep(System.currentTimeMillis(), false)) {
+                return true;
+            }
+            synchronized (this) {
+                if (getPendingCount() > 0) {
+                    return true;
+                }
+                m_writeQueued = false;
+                return false;
+            }
+        } catch (RuntimeException e) {
+            // The next purchase queues the work again.
+            synchronized (this) {
+                m_writeQueued = false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes all pending purchases on the calling thread.
+     */
+    public void flush() {
+        while (writePending(CHUNK_SIZE)) {
+            // Until none is left.
+        }
+    }
+
+    /**
+     * Compacts the stored history at once on the calling thread, as the background work does once a day.
+     */
+    public void compact(long _nowMillis) {
+        synchronized (m_storeLock) {
+            m_compactionNowMillis = NEVER;
+            do {
+                compactStep(_nowMillis, true);
+            } while (m_compactionNowMillis != NEVER);
+        }
+    }
+
+    /**
+     * @return When the last compaction finished, 0 if none did yet.
+     */
+    public synchronized long getLastCompactionMillis() {
+        return m_lastCompactionMillis;
+    }
+
+    /**
+     * Sets when the history was compacted last, e.g. as saved by an earlier process.
+     */
+    public synchronized void setLastCompactionMillis(long _millis) {
+        m_lastCompactionMillis = _millis;
+    }
+
+    /**
+     * Passes the stored purchases and buckets of a Product starting in [_fromMillis, _toMillis), oldest first,
+     * followed by its pending purchases in that range.
+     */
+    public void readPurchases(int _productId, long _fromMillis, long _toMillis,
+                              PurchaseHistoryStore.PurchaseCallback _callback) {
+        synchronized (m_storeLock) {
+            m_store.readPurchases(_productId, _fromMillis, _toMillis, _callback);
+            int productIds[];
+            long times[];
+            float values[];
+            int count;
+            synchronized (this) {
+                productIds = Arrays.copyOf(m_pendingProductIds, m_pendingCount);
+                times      = Arrays.copyOf(m_pendingTimes, m_pendingCount);
+                values     = Arrays.copyOf(m_pendingValues, m_pendingCount);
+                count      = m_pendingCount;
+            }
+            for (int currentIndex = 0; currentIndex < count; currentIndex++) {
+                if (productIds[currentIndex] == _productId && times[currentIndex] >= _fromMillis &&
+                        times[currentIndex] < _toMillis) {
+                    _callback.onPurchases(_productId, times[currentIndex], 0, 1, values[currentIndex]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return When the Product was bought last, the start of the day or week if older purchases were rolled up, or
+     * {@link #NEVER}.
+     */
+    public long getLastPurchaseMillis(int _productId) {
+        synchronized (m_storeLock) {
+            final long rtn[] = { NEVER };
+            synchronized (this) {
+                for (int currentIndex = 0; currentIndex < m_pendingCount; currentIndex++) {
+                    if (m_pendingProductIds[currentIndex] == _productId) {
+                        rtn[0] = Math.max(rtn[0], m_pendingTimes[currentIndex]);
+                    }
+                }
+            }
+            m_store.readLastPurchase(_productId, new PurchaseHistoryStore.PurchaseCallback() {
+                @Override
+                public void onPurchases(int _productId, long _startMillis, long _spanMillis, int _count,
+                                        double _valueSum) {
+                    rtn[0] = Math.max(rtn[0], _startMillis);
+                }
+            });
+            return rtn[0];
+        }
+    }
+
+    /**
+     * @return Whether some pending purchases or statistics were written. Those rejected by the store (e.g. of a
+     * Product deleted meanwhile) are dropped.
+     */
+    private boolean writePending(int _maxCount) {
+        synchronized (m_storeLock) {
+            int productIds[];
+            long times[];
+            float values[];
+            int count;
+            ConsumptionPrediction.Statistics statistics[];
+            synchronized (this) {
+                count = Math.min(m_pendingCount, _maxCount);
+                statistics = m_pendingStatistics.values().toArray(
+                        new ConsumptionPrediction.Statistics[m_pendingStatistics.size()]);
+                m_pendingStatistics.clear();
+                if (count == 0 && statistics.length == 0) {
+                    return false;
+                }
+                productIds = Arrays.copyOf(m_pendingProductIds, count);
+                times      = Arrays.copyOf(m_pendingTimes, count);
+                values     = Arrays.copyOf(m_pendingValues, count);
+            }
+
+            for (ConsumptionPrediction.Statistics currentStatistics : statistics) {
+                if (!currentStatistics.saveTo(m_consumptionStore)) {
+                    Metrics.count("PurchaseHistory.droppedStatistics", 1);
+                }
+            }
+            if (count > 0 && !m_store.appendPurchases(productIds, times, values, 0, count)) {
+                for (int currentIndex = 0; currentIndex < count; currentIndex++) {
+                    if (!m_store.appendPurchases(productIds, times, values, currentIndex, 1)) {
+                        Metrics.count("PurchaseHistory.dropped", 1);
+                    }
+                }
+            }
+
+            synchronized (this) {
+                int remaining = m_pendingCount - count;
+                System.arraycopy(m_pendingProductIds, count, m_pendingProductIds, 0, remaining);
+                System.arraycopy(m_pendingTimes, count, m_pendingTimes, 0, remaining);
+                System.arraycopy(m_pendingValues, count, m_pendingValues, 0, remaining);
+                m_pendingCount = remaining;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Runs the next step of a compaction for the next Products, if one is due. Cutoffs are rounded down to
+     * whole days or weeks, so a bucket is never split. All chunks of a compaction use the cutoffs of its start.
+     * @param _force Whether to start a compaction, even though the last one was less than a day ago.
+     * @return Whether a step was run.
+     */
+    private boolean compactStep(long _nowMillis, boolean _force) {
+        synchronized (m_storeLock) {
+            if (m_compactionNowMillis == NEVER) {
+                if (!_force && _nowMillis - getLastCompactionMillis() < COMPACTION_INTERVAL_MILLIS) {
+                    return false;
+                }
+                m_compactionNowMillis  = _nowMillis;
+                m_nextCompactionStep   = 0;
+                m_compactionProductIds = m_store.getPurchasedProductIds();
+                m_nextCompactionIndex  = 0;
+            }
+            long nowMillis = m_compactionNowMillis;
+            int endIndex = Math.min(m_nextCompactionIndex + COMPACTION_PRODUCT_COUNT, m_compactionProductIds.length);
+            if (endIndex == 0) {
+                // Nothing was bought yet.
+                finishCompaction();
+                return false;
+            }
+            int firstProductId = m_compactionProductIds[m_nextCompactionIndex];
+            int lastProductId = m_compactionProductIds[endIndex - 1];
+            int changedRows;
+            switch (m_nextCompactionStep) {
+                case 0:
+                    changedRows = m_store.rollUpPurchases(DAY_MILLIS,
+                            floor(nowMillis - SINGLE_RETENTION_MILLIS, DAY_MILLIS), firstProductId, lastProductId);
+                    break;
+                case 1:
+                    changedRows = m_store.rollUpPurchases(WEEK_MILLIS,
+                            floor(nowMillis - DAILY_RETENTION_MILLIS, WEEK_MILLIS), firstProductId, lastProductId);
+                    break;
+                default:
+                    changedRows = m_store.dropPurchases(floor(nowMillis - RETENTION_MILLIS, WEEK_MILLIS),
+                            firstProductId, lastProductId);
+                    break;
+            }
+            Metrics.count("PurchaseHistory.compactedRows", changedRows);
+
+            m_nextCompactionIndex = endIndex;
+            if (m_nextCompactionIndex == m_compactionProductIds.length) {
+                m_nextCompactionStep++;
+                m_nextCompactionIndex = 0;
+            }
+            if (m_nextCompactionStep == COMPACTION_STEPS) {
+                finishCompaction();
+            }
+            return true;
+        }
+    }
+
+    private void finishCompaction() {
+        setLastCompactionMillis(m_compactionNowMillis);
+        m_compactionNowMillis  = NEVER;
+        m_compactionProductIds = null;
+    }
+
+    private static long floor(long _millis, long _unitMillis) {
+        return Math.max(0, _millis / _unitMillis * _unitMillis);
+    }
+}
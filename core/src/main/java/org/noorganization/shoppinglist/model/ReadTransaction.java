@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import java.io.Closeable;
+import java.util.Arrays;
+
+/**
+ * Consistent view of the model as it was when {@link ModelManager#beginRead()} was called. Changes made to the model
+ * afterwards are not visible. The view is immutable, so it can be read on any thread without locking.
+ * <p>
+ * Like the ModelManager, the getters of whole objects return copies. Single fields can be read without copying, e.g.
+ * by a cursor walking over the ids. Closing releases the pinned state; using a closed transaction throws an
+ * IllegalStateException.
+ */
+public final class ReadTransaction implements Closeable {
+
+    private ModelManager          m_model;
+    private volatile ModelVersion m_version;
+
+    ReadTransaction(ModelManager _model, ModelVersion _version) {
+        m_model   = _model;
+        m_version = _version;
+    }
+
+    public int getCountOfProducts() {
+        return version().Products.size();
+    }
+
+    public int getCountOfShoppingLists() {
+        return version().Lists.size();
+    }
+
+    /**
+     * @return A copy of the Product or null, if it did not exist.
+     */
+    public Product getProductById(int _id) {
+        Product product = version().Products.get(_id);
+        return (product == null ? null : new Product(product));
+    }
+
+    /**
+     * @return A copy of the Unit or null, if it did not exist.
+     */
+    public Unit getUnitById(int _id) {
+        Unit unit = version().Units.get(_id);
+        return (unit == null ? null : new Unit(unit));
+    }
+
+    /**
+     * @return A copy of the ShoppingList or null, if it did not exist.
+     */
+    public ShoppingList getShoppingListById(int _id) {
+        ModelVersion.ListVersion list = version().Lists.get(_id);
+        return (list == null ? null : list.toShoppingList());
+    }
+
+    /**
+     * @return Copies of all Products. Not sorted, never null.
+     */
+    public Product[] getAllProducts() {
+        PersistentIntMap<Product> products = version().Products;
+        final Product rtn[] = new Product[products.size()];
+        products.forEach(new PersistentIntMap.Visitor<Product>() {
+            private int m_nextIndex = 0;
+
+            @Override
+            public void visit(int _id, Product _product) {
+                rtn[m_nextIndex++] = new Product(_product);
+            }
+        });
+        return rtn;
+    }
+
+    /**
+     * @return Copies of all Units. Not sorted, never null.
+     */
+    public Unit[] getAllUnits() {
+        PersistentIntMap<Unit> units = version().Units;
+        final Unit rtn[] = new Unit[units.size()];
+        units.forEach(new PersistentIntMap.Visitor<Unit>() {
+            private int m_nextIndex = 0;
+
+            @Override
+            public void visit(int _id, Unit _unit) {
+                rtn[m_nextIndex++] = new Unit(_unit);
+            }
+        });
+        return rtn;
+    }
+
+    /**
+     * @return Copies of all ShoppingLists. Not sorted, never null.
+     */
+    public ShoppingList[] getAllShoppingLists() {
+        PersistentIntMap<ModelVersion.ListVersion> lists = version().Lists;
+        final ShoppingList rtn[] = new ShoppingList[lists.size()];
+        lists.forEach(new PersistentIntMap.Visitor<ModelVersion.ListVersion>() {
+            private int m_nextIndex = 0;
+
+            @Override
+            public void visit(int _id, ModelVersion.ListVersion _list) {
+                rtn[m_nextIndex++] = _list.toShoppingList();
+            }
+        });
+        return rtn;
+    }
+
+    /**
+     * @return The ids of all Products in ascending order. Never null.
+     */
+    public int[] getProductIds() {
+        return sortedKeysOf(version().Products);
+    }
+
+    /**
+     * @return The ids of all Units in ascending order. Never null.
+     */
+    public int[] getUnitIds() {
+        return sortedKeysOf(version().Units);
+    }
+
+    /**
+     * @return The ids of all ShoppingLists in ascending order. Never null.
+     */
+    public int[] getShoppingListIds() {
+        return sortedKeysOf(version().Lists);
+    }
+
+    /**
+     * @return The ids of the Products on the ShoppingList in ascending order. Empty if the list did not exist.
+     */
+    public int[] getListEntryProductIds(int _shoppingListId) {
+        ModelVersion.ListVersion list = version().Lists.get(_shoppingListId);
+        return (list == null ? new int[0] : sortedKeysOf(list.Entries));
+    }
+
+    /**
+     * @return The title of the Product or null, if it did not exist.
+     */
+    public String getProductTitle(int _id) {
+        Product product = version().Products.get(_id);
+        return (product == null ? null : product.Title);
+    }
+
+    /**
+     * @return The default value of the Product. NaN if it did not exist.
+     */
+    public float getProductDefaultValue(int _id) {
+        Product product = version().Products.get(_id);
+        return (product == null ? Float.NaN : product.DefaultValue);
+    }
+
+    /**
+     * @return The unit id of the Product. {@link ModelManager#INVALID_ID} if it has none or did not exist.
+     */
+    public int getProductUnitId(int _id) {
+        Product product = version().Products.get(_id);
+        return (product == null ? ModelManager.INVALID_ID : product.UnitId);
+    }
+
+    /**
+     * @return The text of the Unit or null, if it did not exist.
+     */
+    public String getUnitText(int _id) {
+        Unit unit = version().Units.get(_id);
+        return (unit == null ? null : unit.UnitText);
+    }
+
+    /**
+     * @return The title of the ShoppingList or null, if it did not exist.
+     */
+    public String getShoppingListTitle(int _id) {
+        ModelVersion.ListVersion list = version().Lists.get(_id);
+        return (list == null ? null : list.Title);
+    }
+
+    /**
+     * @return The value of the Product on the ShoppingList. NaN if it's not on the list or the list does not exist.
+     */
+    public float getListEntryValue(int _shoppingListId, int _productId) {
+        ModelVersion.ListVersion list = version().Lists.get(_shoppingListId);
+        Float rtn = (list == null ? null : list.Entries.get(_productId));
+        return (rtn == null ? Float.NaN : rtn);
+    }
+
+    /**
+     * Releases the pinned state. Closing twice does nothing.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (m_version == null) {
+                return;
+            }
+            m_version = null;
+        }
+        m_model.endRead();
+    }
+
+    private static int[] sortedKeysOf(PersistentIntMap<?> _map) {
+        final int rtn[] = new int[_map.size()];
+        _map.forEach(new PersistentIntMap.Visitor<Object>() {
+            private int m_nextIndex = 0;
+
+            @Override
+            public void visit(int _key, Object _value) {
+                rtn[m_nextIndex++] = _key;
+            }
+        });
+        Arrays.sort(rtn);
+        return rtn;
+    }
+
+    private ModelVersion version() {
+        ModelVersion rtn = m_version;
+        if (rtn == null) {
+            throw new IllegalStateException("Read transaction is closed.");
+        }
+        return rtn;
+    }
+}
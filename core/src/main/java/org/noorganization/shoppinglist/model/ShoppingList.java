@@ -18,25 +18,19 @@
 
 package org.noorganization.shoppinglist.model;
 
-import android.util.SparseArray;
-
 public class ShoppingList extends IdentificableModelObject {
-    public String             Title;
-    public SparseArray<Float> ListEntries;
+    public String           Title;
+    public SparseFloatArray ListEntries;
 
     public ShoppingList() {
         Id          = ModelManager.INVALID_ID;
         Title       = "";
-        ListEntries = new SparseArray<>();
+        ListEntries = new SparseFloatArray();
     }
 
     public ShoppingList(ShoppingList _toCopy) {
         Id          = _toCopy.Id;
         Title       = _toCopy.Title;
-        ListEntries = new SparseArray<>(_toCopy.ListEntries.size());
-
-        for (int index = 0; index < _toCopy.ListEntries.size(); index++) {
-            ListEntries.append(_toCopy.ListEntries.keyAt(index), _toCopy.ListEntries.valueAt(index).floatValue());
-        }
+        ListEntries = new SparseFloatArray(_toCopy.ListEntries);
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import java.util.Arrays;
+
+/**
+ * Maps int keys to float values like Android's SparseArray&lt;Float&gt;, but without boxing the values and without
+ * depending on Android. Keys are kept sorted, so lookups are binary searches and iterating by index visits the keys in
+ * ascending order.
+ * <p>
+ * Copies share their arrays with the original until one of both is changed (copy-on-write), so copying a list for
+ * reading is O(1). Sharing is not tracked per copy: once copied, an array is copied on its next change even if the
+ * other copy is gone already.
+ */
+public class SparseFloatArray {
+
+    private int     m_keys[];
+    private float   m_values[];
+    private int     m_size;
+    private boolean m_shared;
+
+    public SparseFloatArray() {
+        this(10);
+    }
+
+    public SparseFloatArray(int _initialCapacity) {
+        m_keys   = new int[Math.max(_initialCapacity, 1)];
+        m_values = new float[m_keys.length];
+        m_size   = 0;
+        m_shared = false;
+    }
+
+    public SparseFloatArray(SparseFloatArray _toCopy) {
+        _toCopy.m_shared = true;
+        m_keys   = _toCopy.m_keys;
+        m_values = _toCopy.m_values;
+        m_size   = _toCopy.m_size;
+        m_shared = true;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public int keyAt(int _index) {
+        return m_keys[_index];
+    }
+
+    public float valueAt(int _index) {
+        return m_values[_index];
+    }
+
+    public void setValueAt(int _index, float _value) {
+        ensureOwned();
+        m_values[_index] = _value;
+    }
+
+    /**
+     * @return The index of the key or a negative value if the key is not mapped.
+     */
+    public int indexOfKey(int _key) {
+        return Arrays.binarySearch(m_keys, 0, m_size, _key);
+    }
+
+    /**
+     * @return The value mapped to the key or 0 if the key is not mapped.
+     */
+    public float get(int _key) {
+        return get(_key, 0.0f);
+    }
+
+    public float get(int _key, float _valueIfNotMapped) {
+        int index = indexOfKey(_key);
+        return (index < 0 ? _valueIfNotMapped : m_values[index]);
+    }
+
+    /**
+     * Maps a value to the key, replacing the previous value if there was one.
+     */
+    public void put(int _key, float _value) {
+        int index = indexOfKey(_key);
+        if (index >= 0) {
+            ensureOwned();
+            m_values[index] = _value;
+            return;
+        }
+        insertAt(-index - 1, _key, _value);
+    }
+
+    /**
+     * Like {@link #put(int, float)}, but faster if the key is greater than all mapped keys.
+     */
+    public void append(int _key, float _value) {
+        if (m_size > 0 && _key <= m_keys[m_size - 1]) {
+            put(_key, _value);
+            return;
+        }
+        insertAt(m_size, _key, _value);
+    }
+
+    public void delete(int _key) {
+        int index = indexOfKey(_key);
+        if (index >= 0) {
+            removeAt(index);
+        }
+    }
+
+    public void remove(int _key) {
+        delete(_key);
+    }
+
+    public void removeAt(int _index) {
+        ensureOwned();
+        System.arraycopy(m_keys, _index + 1, m_keys, _index, m_size - _index - 1);
+        System.arraycopy(m_values, _index + 1, m_values, _index, m_size - _index - 1);
+        m_size--;
+    }
+
+    public void clear() {
+        m_size = 0;
+    }
+
+    /**
+     * @return Whether both share their arrays, so the entries are equal without comparing them.
+     */
+    public boolean sharesEntriesWith(SparseFloatArray _other) {
+        return m_keys == _other.m_keys && m_values == _other.m_values && m_size == _other.m_size;
+    }
+
+    /**
+     * Copies shared arrays before they are changed.
+     */
+    private void ensureOwned() {
+        if (m_shared) {
+            m_keys   = Arrays.copyOf(m_keys, Math.max(m_keys.length, 1));
+            m_values = Arrays.copyOf(m_values, m_keys.length);
+            m_shared = false;
+        }
+    }
+
+    private void insertAt(int _index, int _key, float _value) {
+        ensureOwned();
+        if (m_size == m_keys.length) {
+            int newCapacity = m_keys.length * 2;
+            m_keys   = Arrays.copyOf(m_keys, newCapacity);
+            m_values = Arrays.copyOf(m_values, newCapacity);
+        }
+        System.arraycopy(m_keys, _index, m_keys, _index + 1, m_size - _index);
+        System.arraycopy(m_values, _index, m_values, _index + 1, m_size - _index);
+        m_keys[_index]   = _key;
+        m_values[_index] = _value;
+        m_size++;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+
+package org.noorganization.shoppinglist.model;
+
+import org.noorganization.shoppinglist.model.storage.ProductSource;
+
+import java.util.Arrays;
+
+/**
+ * Serves the Products held by the {@link ModelManager} like a storage would, so a {@link ProductPages} view works
+ * without paged mode, too. The order by title is sorted once per epoch of the {@link ChangeLog}. Afterwards only
+ * inserted, renamed and deleted Products are moved within it, so changes of ShoppingLists or Units cost nothing.
+ */
+class StoreProductSource implements ProductSource {
+
+    /**
+     * When more than this part of the Products changed, sorting all of them is cheaper than moving each one.
+     */
+    private static final int RESORT_DIVISOR = 16;
+
+    private ModelManager m_model;
+    private int          m_sortedIds[];
+    private String       m_sortedTitles[];
+    private int          m_sortedCount;
+    private long         m_sortedSequence;
+    private int          m_sortedEpoch;
+
+    StoreProductSource(ModelManager _model) {
+        m_model        = _model;
+        m_sortedIds    = null;
+        m_sortedTitles = null;
+        m_sortedCount  = 0;
+    }
+
+    @Override
+    public int countProducts(int _excludedListId) {
+        ShoppingList excludedList = m_model.findShoppingList(_excludedListId);
+        return m_model.m_allProducts.size() - (excludedList == null ? 0 : excludedList.ListEntries.size());
+    }
+
+    @Override
+    public void readProductsAt(int _excludedListId, int _offset, int _limit, ProductCallback _callback) {
+        updateOrder();
+        readFrom(0, _excludedListId, _offset, _limit, _callback);
+    }
+
+    @Override
+    public void readProductsAfter(int _excludedListId, String _afterTitle, int _afterId, int _limit,
+            ProductCallback _callback) {
+        updateOrder();
+        readFrom(positionAfter(_afterTitle, _afterId), _excludedListId, 0, _limit, _callback);
+    }
+
+    @Override
+    public boolean readProduct(int _id, ProductCallback _callback) {
+        int index = m_model.m_allProducts.indexOfId(_id);
+        if (index < 0) {
+            return false;
+        }
+        pass(index, _callback);
+        return true;
+    }
+
+    @Override
+    public int[] getProductIdsByUnit(int _unitId) {
+        return m_model.m_allProducts.getIdsByUnit(_unitId);
+    }
+
+    /**
+     * Skips excluded Products, so a window at an offset costs time proportional to the offset.
+     */
+    private void readFrom(int _sortedStart, int _excludedListId, int _skipCount, int _limit,
+            ProductCallback _callback) {
+        ShoppingList excludedList = m_model.findShoppingList(_excludedListId);
+        ProductStore products = m_model.m_allProducts;
+        int toSkip = _skipCount;
+        int passedCount = 0;
+        for (int currentPosition = _sortedStart; currentPosition < m_sortedCount && passedCount < _limit;
+                currentPosition++) {
+            int currentId = m_sortedIds[currentPosition];
+            if (excludedList != null && excludedList.ListEntries.indexOfKey(currentId) >= 0) {
+                continue;
+            }
+            if (toSkip > 0) {
+                toSkip--;
+                continue;
+            }
+            pass(products.indexOfId(currentId), _callback);
+            passedCount++;
+        }
+    }
+
+    private void pass(int _index, ProductCallback _callback) {
+        ProductStore products = m_model.m_allProducts;
+        _callback.onProduct(products.idAt(_index), products.titleAt(_index), products.defaultValueAt(_index),
+                products.unitIdAt(_index));
+    }
+
+    /**
+     * @return The first position in the order, whose Product follows the given title and id.
+     */
+    private int positionAfter(String _title, int _id) {
+        int low = 0;
+        int high = m_sortedCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(m_sortedTitles[middle], m_sortedIds[middle], _title, _id) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Brings the order up to date with the model, moving only Products changed since the last call.
+     */
+    private void updateOrder() {
+        ChangeLog changeLog = m_model.getChangeLog();
+        if (m_sortedIds == null || m_sortedEpoch != changeLog.getEpoch()) {
+            sortAll();
+        } else if (m_sortedSequence != changeLog.getSequence()) {
+            ChangedProducts changedProducts = new ChangedProducts();
+            changeLog.visitChangesSince(m_sortedSequence, changedProducts);
+            if (changedProducts.Count > m_sortedCount / RESORT_DIVISOR) {
+                sortAll();
+            } else {
+                for (int currentChange = 0; currentChange < changedProducts.Count; currentChange++) {
+                    move(changedProducts.Ids[currentChange]);
+                }
+            }
+        }
+        m_sortedSequence = changeLog.getSequence();
+        m_sortedEpoch    = changeLog.getEpoch();
+    }
+
+    /**
+     * Puts the Product to its current place in the order. Products changed without being renamed stay where they are.
+     */
+    private void move(int _id) {
+        ProductStore products = m_model.m_allProducts;
+        int index = products.indexOfId(_id);
+        String title = (index < 0 ? null : products.titleAt(index));
+
+        int oldPosition = 0;
+        while (oldPosition < m_sortedCount && m_sortedIds[oldPosition] != _id) {
+            oldPosition++;
+        }
+        if (oldPosition < m_sortedCount) {
+            if (title != null && title.equals(m_sortedTitles[oldPosition])) {
+                return;
+            }
+            int movedCount = m_sortedCount - oldPosition - 1;
+            System.arraycopy(m_sortedIds, oldPosition + 1, m_sortedIds, oldPosition, movedCount);
+            System.arraycopy(m_sortedTitles, oldPosition + 1, m_sortedTitles, oldPosition, movedCount);
+            m_sortedCount--;
+            m_sortedTitles[m_sortedCount] = null;
+        }
+        if (title == null) {
+            return;
+        }
+
+        if (m_sortedCount == m_sortedIds.length) {
+            int newCapacity = m_sortedIds.length + (m_sortedIds.length >> 1) + 1;
+            m_sortedIds    = Arrays.copyOf(m_sortedIds, newCapacity);
+            m_sortedTitles = Arrays.copyOf(m_sortedTitles, newCapacity);
+        }
+        int newPosition = positionAfter(title, _id);
+        int movedCount = m_sortedCount - newPosition;
+        System.arraycopy(m_sortedIds, newPosition, m_sortedIds, newPosition + 1, movedCount);
+        System.arraycopy(m_sortedTitles, newPosition, m_sortedTitles, newPosition + 1, movedCount);
+        m_sortedIds[newPosition]    = _id;
+        m_sortedTitles[newPosition] = title;
+        m_sortedCount++;
+    }
+
+    private void sortAll() {
+        ProductStore products = m_model.m_allProducts;
+        int count = products.size();
+        m_sortedIds    = new int[count];
+        m_sortedTitles = new String[count];
+        m_sortedCount  = count;
+        for (int currentIndex = 0; currentIndex < count; currentIndex++) {
+            m_sortedIds[currentIndex]    = products.idAt(currentIndex);
+            m_sortedTitles[currentIndex] = products.titleAt(currentIndex);
+        }
+        sort(m_sortedIds, m_sortedTitles, new int[count], new String[count], 0, count);
+    }
+
+    /**
+     * Merge sort of both arrays by title and id, which does not box the ids.
+     */
+    private static void sort(int _ids[], String _titles[], int _scratchIds[], String _scratchTitles[], int _start,
+            int _end) {
+        if (_end - _start < 2) {
+            return;
+        }
+        int middle = (_start + _end) >>> 1;
+        sort(_ids, _titles, _scratchIds, _scratchTitles, _start, middle);
+        sort(_ids, _titles, _scratchIds, _scratchTitles, middle, _end);
+        if (compare(_titles[middle - 1], _ids[middle - 1], _titles[middle], _ids[middle]) <= 0) {
+            return;
+        }
+
+        System.arraycopy(_ids, _start, _scratchIds, _start, _end - _start);
+        System.arraycopy(_titles, _start, _scratchTitles, _start, _end - _start);
+        int left = _start;
+        int right = middle;
+        for (int currentPosition = _start; currentPosition < _end; currentPosition++) {
+            if (right >= _end || (left < middle &&
+                    compare(_scratchTitles[left], _scratchIds[left], _scratchTitles[right], _scratchIds[right]) <= 0)) {
+                _ids[currentPosition]    = _scratchIds[left];
+                _titles[currentPosition] = _scratchTitles[left];
+                left++;
+            } else {
+                _ids[currentPosition]    = _scratchIds[right];
+                _titles[currentPosition] = _scratchTitles[right];
+                right++;
+            }
+        }
+    }
+
+    private static int compare(String _leftTitle, int _leftId, String _rightTitle, int _rightId) {
+        int titleOrder = _leftTitle.compareTo(_rightTitle);
+        return (titleOrder != 0 ? titleOrder : Integer.compare(_leftId, _rightId));
+    }
+
+    /**
+     * Collects the ids of changed Products.
+     */
+    private static class ChangedProducts implements ChangeLog.Visitor {
+        int Ids[];
+        int Count;
+
+        ChangedProducts() {
+            Ids   = new int[8];
+            Count = 0;
+        }
+
+        @Override
+        public void visit(int _kind, int _id, long _sequence) {
+            if (_kind != ChangeLog.KIND_PRODUCT) {
+                return;
+            }
+            if (Count == Ids.length) {
+                Ids = Arrays.copyOf(Ids, Count * 2);
+            }
+            Ids[Count++] = _id;
+        }
+    }
+}
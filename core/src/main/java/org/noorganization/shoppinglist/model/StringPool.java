@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Deduplicates equal Strings of the model with few distinct values (unit texts, list titles), so e.g. every "kg" read
+ * from the database is the same instance. Pooled Strings are only weakly referenced and are reclaimed by the garbage
+ * collector as soon as the model does not use them anymore.
+ * <p>
+ * Every pooled String costs about 75 bytes (an entry plus a WeakReference), so Strings that are mostly unique must not
+ * be pooled. Product titles are deduplicated by the {@link TitleTable} instead.
+ */
+public class StringPool {
+
+    private WeakHashMap<String, WeakReference<String>> m_pool;
+    private long                                       m_hits;
+    private long                                       m_misses;
+
+    StringPool() {
+        m_pool   = new WeakHashMap<>();
+        m_hits   = 0;
+        m_misses = 0;
+    }
+
+    /**
+     * @param _value The String to deduplicate. null is allowed and returned as is.
+     * @return An equal, pooled String. This is _value itself, if no equal String was pooled before.
+     */
+    public synchronized String intern(String _value) {
+        if (_value == null) {
+            return null;
+        }
+
+        WeakReference<String> pooledReference = m_pool.get(_value);
+        String pooledValue = (pooledReference == null ? null : pooledReference.get());
+        if (pooledValue != null) {
+            m_hits++;
+            return pooledValue;
+        }
+
+        m_misses++;
+        m_pool.put(_value, new WeakReference<>(_value));
+        return _value;
+    }
+
+    /**
+     * @return How often {@link #intern(String)} returned an already pooled String.
+     */
+    public synchronized long getHitCount() {
+        return m_hits;
+    }
+
+    /**
+     * @return How often {@link #intern(String)} had to add a new String.
+     */
+    public synchronized long getMissCount() {
+        return m_misses;
+    }
+
+    /**
+     * @return The count of Strings in the pool, which were not reclaimed yet.
+     */
+    public synchronized int size() {
+        return m_pool.size();
+    }
+
+    public synchronized void resetCounters() {
+        m_hits   = 0;
+        m_misses = 0;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import java.util.Arrays;
+
+/**
+ * A reference counted table of interned titles. Equal titles share one handle, so a column of titles can be stored as
+ * an int[] of handles. Handles of titles that are not referenced anymore are reused. The table itself deduplicates
+ * equal titles, so they don't go through the {@link StringPool}, which would cost an entry per title.
+ * <p>
+ * Titles are found through an open addressed table of handles with linear probing, which is at most half full. Per
+ * distinct title this costs 8 to 16 bytes instead of about 50 bytes for an entry of a HashMap with a boxed handle.
+ */
+class TitleTable {
+
+    public static final int NO_HANDLE = -1;
+
+    private static final int INITIAL_SLOT_COUNT = 32;
+
+    private String     m_titles[];
+    private int        m_refCounts[];
+    private int        m_freeHandles[];
+    private int        m_freeCount;
+    private int        m_usedHandles;
+    // Handle + 1 of the title hashed to the slot or a following one, 0 if free. The length is a power of two.
+    private int        m_slots[];
+    private int        m_size;
+
+    TitleTable() {
+        m_titles      = new String[16];
+        m_refCounts   = new int[16];
+        m_freeHandles = new int[16];
+        m_freeCount   = 0;
+        m_usedHandles = 0;
+        m_slots       = new int[INITIAL_SLOT_COUNT];
+        m_size        = 0;
+    }
+
+    /**
+     * Interns a title and increments its reference count.
+     * @param _title The title to store. null is not allowed.
+     * @return The handle of the title, valid until it's {@link #release(int)}d as often as acquired.
+     */
+    int acquire(String _title) {
+        int slot = slotOf(_title);
+        if (m_slots[slot] != 0) {
+            int existingHandle = m_slots[slot] - 1;
+            m_refCounts[existingHandle]++;
+            return existingHandle;
+        }
+
+        int newHandle;
+        if (m_freeCount > 0) {
+            m_freeCount--;
+            newHandle = m_freeHandles[m_freeCount];
+        } else {
+            if (m_usedHandles == m_titles.length) {
+                int newCapacity = m_titles.length + (m_titles.length >> 1);
+                String grownTitles[] = new String[newCapacity];
+                System.arraycopy(m_titles, 0, grownTitles, 0, m_usedHandles);
+                m_titles = grownTitles;
+                int grownRefCounts[] = new int[newCapacity];
+                System.arraycopy(m_refCounts, 0, grownRefCounts, 0, m_usedHandles);
+                m_refCounts = grownRefCounts;
+            }
+            newHandle = m_usedHandles;
+            m_usedHandles++;
+        }
+
+        m_titles[newHandle]    = _title;
+        m_refCounts[newHandle] = 1;
+        m_slots[slot]          = newHandle + 1;
+        m_size++;
+        if (m_size * 2 > m_slots.length) {
+            rehash(m_slots.length * 2);
+        }
+        return newHandle;
+    }
+
+    /**
+     * Decrements the reference count of a handle. The title is dropped if it's not referenced anymore.
+     */
+    void release(int _handle) {
+        m_refCounts[_handle]--;
+        if (m_refCounts[_handle] > 0) {
+            return;
+        }
+
+        removeSlot(slotOf(m_titles[_handle]));
+        m_size--;
+        m_titles[_handle] = null;
+        if (m_freeCount == m_freeHandles.length) {
+            int grownFreeHandles[] = new int[m_freeHandles.length + (m_freeHandles.length >> 1)];
+            System.arraycopy(m_freeHandles, 0, grownFreeHandles, 0, m_freeCount);
+            m_freeHandles = grownFreeHandles;
+        }
+        m_freeHandles[m_freeCount] = _handle;
+        m_freeCount++;
+    }
+
+    /**
+     * @return The handle of an already stored title or {@link #NO_HANDLE}. The reference count is not changed.
+     */
+    int find(String _title) {
+        return m_slots[slotOf(_title)] - 1;
+    }
+
+    String get(int _handle) {
+        return m_titles[_handle];
+    }
+
+    /**
+     * @return The count of distinct titles.
+     */
+    int size() {
+        return m_size;
+    }
+
+    void clear() {
+        for (int currentHandle = 0; currentHandle < m_usedHandles; currentHandle++) {
+            m_titles[currentHandle] = null;
+        }
+        m_usedHandles = 0;
+        m_freeCount   = 0;
+        Arrays.fill(m_slots, 0);
+        m_size        = 0;
+    }
+
+    /**
+     * @return The slot holding the title or the free slot where it belongs.
+     */
+    private int slotOf(String _title) {
+        int mask = m_slots.length - 1;
+        int slot = homeSlotOf(_title, mask);
+        while (m_slots[slot] != 0 && !m_titles[m_slots[slot] - 1].equals(_title)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int homeSlotOf(String _title, int _mask) {
+        int hash = _title.hashCode();
+        return (hash ^ (hash >>> 16)) & _mask;
+    }
+
+    /**
+     * Frees the slot and moves following handles of the same run back, so no lookup stops early at the gap.
+     */
+    private void removeSlot(int _slot) {
+        int mask = m_slots.length - 1;
+        int gap = _slot;
+        int currentSlot = (_slot + 1) & mask;
+        while (m_slots[currentSlot] != 0) {
+            int homeSlot = homeSlotOf(m_titles[m_slots[currentSlot] - 1], mask);
+            // Movable, unless its home lies cyclically between the gap and its current slot.
+            if (((currentSlot - homeSlot) & mask) >= ((currentSlot - gap) & mask)) {
+                m_slots[gap] = m_slots[currentSlot];
+                gap = currentSlot;
+            }
+            currentSlot = (currentSlot + 1) & mask;
+        }
+        m_slots[gap] = 0;
+    }
+
+    private void rehash(int _slotCount) {
+        m_slots = new int[_slotCount];
+        int mask = _slotCount - 1;
+        for (int currentHandle = 0; currentHandle < m_usedHandles; currentHandle++) {
+            if (m_titles[currentHandle] == null) {
+                continue;
+            }
+            int slot = homeSlotOf(m_titles[currentHandle], mask);
+            while (m_slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            m_slots[slot] = currentHandle + 1;
+        }
+    }
+}
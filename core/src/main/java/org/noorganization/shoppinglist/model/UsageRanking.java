@@ -0,0 +1,284 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts how often Products were put on a list, with older uses counting less: the weight of a use halves every
+ * half-life. The most used Products are kept in a heap, so they can be shown without sorting the catalog.
+ * <p>
+ * Decaying all counters over time would touch every Product. Instead, a use at time t adds 2^(t / half-life) to the
+ * score, so newer uses weigh more from the start. Since every score would decay by the same factor, the order of the
+ * scores never changes by time passing, only by a new use. A use therefore costs one map lookup and moving one
+ * Product within the heap. Scores are kept as base 2 logarithms, so they can't overflow.
+ */
+public class UsageRanking {
+
+    public static final long DEFAULT_HALF_LIFE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+    public static final int DEFAULT_TOP_COUNT = 20;
+
+    private static class Usage {
+        final int ProductId;
+        double    Score;
+        int       UseCount;
+        long      LastUsedMillis;
+        int       HeapIndex;
+
+        Usage(int _productId) {
+            ProductId = _productId;
+            Score     = Double.NEGATIVE_INFINITY;
+            HeapIndex = -1;
+        }
+    }
+
+    private Map<Integer, Usage> m_usageById;
+    private long                m_halfLifeMillis;
+    // The top Products with the least used one on top.
+    private Usage               m_top[];
+    private int                 m_topSize;
+
+    UsageRanking(int _topCount, long _halfLifeMillis) {
+        if (_topCount < 1 || _halfLifeMillis < 1) {
+            throw new IllegalArgumentException("Top count and half-life have to be positive.");
+        }
+        m_usageById      = new HashMap<>();
+        m_halfLifeMillis = _halfLifeMillis;
+        m_top            = new Usage[_topCount];
+        m_topSize        = 0;
+    }
+
+    /**
+     * @return The count of Products used at least once.
+     */
+    public int size() {
+        return m_usageById.size();
+    }
+
+    /**
+     * @return Ids of the most used Products, most used first. At most the top count given on creation. Never null.
+     */
+    public int[] getTopProductIds() {
+        Usage sorted[] = Arrays.copyOf(m_top, m_topSize);
+        Arrays.sort(sorted, new Comparator<Usage>() {
+            @Override
+            public int compare(Usage _left, Usage _right) {
+                return (isLess(_left, _right) ? 1 : (isLess(_right, _left) ? -1 : 0));
+            }
+        });
+        int rtn[] = new int[sorted.length];
+        for (int currentIndex = 0; currentIndex < rtn.length; currentIndex++) {
+            rtn[currentIndex] = sorted[currentIndex].ProductId;
+        }
+        return rtn;
+    }
+
+    /**
+     * @return The decayed count of uses at the given time. An unused Product has 0.
+     */
+    public double getDecayedCount(int _productId, long _nowMillis) {
+        Usage usage = m_usageById.get(_productId);
+        return (usage == null ? 0.0 : Math.pow(2.0, usage.Score - exponentOf(_nowMillis)));
+    }
+
+    /**
+     * @return How often the Product was used, without decay.
+     */
+    public int getUseCount(int _productId) {
+        Usage usage = m_usageById.get(_productId);
+        return (usage == null ? 0 : usage.UseCount);
+    }
+
+    public long getLastUsedMillis(int _productId) {
+        Usage usage = m_usageById.get(_productId);
+        return (usage == null ? 0 : usage.LastUsedMillis);
+    }
+
+    /**
+     * @return The score to store for the Product, see {@link #put(int, double, int, long)}. Negative infinity if it
+     * was not used.
+     */
+    public double getScore(int _productId) {
+        Usage usage = m_usageById.get(_productId);
+        return (usage == null ? Double.NEGATIVE_INFINITY : usage.Score);
+    }
+
+    /**
+     * Counts a use of the Product.
+     */
+    void record(int _productId, long _nowMillis) {
+        Usage usage = m_usageById.get(_productId);
+        if (usage == null) {
+            usage = new Usage(_productId);
+            m_usageById.put(_productId, usage);
+        }
+        usage.Score          = addLogarithms(usage.Score, exponentOf(_nowMillis));
+        usage.UseCount++;
+        usage.LastUsedMillis = Math.max(usage.LastUsedMillis, _nowMillis);
+        offer(usage);
+    }
+
+    /**
+     * Sets the usage of a Product as loaded from storage.
+     */
+    void put(int _productId, double _score, int _useCount, long _lastUsedMillis) {
+        Usage usage = m_usageById.get(_productId);
+        if (usage == null) {
+            usage = new Usage(_productId);
+            m_usageById.put(_productId, usage);
+        } else if (usage.HeapIndex >= 0 && _score < usage.Score) {
+            // Only growing scores can be moved within the heap.
+            remove(_productId);
+            put(_productId, _score, _useCount, _lastUsedMillis);
+            return;
+        }
+        usage.Score          = _score;
+        usage.UseCount       = _useCount;
+        usage.LastUsedMillis = _lastUsedMillis;
+        offer(usage);
+    }
+
+    /**
+     * Forgets a deleted Product. If it was among the top ones, the next used Product takes its place, which needs a
+     * scan over all used Products.
+     */
+    void remove(int _productId) {
+        Usage usage = m_usageById.remove(_productId);
+        if (usage == null || usage.HeapIndex < 0) {
+            return;
+        }
+
+        int index = usage.HeapIndex;
+        usage.HeapIndex = -1;
+        m_topSize--;
+        if (index < m_topSize) {
+            Usage moved = m_top[m_topSize];
+            place(moved, index);
+            siftDown(index);
+            siftUp(moved.HeapIndex);
+        }
+        m_top[m_topSize] = null;
+
+        Usage bestOutside = null;
+        for (Usage currentUsage : m_usageById.values()) {
+            if (currentUsage.HeapIndex < 0 && (bestOutside == null || isLess(bestOutside, currentUsage))) {
+                bestOutside = currentUsage;
+            }
+        }
+        if (bestOutside != null) {
+            offer(bestOutside);
+        }
+    }
+
+    void clear() {
+        m_usageById.clear();
+        Arrays.fill(m_top, null);
+        m_topSize = 0;
+    }
+
+    /**
+     * Adds the Usage to the heap or moves it after its score grew.
+     */
+    private void offer(Usage _usage) {
+        if (_usage.HeapIndex >= 0) {
+            siftDown(_usage.HeapIndex);
+        } else if (m_topSize < m_top.length) {
+            place(_usage, m_topSize);
+            m_topSize++;
+            siftUp(_usage.HeapIndex);
+        } else if (isLess(m_top[0], _usage)) {
+            m_top[0].HeapIndex = -1;
+            place(_usage, 0);
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int _index) {
+        int index = _index;
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!isLess(m_top[index], m_top[parent])) {
+                return;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int _index) {
+        int index = _index;
+        while (true) {
+            int least = index;
+            int left = index * 2 + 1;
+            int right = left + 1;
+            if (left < m_topSize && isLess(m_top[left], m_top[least])) {
+                least = left;
+            }
+            if (right < m_topSize && isLess(m_top[right], m_top[least])) {
+                least = right;
+            }
+            if (least == index) {
+                return;
+            }
+            swap(index, least);
+            index = least;
+        }
+    }
+
+    private void swap(int _first, int _second) {
+        Usage first = m_top[_first];
+        place(m_top[_second], _first);
+        place(first, _second);
+    }
+
+    private void place(Usage _usage, int _index) {
+        m_top[_index]    = _usage;
+        _usage.HeapIndex = _index;
+    }
+
+    private double exponentOf(long _millis) {
+        return (double) _millis / m_halfLifeMillis;
+    }
+
+    /**
+     * Lower scores are less; equal scores are ordered by id, so the top Products are stable.
+     */
+    private static boolean isLess(Usage _left, Usage _right) {
+        if (_left.Score != _right.Score) {
+            return _left.Score < _right.Score;
+        }
+        return _left.ProductId > _right.ProductId;
+    }
+
+    /**
+     * @return log2(2^_first + 2^_second) without leaving the range of doubles.
+     */
+    static double addLogarithms(double _first, double _second) {
+        double larger = Math.max(_first, _second);
+        double smaller = Math.min(_first, _second);
+        if (smaller == Double.NEGATIVE_INFINITY) {
+            return larger;
+        }
+        return larger + Math.log1p(Math.pow(2.0, smaller - larger)) / Math.log(2.0);
+    }
+}
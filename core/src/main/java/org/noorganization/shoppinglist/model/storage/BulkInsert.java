@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+/**
+ * Inserts many objects in a row, e.g. when restoring a backup, without building them in memory first. The objects have
+ * to come in the order of {@link StorageProvider#load(StorageProvider.LoadCallback)}: Units, Products, ShoppingLists
+ * and then the list entries. A failed insert does not throw, it makes {@link #commit()} fail.
+ * <p>
+ * Providers with transactions roll back a failed or aborted bulk insert. Others keep what was inserted before, so
+ * restore into an empty storage and discard it on failure.
+ */
+public interface BulkInsert extends StorageProvider.LoadCallback {
+
+    /**
+     * Finishes the bulk insert and makes the objects durable.
+     * @return Whether all objects were stored.
+     */
+    boolean commit();
+
+    /**
+     * Finishes the bulk insert without committing, e.g. because the source turned out to be damaged.
+     */
+    void abort();
+}
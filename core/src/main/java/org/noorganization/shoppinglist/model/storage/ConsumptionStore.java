@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+/**
+ * Optional part of a {@link StorageProvider}, which keeps the running statistics of how Products are bought (see
+ * {@link org.noorganization.shoppinglist.model.ConsumptionPrediction}). Statistics are deleted together with their
+ * Product.
+ */
+public interface ConsumptionStore {
+
+    interface ConsumptionCallback {
+        void onConsumption(int _productId, int _purchaseCount, long _lastPurchaseMillis, float _lastValue,
+                           double _intervalMean, double _intervalSquaredDeviations, double _valueMean);
+    }
+
+    /**
+     * Passes the statistics of every Product bought at least once, in no particular order.
+     */
+    void loadConsumption(ConsumptionCallback _callback);
+
+    /**
+     * Stores or replaces the statistics of a Product.
+     * @return False if the Product does not exist.
+     */
+    boolean saveConsumption(int _productId, int _purchaseCount, long _lastPurchaseMillis, float _lastValue,
+                            double _intervalMean, double _intervalSquaredDeviations, double _valueMean);
+}
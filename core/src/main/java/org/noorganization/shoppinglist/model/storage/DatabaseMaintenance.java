@@ -0,0 +1,383 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import org.noorganization.shoppinglist.metrics.LatencyHistogram;
+import org.noorganization.shoppinglist.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the database file of a {@link SqlStorage} compact and its statistics current, as background work run while the
+ * app is idle. Replacing the entries of lists and compacting the purchase history delete rows all the time, which
+ * leaves free pages in the file. A run
+ * <ol>
+ *     <li>measures the size of the file and its free pages,</li>
+ *     <li>gives free pages back to the file system with an incremental vacuum,</li>
+ *     <li>analyzes the tables (all of them once, afterwards PRAGMA optimize decides),</li>
+ *     <li>checkpoints the write-ahead log, if there is one, without waiting for readers,</li>
+ *     <li>measures again and reports the gains (see {@link #getLastReport()}).</li>
+ * </ol>
+ * Every chunk lasts about {@link #CHUNK_NANOS}, so queued work of the user waits for one chunk at most. The only
+ * exception is switching a database created before {@link SqlStorage} enabled incremental vacuum: That needs one full
+ * VACUUM, whose duration grows with the file. So it only runs on files up to {@link #getMaxFullVacuumBytes()} and is
+ * reported on its own (see {@link Report#FullVacuumNanos}).
+ * <p>
+ * Chunks have to be run one after the other, but may run on any thread.
+ */
+public class DatabaseMaintenance implements DatabaseScheduler.ChunkedWork {
+
+    /**
+     * How often the app should run the maintenance.
+     */
+    public static final long INTERVAL_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Fewer free pages are not worth switching to incremental vacuum.
+     */
+    public static final int MIN_FREE_PAGES = 16;
+
+    /**
+     * Default for {@link #setMaxFullVacuumBytes(long)}. VACUUM copies the file twice, so on a phone this takes a few
+     * dozen milliseconds.
+     */
+    public static final long DEFAULT_MAX_FULL_VACUUM_BYTES = 1024L * 1024;
+
+    static final long CHUNK_NANOS = 4000000L;
+    static final int  PROBE_ROWS  = 1000;
+
+    // The tables the model reads at start.
+    static final String PROBE_TABLES[] = { "Units", "Products", "ShoppingLists", "ProductsInShoppingLists" };
+
+    private static final int AUTO_VACUUM_NONE        = 0;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private static final int STEP_MEASURE    = 0;
+    private static final int STEP_CONVERT    = 1;
+    private static final int STEP_VACUUM     = 2;
+    private static final int STEP_ANALYZE    = 3;
+    private static final int STEP_CHECKPOINT = 4;
+    private static final int STEP_REPORT     = 5;
+
+    private static final Logger LOGGER = Logger.getLogger("DatabaseMaintenance");
+
+    private static final LatencyHistogram CHUNK_TIMES       = Metrics.histogram("DatabaseMaintenance.chunk");
+    private static final LatencyHistogram FULL_VACUUM_TIMES = Metrics.histogram("DatabaseMaintenance.fullVacuum");
+
+    /**
+     * The outcome of a run.
+     */
+    public static class Report {
+        public final int  PageSize;
+        public final int  PagesBefore;
+        public final int  PagesAfter;
+        public final int  FreePagesBefore;
+        public final int  FreePagesAfter;
+        /**
+         * Frames of the write-ahead log copied into the database. 0 without a log.
+         */
+        public final int  CheckpointedFrames;
+        /**
+         * How long reading the first {@link #PROBE_ROWS} rows of the tables read at start took.
+         */
+        public final long ProbeNanosBefore;
+        public final long ProbeNanosAfter;
+        /**
+         * Count and duration of the chunks, without the full VACUUM.
+         */
+        public final int  ChunkCount;
+        public final long WorkNanos;
+        /**
+         * How long switching the file to incremental vacuum took. 0 if it didn't run.
+         */
+        public final long FullVacuumNanos;
+
+        Report(int _pageSize, int _pagesBefore, int _pagesAfter, int _freePagesBefore, int _freePagesAfter,
+               int _checkpointedFrames, long _probeNanosBefore, long _probeNanosAfter, int _chunkCount,
+               long _workNanos, long _fullVacuumNanos) {
+            PageSize           = _pageSize;
+            PagesBefore        = _pagesBefore;
+            PagesAfter         = _pagesAfter;
+            FreePagesBefore    = _freePagesBefore;
+            FreePagesAfter     = _freePagesAfter;
+            CheckpointedFrames = _checkpointedFrames;
+            ProbeNanosBefore   = _probeNanosBefore;
+            ProbeNanosAfter    = _probeNanosAfter;
+            ChunkCount         = _chunkCount;
+            WorkNanos          = _workNanos;
+            FullVacuumNanos    = _fullVacuumNanos;
+        }
+
+        /**
+         * @return By how many bytes the file shrank. Negative if the new statistics took more than was freed.
+         */
+        public long getFreedBytes() {
+            return (long) (PagesBefore - PagesAfter) * PageSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "freed %d of %d pages (%d bytes), %d free pages left, %d frames " +
+                    "checkpointed, probe %.3f ms before, %.3f ms after, %d chunks in %.3f ms, full vacuum %.3f ms",
+                    PagesBefore - PagesAfter, PagesBefore, getFreedBytes(), FreePagesAfter, CheckpointedFrames,
+                    ProbeNanosBefore / 1000000.0, ProbeNanosAfter / 1000000.0, ChunkCount, WorkNanos / 1000000.0,
+                    FullVacuumNanos / 1000000.0);
+        }
+    }
+
+    private final SqlDatabase   m_db;
+    private volatile long       m_maxFullVacuumBytes;
+    private boolean             m_running;
+    private volatile Report     m_lastReport;
+    // State of the current run, only used by the thread running it.
+    private int                 m_step;
+    private ArrayDeque<String>  m_tablesToAnalyze;
+    private int                 m_pageSize;
+    private int                 m_pagesBefore;
+    private int                 m_freePagesBefore;
+    private long                m_probeNanosBefore;
+    private int                 m_checkpointedFrames;
+    private int                 m_chunkCount;
+    private long                m_workNanos;
+    private boolean             m_fullVacuumRan;
+    private long                m_fullVacuumNanos;
+
+    public DatabaseMaintenance(SqlStorage _storage) {
+        if (_storage == null) {
+            throw new IllegalArgumentException("Storage was null.");
+        }
+        m_db                 = _storage.getDatabase();
+        m_maxFullVacuumBytes = DEFAULT_MAX_FULL_VACUUM_BYTES;
+        m_running            = false;
+        m_lastReport         = null;
+        m_step               = STEP_MEASURE;
+        m_tablesToAnalyze    = new ArrayDeque<>();
+    }
+
+    /**
+     * Switching an old database to incremental vacuum needs a full VACUUM in one chunk. It only runs if the file is
+     * at most this large, so callers at a real idle point (e.g. a job while the device charges) may raise the limit.
+     */
+    public void setMaxFullVacuumBytes(long _maxBytes) {
+        m_maxFullVacuumBytes = _maxBytes;
+    }
+
+    public long getMaxFullVacuumBytes() {
+        return m_maxFullVacuumBytes;
+    }
+
+    /**
+     * Prepares a run, which the caller has to run as background work.
+     * @return False if a run is in progress already; then the caller must not run it a second time.
+     */
+    public synchronized boolean start() {
+        if (m_running) {
+            return false;
+        }
+        m_running = true;
+        m_step    = STEP_MEASURE;
+        return true;
+    }
+
+    public synchronized boolean isRunning() {
+        return m_running;
+    }
+
+    /**
+     * @return The outcome of the last finished run or null.
+     */
+    public Report getLastReport() {
+        return m_lastReport;
+    }
+
+    @Override
+    public boolean runChunk() {
+        long startTime = System.nanoTime();
+        int step = m_step;
+        boolean rtn;
+        try {
+            rtn = runStep(startTime);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                m_running = false;
+            }
+            throw e;
+        }
+        long duration = System.nanoTime() - startTime;
+        if (step == STEP_CONVERT && m_fullVacuumRan) {
+            // Reported on its own, so it doesn't hide in the times of the short chunks.
+            m_fullVacuumNanos = duration;
+            if (Metrics.isEnabled()) {
+                FULL_VACUUM_TIMES.record(duration);
+            }
+        } else {
+            m_workNanos += duration;
+            m_chunkCount++;
+            if (Metrics.isEnabled()) {
+                CHUNK_TIMES.record(duration);
+            }
+        }
+        if (!rtn) {
+            // The report counts the last chunk, too.
+            finish();
+        }
+        return rtn;
+    }
+
+    private boolean runStep(long _startTime) {
+        switch (m_step) {
+            case STEP_MEASURE:
+                m_pageSize           = queryInt("PRAGMA page_size");
+                m_pagesBefore        = queryInt("PRAGMA page_count");
+                m_freePagesBefore    = queryInt("PRAGMA freelist_count");
+                m_probeNanosBefore   = probe();
+                m_checkpointedFrames = 0;
+                m_chunkCount         = 0;
+                m_workNanos          = 0;
+                m_fullVacuumRan      = false;
+                m_fullVacuumNanos    = 0;
+                m_tablesToAnalyze.clear();
+                if (queryInt("SELECT COUNT(*) FROM sqlite_master WHERE name = 'sqlite_stat1'") == 0) {
+                    SqlCursor tables = m_db.query("SELECT name FROM sqlite_master " +
+                            "WHERE type = 'table' AND name NOT LIKE 'sqlite_%'");
+                    while (tables.moveToNext()) {
+                        m_tablesToAnalyze.add(tables.getString(0));
+                    }
+                    tables.close();
+                }
+                m_step = STEP_CONVERT;
+                return true;
+            case STEP_CONVERT:
+                convert();
+                m_step = STEP_VACUUM;
+                return true;
+            case STEP_VACUUM:
+                if (!vacuum(_startTime)) {
+                    m_step = STEP_ANALYZE;
+                }
+                return true;
+            case STEP_ANALYZE:
+                if (!m_tablesToAnalyze.isEmpty()) {
+                    m_db.execute("ANALYZE " + m_tablesToAnalyze.poll());
+                    return true;
+                }
+                // Analyzes only tables whose statistics would help the queries run on this connection. SQLite before
+                // 3.18 ignores it.
+                m_db.execute("PRAGMA optimize");
+                m_step = STEP_CHECKPOINT;
+                return true;
+            case STEP_CHECKPOINT:
+                SqlCursor checkpoint = m_db.query("PRAGMA wal_checkpoint(PASSIVE)");
+                // The columns are: blocked, frames in the log, checkpointed frames (-1 without a log).
+                if (checkpoint.moveToNext()) {
+                    m_checkpointedFrames = Math.max(0, checkpoint.getInt(2));
+                }
+                checkpoint.close();
+                m_step = STEP_REPORT;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Switches a database without auto vacuum to incremental vacuum, if it has enough free pages and is small enough.
+     */
+    private void convert() {
+        if (queryInt("PRAGMA auto_vacuum") != AUTO_VACUUM_NONE || m_freePagesBefore < MIN_FREE_PAGES) {
+            return;
+        }
+        long fileBytes = (long) m_pagesBefore * m_pageSize;
+        if (fileBytes > m_maxFullVacuumBytes) {
+            LOGGER.info("Database of " + fileBytes + " bytes is too large to switch to incremental vacuum now.");
+            return;
+        }
+        // The mode of a database with tables can only be changed by rebuilding it. Happens once.
+        m_db.execute("PRAGMA auto_vacuum = INCREMENTAL");
+        m_db.execute("VACUUM");
+        m_fullVacuumRan = true;
+    }
+
+    /**
+     * Frees pages until none is left or the chunk is over.
+     * @return Whether free pages are left.
+     */
+    private boolean vacuum(long _startTime) {
+        int freePages = queryInt("PRAGMA freelist_count");
+        if (queryInt("PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL || freePages == 0) {
+            return false;
+        }
+
+        m_db.beginTransaction();
+        try {
+            do {
+                // One page per statement: some drivers step a statement without result columns only once.
+                SqlCursor freedPages = m_db.query("PRAGMA incremental_vacuum(1)");
+                while (freedPages.moveToNext()) {
+                    // Each step frees a page.
+                }
+                freedPages.close();
+                freePages--;
+            } while (freePages > 0 && System.nanoTime() - _startTime < CHUNK_NANOS);
+            m_db.setTransactionSuccessful();
+        } finally {
+            m_db.endTransaction();
+        }
+        return (freePages > 0);
+    }
+
+    private void finish() {
+        Report report = new Report(m_pageSize, m_pagesBefore, queryInt("PRAGMA page_count"), m_freePagesBefore,
+                queryInt("PRAGMA freelist_count"), m_checkpointedFrames, m_probeNanosBefore, probe(), m_chunkCount,
+                m_workNanos, m_fullVacuumNanos);
+        Metrics.count("DatabaseMaintenance.freedBytes", report.getFreedBytes());
+        Metrics.count("DatabaseMaintenance.checkpointedFrames", report.CheckpointedFrames);
+        LOGGER.info("Database maintenance " + report);
+        m_lastReport = report;
+        synchronized (this) {
+            m_running = false;
+        }
+    }
+
+    /**
+     * Reads the first rows of the tables read at start, a rough measure of how fast loading is.
+     * @return The duration in nanoseconds.
+     */
+    private long probe() {
+        long startTime = System.nanoTime();
+        for (String currentTable : PROBE_TABLES) {
+            SqlCursor rows = m_db.query("SELECT * FROM " + currentTable + " LIMIT " + PROBE_ROWS);
+            while (rows.moveToNext()) {
+                // Only reading the pages counts.
+            }
+            rows.close();
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private int queryInt(String _sql) {
+        SqlCursor cursor = m_db.query(_sql);
+        cursor.moveToNext();
+        int rtn = cursor.getInt(0);
+        cursor.close();
+        return rtn;
+    }
+}
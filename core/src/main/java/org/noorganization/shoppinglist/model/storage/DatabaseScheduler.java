@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import org.noorganization.shoppinglist.metrics.LatencyHistogram;
+import org.noorganization.shoppinglist.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs work on the database on a few threads, most urgent first. There are three priority classes: interactive
+ * (the user waits for it, e.g. a query of the shown list), user visible (e.g. writing a change the user made) and
+ * background (sync, imports, compaction). Within a class, work runs in the order it was queued.
+ * <p>
+ * Work waiting longer than the aging period counts as one class more urgent per period, so background work runs
+ * eventually even while interactive work keeps coming. Long work is split into {@link ChunkedWork}: between two chunks
+ * it gives way to more urgent queued work, so e.g. an import of 100k rows delays an interactive query by one chunk at
+ * most.
+ */
+public class DatabaseScheduler {
+
+    public static final int PRIORITY_INTERACTIVE  = 0;
+    public static final int PRIORITY_USER_VISIBLE = 1;
+    public static final int PRIORITY_BACKGROUND   = 2;
+
+    public static final long DEFAULT_AGING_MILLIS = 100;
+    public static final long DEFAULT_SLICE_MILLIS = 20;
+
+    private static final long KEEP_ALIVE_MILLIS = 30000;
+
+    private static final Logger LOGGER = Logger.getLogger("DatabaseScheduler");
+
+    private static final LatencyHistogram WAIT_TIMES[] = {
+            Metrics.histogram("DatabaseScheduler.wait.interactive"),
+            Metrics.histogram("DatabaseScheduler.wait.userVisible"),
+            Metrics.histogram("DatabaseScheduler.wait.background")
+    };
+
+    /**
+     * Work too long to be run at once, e.g. an import.
+     */
+    public interface ChunkedWork {
+
+        /**
+         * Does the next part of the work, e.g. a few hundred rows. A chunk should last a few milliseconds at most,
+         * since more urgent work waits for it.
+         * @return Whether work is left.
+         */
+        boolean runChunk();
+    }
+
+    private static class Queued {
+        final int         Priority;
+        final long        QueuedNanos;
+        final Runnable    Task;
+        final ChunkedWork Work;
+
+        Queued(int _priority, long _queuedNanos, Runnable _task, ChunkedWork _work) {
+            Priority    = _priority;
+            QueuedNanos = _queuedNanos;
+            Task        = _task;
+            Work        = _work;
+        }
+    }
+
+    private final String                   m_name;
+    private final int                      m_maxThreads;
+    private final long                     m_agingNanos;
+    private final long                     m_sliceNanos;
+    // By priority class.
+    private final List<ArrayDeque<Queued>> m_queues;
+    private int                            m_queuedCount;
+    private int                            m_threadCount;
+    private int                            m_idleCount;
+
+    /**
+     * @param _name Prefix of the names of the threads.
+     * @param _maxThreads Threads are started on demand up to this count and stop when they were idle for a while.
+     * @param _agingMillis After waiting so long, work counts as one class more urgent. Has to be positive.
+     * @param _sliceMillis How long ChunkedWork runs at most before work of the same class gets its turn.
+     */
+    public DatabaseScheduler(String _name, int _maxThreads, long _agingMillis, long _sliceMillis) {
+        if (_maxThreads <= 0 || _agingMillis <= 0) {
+            throw new IllegalArgumentException("Thread count and aging period have to be positive.");
+        }
+        m_name        = _name;
+        m_maxThreads  = _maxThreads;
+        m_agingNanos  = _agingMillis * 1000000L;
+        m_sliceNanos  = _sliceMillis * 1000000L;
+        m_queues      = new ArrayList<>(PRIORITY_BACKGROUND + 1);
+        for (int currentPriority = 0; currentPriority <= PRIORITY_BACKGROUND; currentPriority++) {
+            m_queues.add(new ArrayDeque<Queued>());
+        }
+        m_queuedCount = 0;
+        m_threadCount = 0;
+        m_idleCount   = 0;
+    }
+
+    /**
+     * Queues a task. Exceptions thrown by it are logged.
+     * @param _priority One of the PRIORITY constants.
+     */
+    public void execute(int _priority, Runnable _task) {
+        if (_task == null) {
+            throw new IllegalArgumentException("Task was null.");
+        }
+        enqueue(new Queued(checkPriority(_priority), System.nanoTime(), _task, null));
+    }
+
+    /**
+     * Queues long work. It's run chunk by chunk until it's done; if more urgent work is queued or its time slice is
+     * over, it's queued again behind the work of its class. Exceptions thrown by it are logged and end the work.
+     * @param _priority One of the PRIORITY constants.
+     */
+    public void executeChunked(int _priority, ChunkedWork _work) {
+        if (_work == null) {
+            throw new IllegalArgumentException("Work was null.");
+        }
+        enqueue(new Queued(checkPriority(_priority), System.nanoTime(), null, _work));
+    }
+
+    /**
+     * @return The count of queued work, which didn't start yet.
+     */
+    public synchronized int getQueuedCount() {
+        return m_queuedCount;
+    }
+
+    /**
+     * @return Whether work of a more urgent class than the given one is queued.
+     */
+    public synchronized boolean hasQueuedMoreUrgent(int _priority) {
+        for (int currentPriority = 0; currentPriority < _priority; currentPriority++) {
+            if (!m_queues.get(currentPriority).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int checkPriority(int _priority) {
+        if (_priority < PRIORITY_INTERACTIVE || _priority > PRIORITY_BACKGROUND) {
+            throw new IllegalArgumentException("Unknown priority " + _priority + ".");
+        }
+        return _priority;
+    }
+
+    private synchronized void enqueue(Queued _queued) {
+        m_queues.get(_queued.Priority).add(_queued);
+        m_queuedCount++;
+        if (m_queuedCount > m_idleCount && m_threadCount < m_maxThreads) {
+            m_threadCount++;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, m_name + "-" + m_threadCount);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        notify();
+    }
+
+    /**
+     * Takes the most urgent queued work. Since each class is in queued order, only the first ones of the classes have
+     * to be compared.
+     */
+    private Queued pollMostUrgent(long _nowNanos) {
+        int bestPriority = -1;
+        long bestUrgency = Long.MAX_VALUE;
+        for (int currentPriority = 0; currentPriority < m_queues.size(); currentPriority++) {
+            Queued first = m_queues.get(currentPriority).peek();
+            if (first == null) {
+                continue;
+            }
+            long urgency = currentPriority - (_nowNanos - first.QueuedNanos) / m_agingNanos;
+            if (urgency < bestUrgency) {
+                bestUrgency  = urgency;
+                bestPriority = currentPriority;
+            }
+        }
+        if (bestPriority < 0) {
+            return null;
+        }
+        m_queuedCount--;
+        return m_queues.get(bestPriority).poll();
+    }
+
+    private void work() {
+        while (true) {
+            Queued next;
+            synchronized (this) {
+                long idleSince = System.nanoTime();
+                next = pollMostUrgent(idleSince);
+                while (next == null) {
+                    long idleMillis = (System.nanoTime() - idleSince) / 1000000L;
+                    if (idleMillis >= KEEP_ALIVE_MILLIS) {
+                        m_threadCount--;
+                        return;
+                    }
+                    m_idleCount++;
+                    try {
+                        wait(KEEP_ALIVE_MILLIS - idleMillis);
+                    } catch (InterruptedException e) {
+                        // Idle threads aren't interrupted by anyone else, just check again.
+                    } finally {
+                        m_idleCount--;
+                    }
+                    next = pollMostUrgent(System.nanoTime());
+                }
+            }
+            if (Metrics.isEnabled()) {
+                WAIT_TIMES[next.Priority].record(System.nanoTime() - next.QueuedNanos);
+            }
+            try {
+                if (next.Task != null) {
+                    next.Task.run();
+                } else {
+                    runChunks(next);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Work on the database failed.", e);
+            }
+        }
+    }
+
+    private void runChunks(Queued _queued) {
+        long sliceEnd = System.nanoTime() + m_sliceNanos;
+        while (_queued.Work.runChunk()) {
+            if (hasQueuedMoreUrgent(_queued.Priority) || System.nanoTime() - sliceEnd >= 0) {
+                Metrics.count("DatabaseScheduler.preempted", 1);
+                enqueue(new Queued(_queued.Priority, System.nanoTime(), null, _queued.Work));
+                return;
+            }
+        }
+    }
+}
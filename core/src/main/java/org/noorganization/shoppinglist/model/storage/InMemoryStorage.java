@@ -0,0 +1,659 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import org.noorganization.shoppinglist.model.ListEntryChanges;
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.Unit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps copies of all objects in memory, nothing survives the process. Checks the same constraints as the SQL schema
+ * (unique ids, references to existing objects). Useful for tests and for load tests of the model without any I/O.
+ * Windows of Products are cut from a sorted copy of all Products, so paging saves no memory here. Cloned lists share
+ * their entries with the source until either is changed.
+ */
+public class InMemoryStorage implements StorageProvider, ListStateStore, PagedProductSource, UsageStore,
+        TemplateStore, ListEntryStore, PurchaseHistoryStore, ConsumptionStore {
+
+    private static final Comparator<Product> BY_TITLE_AND_ID = new Comparator<Product>() {
+        @Override
+        public int compare(Product _left, Product _right) {
+            int titleOrder = _left.Title.compareTo(_right.Title);
+            return (titleOrder != 0 ? titleOrder : Integer.compare(_left.Id, _right.Id));
+        }
+    };
+
+    private static final Comparator<StoredPurchases> BY_START = new Comparator<StoredPurchases>() {
+        @Override
+        public int compare(StoredPurchases _left, StoredPurchases _right) {
+            return Long.compare(_left.StartMillis, _right.StartMillis);
+        }
+    };
+
+    private TreeMap<Integer, Unit>                  m_units;
+    private TreeMap<Integer, Product>               m_products;
+    private TreeMap<Integer, ShoppingList>          m_lists;
+    private TreeMap<Integer, byte[]>                m_listStates;
+    private TreeMap<Integer, StoredUsage>           m_usage;
+    private TreeMap<Integer, StoredConsumption>     m_consumption;
+    private TreeSet<Integer>                        m_templateIds;
+    // By Product, in appended order.
+    private TreeMap<Integer, List<StoredPurchases>> m_purchases;
+
+    public InMemoryStorage() {
+        m_units       = new TreeMap<>();
+        m_products    = new TreeMap<>();
+        m_lists       = new TreeMap<>();
+        m_listStates  = new TreeMap<>();
+        m_usage       = new TreeMap<>();
+        m_consumption = new TreeMap<>();
+        m_templateIds = new TreeSet<>();
+        m_purchases   = new TreeMap<>();
+    }
+
+    @Override
+    public synchronized void load(LoadCallback _callback) {
+        for (Unit currentUnit : m_units.values()) {
+            _callback.onUnit(currentUnit.Id, currentUnit.UnitText);
+        }
+        for (Product currentProduct : m_products.values()) {
+            _callback.onProduct(currentProduct.Id, currentProduct.Title, currentProduct.DefaultValue,
+                    currentProduct.UnitId);
+        }
+        for (ShoppingList currentList : m_lists.values()) {
+            _callback.onShoppingList(currentList.Id, currentList.Title);
+        }
+        for (ShoppingList currentList : m_lists.values()) {
+            for (int currentEntry = 0; currentEntry < currentList.ListEntries.size(); currentEntry++) {
+                _callback.onListEntry(currentList.Id, currentList.ListEntries.keyAt(currentEntry),
+                        currentList.ListEntries.valueAt(currentEntry));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void loadWithoutProducts(LoadCallback _callback) {
+        for (Unit currentUnit : m_units.values()) {
+            _callback.onUnit(currentUnit.Id, currentUnit.UnitText);
+        }
+        for (ShoppingList currentList : m_lists.values()) {
+            _callback.onShoppingList(currentList.Id, currentList.Title);
+        }
+        for (ShoppingList currentList : m_lists.values()) {
+            for (int currentEntry = 0; currentEntry < currentList.ListEntries.size(); currentEntry++) {
+                _callback.onListEntry(currentList.Id, currentList.ListEntries.keyAt(currentEntry),
+                        currentList.ListEntries.valueAt(currentEntry));
+            }
+        }
+    }
+
+    @Override
+    public synchronized int countProducts(int _excludedListId) {
+        ShoppingList excludedList = m_lists.get(_excludedListId);
+        return m_products.size() - (excludedList == null ? 0 : excludedList.ListEntries.size());
+    }
+
+    @Override
+    public synchronized void readProductsAt(int _excludedListId, int _offset, int _limit,
+            ProductCallback _callback) {
+        List<Product> sortedProducts = sortedProducts(_excludedListId);
+        int end = (int) Math.min(sortedProducts.size(), (long) _offset + _limit);
+        for (int currentIndex = _offset; currentIndex < end; currentIndex++) {
+            passProduct(sortedProducts.get(currentIndex), _callback);
+        }
+    }
+
+    @Override
+    public synchronized void readProductsAfter(int _excludedListId, String _afterTitle, int _afterId, int _limit,
+            ProductCallback _callback) {
+        Product afterProduct = new Product();
+        afterProduct.Title = _afterTitle;
+        afterProduct.Id    = _afterId;
+
+        List<Product> sortedProducts = sortedProducts(_excludedListId);
+        int start = Collections.binarySearch(sortedProducts, afterProduct, BY_TITLE_AND_ID);
+        start = (start >= 0 ? start + 1 : -start - 1);
+        int end = (int) Math.min(sortedProducts.size(), (long) start + _limit);
+        for (int currentIndex = start; currentIndex < end; currentIndex++) {
+            passProduct(sortedProducts.get(currentIndex), _callback);
+        }
+    }
+
+    @Override
+    public synchronized boolean readProduct(int _id, ProductCallback _callback) {
+        Product product = m_products.get(_id);
+        if (product == null) {
+            return false;
+        }
+        passProduct(product, _callback);
+        return true;
+    }
+
+    @Override
+    public synchronized int[] getProductIdsByUnit(int _unitId) {
+        int rtn[] = new int[m_products.size()];
+        int foundCount = 0;
+        for (Product currentProduct : m_products.values()) {
+            if (currentProduct.UnitId == _unitId) {
+                rtn[foundCount] = currentProduct.Id;
+                foundCount++;
+            }
+        }
+        return Arrays.copyOf(rtn, foundCount);
+    }
+
+    @Override
+    public synchronized boolean insertUnit(Unit _unit) {
+        if (m_units.containsKey(_unit.Id)) {
+            return false;
+        }
+        m_units.put(_unit.Id, new Unit(_unit));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateUnit(Unit _unit) {
+        if (!m_units.containsKey(_unit.Id)) {
+            return false;
+        }
+        m_units.put(_unit.Id, new Unit(_unit));
+        return true;
+    }
+
+    @Override
+    public synchronized void deleteUnit(int _unitId) {
+        if (m_units.remove(_unitId) == null) {
+            return;
+        }
+        Iterator<Product> productIterator = m_products.values().iterator();
+        while (productIterator.hasNext()) {
+            Product currentProduct = productIterator.next();
+            if (currentProduct.UnitId == _unitId) {
+                productIterator.remove();
+                removeReferencesTo(currentProduct.Id);
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean insertProduct(Product _product) {
+        if (m_products.containsKey(_product.Id) || !unitExists(_product.UnitId)) {
+            return false;
+        }
+        m_products.put(_product.Id, new Product(_product));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateProduct(Product _product) {
+        if (!m_products.containsKey(_product.Id) || !unitExists(_product.UnitId)) {
+            return false;
+        }
+        m_products.put(_product.Id, new Product(_product));
+        return true;
+    }
+
+    @Override
+    public synchronized void deleteProduct(int _productId) {
+        if (m_products.remove(_productId) != null) {
+            removeReferencesTo(_productId);
+        }
+    }
+
+    @Override
+    public synchronized boolean insertShoppingList(ShoppingList _shoppingList) {
+        if (m_lists.containsKey(_shoppingList.Id) || !productsExist(_shoppingList)) {
+            return false;
+        }
+        m_lists.put(_shoppingList.Id, new ShoppingList(_shoppingList));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateShoppingList(ShoppingList _shoppingList) {
+        if (!m_lists.containsKey(_shoppingList.Id) || !productsExist(_shoppingList)) {
+            return false;
+        }
+        m_lists.put(_shoppingList.Id, new ShoppingList(_shoppingList));
+        return true;
+    }
+
+    /**
+     * Sets the value of a single list entry.
+     * @return False if the list or the Product does not exist.
+     */
+    synchronized boolean putListEntry(int _shoppingListId, int _productId, float _value) {
+        ShoppingList list = m_lists.get(_shoppingListId);
+        if (list == null || !m_products.containsKey(_productId)) {
+            return false;
+        }
+        list.ListEntries.put(_productId, _value);
+        return true;
+    }
+
+    @Override
+    public synchronized void deleteShoppingList(int _shoppingListId) {
+        m_lists.remove(_shoppingListId);
+        m_listStates.remove(_shoppingListId);
+        m_templateIds.remove(_shoppingListId);
+    }
+
+    /**
+     * Inserts directly; objects inserted before a failure stay.
+     */
+    @Override
+    public BulkInsert beginBulkInsert() {
+        return new BulkInsert() {
+            private boolean m_failed = false;
+
+            @Override
+            public void onUnit(int _id, String _unitText) {
+                Unit unit = new Unit();
+                unit.Id       = _id;
+                unit.UnitText = _unitText;
+                check(insertUnit(unit));
+            }
+
+            @Override
+            public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                Product product = new Product();
+                product.Id           = _id;
+                product.Title        = _title;
+                product.DefaultValue = _defaultValue;
+                product.UnitId       = _unitId;
+                check(insertProduct(product));
+            }
+
+            @Override
+            public void onShoppingList(int _id, String _title) {
+                ShoppingList list = new ShoppingList();
+                list.Id    = _id;
+                list.Title = _title;
+                check(insertShoppingList(list));
+            }
+
+            @Override
+            public void onListEntry(int _shoppingListId, int _productId, float _value) {
+                check(putListEntry(_shoppingListId, _productId, _value));
+            }
+
+            @Override
+            public boolean commit() {
+                return !m_failed;
+            }
+
+            @Override
+            public void abort() {
+            }
+
+            private void check(boolean _inserted) {
+                m_failed |= !_inserted;
+            }
+        };
+    }
+
+    @Override
+    public synchronized byte[] loadListState(int _shoppingListId) {
+        byte state[] = m_listStates.get(_shoppingListId);
+        return (state == null ? null : state.clone());
+    }
+
+    @Override
+    public synchronized boolean saveListState(int _shoppingListId, byte _state[]) {
+        if (!m_lists.containsKey(_shoppingListId)) {
+            return false;
+        }
+        m_listStates.put(_shoppingListId, _state.clone());
+        return true;
+    }
+
+    @Override
+    public synchronized boolean changeListEntries(int _shoppingListId, ListEntryChanges _changes) {
+        ShoppingList list = m_lists.get(_shoppingListId);
+        if (list == null) {
+            return false;
+        }
+        for (int currentIndex = 0; currentIndex < _changes.size(); currentIndex++) {
+            if (!_changes.isRemovalAt(currentIndex) && !m_products.containsKey(_changes.productIdAt(currentIndex))) {
+                return false;
+            }
+        }
+        for (int currentIndex = 0; currentIndex < _changes.size(); currentIndex++) {
+            if (_changes.isRemovalAt(currentIndex)) {
+                list.ListEntries.remove(_changes.productIdAt(currentIndex));
+            } else {
+                list.ListEntries.put(_changes.productIdAt(currentIndex), _changes.valueAt(currentIndex));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean cloneShoppingList(int _sourceListId, int _newListId, String _newTitle,
+            boolean _asTemplate) {
+        ShoppingList source = m_lists.get(_sourceListId);
+        if (source == null || m_lists.containsKey(_newListId)) {
+            return false;
+        }
+        ShoppingList clone = new ShoppingList(source);
+        clone.Id    = _newListId;
+        clone.Title = _newTitle;
+        m_lists.put(_newListId, clone);
+        if (_asTemplate) {
+            m_templateIds.add(_newListId);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized int[] loadTemplateIds() {
+        int rtn[] = new int[m_templateIds.size()];
+        int templateCount = 0;
+        for (int currentId : m_templateIds) {
+            rtn[templateCount++] = currentId;
+        }
+        return rtn;
+    }
+
+    @Override
+    public synchronized void loadUsage(UsageCallback _callback) {
+        for (Map.Entry<Integer, StoredUsage> currentUsage : m_usage.entrySet()) {
+            StoredUsage usage = currentUsage.getValue();
+            _callback.onUsage(currentUsage.getKey(), usage.Score, usage.UseCount, usage.LastUsedMillis);
+        }
+    }
+
+    @Override
+    public synchronized boolean saveUsage(int _productId, double _score, int _useCount, long _lastUsedMillis) {
+        if (!m_products.containsKey(_productId)) {
+            return false;
+        }
+        m_usage.put(_productId, new StoredUsage(_score, _useCount, _lastUsedMillis));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean saveUsages(int _productIds[], double _scores[], int _useCounts[],
+                                           long _lastUsedMillis[]) {
+        for (int productId : _productIds) {
+            if (!m_products.containsKey(productId)) {
+                return false;
+            }
+        }
+        for (int currentIndex = 0; currentIndex < _productIds.length; currentIndex++) {
+            m_usage.put(_productIds[currentIndex], new StoredUsage(_scores[currentIndex], _useCounts[currentIndex],
+                    _lastUsedMillis[currentIndex]));
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void loadConsumption(ConsumptionCallback _callback) {
+        for (Map.Entry<Integer, StoredConsumption> currentConsumption : m_consumption.entrySet()) {
+            StoredConsumption consumption = currentConsumption.getValue();
+            _callback.onConsumption(currentConsumption.getKey(), consumption.PurchaseCount,
+                    consumption.LastPurchaseMillis, consumption.LastValue, consumption.IntervalMean,
+                    consumption.IntervalSquaredDeviations, consumption.ValueMean);
+        }
+    }
+
+    @Override
+    public synchronized boolean saveConsumption(int _productId, int _purchaseCount, long _lastPurchaseMillis,
+                                                float _lastValue, double _intervalMean,
+                                                double _intervalSquaredDeviations, double _valueMean) {
+        if (!m_products.containsKey(_productId)) {
+            return false;
+        }
+        m_consumption.put(_productId, new StoredConsumption(_purchaseCount, _lastPurchaseMillis, _lastValue,
+                _intervalMean, _intervalSquaredDeviations, _valueMean));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean appendPurchases(int _productIds[], long _timesMillis[], float _values[], int _offset,
+                                                int _count) {
+        for (int currentIndex = _offset; currentIndex < _offset + _count; currentIndex++) {
+            if (!m_products.containsKey(_productIds[currentIndex])) {
+                return false;
+            }
+        }
+        for (int currentIndex = _offset; currentIndex < _offset + _count; currentIndex++) {
+            List<StoredPurchases> history = m_purchases.get(_productIds[currentIndex]);
+            if (history == null) {
+                history = new ArrayList<>();
+                m_purchases.put(_productIds[currentIndex], history);
+            }
+            history.add(new StoredPurchases(_timesMillis[currentIndex], 0, 1, _values[currentIndex]));
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void readPurchases(int _productId, long _fromMillis, long _toMillis,
+                                           PurchaseCallback _callback) {
+        List<StoredPurchases> inRange = new ArrayList<>();
+        for (StoredPurchases currentPurchases : historyOf(_productId)) {
+            if (currentPurchases.StartMillis >= _fromMillis && currentPurchases.StartMillis < _toMillis) {
+                inRange.add(currentPurchases);
+            }
+        }
+        Collections.sort(inRange, BY_START);
+        for (StoredPurchases currentPurchases : inRange) {
+            passPurchases(_productId, currentPurchases, _callback);
+        }
+    }
+
+    @Override
+    public synchronized boolean readLastPurchase(int _productId, PurchaseCallback _callback) {
+        StoredPurchases last = null;
+        for (StoredPurchases currentPurchases : historyOf(_productId)) {
+            if (last == null || currentPurchases.StartMillis >= last.StartMillis) {
+                last = currentPurchases;
+            }
+        }
+        if (last == null) {
+            return false;
+        }
+        passPurchases(_productId, last, _callback);
+        return true;
+    }
+
+    @Override
+    public synchronized int rollUpPurchases(long _spanMillis, long _beforeMillis, int _firstProductId,
+                                            int _lastProductId) {
+        int rtn = 0;
+        for (List<StoredPurchases> currentHistory :
+                m_purchases.subMap(_firstProductId, true, _lastProductId, true).values()) {
+            TreeMap<Long, StoredPurchases> buckets = new TreeMap<>();
+            Iterator<StoredPurchases> purchases = currentHistory.iterator();
+            while (purchases.hasNext()) {
+                StoredPurchases currentPurchases = purchases.next();
+                if (currentPurchases.SpanMillis >= _spanMillis || currentPurchases.StartMillis >= _beforeMillis) {
+                    continue;
+                }
+                long bucketStart = (currentPurchases.StartMillis / _spanMillis) * _spanMillis;
+                StoredPurchases bucket = buckets.get(bucketStart);
+                buckets.put(bucketStart, new StoredPurchases(bucketStart, _spanMillis,
+                        (bucket == null ? 0 : bucket.Count) + currentPurchases.Count,
+                        (bucket == null ? 0 : bucket.ValueSum) + currentPurchases.ValueSum));
+                purchases.remove();
+                rtn++;
+            }
+            currentHistory.addAll(buckets.values());
+        }
+        return rtn;
+    }
+
+    @Override
+    public synchronized int dropPurchases(long _beforeMillis, int _firstProductId, int _lastProductId) {
+        int rtn = 0;
+        for (List<StoredPurchases> currentHistory :
+                m_purchases.subMap(_firstProductId, true, _lastProductId, true).values()) {
+            Iterator<StoredPurchases> purchases = currentHistory.iterator();
+            while (purchases.hasNext()) {
+                if (purchases.next().StartMillis < _beforeMillis) {
+                    purchases.remove();
+                    rtn++;
+                }
+            }
+        }
+        return rtn;
+    }
+
+    @Override
+    public synchronized int[] getPurchasedProductIds() {
+        int rtn[] = new int[m_purchases.size()];
+        int count = 0;
+        for (Map.Entry<Integer, List<StoredPurchases>> currentEntry : m_purchases.entrySet()) {
+            if (!currentEntry.getValue().isEmpty()) {
+                rtn[count++] = currentEntry.getKey();
+            }
+        }
+        return Arrays.copyOf(rtn, count);
+    }
+
+    @Override
+    public synchronized int countPurchaseRows() {
+        int rtn = 0;
+        for (List<StoredPurchases> currentHistory : m_purchases.values()) {
+            rtn += currentHistory.size();
+        }
+        return rtn;
+    }
+
+    @Override
+    public synchronized void close() {
+        m_units.clear();
+        m_products.clear();
+        m_lists.clear();
+        m_listStates.clear();
+        m_usage.clear();
+        m_consumption.clear();
+        m_templateIds.clear();
+        m_purchases.clear();
+    }
+
+    private List<StoredPurchases> historyOf(int _productId) {
+        List<StoredPurchases> rtn = m_purchases.get(_productId);
+        return (rtn == null ? Collections.<StoredPurchases>emptyList() : rtn);
+    }
+
+    private static void passPurchases(int _productId, StoredPurchases _purchases, PurchaseCallback _callback) {
+        _callback.onPurchases(_productId, _purchases.StartMillis, _purchases.SpanMillis, _purchases.Count,
+                _purchases.ValueSum);
+    }
+
+    private List<Product> sortedProducts(int _excludedListId) {
+        ShoppingList excludedList = m_lists.get(_excludedListId);
+        List<Product> rtn = new ArrayList<>(m_products.size());
+        for (Product currentProduct : m_products.values()) {
+            if (excludedList == null || excludedList.ListEntries.indexOfKey(currentProduct.Id) < 0) {
+                rtn.add(currentProduct);
+            }
+        }
+        Collections.sort(rtn, BY_TITLE_AND_ID);
+        return rtn;
+    }
+
+    private static void passProduct(Product _product, ProductCallback _callback) {
+        _callback.onProduct(_product.Id, _product.Title, _product.DefaultValue, _product.UnitId);
+    }
+
+    private boolean unitExists(int _unitId) {
+        return _unitId == ModelManager.INVALID_ID || m_units.containsKey(_unitId);
+    }
+
+    private boolean productsExist(ShoppingList _shoppingList) {
+        for (int currentEntry = 0; currentEntry < _shoppingList.ListEntries.size(); currentEntry++) {
+            if (!m_products.containsKey(_shoppingList.ListEntries.keyAt(currentEntry))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes list entries, usage, consumption and purchases of a deleted Product.
+     */
+    private void removeReferencesTo(int _productId) {
+        m_usage.remove(_productId);
+        m_consumption.remove(_productId);
+        m_purchases.remove(_productId);
+        for (ShoppingList currentList : m_lists.values()) {
+            currentList.ListEntries.delete(_productId);
+        }
+    }
+
+    private static class StoredPurchases {
+        final long   StartMillis;
+        final long   SpanMillis;
+        final int    Count;
+        final double ValueSum;
+
+        StoredPurchases(long _startMillis, long _spanMillis, int _count, double _valueSum) {
+            StartMillis = _startMillis;
+            SpanMillis  = _spanMillis;
+            Count       = _count;
+            ValueSum    = _valueSum;
+        }
+    }
+
+    private static class StoredConsumption {
+        final int    PurchaseCount;
+        final long   LastPurchaseMillis;
+        final float  LastValue;
+        final double IntervalMean;
+        final double IntervalSquaredDeviations;
+        final double ValueMean;
+
+        StoredConsumption(int _purchaseCount, long _lastPurchaseMillis, float _lastValue, double _intervalMean,
+                          double _intervalSquaredDeviations, double _valueMean) {
+            PurchaseCount             = _purchaseCount;
+            LastPurchaseMillis        = _lastPurchaseMillis;
+            LastValue                 = _lastValue;
+            IntervalMean              = _intervalMean;
+            IntervalSquaredDeviations = _intervalSquaredDeviations;
+            ValueMean                 = _valueMean;
+        }
+    }
+
+    private static class StoredUsage {
+        final double Score;
+        final int    UseCount;
+        final long   LastUsedMillis;
+
+        StoredUsage(double _score, int _useCount, long _lastUsedMillis) {
+            Score          = _score;
+            UseCount       = _useCount;
+            LastUsedMillis = _lastUsedMillis;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+/**
+ * {@link SqlDatabase} on top of a JDBC connection, e.g. of the xerial SQLite driver. Lets the model run against a real
+ * SQLite database on a plain JVM (benchmarks, load tests). Prepared statements are cached per SQL text.
+ */
+public class JdbcSqlDatabase implements SqlDatabase {
+
+    private Connection                         m_connection;
+    private HashMap<String, PreparedStatement> m_statements;
+    private int                                m_transactionDepth;
+    private boolean                            m_transactionFailed;
+    private boolean                            m_currentSuccessful;
+
+    public JdbcSqlDatabase(Connection _connection) {
+        if (_connection == null) {
+            throw new IllegalArgumentException("Connection was null.");
+        }
+        m_connection        = _connection;
+        m_statements        = new HashMap<>();
+        m_transactionDepth  = 0;
+        m_transactionFailed = false;
+        m_currentSuccessful = false;
+    }
+
+    /**
+     * Opens (or creates) a SQLite database file through the xerial driver, which has to be on the classpath.
+     * @param _path Path of the file. ":memory:" opens a private in-memory database.
+     */
+    public static JdbcSqlDatabase openSqlite(String _path) {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            return new JdbcSqlDatabase(DriverManager.getConnection("jdbc:sqlite:" + _path));
+        } catch (ClassNotFoundException | SQLException e) {
+            throw new StorageException("Could not open " + _path, e);
+        }
+    }
+
+    @Override
+    public int execute(String _sql, Object... _bindArgs) {
+        try {
+            return prepare(_sql, _bindArgs).executeUpdate();
+        } catch (SQLException e) {
+            // The driver does not reset a failed statement, so it can't be reused.
+            forget(_sql);
+            throw new StorageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs a query. The driver refuses to return the rows of statements without result columns (e.g. PRAGMA
+     * incremental_vacuum) and steps them only once; their cursor has no rows then.
+     */
+    @Override
+    public SqlCursor query(String _sql, Object... _bindArgs) {
+        try {
+            PreparedStatement statement = prepare(_sql, _bindArgs);
+            if (!statement.execute()) {
+                // Only closing resets the statement, so it doesn't keep a transaction from committing.
+                forget(_sql);
+                return new JdbcCursor(null);
+            }
+            return new JdbcCursor(statement.getResultSet());
+        } catch (SQLException e) {
+            throw new StorageException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void beginTransaction() {
+        try {
+            if (m_transactionDepth == 0) {
+                m_connection.setAutoCommit(false);
+                m_transactionFailed = false;
+            }
+            m_transactionDepth++;
+            m_currentSuccessful = false;
+        } catch (SQLException e) {
+            throw new StorageException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        m_currentSuccessful = true;
+    }
+
+    @Override
+    public void endTransaction() {
+        if (m_transactionDepth == 0) {
+            throw new IllegalStateException("No transaction in progress.");
+        }
+        if (!m_currentSuccessful) {
+            m_transactionFailed = true;
+        }
+        m_currentSuccessful = false;
+        m_transactionDepth--;
+        if (m_transactionDepth > 0) {
+            return;
+        }
+        try {
+            if (m_transactionFailed) {
+                m_connection.rollback();
+            } else {
+                m_connection.commit();
+            }
+            m_connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new StorageException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (PreparedStatement currentStatement : m_statements.values()) {
+                currentStatement.close();
+            }
+            m_statements.clear();
+            m_connection.close();
+        } catch (SQLException e) {
+            throw new StorageException(e.getMessage(), e);
+        }
+    }
+
+    private void forget(String _sql) {
+        PreparedStatement statement = m_statements.remove(_sql);
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // It's not used any more anyway.
+            }
+        }
+    }
+
+    private PreparedStatement prepare(String _sql, Object _bindArgs[]) throws SQLException {
+        PreparedStatement rtn = m_statements.get(_sql);
+        if (rtn == null) {
+            rtn = m_connection.prepareStatement(_sql);
+            m_statements.put(_sql, rtn);
+        } else {
+            rtn.clearParameters();
+        }
+        for (int currentArg = 0; currentArg < _bindArgs.length; currentArg++) {
+            rtn.setObject(currentArg + 1, _bindArgs[currentArg]);
+        }
+        return rtn;
+    }
+
+    private static class JdbcCursor implements SqlCursor {
+
+        // Null if there are no rows.
+        private ResultSet m_resultSet;
+
+        JdbcCursor(ResultSet _resultSet) {
+            m_resultSet = _resultSet;
+        }
+
+        @Override
+        public boolean moveToNext() {
+            if (m_resultSet == null) {
+                return false;
+            }
+            try {
+                return m_resultSet.next();
+            } catch (SQLException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public boolean isNull(int _column) {
+            try {
+                return m_resultSet.getObject(_column + 1) == null;
+            } catch (SQLException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public int getInt(int _column) {
+            try {
+                return m_resultSet.getInt(_column + 1);
+            } catch (SQLException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public long getLong(int _column) {
+            try {
+                return m_resultSet.getLong(_column + 1);
+            } catch (SQLException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public float getFloat(int _column) {
+            try {
+                return m_resultSet.getFloat(_column + 1);
+            } catch (SQLException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public double getDouble(int _column) {
+            try {
+                return m_resultSet.getDouble(_column + 1);
+            } catch (SQLException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public String getString(int _column) {
+            try {
+                return m_resultSet.getString(_column + 1);
+            } catch (SQLException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public byte[] getBlob(int _column) {
+            try {
+                return m_resultSet.getBytes(_column + 1);
+            } catch (SQLException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (m_resultSet == null) {
+                return;
+            }
+            try {
+                m_resultSet.close();
+            } catch (SQLException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Framing of the files of a {@link JournalStorage}. A file starts with {@link #MAGIC}, followed by records of the form
+ * [payload length][CRC32 of payload][payload]. Reading stops at the first record which is incomplete or has a wrong
+ * checksum, which is what a crash in the middle of an append leaves behind.
+ */
+class JournalFile {
+
+    static final int MAGIC             = 0x534c4a31; // "SLJ1"
+    static final int HEADER_LENGTH     = 4;
+    static final int FRAME_LENGTH      = 8;
+    static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    interface RecordHandler {
+        void onRecord(DataInputStream _record) throws IOException;
+    }
+
+    private JournalFile() {
+    }
+
+    /**
+     * Passes all intact records of the file to the handler.
+     * @return The length of the intact part of the file. 0 if the file does not even have a complete header.
+     */
+    static long replay(File _file, RecordHandler _handler) throws IOException {
+        if (!_file.exists()) {
+            return 0;
+        }
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(_file), 64 * 1024));
+        try {
+            long validLength;
+            try {
+                if (input.readInt() != MAGIC) {
+                    throw new StorageException(_file + " is not a journal file.");
+                }
+                validLength = HEADER_LENGTH;
+            } catch (EOFException e) {
+                return 0;
+            }
+
+            CRC32 checksum = new CRC32();
+            byte payload[] = new byte[1024];
+            while (true) {
+                int payloadLength;
+                int expectedChecksum;
+                try {
+                    payloadLength    = input.readInt();
+                    expectedChecksum = input.readInt();
+                    if (payloadLength <= 0 || payloadLength > MAX_RECORD_LENGTH) {
+                        return validLength;
+                    }
+                    if (payload.length < payloadLength) {
+                        payload = new byte[Math.max(payloadLength, payload.length * 2)];
+                    }
+                    input.readFully(payload, 0, payloadLength);
+                } catch (EOFException e) {
+                    return validLength;
+                }
+
+                checksum.reset();
+                checksum.update(payload, 0, payloadLength);
+                if ((int) checksum.getValue() != expectedChecksum) {
+                    return validLength;
+                }
+
+                _handler.onRecord(new DataInputStream(new ByteArrayInputStream(payload, 0, payloadLength)));
+                validLength += FRAME_LENGTH + payloadLength;
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Opens a file for appending. Everything after the intact part is cut off, a missing header is written.
+     * @param _validLength What {@link #replay(File, RecordHandler)} returned for the file.
+     * @return The channel, positioned at the end.
+     */
+    static FileChannel openForAppend(File _file, long _validLength) throws IOException {
+        FileChannel rtn = new RandomAccessFile(_file, "rw").getChannel();
+        try {
+            if (_validLength < HEADER_LENGTH) {
+                rtn.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC);
+                header.flip();
+                writeFully(rtn, header);
+            } else if (rtn.size() > _validLength) {
+                rtn.truncate(_validLength);
+            }
+            rtn.position(rtn.size());
+            return rtn;
+        } catch (IOException e) {
+            rtn.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return A buffer holding the framed record, ready for writing.
+     */
+    static ByteBuffer frame(byte _payload[], int _length) {
+        CRC32 checksum = new CRC32();
+        checksum.update(_payload, 0, _length);
+
+        ByteBuffer rtn = ByteBuffer.allocate(FRAME_LENGTH + _length);
+        rtn.putInt(_length);
+        rtn.putInt((int) checksum.getValue());
+        rtn.put(_payload, 0, _length);
+        rtn.flip();
+        return rtn;
+    }
+
+    static void writeFully(FileChannel _channel, ByteBuffer _buffer) throws IOException {
+        while (_buffer.hasRemaining()) {
+            _channel.write(_buffer);
+        }
+    }
+}
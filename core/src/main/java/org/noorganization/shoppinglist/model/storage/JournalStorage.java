@@ -0,0 +1,1005 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import org.noorganization.shoppinglist.metrics.LatencyHistogram;
+import org.noorganization.shoppinglist.metrics.Metrics;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.Unit;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Storage engine writing every mutation as a checksummed record to an append-only journal, instead of changing B-tree
+ * pages in place like SQLite. The state is kept in memory; opening rebuilds it by replaying the newest snapshot and
+ * the journals written after it. A torn record at the end of the journal (crash during an append) is cut off.
+ * <p>
+ * Records are written on the calling thread, so they survive the death of the process right away. Syncing them to the
+ * disk is done by a committer thread: one sync covers all records written in the meantime (group commit). In
+ * synchronous mode every mutation waits for the sync covering it; otherwise {@link #flush()} does.
+ * <p>
+ * Once the journal is larger than the last snapshot and the compaction threshold, a new journal is started and a
+ * snapshot is written in the background. The mutating thread only opens the new journal: the compaction thread syncs
+ * and closes the old one and rebuilds the state to save from the files, so the state is never copied while it's
+ * locked. Older files are deleted when the snapshot is complete.
+ * <p>
+ * If writing the journal fails, the storage stops working: all further calls throw a {@link StorageException}.
+ */
+public class JournalStorage implements StorageProvider {
+
+    public static final long DEFAULT_COMPACTION_THRESHOLD_BYTES = 1024 * 1024;
+    public static final long DEFAULT_COMMIT_DELAY_MILLIS        = 2;
+
+    static final String SNAPSHOT_PREFIX  = "snapshot.";
+    static final String JOURNAL_PREFIX   = "journal.";
+    static final String TEMPORARY_SUFFIX = ".tmp";
+
+    static final byte RECORD_PUT_UNIT              = 1;
+    static final byte RECORD_DELETE_UNIT           = 2;
+    static final byte RECORD_PUT_PRODUCT           = 3;
+    static final byte RECORD_DELETE_PRODUCT        = 4;
+    static final byte RECORD_PUT_SHOPPING_LIST     = 5;
+    static final byte RECORD_DELETE_SHOPPING_LIST  = 6;
+    static final byte RECORD_PUT_LIST_ENTRY        = 7;
+
+    private static final Logger           LOGGER    = Logger.getLogger("JournalStorage");
+    private static final LatencyHistogram TIME_SYNC = Metrics.histogram("JournalStorage.sync");
+
+    /**
+     * Guards the state, the journal and the compaction. Taken before m_commitLock if both are needed.
+     */
+    private final Object m_lock;
+    /**
+     * Guards the sequence numbers, the failure and the closed flag.
+     */
+    private final Object m_commitLock;
+
+    private File             m_directory;
+    private InMemoryStorage  m_state;
+    private RecordWriter     m_recordWriter;
+    private int              m_generation;
+    private FileChannel      m_journal;
+    private FileChannel      m_rotatedJournal;
+    private long             m_journalBytes;
+    private long             m_snapshotBytes;
+    private long             m_compactionThreshold;
+    private Thread           m_compaction;
+    private Thread           m_committer;
+    private volatile long    m_commitDelayMillis;
+    private volatile boolean m_synchronous;
+
+    private long        m_writtenSequence;
+    private long        m_syncedSequence;
+    private long        m_syncCount;
+    private IOException m_failure;
+    private boolean     m_closed;
+
+    /**
+     * Opens the journal in the directory or creates a new one.
+     * @param _directory Directory only used by this storage. It's created if missing.
+     */
+    public JournalStorage(File _directory) {
+        if (_directory == null) {
+            throw new IllegalArgumentException("Directory was null.");
+        }
+        if (!_directory.isDirectory() && !_directory.mkdirs()) {
+            throw new StorageException("Could not create " + _directory);
+        }
+
+        m_lock                = new Object();
+        m_commitLock          = new Object();
+        m_directory           = _directory;
+        m_state               = new InMemoryStorage();
+        m_recordWriter        = new RecordWriter();
+        m_rotatedJournal      = null;
+        m_compactionThreshold = DEFAULT_COMPACTION_THRESHOLD_BYTES;
+        m_commitDelayMillis   = DEFAULT_COMMIT_DELAY_MILLIS;
+        m_synchronous         = false;
+        m_writtenSequence     = 0;
+        m_syncedSequence      = 0;
+        m_syncCount           = 0;
+        m_failure             = null;
+        m_closed              = false;
+
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new StorageException("Could not read journal in " + _directory, e);
+        }
+
+        m_committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runCommitter();
+            }
+        }, "JournalStorage committer");
+        m_committer.setDaemon(true);
+        m_committer.start();
+    }
+
+    /**
+     * @param _synchronous Whether mutations return only after their record was synced to the disk. Off by default.
+     */
+    public void setSynchronous(boolean _synchronous) {
+        m_synchronous = _synchronous;
+    }
+
+    /**
+     * @param _commitDelayMillis How long the committer waits for further records before syncing.
+     */
+    public void setCommitDelayMillis(long _commitDelayMillis) {
+        m_commitDelayMillis = _commitDelayMillis;
+    }
+
+    /**
+     * @param _thresholdBytes The journal is not compacted before it's larger than this.
+     */
+    public void setCompactionThreshold(long _thresholdBytes) {
+        synchronized (m_lock) {
+            m_compactionThreshold = _thresholdBytes;
+        }
+    }
+
+    /**
+     * Waits until all records written so far are synced to the disk.
+     */
+    public void flush() {
+        long target;
+        synchronized (m_commitLock) {
+            target = m_writtenSequence;
+        }
+        waitForSync(target);
+    }
+
+    /**
+     * Waits until a running compaction is finished.
+     */
+    public void awaitCompaction() {
+        Thread compaction;
+        synchronized (m_lock) {
+            compaction = m_compaction;
+        }
+        join(compaction);
+    }
+
+    /**
+     * @return How many records were written since opening.
+     */
+    public long getRecordCount() {
+        synchronized (m_commitLock) {
+            return m_writtenSequence;
+        }
+    }
+
+    /**
+     * @return How many syncs the committer did since opening. Smaller than {@link #getRecordCount()} if syncs were
+     * shared.
+     */
+    public long getSyncCount() {
+        synchronized (m_commitLock) {
+            return m_syncCount;
+        }
+    }
+
+    /**
+     * @return The generation of the current journal. Increased by every compaction.
+     */
+    public int getGeneration() {
+        synchronized (m_lock) {
+            return m_generation;
+        }
+    }
+
+    @Override
+    public void load(LoadCallback _callback) {
+        synchronized (m_lock) {
+            checkUsable();
+            m_state.load(_callback);
+        }
+    }
+
+    @Override
+    public boolean insertUnit(Unit _unit) {
+        long sequence;
+        synchronized (m_lock) {
+            checkUsable();
+            if (!m_state.insertUnit(_unit)) {
+                return false;
+            }
+            sequence = append(m_recordWriter.putUnit(_unit.Id, _unit.UnitText));
+        }
+        awaitCommit(sequence);
+        return true;
+    }
+
+    @Override
+    public boolean updateUnit(Unit _unit) {
+        long sequence;
+        synchronized (m_lock) {
+            checkUsable();
+            if (!m_state.updateUnit(_unit)) {
+                return false;
+            }
+            sequence = append(m_recordWriter.putUnit(_unit.Id, _unit.UnitText));
+        }
+        awaitCommit(sequence);
+        return true;
+    }
+
+    @Override
+    public void deleteUnit(int _unitId) {
+        long sequence;
+        synchronized (m_lock) {
+            checkUsable();
+            m_state.deleteUnit(_unitId);
+            sequence = append(m_recordWriter.delete(RECORD_DELETE_UNIT, _unitId));
+        }
+        awaitCommit(sequence);
+    }
+
+    @Override
+    public boolean insertProduct(Product _product) {
+        long sequence;
+        synchronized (m_lock) {
+            checkUsable();
+            if (!m_state.insertProduct(_product)) {
+                return false;
+            }
+            sequence = append(m_recordWriter.putProduct(_product.Id, _product.Title, _product.DefaultValue,
+                    _product.UnitId));
+        }
+        awaitCommit(sequence);
+        return true;
+    }
+
+    @Override
+    public boolean updateProduct(Product _product) {
+        long sequence;
+        synchronized (m_lock) {
+            checkUsable();
+            if (!m_state.updateProduct(_product)) {
+                return false;
+            }
+            sequence = append(m_recordWriter.putProduct(_product.Id, _product.Title, _product.DefaultValue,
+                    _product.UnitId));
+        }
+        awaitCommit(sequence);
+        return true;
+    }
+
+    @Override
+    public void deleteProduct(int _productId) {
+        long sequence;
+        synchronized (m_lock) {
+            checkUsable();
+            m_state.deleteProduct(_productId);
+            sequence = append(m_recordWriter.delete(RECORD_DELETE_PRODUCT, _productId));
+        }
+        awaitCommit(sequence);
+    }
+
+    @Override
+    public boolean insertShoppingList(ShoppingList _shoppingList) {
+        long sequence;
+        synchronized (m_lock) {
+            checkUsable();
+            if (!m_state.insertShoppingList(_shoppingList)) {
+                return false;
+            }
+            sequence = append(m_recordWriter.putShoppingList(_shoppingList));
+        }
+        awaitCommit(sequence);
+        return true;
+    }
+
+    @Override
+    public boolean updateShoppingList(ShoppingList _shoppingList) {
+        long sequence;
+        synchronized (m_lock) {
+            checkUsable();
+            if (!m_state.updateShoppingList(_shoppingList)) {
+                return false;
+            }
+            sequence = append(m_recordWriter.putShoppingList(_shoppingList));
+        }
+        awaitCommit(sequence);
+        return true;
+    }
+
+    @Override
+    public void deleteShoppingList(int _shoppingListId) {
+        long sequence;
+        synchronized (m_lock) {
+            checkUsable();
+            m_state.deleteShoppingList(_shoppingListId);
+            sequence = append(m_recordWriter.delete(RECORD_DELETE_SHOPPING_LIST, _shoppingListId));
+        }
+        awaitCommit(sequence);
+    }
+
+    /**
+     * Appends a record per object without waiting for its sync; {@link BulkInsert#commit()} waits for the last one.
+     * Objects appended before a failure stay.
+     */
+    @Override
+    public BulkInsert beginBulkInsert() {
+        return new JournalBulkInsert();
+    }
+
+    /**
+     * Syncs all records, waits for a running compaction and stops the committer.
+     */
+    @Override
+    public void close() {
+        Thread compaction;
+        synchronized (m_lock) {
+            synchronized (m_commitLock) {
+                if (m_closed) {
+                    return;
+                }
+                m_closed = true;
+                m_commitLock.notifyAll();
+            }
+            compaction = m_compaction;
+        }
+        join(compaction);
+
+        synchronized (m_lock) {
+            try {
+                m_journal.force(false);
+                m_journal.close();
+            } catch (IOException e) {
+                fail(e);
+                throw new StorageException("Could not close journal.", e);
+            } finally {
+                markSynced(Long.MAX_VALUE, false);
+            }
+        }
+        join(m_committer);
+    }
+
+    private void recover() throws IOException {
+        int snapshotGeneration = -1;
+        int lastGeneration = 0;
+        File allFiles[] = m_directory.listFiles();
+        for (File currentFile : (allFiles == null ? new File[0] : allFiles)) {
+            String name = currentFile.getName();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                // Leftover of a compaction, which did not finish.
+                currentFile.delete();
+            } else if (name.startsWith(SNAPSHOT_PREFIX)) {
+                snapshotGeneration = Math.max(snapshotGeneration, generationOf(name, SNAPSHOT_PREFIX));
+            } else if (name.startsWith(JOURNAL_PREFIX)) {
+                lastGeneration = Math.max(lastGeneration, generationOf(name, JOURNAL_PREFIX));
+            }
+        }
+        lastGeneration = Math.max(lastGeneration, snapshotGeneration);
+
+        JournalFile.RecordHandler applier = new JournalFile.RecordHandler() {
+            @Override
+            public void onRecord(DataInputStream _record) throws IOException {
+                apply(_record, m_state);
+            }
+        };
+
+        m_snapshotBytes = 0;
+        if (snapshotGeneration >= 0) {
+            File snapshot = snapshotFile(snapshotGeneration);
+            // Snapshots are complete when renamed, so a damaged one can't be repaired by cutting it off.
+            if (JournalFile.replay(snapshot, applier) != snapshot.length()) {
+                throw new StorageException(snapshot + " is damaged.");
+            }
+            m_snapshotBytes = snapshot.length();
+        }
+
+        long validLength = 0;
+        for (int currentGeneration = 0; currentGeneration <= lastGeneration; currentGeneration++) {
+            File journal = journalFile(currentGeneration);
+            if (currentGeneration < snapshotGeneration) {
+                // Already contained in the snapshot, the deletion after the compaction did not happen.
+                journal.delete();
+                continue;
+            }
+            validLength = JournalFile.replay(journal, applier);
+        }
+
+        m_generation   = lastGeneration;
+        m_journal      = JournalFile.openForAppend(journalFile(lastGeneration), validLength);
+        m_journalBytes = m_journal.size();
+    }
+
+    /**
+     * Rebuilds the state as it was when a generation started, from the newest older snapshot and the journals after it.
+     * The files of these generations aren't written anymore.
+     */
+    private InMemoryStorage readState(int _generation) throws IOException {
+        int snapshotGeneration = -1;
+        File allFiles[] = m_directory.listFiles();
+        for (File currentFile : (allFiles == null ? new File[0] : allFiles)) {
+            String name = currentFile.getName();
+            if (name.startsWith(SNAPSHOT_PREFIX)) {
+                int generation = generationOf(name, SNAPSHOT_PREFIX);
+                if (generation < _generation) {
+                    snapshotGeneration = Math.max(snapshotGeneration, generation);
+                }
+            }
+        }
+
+        final InMemoryStorage rtn = new InMemoryStorage();
+        JournalFile.RecordHandler applier = new JournalFile.RecordHandler() {
+            @Override
+            public void onRecord(DataInputStream _record) throws IOException {
+                apply(_record, rtn);
+            }
+        };
+        if (snapshotGeneration >= 0) {
+            File snapshot = snapshotFile(snapshotGeneration);
+            if (JournalFile.replay(snapshot, applier) != snapshot.length()) {
+                throw new IOException(snapshot + " is damaged.");
+            }
+        }
+        for (int currentGeneration = Math.max(snapshotGeneration, 0); currentGeneration < _generation;
+                currentGeneration++) {
+            JournalFile.replay(journalFile(currentGeneration), applier);
+        }
+        return rtn;
+    }
+
+    /**
+     * Applies a record to a state. Puts insert or update, since journals only keep the latest version.
+     */
+    private static void apply(DataInputStream _record, InMemoryStorage _state) throws IOException {
+        byte type = _record.readByte();
+        switch (type) {
+            case RECORD_PUT_UNIT: {
+                Unit unit = new Unit();
+                unit.Id       = _record.readInt();
+                unit.UnitText = _record.readUTF();
+                if (!_state.updateUnit(unit)) {
+                    _state.insertUnit(unit);
+                }
+                break;
+            }
+            case RECORD_PUT_PRODUCT: {
+                Product product = new Product();
+                product.Id           = _record.readInt();
+                product.Title        = _record.readUTF();
+                product.DefaultValue = _record.readFloat();
+                product.UnitId       = _record.readInt();
+                if (!_state.updateProduct(product)) {
+                    _state.insertProduct(product);
+                }
+                break;
+            }
+            case RECORD_PUT_SHOPPING_LIST: {
+                ShoppingList list = new ShoppingList();
+                list.Id    = _record.readInt();
+                list.Title = _record.readUTF();
+                int entryCount = _record.readInt();
+                for (int currentEntry = 0; currentEntry < entryCount; currentEntry++) {
+                    list.ListEntries.append(_record.readInt(), _record.readFloat());
+                }
+                if (!_state.updateShoppingList(list)) {
+                    _state.insertShoppingList(list);
+                }
+                break;
+            }
+            case RECORD_PUT_LIST_ENTRY:
+                _state.putListEntry(_record.readInt(), _record.readInt(), _record.readFloat());
+                break;
+            case RECORD_DELETE_UNIT:
+                _state.deleteUnit(_record.readInt());
+                break;
+            case RECORD_DELETE_PRODUCT:
+                _state.deleteProduct(_record.readInt());
+                break;
+            case RECORD_DELETE_SHOPPING_LIST:
+                _state.deleteShoppingList(_record.readInt());
+                break;
+            default:
+                throw new StorageException("Unknown journal record type " + type);
+        }
+    }
+
+    /**
+     * Writes a framed record to the journal. Has to be called with m_lock held.
+     * @return The sequence number of the record.
+     */
+    private long append(ByteBuffer _framedRecord) {
+        try {
+            JournalFile.writeFully(m_journal, _framedRecord);
+        } catch (IOException e) {
+            fail(e);
+            throw new StorageException("Could not write journal.", e);
+        }
+        m_journalBytes += _framedRecord.limit();
+
+        long rtn;
+        synchronized (m_commitLock) {
+            rtn = ++m_writtenSequence;
+            m_commitLock.notifyAll();
+        }
+
+        if (m_compaction == null && m_journalBytes > Math.max(m_compactionThreshold, m_snapshotBytes)) {
+            startCompaction();
+        }
+        return rtn;
+    }
+
+    private void awaitCommit(long _sequence) {
+        if (m_synchronous) {
+            waitForSync(_sequence);
+        }
+    }
+
+    private void waitForSync(long _sequence) {
+        synchronized (m_commitLock) {
+            while (m_syncedSequence < _sequence && m_failure == null) {
+                try {
+                    m_commitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (m_failure != null) {
+                throw new StorageException("Journal could not be synced.", m_failure);
+            }
+        }
+    }
+
+    private void runCommitter() {
+        while (true) {
+            synchronized (m_commitLock) {
+                while (m_syncedSequence >= m_writtenSequence && !m_closed && m_failure == null) {
+                    try {
+                        m_commitLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (m_failure != null || (m_closed && m_syncedSequence >= m_writtenSequence)) {
+                    return;
+                }
+            }
+
+            // Gives further records the chance to be covered by the same sync.
+            long commitDelay = m_commitDelayMillis;
+            if (commitDelay > 0) {
+                try {
+                    Thread.sleep(commitDelay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            FileChannel rotatedJournal;
+            FileChannel journal;
+            long target;
+            synchronized (m_lock) {
+                rotatedJournal = m_rotatedJournal;
+                journal        = m_journal;
+                synchronized (m_commitLock) {
+                    target = m_writtenSequence;
+                }
+            }
+
+            long startTime = Metrics.start();
+            try {
+                // Records before the rotation may still be in the old journal, if the compaction didn't sync it yet.
+                if (rotatedJournal != null) {
+                    forceUnlessClosed(rotatedJournal);
+                }
+                forceUnlessClosed(journal);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            } finally {
+                TIME_SYNC.stop(startTime);
+            }
+            markSynced(target, true);
+        }
+    }
+
+    private static void forceUnlessClosed(FileChannel _journal) throws IOException {
+        try {
+            _journal.force(false);
+        } catch (ClosedChannelException e) {
+            // Rotated or closed meanwhile, which synced the journal before.
+        }
+    }
+
+    private void markSynced(long _sequence, boolean _bySync) {
+        synchronized (m_commitLock) {
+            m_syncedSequence = Math.max(m_syncedSequence, Math.min(_sequence, m_writtenSequence));
+            if (_bySync) {
+                m_syncCount++;
+            }
+            m_commitLock.notifyAll();
+        }
+    }
+
+    /**
+     * Starts a new journal and writes a snapshot of the state at this point in the background. Has to be called with
+     * m_lock held.
+     */
+    private void startCompaction() {
+        final int newGeneration = m_generation + 1;
+        final FileChannel oldJournal = m_journal;
+        try {
+            m_journal = JournalFile.openForAppend(journalFile(newGeneration), 0);
+        } catch (IOException e) {
+            fail(e);
+            throw new StorageException("Could not start a new journal.", e);
+        }
+        final long rotatedSequence;
+        synchronized (m_commitLock) {
+            rotatedSequence = m_writtenSequence;
+        }
+        m_rotatedJournal = oldJournal;
+        m_generation     = newGeneration;
+        m_journalBytes   = JournalFile.HEADER_LENGTH;
+
+        m_compaction = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long snapshotBytes = -1;
+                try {
+                    closeRotatedJournal(oldJournal, rotatedSequence);
+                    snapshotBytes = writeSnapshot(readState(newGeneration), newGeneration);
+                } catch (IOException e) {
+                    // The journals are kept, so nothing is lost. The next compaction tries again.
+                    LOGGER.log(Level.WARNING, "Compaction failed.", e);
+                } finally {
+                    synchronized (m_lock) {
+                        if (snapshotBytes >= 0) {
+                            m_snapshotBytes = snapshotBytes;
+                        }
+                        m_compaction = null;
+                    }
+                }
+            }
+        }, "JournalStorage compaction");
+        m_compaction.setDaemon(true);
+        m_compaction.start();
+    }
+
+    /**
+     * Syncs and closes the journal replaced by a rotation. A failed sync stops the storage like a failed write, since
+     * the records in it may be lost.
+     */
+    private void closeRotatedJournal(FileChannel _journal, long _lastSequence) throws IOException {
+        try {
+            _journal.force(false);
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        } finally {
+            _journal.close();
+            synchronized (m_lock) {
+                m_rotatedJournal = null;
+            }
+        }
+        markSynced(_lastSequence, false);
+    }
+
+    /**
+     * Writes the state as snapshot of a generation and deletes all files of older generations afterwards.
+     * @return The size of the snapshot.
+     */
+    private long writeSnapshot(InMemoryStorage _state, int _generation) throws IOException {
+        File temporaryFile = new File(m_directory, SNAPSHOT_PREFIX + _generation + TEMPORARY_SUFFIX);
+        FileOutputStream fileOutput = new FileOutputStream(temporaryFile);
+        try {
+            final BufferedOutputStream output = new BufferedOutputStream(fileOutput, 64 * 1024);
+            final RecordWriter recordWriter = new RecordWriter();
+            new DataOutputStream(output).writeInt(JournalFile.MAGIC);
+            final IOException failure[] = new IOException[1];
+            _state.load(new LoadCallback() {
+                @Override
+                public void onUnit(int _id, String _unitText) {
+                    write(recordWriter.putUnit(_id, _unitText));
+                }
+
+                @Override
+                public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                    write(recordWriter.putProduct(_id, _title, _defaultValue, _unitId));
+                }
+
+                @Override
+                public void onShoppingList(int _id, String _title) {
+                    write(recordWriter.putShoppingList(_id, _title));
+                }
+
+                @Override
+                public void onListEntry(int _shoppingListId, int _productId, float _value) {
+                    write(recordWriter.putListEntry(_shoppingListId, _productId, _value));
+                }
+
+                private void write(ByteBuffer _framedRecord) {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    try {
+                        output.write(_framedRecord.array(), 0, _framedRecord.limit());
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+        } finally {
+            fileOutput.close();
+        }
+
+        File snapshotFile = snapshotFile(_generation);
+        if (!temporaryFile.renameTo(snapshotFile)) {
+            temporaryFile.delete();
+            throw new IOException("Could not rename " + temporaryFile);
+        }
+
+        for (int currentGeneration = _generation - 1; currentGeneration >= 0; currentGeneration--) {
+            snapshotFile(currentGeneration).delete();
+            journalFile(currentGeneration).delete();
+        }
+        return snapshotFile.length();
+    }
+
+    private void checkUsable() {
+        synchronized (m_commitLock) {
+            if (m_closed) {
+                throw new IllegalStateException("Journal is closed.");
+            }
+            if (m_failure != null) {
+                throw new StorageException("Journal failed before.", m_failure);
+            }
+        }
+    }
+
+    private void fail(IOException _failure) {
+        synchronized (m_commitLock) {
+            if (m_failure == null) {
+                m_failure = _failure;
+            }
+            m_commitLock.notifyAll();
+        }
+    }
+
+    private File snapshotFile(int _generation) {
+        return new File(m_directory, SNAPSHOT_PREFIX + _generation);
+    }
+
+    private File journalFile(int _generation) {
+        return new File(m_directory, JOURNAL_PREFIX + _generation);
+    }
+
+    private static int generationOf(String _fileName, String _prefix) {
+        try {
+            return Integer.parseInt(_fileName.substring(_prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void join(Thread _thread) {
+        if (_thread == null || _thread == Thread.currentThread()) {
+            return;
+        }
+        try {
+            _thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Encodes records. Not thread safe, every writing thread needs its own.
+     */
+    private class JournalBulkInsert implements BulkInsert {
+
+        private boolean m_failed;
+        private long    m_lastSequence;
+
+        JournalBulkInsert() {
+            m_failed       = false;
+            m_lastSequence = 0;
+        }
+
+        @Override
+        public void onUnit(int _id, String _unitText) {
+            Unit unit = new Unit();
+            unit.Id       = _id;
+            unit.UnitText = _unitText;
+            synchronized (m_lock) {
+                checkUsable();
+                if (check(m_state.insertUnit(unit))) {
+                    m_lastSequence = append(m_recordWriter.putUnit(_id, _unitText));
+                }
+            }
+        }
+
+        @Override
+        public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+            Product product = new Product();
+            product.Id           = _id;
+            product.Title        = _title;
+            product.DefaultValue = _defaultValue;
+            product.UnitId       = _unitId;
+            synchronized (m_lock) {
+                checkUsable();
+                if (check(m_state.insertProduct(product))) {
+                    m_lastSequence = append(m_recordWriter.putProduct(_id, _title, _defaultValue, _unitId));
+                }
+            }
+        }
+
+        @Override
+        public void onShoppingList(int _id, String _title) {
+            ShoppingList list = new ShoppingList();
+            list.Id    = _id;
+            list.Title = _title;
+            synchronized (m_lock) {
+                checkUsable();
+                if (check(m_state.insertShoppingList(list))) {
+                    m_lastSequence = append(m_recordWriter.putShoppingList(_id, _title));
+                }
+            }
+        }
+
+        @Override
+        public void onListEntry(int _shoppingListId, int _productId, float _value) {
+            synchronized (m_lock) {
+                checkUsable();
+                if (check(m_state.putListEntry(_shoppingListId, _productId, _value))) {
+                    m_lastSequence = append(m_recordWriter.putListEntry(_shoppingListId, _productId, _value));
+                }
+            }
+        }
+
+        @Override
+        public boolean commit() {
+            awaitCommit(m_lastSequence);
+            return !m_failed;
+        }
+
+        @Override
+        public void abort() {
+            awaitCommit(m_lastSequence);
+        }
+
+        private boolean check(boolean _inserted) {
+            m_failed |= !_inserted;
+            return _inserted;
+        }
+    }
+
+    private static class RecordWriter {
+
+        private ByteArrayOutputStream m_bytes;
+        private DataOutputStream      m_output;
+
+        RecordWriter() {
+            m_bytes  = new ByteArrayOutputStream(256);
+            m_output = new DataOutputStream(m_bytes);
+        }
+
+        ByteBuffer putUnit(int _id, String _unitText) {
+            try {
+                start(RECORD_PUT_UNIT);
+                m_output.writeInt(_id);
+                m_output.writeUTF(_unitText);
+                return finish();
+            } catch (IOException e) {
+                throw new StorageException("Could not encode record.", e);
+            }
+        }
+
+        ByteBuffer putProduct(int _id, String _title, float _defaultValue, int _unitId) {
+            try {
+                start(RECORD_PUT_PRODUCT);
+                m_output.writeInt(_id);
+                m_output.writeUTF(_title);
+                m_output.writeFloat(_defaultValue);
+                m_output.writeInt(_unitId);
+                return finish();
+            } catch (IOException e) {
+                throw new StorageException("Could not encode record.", e);
+            }
+        }
+
+        ByteBuffer putShoppingList(ShoppingList _shoppingList) {
+            try {
+                start(RECORD_PUT_SHOPPING_LIST);
+                m_output.writeInt(_shoppingList.Id);
+                m_output.writeUTF(_shoppingList.Title);
+                m_output.writeInt(_shoppingList.ListEntries.size());
+                for (int currentEntry = 0; currentEntry < _shoppingList.ListEntries.size(); currentEntry++) {
+                    m_output.writeInt(_shoppingList.ListEntries.keyAt(currentEntry));
+                    m_output.writeFloat(_shoppingList.ListEntries.valueAt(currentEntry));
+                }
+                return finish();
+            } catch (IOException e) {
+                throw new StorageException("Could not encode record.", e);
+            }
+        }
+
+        /**
+         * A list without entries. Snapshots add them by {@link #putListEntry(int, int, float)}.
+         */
+        ByteBuffer putShoppingList(int _id, String _title) {
+            try {
+                start(RECORD_PUT_SHOPPING_LIST);
+                m_output.writeInt(_id);
+                m_output.writeUTF(_title);
+                m_output.writeInt(0);
+                return finish();
+            } catch (IOException e) {
+                throw new StorageException("Could not encode record.", e);
+            }
+        }
+
+        ByteBuffer putListEntry(int _shoppingListId, int _productId, float _value) {
+            try {
+                start(RECORD_PUT_LIST_ENTRY);
+                m_output.writeInt(_shoppingListId);
+                m_output.writeInt(_productId);
+                m_output.writeFloat(_value);
+                return finish();
+            } catch (IOException e) {
+                throw new StorageException("Could not encode record.", e);
+            }
+        }
+
+        ByteBuffer delete(byte _type, int _id) {
+            try {
+                start(_type);
+                m_output.writeInt(_id);
+                return finish();
+            } catch (IOException e) {
+                throw new StorageException("Could not encode record.", e);
+            }
+        }
+
+        private void start(byte _type) throws IOException {
+            m_bytes.reset();
+            m_output.writeByte(_type);
+        }
+
+        private ByteBuffer finish() throws IOException {
+            m_output.flush();
+            return JournalFile.frame(m_bytes.toByteArray(), m_bytes.size());
+        }
+    }
+}
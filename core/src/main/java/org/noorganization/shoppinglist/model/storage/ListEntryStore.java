@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import org.noorganization.shoppinglist.model.ListEntryChanges;
+
+/**
+ * Optional part of a {@link StorageProvider}, which writes only the changed entries of a ShoppingList instead of
+ * replacing all of them like {@link
+ * StorageProvider#updateShoppingList(org.noorganization.shoppinglist.model.ShoppingList)}.
+ */
+public interface ListEntryStore {
+
+    /**
+     * Writes all changes or none of them.
+     * @return False if the list or a put Product does not exist.
+     */
+    boolean changeListEntries(int _shoppingListId, ListEntryChanges _changes);
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+/**
+ * Optional part of a {@link StorageProvider}, which keeps the merge state of shared ShoppingLists (see {@link
+ * org.noorganization.shoppinglist.sync.ListCrdt}) beside the lists. The state is opaque to the provider and deleted
+ * together with its list.
+ */
+public interface ListStateStore {
+
+    /**
+     * @return The state stored for the list or null, if there is none.
+     */
+    byte[] loadListState(int _shoppingListId);
+
+    /**
+     * Stores or replaces the state of a list.
+     * @param _state Not null.
+     * @return False if the list does not exist.
+     */
+    boolean saveListState(int _shoppingListId, byte _state[]);
+}
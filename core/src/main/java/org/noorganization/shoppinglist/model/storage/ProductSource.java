@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+
+package org.noorganization.shoppinglist.model.storage;
+
+/**
+ * Serves Products on demand in windows ordered by title and then by id. Optionally the Products on a ShoppingList are
+ * left out.
+ */
+public interface ProductSource {
+
+    /**
+     * Receives Products. Like {@link StorageProvider.LoadCallback}, it gets primitive parameters.
+     */
+    interface ProductCallback {
+        void onProduct(int _id, String _title, float _defaultValue, int _unitId);
+    }
+
+    /**
+     * @param _excludedListId Products on this ShoppingList are not counted. {@link
+     *                        org.noorganization.shoppinglist.model.ModelManager#INVALID_ID} to count all.
+     */
+    int countProducts(int _excludedListId);
+
+    /**
+     * Reads a window of Products by position. Skipping costs time proportional to the offset, so prefer {@link
+     * #readProductsAfter(int, String, int, int, ProductCallback)} for the following window.
+     */
+    void readProductsAt(int _excludedListId, int _offset, int _limit, ProductCallback _callback);
+
+    /**
+     * Reads a window of Products following the given one in the order of title and id.
+     */
+    void readProductsAfter(int _excludedListId, String _afterTitle, int _afterId, int _limit,
+            ProductCallback _callback);
+
+    /**
+     * @return Whether the Product was found and passed to the callback.
+     */
+    boolean readProduct(int _id, ProductCallback _callback);
+
+    /**
+     * @return The ids of all Products referencing the Unit. Never null.
+     */
+    int[] getProductIdsByUnit(int _unitId);
+}
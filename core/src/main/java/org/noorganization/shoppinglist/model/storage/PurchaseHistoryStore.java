@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+/**
+ * Optional part of a {@link StorageProvider}, which keeps when Products were bought (see
+ * {@link org.noorganization.shoppinglist.model.PurchaseHistory}). Single purchases are appended; old ones are rolled
+ * up into buckets of a fixed span (e.g. a day), which hold the count and the summed value of their purchases. The
+ * history of a Product is deleted together with it.
+ */
+public interface PurchaseHistoryStore {
+
+    interface PurchaseCallback {
+        /**
+         * @param _startMillis Time of a single purchase or start of a bucket.
+         * @param _spanMillis 0 for a single purchase, else the span of the bucket.
+         * @param _count How many purchases, 1 for a single one.
+         * @param _valueSum Summed value of the purchases.
+         */
+        void onPurchases(int _productId, long _startMillis, long _spanMillis, int _count, double _valueSum);
+    }
+
+    /**
+     * Appends single purchases, all or none of them.
+     * @return False if a Product does not exist.
+     */
+    boolean appendPurchases(int _productIds[], long _timesMillis[], float _values[], int _offset, int _count);
+
+    /**
+     * Passes the purchases and buckets of a Product starting in [_fromMillis, _toMillis), oldest first.
+     */
+    void readPurchases(int _productId, long _fromMillis, long _toMillis, PurchaseCallback _callback);
+
+    /**
+     * Passes the latest purchase or bucket of a Product.
+     * @return False if it was never bought (or its history was dropped).
+     */
+    boolean readLastPurchase(int _productId, PurchaseCallback _callback);
+
+    /**
+     * Replaces the single purchases and smaller buckets starting before a time with buckets of the given span, for
+     * Products with ids from _firstProductId to _lastProductId. Buckets start at multiples of their span.
+     * @param _beforeMillis Has to be a multiple of _spanMillis, so no bucket is split.
+     * @return How many rows were replaced.
+     */
+    int rollUpPurchases(long _spanMillis, long _beforeMillis, int _firstProductId, int _lastProductId);
+
+    /**
+     * Drops the purchases and buckets starting before a time, of Products with ids from _firstProductId to
+     * _lastProductId.
+     * @return How many rows were dropped.
+     */
+    int dropPurchases(long _beforeMillis, int _firstProductId, int _lastProductId);
+
+    /**
+     * @return The ids of all Products with stored purchases, ascending. Never null.
+     */
+    int[] getPurchasedProductIds();
+
+    /**
+     * @return The count of stored single purchases and buckets, of all Products.
+     */
+    int countPurchaseRows();
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+/**
+ * Forward-only view on the rows of a query. Columns are addressed by their position in the select list.
+ */
+public interface SqlCursor {
+
+    /**
+     * @return Whether there was another row to move to.
+     */
+    boolean moveToNext();
+
+    boolean isNull(int _column);
+
+    int getInt(int _column);
+
+    long getLong(int _column);
+
+    float getFloat(int _column);
+
+    double getDouble(int _column);
+
+    String getString(int _column);
+
+    byte[] getBlob(int _column);
+
+    void close();
+}
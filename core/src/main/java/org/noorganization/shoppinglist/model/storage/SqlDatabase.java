@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+/**
+ * The few operations {@link SqlStorage} needs from a SQLite connection. Implemented on top of Android's SQLiteDatabase
+ * in the app and on top of JDBC ({@link JdbcSqlDatabase}) on a plain JVM. Bind arguments may be null, Integer, Long,
+ * Float, Double, String or byte[]. Failing statements throw a {@link StorageException}.
+ * <p>
+ * Transactions can be nested like on Android: only the outermost one commits, and it is rolled back if any nested
+ * transaction ended without {@link #setTransactionSuccessful()}.
+ */
+public interface SqlDatabase {
+
+    /**
+     * Executes a statement not returning rows.
+     * @return The count of rows inserted, changed or deleted by the statement.
+     */
+    int execute(String _sql, Object... _bindArgs);
+
+    /**
+     * @return A cursor positioned before the first row. It has to be closed by the caller.
+     */
+    SqlCursor query(String _sql, Object... _bindArgs);
+
+    void beginTransaction();
+
+    void setTransactionSuccessful();
+
+    void endTransaction();
+
+    void close();
+}
@@ -0,0 +1,797 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import org.noorganization.shoppinglist.model.ListEntryChanges;
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.Unit;
+
+import java.util.Arrays;
+
+/**
+ * Stores the model in a SQLite database. The SQL is the same on Android and on a plain JVM; only the
+ * {@link SqlDatabase} differs. All statements go through a {@link TracedSqlDatabase}.
+ */
+public class SqlStorage implements StorageProvider, ListStateStore, PagedProductSource, UsageStore,
+        TemplateStore, ListEntryStore, PurchaseHistoryStore, ConsumptionStore {
+
+    public static final int CURRENT_SCHEMA_VERSION = 7;
+
+    public static final int TRACE_CAPACITY = 64;
+
+    private static final String SELECT_EXCLUDED_ENTRY = "SELECT 1 FROM ProductsInShoppingLists " +
+            "WHERE shoppinglist_id = ? AND product_id = Products.id";
+
+    private TracedSqlDatabase m_db;
+    private SqlTraceLog       m_traceLog;
+
+    /**
+     * Enables foreign keys on the connection and creates or upgrades the schema if necessary.
+     * @param _db An open connection. Null is not allowed. It's closed together with this storage.
+     */
+    public SqlStorage(SqlDatabase _db) {
+        if (_db == null) {
+            throw new IllegalArgumentException("Database was null.");
+        }
+
+        m_traceLog = new SqlTraceLog(TRACE_CAPACITY);
+        m_db       = new TracedSqlDatabase(_db, m_traceLog);
+
+        // Has to be set for every connection and not within a transaction.
+        m_db.execute("PRAGMA foreign_keys = ON");
+        prepareSchema();
+    }
+
+    /**
+     * @return The traced connection. Meant for maintenance and tests, the model does not need it.
+     */
+    public SqlDatabase getDatabase() {
+        return m_db;
+    }
+
+    /**
+     * @return The log of slow and recent statements of this storage.
+     */
+    public SqlTraceLog getTraceLog() {
+        return m_traceLog;
+    }
+
+    @Override
+    public void load(final LoadCallback _callback) {
+        loadUnits(_callback);
+        readProducts(m_db.query("SELECT id, title, defaultvalue, unit_id FROM Products ORDER BY id ASC"),
+                new ProductCallback() {
+                    @Override
+                    public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                        _callback.onProduct(_id, _title, _defaultValue, _unitId);
+                    }
+                });
+        loadLists(_callback);
+    }
+
+    @Override
+    public void loadWithoutProducts(LoadCallback _callback) {
+        loadUnits(_callback);
+        loadLists(_callback);
+    }
+
+    @Override
+    public int countProducts(int _excludedListId) {
+        int rtn = queryInt("SELECT COUNT(*) FROM Products");
+        if (_excludedListId != ModelManager.INVALID_ID) {
+            // Entries always reference existing Products.
+            rtn -= queryInt("SELECT COUNT(*) FROM ProductsInShoppingLists WHERE shoppinglist_id = ?", _excludedListId);
+        }
+        return rtn;
+    }
+
+    @Override
+    public void readProductsAt(int _excludedListId, int _offset, int _limit, ProductCallback _callback) {
+        if (_excludedListId == ModelManager.INVALID_ID) {
+            readProducts(m_db.query("SELECT id, title, defaultvalue, unit_id FROM Products " +
+                    "ORDER BY title ASC, id ASC LIMIT ? OFFSET ?", _limit, _offset), _callback);
+        } else {
+            readProducts(m_db.query("SELECT id, title, defaultvalue, unit_id FROM Products " +
+                    "WHERE NOT EXISTS (" + SELECT_EXCLUDED_ENTRY + ") " +
+                    "ORDER BY title ASC, id ASC LIMIT ? OFFSET ?", _excludedListId, _limit, _offset), _callback);
+        }
+    }
+
+    @Override
+    public void readProductsAfter(int _excludedListId, String _afterTitle, int _afterId, int _limit,
+            ProductCallback _callback) {
+        // Written without row values, which older SQLite versions on Android lack. The first condition lets SQLite
+        // start in the title index.
+        if (_excludedListId == ModelManager.INVALID_ID) {
+            readProducts(m_db.query("SELECT id, title, defaultvalue, unit_id FROM Products " +
+                    "WHERE title >= ? AND (title > ? OR id > ?) " +
+                    "ORDER BY title ASC, id ASC LIMIT ?", _afterTitle, _afterTitle, _afterId, _limit), _callback);
+        } else {
+            readProducts(m_db.query("SELECT id, title, defaultvalue, unit_id FROM Products " +
+                    "WHERE title >= ? AND (title > ? OR id > ?) AND NOT EXISTS (" + SELECT_EXCLUDED_ENTRY + ") " +
+                    "ORDER BY title ASC, id ASC LIMIT ?", _afterTitle, _afterTitle, _afterId, _excludedListId,
+                    _limit), _callback);
+        }
+    }
+
+    @Override
+    public boolean readProduct(int _id, ProductCallback _callback) {
+        return readProducts(m_db.query("SELECT id, title, defaultvalue, unit_id FROM Products WHERE id = ?", _id),
+                _callback) > 0;
+    }
+
+    @Override
+    public int[] getProductIdsByUnit(int _unitId) {
+        SqlCursor idCursor = m_db.query("SELECT id FROM Products WHERE unit_id = ?", _unitId);
+        int rtn[] = new int[8];
+        int foundCount = 0;
+        while (idCursor.moveToNext()) {
+            if (foundCount == rtn.length) {
+                rtn = Arrays.copyOf(rtn, foundCount * 2);
+            }
+            rtn[foundCount] = idCursor.getInt(0);
+            foundCount++;
+        }
+        idCursor.close();
+        return Arrays.copyOf(rtn, foundCount);
+    }
+
+    private void loadUnits(LoadCallback _callback) {
+        SqlCursor allUnits = m_db.query("SELECT id, title FROM Units");
+        while (allUnits.moveToNext()) {
+            _callback.onUnit(allUnits.getInt(0), allUnits.getString(1));
+        }
+        allUnits.close();
+    }
+
+    /**
+     * Passes all Products of the cursor to the callback and closes it.
+     * @return The count of Products.
+     */
+    private static int readProducts(SqlCursor _products, ProductCallback _callback) {
+        int rtn = 0;
+        while (_products.moveToNext()) {
+            _callback.onProduct(_products.getInt(0), _products.getString(1), _products.getFloat(2),
+                    (_products.isNull(3) ? ModelManager.INVALID_ID : _products.getInt(3)));
+            rtn++;
+        }
+        _products.close();
+        return rtn;
+    }
+
+    private int queryInt(String _sql, Object... _bindArgs) {
+        SqlCursor cursor = m_db.query(_sql, _bindArgs);
+        cursor.moveToNext();
+        int rtn = cursor.getInt(0);
+        cursor.close();
+        return rtn;
+    }
+
+    private void loadLists(LoadCallback _callback) {
+        SqlCursor allLists = m_db.query("SELECT id, title FROM ShoppingLists");
+        while (allLists.moveToNext()) {
+            _callback.onShoppingList(allLists.getInt(0), allLists.getString(1));
+        }
+        allLists.close();
+
+        // One query for the entries of all lists instead of one per list.
+        SqlCursor allEntries = m_db.query("SELECT shoppinglist_id, product_id, value FROM ProductsInShoppingLists " +
+                "ORDER BY shoppinglist_id ASC, product_id ASC");
+        while (allEntries.moveToNext()) {
+            _callback.onListEntry(allEntries.getInt(0), allEntries.getInt(1), allEntries.getFloat(2));
+        }
+        allEntries.close();
+    }
+
+    @Override
+    public boolean insertUnit(Unit _unit) {
+        try {
+            m_db.execute("INSERT INTO Units (id, title) VALUES (?, ?)", _unit.Id, _unit.UnitText);
+            return true;
+        } catch (StorageException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean updateUnit(Unit _unit) {
+        try {
+            return m_db.execute("UPDATE Units SET title = ? WHERE id = ?", _unit.UnitText, _unit.Id) > 0;
+        } catch (StorageException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void deleteUnit(int _unitId) {
+        // Products and their list entries are deleted by the foreign keys.
+        m_db.execute("DELETE FROM Units WHERE id = ?", _unitId);
+    }
+
+    @Override
+    public boolean insertProduct(Product _product) {
+        try {
+            m_db.execute("INSERT INTO Products (id, title, defaultvalue, unit_id) VALUES (?, ?, ?, ?)", _product.Id,
+                    _product.Title, _product.DefaultValue, unitIdOf(_product));
+            return true;
+        } catch (StorageException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean updateProduct(Product _product) {
+        try {
+            return m_db.execute("UPDATE Products SET title = ?, defaultvalue = ?, unit_id = ? WHERE id = ?",
+                    _product.Title, _product.DefaultValue, unitIdOf(_product), _product.Id) > 0;
+        } catch (StorageException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void deleteProduct(int _productId) {
+        m_db.execute("DELETE FROM Products WHERE id = ?", _productId);
+    }
+
+    @Override
+    public boolean insertShoppingList(ShoppingList _shoppingList) {
+        boolean rtn = false;
+        m_db.beginTransaction();
+        try {
+            m_db.execute("INSERT INTO ShoppingLists (id, title) VALUES (?, ?)", _shoppingList.Id,
+                    _shoppingList.Title);
+            insertEntries(_shoppingList);
+            m_db.setTransactionSuccessful();
+            rtn = true;
+        } catch (StorageException e) {
+            rtn = false;
+        } finally {
+            m_db.endTransaction();
+        }
+        return rtn;
+    }
+
+    @Override
+    public boolean updateShoppingList(ShoppingList _shoppingList) {
+        boolean rtn = false;
+        m_db.beginTransaction();
+        try {
+            if (m_db.execute("UPDATE ShoppingLists SET title = ? WHERE id = ?", _shoppingList.Title,
+                    _shoppingList.Id) > 0) {
+                m_db.execute("DELETE FROM ProductsInShoppingLists WHERE shoppinglist_id = ?", _shoppingList.Id);
+                insertEntries(_shoppingList);
+                m_db.setTransactionSuccessful();
+                rtn = true;
+            }
+        } catch (StorageException e) {
+            rtn = false;
+        } finally {
+            m_db.endTransaction();
+        }
+        return rtn;
+    }
+
+    @Override
+    public void deleteShoppingList(int _shoppingListId) {
+        m_db.execute("DELETE FROM ShoppingLists WHERE id = ?", _shoppingListId);
+    }
+
+    /**
+     * Inserts everything in one transaction, so a failed or aborted bulk insert leaves the database unchanged.
+     */
+    @Override
+    public BulkInsert beginBulkInsert() {
+        m_db.beginTransaction();
+        return new SqlBulkInsert();
+    }
+
+    @Override
+    public byte[] loadListState(int _shoppingListId) {
+        byte rtn[] = null;
+        SqlCursor stateCursor = m_db.query("SELECT state FROM ListStates WHERE shoppinglist_id = ?", _shoppingListId);
+        if (stateCursor.moveToNext()) {
+            rtn = stateCursor.getBlob(0);
+        }
+        stateCursor.close();
+        return rtn;
+    }
+
+    @Override
+    public boolean saveListState(int _shoppingListId, byte _state[]) {
+        try {
+            m_db.execute("INSERT OR REPLACE INTO ListStates (shoppinglist_id, state) VALUES (?, ?)", _shoppingListId,
+                    _state);
+            return true;
+        } catch (StorageException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Touches only the rows of changed entries, unlike {@link #updateShoppingList(ShoppingList)}.
+     */
+    @Override
+    public boolean changeListEntries(int _shoppingListId, ListEntryChanges _changes) {
+        boolean rtn = false;
+        m_db.beginTransaction();
+        try {
+            if (queryInt("SELECT COUNT(*) FROM ShoppingLists WHERE id = ?", _shoppingListId) > 0) {
+                for (int currentIndex = 0; currentIndex < _changes.size(); currentIndex++) {
+                    if (_changes.isRemovalAt(currentIndex)) {
+                        m_db.execute("DELETE FROM ProductsInShoppingLists WHERE shoppinglist_id = ? AND product_id = ?",
+                                _shoppingListId, _changes.productIdAt(currentIndex));
+                    } else {
+                        m_db.execute("INSERT OR REPLACE INTO ProductsInShoppingLists (shoppinglist_id, product_id, " +
+                                "value) VALUES (?, ?, ?)", _shoppingListId, _changes.productIdAt(currentIndex),
+                                _changes.valueAt(currentIndex));
+                    }
+                }
+                m_db.setTransactionSuccessful();
+                rtn = true;
+            }
+        } catch (StorageException e) {
+            rtn = false;
+        } finally {
+            m_db.endTransaction();
+        }
+        return rtn;
+    }
+
+    /**
+     * Copies the list and its entries with one INSERT ... SELECT each, so the entries are not read at all.
+     */
+    @Override
+    public boolean cloneShoppingList(int _sourceListId, int _newListId, String _newTitle, boolean _asTemplate) {
+        boolean rtn = false;
+        m_db.beginTransaction();
+        try {
+            if (m_db.execute("INSERT INTO ShoppingLists (id, title) SELECT ?, ? FROM ShoppingLists WHERE id = ?",
+                    _newListId, _newTitle, _sourceListId) == 1) {
+                m_db.execute("INSERT INTO ProductsInShoppingLists (shoppinglist_id, product_id, value) " +
+                        "SELECT ?, product_id, value FROM ProductsInShoppingLists WHERE shoppinglist_id = ?",
+                        _newListId, _sourceListId);
+                if (_asTemplate) {
+                    m_db.execute("INSERT INTO ListTemplates (shoppinglist_id) VALUES (?)", _newListId);
+                }
+                m_db.setTransactionSuccessful();
+                rtn = true;
+            }
+        } catch (StorageException e) {
+            rtn = false;
+        } finally {
+            m_db.endTransaction();
+        }
+        return rtn;
+    }
+
+    @Override
+    public int[] loadTemplateIds() {
+        int rtn[] = new int[queryInt("SELECT COUNT(*) FROM ListTemplates")];
+        SqlCursor templateCursor = m_db.query("SELECT shoppinglist_id FROM ListTemplates");
+        int templateCount = 0;
+        while (templateCursor.moveToNext() && templateCount < rtn.length) {
+            rtn[templateCount++] = templateCursor.getInt(0);
+        }
+        templateCursor.close();
+        return rtn;
+    }
+
+    @Override
+    public void loadUsage(UsageCallback _callback) {
+        SqlCursor usageCursor = m_db.query("SELECT product_id, score, use_count, last_used FROM ProductUsage");
+        while (usageCursor.moveToNext()) {
+            _callback.onUsage(usageCursor.getInt(0), usageCursor.getDouble(1), usageCursor.getInt(2),
+                    usageCursor.getLong(3));
+        }
+        usageCursor.close();
+    }
+
+    @Override
+    public boolean saveUsage(int _productId, double _score, int _useCount, long _lastUsedMillis) {
+        try {
+            m_db.execute("INSERT OR REPLACE INTO ProductUsage (product_id, score, use_count, last_used) " +
+                    "VALUES (?, ?, ?, ?)", _productId, _score, _useCount, _lastUsedMillis);
+            return true;
+        } catch (StorageException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean saveUsages(int _productIds[], double _scores[], int _useCounts[], long _lastUsedMillis[]) {
+        boolean rtn = false;
+        m_db.beginTransaction();
+        try {
+            for (int currentIndex = 0; currentIndex < _productIds.length; currentIndex++) {
+                m_db.execute("INSERT OR REPLACE INTO ProductUsage (product_id, score, use_count, last_used) " +
+                        "VALUES (?, ?, ?, ?)", _productIds[currentIndex], _scores[currentIndex],
+                        _useCounts[currentIndex], _lastUsedMillis[currentIndex]);
+            }
+            m_db.setTransactionSuccessful();
+            rtn = true;
+        } catch (StorageException e) {
+            rtn = false;
+        } finally {
+            m_db.endTransaction();
+        }
+        return rtn;
+    }
+
+    @Override
+    public void loadConsumption(ConsumptionCallback _callback) {
+        SqlCursor consumptionCursor = m_db.query("SELECT product_id, purchase_count, last_purchase, last_value, " +
+                "interval_mean, interval_deviations, value_mean FROM ProductConsumption");
+        while (consumptionCursor.moveToNext()) {
+            _callback.onConsumption(consumptionCursor.getInt(0), consumptionCursor.getInt(1),
+                    consumptionCursor.getLong(2), consumptionCursor.getFloat(3), consumptionCursor.getDouble(4),
+                    consumptionCursor.getDouble(5), consumptionCursor.getDouble(6));
+        }
+        consumptionCursor.close();
+    }
+
+    @Override
+    public boolean saveConsumption(int _productId, int _purchaseCount, long _lastPurchaseMillis, float _lastValue,
+                                   double _intervalMean, double _intervalSquaredDeviations, double _valueMean) {
+        try {
+            m_db.execute("INSERT OR REPLACE INTO ProductConsumption (product_id, purchase_count, last_purchase, " +
+                    "last_value, interval_mean, interval_deviations, value_mean) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    _productId, _purchaseCount, _lastPurchaseMillis, _lastValue, _intervalMean,
+                    _intervalSquaredDeviations, _valueMean);
+            return true;
+        } catch (StorageException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean appendPurchases(int _productIds[], long _timesMillis[], float _values[], int _offset, int _count) {
+        boolean rtn = false;
+        m_db.beginTransaction();
+        try {
+            for (int currentIndex = _offset; currentIndex < _offset + _count; currentIndex++) {
+                m_db.execute("INSERT INTO PurchaseHistory (product_id, start_time, span, purchase_count, value_sum) " +
+                        "VALUES (?, ?, 0, 1, ?)", _productIds[currentIndex], _timesMillis[currentIndex],
+                        _values[currentIndex]);
+            }
+            m_db.setTransactionSuccessful();
+            rtn = true;
+        } catch (StorageException e) {
+            rtn = false;
+        } finally {
+            m_db.endTransaction();
+        }
+        return rtn;
+    }
+
+    @Override
+    public void readPurchases(int _productId, long _fromMillis, long _toMillis, PurchaseCallback _callback) {
+        passPurchases(m_db.query("SELECT product_id, start_time, span, purchase_count, value_sum " +
+                "FROM PurchaseHistory WHERE product_id = ? AND start_time >= ? AND start_time < ? ORDER BY start_time",
+                _productId, _fromMillis, _toMillis), _callback);
+    }
+
+    @Override
+    public boolean readLastPurchase(int _productId, PurchaseCallback _callback) {
+        return passPurchases(m_db.query("SELECT product_id, start_time, span, purchase_count, value_sum " +
+                "FROM PurchaseHistory WHERE product_id = ? ORDER BY start_time DESC LIMIT 1", _productId),
+                _callback) > 0;
+    }
+
+    /**
+     * Groups the rows to replace in one INSERT ... SELECT, so they are not read at all. Finding them scans the table,
+     * which is fine as long as old rows are rolled up regularly.
+     */
+    @Override
+    public int rollUpPurchases(long _spanMillis, long _beforeMillis, int _firstProductId, int _lastProductId) {
+        int rtn = 0;
+        m_db.beginTransaction();
+        try {
+            m_db.execute("INSERT INTO PurchaseHistory (product_id, start_time, span, purchase_count, value_sum) " +
+                    "SELECT product_id, (start_time / ?) * ?, ?, SUM(purchase_count), SUM(value_sum) " +
+                    "FROM PurchaseHistory WHERE product_id BETWEEN ? AND ? AND span < ? AND start_time < ? " +
+                    "GROUP BY product_id, start_time / ?", _spanMillis, _spanMillis, _spanMillis, _firstProductId,
+                    _lastProductId, _spanMillis, _beforeMillis, _spanMillis);
+            rtn = m_db.execute("DELETE FROM PurchaseHistory " +
+                    "WHERE product_id BETWEEN ? AND ? AND span < ? AND start_time < ?", _firstProductId,
+                    _lastProductId, _spanMillis, _beforeMillis);
+            m_db.setTransactionSuccessful();
+        } finally {
+            m_db.endTransaction();
+        }
+        return rtn;
+    }
+
+    @Override
+    public int dropPurchases(long _beforeMillis, int _firstProductId, int _lastProductId) {
+        return m_db.execute("DELETE FROM PurchaseHistory WHERE product_id BETWEEN ? AND ? AND start_time < ?",
+                _firstProductId, _lastProductId, _beforeMillis);
+    }
+
+    @Override
+    public int[] getPurchasedProductIds() {
+        int rtn[] = new int[16];
+        int count = 0;
+        SqlCursor idCursor = m_db.query("SELECT DISTINCT product_id FROM PurchaseHistory ORDER BY product_id");
+        while (idCursor.moveToNext()) {
+            if (count == rtn.length) {
+                rtn = Arrays.copyOf(rtn, count * 2);
+            }
+            rtn[count++] = idCursor.getInt(0);
+        }
+        idCursor.close();
+        return Arrays.copyOf(rtn, count);
+    }
+
+    @Override
+    public int countPurchaseRows() {
+        return queryInt("SELECT COUNT(*) FROM PurchaseHistory");
+    }
+
+    @Override
+    public void close() {
+        m_db.close();
+    }
+
+    private static int passPurchases(SqlCursor _purchases, PurchaseCallback _callback) {
+        int rtn = 0;
+        while (_purchases.moveToNext()) {
+            _callback.onPurchases(_purchases.getInt(0), _purchases.getLong(1), _purchases.getLong(2),
+                    _purchases.getInt(3), _purchases.getDouble(4));
+            rtn++;
+        }
+        _purchases.close();
+        return rtn;
+    }
+
+    private void insertEntries(ShoppingList _shoppingList) {
+        for (int currentEntry = 0; currentEntry < _shoppingList.ListEntries.size(); currentEntry++) {
+            m_db.execute("INSERT INTO ProductsInShoppingLists (shoppinglist_id, product_id, value) VALUES (?, ?, ?)",
+                    _shoppingList.Id, _shoppingList.ListEntries.keyAt(currentEntry),
+                    _shoppingList.ListEntries.valueAt(currentEntry));
+        }
+    }
+
+    private void prepareSchema() {
+        SqlCursor versionCursor = m_db.query("PRAGMA user_version");
+        versionCursor.moveToNext();
+        int currentVersion = versionCursor.getInt(0);
+        versionCursor.close();
+
+        if (currentVersion == CURRENT_SCHEMA_VERSION) {
+            return;
+        }
+
+        if (currentVersion == 0) {
+            // Lets DatabaseMaintenance free pages in small steps. Only takes effect before the first table exists;
+            // older files need a full VACUUM to switch.
+            m_db.execute("PRAGMA auto_vacuum = INCREMENTAL");
+        }
+        m_db.beginTransaction();
+        try {
+            if (currentVersion == 0) {
+                createSchema();
+            }
+            if (currentVersion <= 1) {
+                createListStates();
+            }
+            if (currentVersion <= 2) {
+                createProductTitleIndex();
+            }
+            if (currentVersion <= 3) {
+                createProductUsage();
+            }
+            if (currentVersion <= 4) {
+                createListTemplates();
+            }
+            if (currentVersion <= 5) {
+                createPurchaseHistory();
+            }
+            if (currentVersion <= 6) {
+                createProductConsumption();
+            }
+            m_db.execute("PRAGMA user_version = " + CURRENT_SCHEMA_VERSION);
+            m_db.setTransactionSuccessful();
+        } finally {
+            m_db.endTransaction();
+        }
+    }
+
+    private void createSchema() {
+        // rowid's are omitted because it's not possible to refer to them, so just wasting space in this case.
+        m_db.execute("CREATE TABLE Units (" +
+                "id INTEGER NOT NULL, " +
+                "title STRING NOT NULL, " +
+                "PRIMARY KEY (id)" +
+                ") WITHOUT ROWID");
+        m_db.execute("CREATE TABLE Products (" +
+                "id INTEGER NOT NULL, " +
+                "title STRING NOT NULL, " +
+                "defaultvalue REAL NOT NULL, " +
+                "unit_id INTEGER, " +
+                "PRIMARY KEY (id), " +
+                "FOREIGN KEY (unit_id) REFERENCES Units(id) ON UPDATE RESTRICT ON DELETE CASCADE " +
+                ") WITHOUT ROWID");
+        m_db.execute("CREATE TABLE ShoppingLists (" +
+                "id INTEGER NOT NULL," +
+                "title STRING NOT NULL, " +
+                "PRIMARY KEY (id)" +
+                ") WITHOUT ROWID");
+        m_db.execute("CREATE TABLE ProductsInShoppingLists (" +
+                "shoppinglist_id INTEGER NOT NULL, " +
+                "product_id INTEGER NOT NULL, " +
+                "value REAL NOT NULL, " +
+                "PRIMARY KEY (shoppinglist_id, product_id), " +
+                "FOREIGN KEY (shoppinglist_id) REFERENCES ShoppingLists(id) ON UPDATE RESTRICT ON DELETE CASCADE, " +
+                "FOREIGN KEY (product_id) REFERENCES Products(id) ON UPDATE RESTRICT ON DELETE CASCADE " +
+                ") WITHOUT ROWID");
+    }
+
+    /**
+     * Since schema version 2.
+     */
+    private void createListStates() {
+        m_db.execute("CREATE TABLE ListStates (" +
+                "shoppinglist_id INTEGER NOT NULL, " +
+                "state BLOB NOT NULL, " +
+                "PRIMARY KEY (shoppinglist_id), " +
+                "FOREIGN KEY (shoppinglist_id) REFERENCES ShoppingLists(id) ON UPDATE RESTRICT ON DELETE CASCADE " +
+                ") WITHOUT ROWID");
+    }
+
+    /**
+     * Since schema version 3. Serves the windows of {@link #readProductsAfter(int, String, int, int,
+     * ProductCallback)}.
+     */
+    private void createProductTitleIndex() {
+        m_db.execute("CREATE INDEX ProductsByTitle ON Products (title, id)");
+    }
+
+    /**
+     * Since schema version 4.
+     */
+    private void createProductUsage() {
+        m_db.execute("CREATE TABLE ProductUsage (" +
+                "product_id INTEGER NOT NULL, " +
+                "score REAL NOT NULL, " +
+                "use_count INTEGER NOT NULL, " +
+                "last_used INTEGER NOT NULL, " +
+                "PRIMARY KEY (product_id), " +
+                "FOREIGN KEY (product_id) REFERENCES Products(id) ON UPDATE RESTRICT ON DELETE CASCADE " +
+                ") WITHOUT ROWID");
+    }
+
+    /**
+     * Since schema version 5.
+     */
+    private void createListTemplates() {
+        m_db.execute("CREATE TABLE ListTemplates (" +
+                "shoppinglist_id INTEGER NOT NULL, " +
+                "PRIMARY KEY (shoppinglist_id), " +
+                "FOREIGN KEY (shoppinglist_id) REFERENCES ShoppingLists(id) ON UPDATE RESTRICT ON DELETE CASCADE " +
+                ") WITHOUT ROWID");
+    }
+
+    /**
+     * Since schema version 6. Purchases are only appended, so a table with rowids keeps inserting at its end; the
+     * index serves the queries per Product.
+     */
+    private void createPurchaseHistory() {
+        m_db.execute("CREATE TABLE PurchaseHistory (" +
+                "product_id INTEGER NOT NULL, " +
+                "start_time INTEGER NOT NULL, " +
+                "span INTEGER NOT NULL, " +
+                "purchase_count INTEGER NOT NULL, " +
+                "value_sum REAL NOT NULL, " +
+                "FOREIGN KEY (product_id) REFERENCES Products(id) ON UPDATE RESTRICT ON DELETE CASCADE" +
+                ")");
+        m_db.execute("CREATE INDEX PurchaseHistoryByProduct ON PurchaseHistory (product_id, start_time)");
+    }
+
+    /**
+     * Since schema version 7.
+     */
+    private void createProductConsumption() {
+        m_db.execute("CREATE TABLE ProductConsumption (" +
+                "product_id INTEGER NOT NULL, " +
+                "purchase_count INTEGER NOT NULL, " +
+                "last_purchase INTEGER NOT NULL, " +
+                "last_value REAL NOT NULL, " +
+                "interval_mean REAL NOT NULL, " +
+                "interval_deviations REAL NOT NULL, " +
+                "value_mean REAL NOT NULL, " +
+                "PRIMARY KEY (product_id), " +
+                "FOREIGN KEY (product_id) REFERENCES Products(id) ON UPDATE RESTRICT ON DELETE CASCADE " +
+                ") WITHOUT ROWID");
+    }
+
+    private static Integer unitIdOf(Product _product) {
+        return (_product.UnitId == ModelManager.INVALID_ID ? null : _product.UnitId);
+    }
+
+    private class SqlBulkInsert implements BulkInsert {
+
+        private boolean m_failed;
+        private boolean m_finished;
+
+        SqlBulkInsert() {
+            m_failed   = false;
+            m_finished = false;
+        }
+
+        @Override
+        public void onUnit(int _id, String _unitText) {
+            execute("INSERT INTO Units (id, title) VALUES (?, ?)", _id, _unitText);
+        }
+
+        @Override
+        public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+            execute("INSERT INTO Products (id, title, defaultvalue, unit_id) VALUES (?, ?, ?, ?)", _id, _title,
+                    _defaultValue, (_unitId == ModelManager.INVALID_ID ? null : _unitId));
+        }
+
+        @Override
+        public void onShoppingList(int _id, String _title) {
+            execute("INSERT INTO ShoppingLists (id, title) VALUES (?, ?)", _id, _title);
+        }
+
+        @Override
+        public void onListEntry(int _shoppingListId, int _productId, float _value) {
+            execute("INSERT INTO ProductsInShoppingLists (shoppinglist_id, product_id, value) VALUES (?, ?, ?)",
+                    _shoppingListId, _productId, _value);
+        }
+
+        @Override
+        public boolean commit() {
+            boolean rtn = !m_failed && !m_finished;
+            finish(rtn);
+            return rtn;
+        }
+
+        @Override
+        public void abort() {
+            finish(false);
+        }
+
+        private void execute(String _sql, Object... _bindArgs) {
+            if (m_failed || m_finished) {
+                m_failed = true;
+                return;
+            }
+            try {
+                m_db.execute(_sql, _bindArgs);
+            } catch (StorageException e) {
+                m_failed = true;
+            }
+        }
+
+        private void finish(boolean _successful) {
+            if (m_finished) {
+                return;
+            }
+            m_finished = true;
+            if (_successful) {
+                m_db.setTransactionSuccessful();
+            }
+            m_db.endTransaction();
+        }
+    }
+}
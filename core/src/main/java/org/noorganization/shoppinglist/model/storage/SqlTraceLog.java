@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Collects traces of the SQL statements issued through {@link TracedSqlDatabase}. Statements slower than a threshold
+ * are always logged (together with their query plan). Additionally, a ring buffer of the most recent statements can be
+ * enabled and dumped on demand.
+ */
+public class SqlTraceLog {
+
+    public static final String LOG_TAG = "SqlTrace";
+
+    public static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 50;
+
+    private static final Logger LOGGER = Logger.getLogger(LOG_TAG);
+
+    /**
+     * A finished statement.
+     */
+    public static class Entry {
+        public final long   TimestampMillis;
+        public final String Statement;
+        public final int    BindCount;
+        public final int    RowsAffected;
+        public final long   DurationNanos;
+
+        Entry(long _timestampMillis, String _statement, int _bindCount, int _rowsAffected, long _durationNanos) {
+            TimestampMillis = _timestampMillis;
+            Statement       = _statement;
+            BindCount       = _bindCount;
+            RowsAffected    = _rowsAffected;
+            DurationNanos   = _durationNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %8.3f ms, %d binds, %d rows: %s",
+                    new SimpleDateFormat("HH:mm:ss.SSS", Locale.US).format(new Date(TimestampMillis)),
+                    DurationNanos / 1000000.0, BindCount, RowsAffected, Statement);
+        }
+    }
+
+    private volatile long    m_slowThresholdNanos;
+    private volatile boolean m_recordRecent;
+    private Entry            m_recent[];
+    private int              m_nextRecent;
+    private long             m_slowCount;
+
+    SqlTraceLog(int _capacity) {
+        m_slowThresholdNanos = DEFAULT_SLOW_THRESHOLD_MILLIS * 1000000L;
+        m_recordRecent       = false;
+        m_recent             = new Entry[_capacity];
+        m_nextRecent         = 0;
+        m_slowCount          = 0;
+    }
+
+    /**
+     * @param _thresholdMillis Statements taking at least this long are logged with their query plan. A negative value
+     *                         disables the slow statement log.
+     */
+    public void setSlowThresholdMillis(long _thresholdMillis) {
+        m_slowThresholdNanos = (_thresholdMillis < 0 ? Long.MAX_VALUE : _thresholdMillis * 1000000L);
+    }
+
+    /**
+     * Enables or disables keeping the most recent statements. Disabled by default, because every statement text has to
+     * be built then.
+     */
+    public void setRecordRecent(boolean _recordRecent) {
+        m_recordRecent = _recordRecent;
+    }
+
+    boolean isRecordingRecent() {
+        return m_recordRecent;
+    }
+
+    boolean isSlow(long _durationNanos) {
+        return _durationNanos >= m_slowThresholdNanos;
+    }
+
+    synchronized void record(String _statement, int _bindCount, int _rowsAffected, long _durationNanos) {
+        m_recent[m_nextRecent] = new Entry(System.currentTimeMillis(), _statement, _bindCount, _rowsAffected,
+                _durationNanos);
+        m_nextRecent = (m_nextRecent + 1) % m_recent.length;
+    }
+
+    void logSlow(String _statement, int _bindCount, int _rowsAffected, long _durationNanos, String _queryPlan) {
+        synchronized (this) {
+            m_slowCount++;
+        }
+        LOGGER.warning(String.format(Locale.US, "Slow statement (%.3f ms, %d binds, %d rows): %s%s",
+                _durationNanos / 1000000.0, _bindCount, _rowsAffected, _statement,
+                (_queryPlan == null ? "" : "\n" + _queryPlan)));
+    }
+
+    /**
+     * @return How many statements exceeded the slow threshold.
+     */
+    public synchronized long getSlowCount() {
+        return m_slowCount;
+    }
+
+    /**
+     * @return The recorded statements, oldest first. Never null.
+     */
+    public synchronized List<Entry> getRecent() {
+        List<Entry> rtn = new ArrayList<>(m_recent.length);
+        for (int currentOffset = 0; currentOffset < m_recent.length; currentOffset++) {
+            Entry currentEntry = m_recent[(m_nextRecent + currentOffset) % m_recent.length];
+            if (currentEntry != null) {
+                rtn.add(currentEntry);
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * @return The recorded statements as text, one per line, oldest first.
+     */
+    public String dumpRecent() {
+        StringBuilder rtn = new StringBuilder();
+        for (Entry currentEntry : getRecent()) {
+            rtn.append(currentEntry).append('\n');
+        }
+        return rtn.toString();
+    }
+
+    public synchronized void clear() {
+        for (int currentIndex = 0; currentIndex < m_recent.length; currentIndex++) {
+            m_recent[currentIndex] = null;
+        }
+        m_nextRecent = 0;
+        m_slowCount  = 0;
+    }
+}
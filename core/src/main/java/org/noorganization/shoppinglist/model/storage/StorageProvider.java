@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.Unit;
+
+/**
+ * Persists the objects of the {@link org.noorganization.shoppinglist.model.ModelManager}. The ModelManager keeps
+ * everything in memory and validates before it calls a provider, so a provider only has to store what it gets. Products
+ * without a unit are stored with {@link org.noorganization.shoppinglist.model.ModelManager#INVALID_ID} as unit id.
+ * <p>
+ * Deleting cascades like the foreign keys of the SQL schema: deleting a Unit deletes its Products, deleting a Product
+ * removes it from all ShoppingLists.
+ */
+public interface StorageProvider {
+
+    /**
+     * Receives the stored objects when loading. Primitive parameters are used, so a provider does not have to create
+     * temporary objects for large catalogs.
+     */
+    interface LoadCallback {
+        void onUnit(int _id, String _unitText);
+
+        void onProduct(int _id, String _title, float _defaultValue, int _unitId);
+
+        void onShoppingList(int _id, String _title);
+
+        void onListEntry(int _shoppingListId, int _productId, float _value);
+    }
+
+    /**
+     * Reads everything stored. All Units are passed first, then all Products (ordered by id), then all ShoppingLists
+     * and at last all list entries (ordered by list and then by product).
+     */
+    void load(LoadCallback _callback);
+
+    /**
+     * @return Whether the Unit was stored. False if e.g. the id is already in use.
+     */
+    boolean insertUnit(Unit _unit);
+
+    /**
+     * @return Whether the Unit was found and updated.
+     */
+    boolean updateUnit(Unit _unit);
+
+    /**
+     * Deletes the Unit and all Products using it.
+     */
+    void deleteUnit(int _unitId);
+
+    boolean insertProduct(Product _product);
+
+    boolean updateProduct(Product _product);
+
+    /**
+     * Deletes the Product and its entries in all ShoppingLists.
+     */
+    void deleteProduct(int _productId);
+
+    /**
+     * Stores the ShoppingList together with its entries.
+     */
+    boolean insertShoppingList(ShoppingList _shoppingList);
+
+    /**
+     * Replaces the title and all entries of a stored ShoppingList. If it fails, the stored list stays untouched.
+     */
+    boolean updateShoppingList(ShoppingList _shoppingList);
+
+    void deleteShoppingList(int _shoppingListId);
+
+    /**
+     * Starts inserting many objects. Other methods of the provider must not be called until it is committed or
+     * aborted.
+     */
+    BulkInsert beginBulkInsert();
+
+    /**
+     * Releases all resources. The provider is not usable afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+/**
+ * Optional part of a {@link StorageProvider}, which can copy a ShoppingList inside the storage and marks some lists as
+ * templates. A template is an ordinary ShoppingList (so it's loaded, synchronized and backed up like every list); the
+ * mark is deleted together with the list.
+ */
+public interface TemplateStore {
+
+    /**
+     * Copies a ShoppingList with all its entries.
+     * @param _sourceListId The list to copy.
+     * @param _newListId Id of the copy. Must not exist yet.
+     * @param _newTitle Title of the copy.
+     * @param _asTemplate Whether the copy is marked as template.
+     * @return False if the source list does not exist or the new id is taken. Nothing was changed then.
+     */
+    boolean cloneShoppingList(int _sourceListId, int _newListId, String _newTitle, boolean _asTemplate);
+
+    /**
+     * @return The ids of all lists marked as template, in no particular order. Never null.
+     */
+    int[] loadTemplateIds();
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import org.noorganization.shoppinglist.metrics.Metrics;
+
+import java.util.Locale;
+
+/**
+ * Decorates a {@link SqlDatabase}, so all statements of a {@link SqlStorage} are traced. The wall time of every
+ * statement is measured; for queries it lasts until the cursor is closed, so reading the rows is included. Statements
+ * are handed to the {@link SqlTraceLog} if they are slow or the log keeps recent statements. Slow statements are logged
+ * with their query plan. With enabled {@link Metrics}, durations are recorded per kind of statement and table (see
+ * {@link #histogramNameOf(String)}).
+ */
+public class TracedSqlDatabase implements SqlDatabase {
+
+    private SqlDatabase m_db;
+    private SqlTraceLog m_traceLog;
+
+    public TracedSqlDatabase(SqlDatabase _db, SqlTraceLog _traceLog) {
+        m_db       = _db;
+        m_traceLog = _traceLog;
+    }
+
+    /**
+     * @return The decorated database. Statements executed on it directly are not traced.
+     */
+    public SqlDatabase getDatabase() {
+        return m_db;
+    }
+
+    @Override
+    public int execute(String _sql, Object... _bindArgs) {
+        long startTime = System.nanoTime();
+        int rowsAffected = 0;
+        try {
+            rowsAffected = m_db.execute(_sql, _bindArgs);
+            return rowsAffected;
+        } finally {
+            finish(_sql, _bindArgs, rowsAffected, startTime);
+        }
+    }
+
+    @Override
+    public SqlCursor query(String _sql, Object... _bindArgs) {
+        return new TracedCursor(_sql, _bindArgs, System.nanoTime());
+    }
+
+    @Override
+    public void beginTransaction() {
+        long startTime = System.nanoTime();
+        m_db.beginTransaction();
+        finish("BEGIN TRANSACTION", null, 0, startTime);
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        m_db.setTransactionSuccessful();
+    }
+
+    /**
+     * Ends the transaction. The commit (or rollback) is traced as "END TRANSACTION".
+     */
+    @Override
+    public void endTransaction() {
+        long startTime = System.nanoTime();
+        m_db.endTransaction();
+        finish("END TRANSACTION", null, 0, startTime);
+    }
+
+    @Override
+    public void close() {
+        m_db.close();
+    }
+
+    private void finish(String _sql, Object _bindArgs[], int _rowsAffected, long _startTime) {
+        long duration = System.nanoTime() - _startTime;
+        if (Metrics.isEnabled()) {
+            Metrics.histogram(histogramNameOf(_sql)).record(duration);
+        }
+
+        if (m_traceLog.isRecordingRecent()) {
+            m_traceLog.record(_sql, argCount(_bindArgs), _rowsAffected, duration);
+        }
+        if (m_traceLog.isSlow(duration)) {
+            m_traceLog.logSlow(_sql, argCount(_bindArgs), _rowsAffected, duration,
+                    (hasQueryPlan(_sql) ? explainQueryPlan(_sql, _bindArgs) : null));
+        }
+    }
+
+    /**
+     * @return "SQL", the verb and the table read or written, e.g. "SQL SELECT Products" for all queries of Products, or
+     *         the name of a pragma. The count of histograms is bounded by the schema, not by the statement texts.
+     */
+    static String histogramNameOf(String _sql) {
+        String words[] = _sql.trim().split("[^A-Za-z0-9_]+");
+        String verb = words[0].toUpperCase(Locale.US);
+        String table = null;
+        if (verb.equals("SELECT") || verb.equals("DELETE")) {
+            table = wordAfter(words, "FROM");
+        } else if (verb.equals("INSERT") || verb.equals("REPLACE")) {
+            table = wordAfter(words, "INTO");
+        } else if (verb.equals("UPDATE") || verb.equals("PRAGMA")) {
+            table = wordAfter(words, verb);
+        }
+        return (table == null ? "SQL " + verb : "SQL " + verb + " " + table);
+    }
+
+    private static String wordAfter(String _words[], String _keyword) {
+        for (int currentIndex = 0; currentIndex < _words.length - 1; currentIndex++) {
+            if (_words[currentIndex].equalsIgnoreCase(_keyword)) {
+                return _words[currentIndex + 1];
+            }
+        }
+        return null;
+    }
+
+    private String explainQueryPlan(String _sql, Object _bindArgs[]) {
+        StringBuilder rtn = new StringBuilder();
+        try {
+            SqlCursor plan = m_db.query("EXPLAIN QUERY PLAN " + _sql, _bindArgs);
+            // The detail column is the fourth one in all SQLite versions.
+            while (plan.moveToNext()) {
+                rtn.append("  ").append(plan.getString(3)).append('\n');
+            }
+            plan.close();
+        } catch (RuntimeException e) {
+            rtn.append("  no query plan: ").append(e.getMessage());
+        }
+        return rtn.toString();
+    }
+
+    /**
+     * The plan of a plain insert or of a pragma is not interesting, so it's not queried.
+     */
+    private static boolean hasQueryPlan(String _sql) {
+        return _sql.startsWith("SELECT") || _sql.startsWith("UPDATE") || _sql.startsWith("DELETE");
+    }
+
+    private static int argCount(Object _bindArgs[]) {
+        return (_bindArgs == null ? 0 : _bindArgs.length);
+    }
+
+    private class TracedCursor implements SqlCursor {
+
+        private SqlCursor m_cursor;
+        private String    m_sql;
+        private Object    m_bindArgs[];
+        private long      m_startTime;
+        private int       m_rowCount;
+
+        TracedCursor(String _sql, Object _bindArgs[], long _startTime) {
+            m_cursor    = m_db.query(_sql, _bindArgs);
+            m_sql       = _sql;
+            m_bindArgs  = _bindArgs;
+            m_startTime = _startTime;
+            m_rowCount  = 0;
+        }
+
+        @Override
+        public boolean moveToNext() {
+            boolean rtn = m_cursor.moveToNext();
+            if (rtn) {
+                m_rowCount++;
+            }
+            return rtn;
+        }
+
+        @Override
+        public boolean isNull(int _column) {
+            return m_cursor.isNull(_column);
+        }
+
+        @Override
+        public int getInt(int _column) {
+            return m_cursor.getInt(_column);
+        }
+
+        @Override
+        public long getLong(int _column) {
+            return m_cursor.getLong(_column);
+        }
+
+        @Override
+        public float getFloat(int _column) {
+            return m_cursor.getFloat(_column);
+        }
+
+        @Override
+        public double getDouble(int _column) {
+            return m_cursor.getDouble(_column);
+        }
+
+        @Override
+        public String getString(int _column) {
+            return m_cursor.getString(_column);
+        }
+
+        @Override
+        public byte[] getBlob(int _column) {
+            return m_cursor.getBlob(_column);
+        }
+
+        @Override
+        public void close() {
+            m_cursor.close();
+            finish(m_sql, m_bindArgs, m_rowCount, m_startTime);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+/**
+ * Optional part of a {@link StorageProvider}, which keeps how often and how recently Products were put on a list (see
+ * {@link org.noorganization.shoppinglist.model.UsageRanking}). Usage is deleted together with its Product.
+ */
+public interface UsageStore {
+
+    interface UsageCallback {
+        void onUsage(int _productId, double _score, int _useCount, long _lastUsedMillis);
+    }
+
+    /**
+     * Passes the usage of every Product used at least once, in no particular order.
+     */
+    void loadUsage(UsageCallback _callback);
+
+    /**
+     * Stores or replaces the usage of a Product.
+     * @return False if the Product does not exist.
+     */
+    boolean saveUsage(int _productId, double _score, int _useCount, long _lastUsedMillis);
+
+    /**
+     * Stores or replaces the usage of several Products at once, like {@link #saveUsage(int, double, int, long)} for
+     * each index, all or nothing.
+     * @return False if one of the Products does not exist; then nothing is saved.
+     */
+    boolean saveUsages(int _productIds[], double _scores[], int _useCounts[], long _lastUsedMillis[]);
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import org.noorganization.shoppinglist.model.SparseFloatArray;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The entries and the title of a ShoppingList shared by several replicas (devices), as delta-state CRDT. Replicas
+ * change their copy without any lock and exchange the small deltas returned by the changing methods; {@link
+ * #join(ListCrdt)} merges deltas (or whole states) in any order, any grouping and any number of times, and all replicas
+ * having seen the same changes end up with the same list.
+ * <p>
+ * Entries form an observed-remove map from product id to value: every write gets a unique dot (replica, counter), and
+ * a removal or an overwrite only removes the dots it has seen, so an entry concurrently changed elsewhere survives its
+ * removal. Concurrent writes of the same entry are resolved by the last writer: the dot with the highest Lamport time
+ * (then replica id) wins. The title is a last writer wins register.
+ * <p>
+ * Not thread safe.
+ */
+public class ListCrdt {
+
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * Replica id of a state only used to join, like a decoded delta. It can't be changed locally.
+     */
+    public static final int NO_REPLICA = -1;
+
+    private static final int     MAX_COUNT = 16 * 1024 * 1024;
+    private static final Charset UTF_8     = Charset.forName("UTF-8");
+
+    private static final class Dot implements Comparable<Dot> {
+        final int  Replica;
+        final long Counter;
+
+        Dot(int _replica, long _counter) {
+            Replica = _replica;
+            Counter = _counter;
+        }
+
+        @Override
+        public boolean equals(Object _other) {
+            if (!(_other instanceof Dot)) {
+                return false;
+            }
+            Dot otherDot = (Dot) _other;
+            return Replica == otherDot.Replica && Counter == otherDot.Counter;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Replica + (int) (Counter ^ (Counter >>> 32));
+        }
+
+        @Override
+        public int compareTo(Dot _other) {
+            if (Replica != _other.Replica) {
+                return (Replica < _other.Replica ? -1 : 1);
+            }
+            return (Counter < _other.Counter ? -1 : (Counter == _other.Counter ? 0 : 1));
+        }
+    }
+
+    /**
+     * A write of an entry which was not overwritten or removed yet.
+     */
+    private static final class Write implements Comparable<Write> {
+        final Dot   Id;
+        final int   ProductId;
+        final float Value;
+        final long  Lamport;
+
+        Write(Dot _dot, int _productId, float _value, long _lamport) {
+            Id        = _dot;
+            ProductId = _productId;
+            Value     = _value;
+            Lamport   = _lamport;
+        }
+
+        boolean winsOver(Write _other) {
+            return Lamport > _other.Lamport || (Lamport == _other.Lamport && Id.Replica > _other.Id.Replica);
+        }
+
+        @Override
+        public int compareTo(Write _other) {
+            return Id.compareTo(_other.Id);
+        }
+    }
+
+    private int                         m_replicaId;
+    private Map<Integer, List<Write>>   m_entries;
+    private Map<Dot, Write>             m_writes;
+    /**
+     * The causal context: all dots seen, as version vector (every counter up to the value was seen) plus the dots
+     * seen out of order.
+     */
+    private Map<Integer, Long>          m_versionVector;
+    private Map<Integer, TreeSet<Long>> m_cloud;
+    private long                        m_lamport;
+    private String                      m_title;
+    private long                        m_titleLamport;
+    private int                         m_titleReplica;
+
+    /**
+     * Creates an empty list.
+     * @param _replicaId Id of this replica, unique among all replicas sharing the list, not negative. Or
+     *                   {@link #NO_REPLICA}.
+     */
+    public ListCrdt(int _replicaId) {
+        if (_replicaId < 0 && _replicaId != NO_REPLICA) {
+            throw new IllegalArgumentException("Replica id was negative.");
+        }
+
+        m_replicaId     = _replicaId;
+        m_entries       = new HashMap<>();
+        m_writes        = new HashMap<>();
+        m_versionVector = new HashMap<>();
+        m_cloud         = new HashMap<>();
+        m_lamport       = 0;
+        m_title         = null;
+        m_titleLamport  = 0;
+        m_titleReplica  = NO_REPLICA;
+    }
+
+    public int getReplicaId() {
+        return m_replicaId;
+    }
+
+    /**
+     * Sets the value of an entry, overwriting all writes seen for it.
+     * @return The delta to send to the other replicas.
+     */
+    public ListCrdt setEntry(int _productId, float _value) {
+        ListCrdt rtn = new ListCrdt(NO_REPLICA);
+        addContextOf(_productId, rtn);
+        Dot dot = nextDot();
+        rtn.addWrite(new Write(dot, _productId, _value, m_lamport));
+        rtn.addToCloud(dot.Replica, dot.Counter);
+        rtn.m_lamport = m_lamport;
+        join(rtn);
+        return rtn;
+    }
+
+    /**
+     * Removes an entry, as far as seen by this replica: a write concurrently made elsewhere survives.
+     * @return The delta to send to the other replicas. Empty, if there was no such entry.
+     */
+    public ListCrdt removeEntry(int _productId) {
+        ListCrdt rtn = new ListCrdt(NO_REPLICA);
+        addContextOf(_productId, rtn);
+        join(rtn);
+        return rtn;
+    }
+
+    /**
+     * @param _title Not null.
+     * @return The delta to send to the other replicas.
+     */
+    public ListCrdt setTitle(String _title) {
+        if (_title == null) {
+            throw new IllegalArgumentException("Title was null.");
+        }
+        checkChangeable();
+
+        ListCrdt rtn = new ListCrdt(NO_REPLICA);
+        rtn.m_lamport      = ++m_lamport;
+        rtn.m_title        = _title;
+        rtn.m_titleLamport = m_lamport;
+        rtn.m_titleReplica = m_replicaId;
+        join(rtn);
+        return rtn;
+    }
+
+    /**
+     * Merges a delta or the whole state of another replica into this one. Joining is commutative, associative and
+     * idempotent, so deltas may arrive late, twice or out of order. Joining deltas into a state of {@link #NO_REPLICA}
+     * groups them to one delta.
+     * <p>
+     * The cost depends on the size of the other state, not on the size of this one, unless the other state saw
+     * writes from the first one on, like a whole state does.
+     */
+    public void join(ListCrdt _other) {
+        if (_other == null) {
+            throw new IllegalArgumentException("Other state was null.");
+        }
+
+        // Writes the other replica has seen but does not contain any more were overwritten or removed there.
+        if (_other.m_versionVector.isEmpty()) {
+            for (Map.Entry<Integer, TreeSet<Long>> currentReplica : _other.m_cloud.entrySet()) {
+                for (long currentCounter : currentReplica.getValue()) {
+                    Dot currentDot = new Dot(currentReplica.getKey(), currentCounter);
+                    Write currentWrite = m_writes.get(currentDot);
+                    if (currentWrite != null && !_other.m_writes.containsKey(currentDot)) {
+                        removeWrite(currentWrite);
+                    }
+                }
+            }
+        } else {
+            List<Write> removedWrites = new ArrayList<>();
+            for (Write currentWrite : m_writes.values()) {
+                if (_other.hasSeen(currentWrite.Id) && !_other.m_writes.containsKey(currentWrite.Id)) {
+                    removedWrites.add(currentWrite);
+                }
+            }
+            for (Write currentWrite : removedWrites) {
+                removeWrite(currentWrite);
+            }
+        }
+
+        // Writes this replica has not seen yet are new.
+        for (Write currentWrite : _other.m_writes.values()) {
+            if (!hasSeen(currentWrite.Id)) {
+                addWrite(currentWrite);
+            }
+        }
+
+        for (Map.Entry<Integer, Long> currentEntry : _other.m_versionVector.entrySet()) {
+            if (currentEntry.getValue() > seenCounter(currentEntry.getKey())) {
+                m_versionVector.put(currentEntry.getKey(), currentEntry.getValue());
+                compactContext(currentEntry.getKey());
+            }
+        }
+        for (Map.Entry<Integer, TreeSet<Long>> currentReplica : _other.m_cloud.entrySet()) {
+            for (long currentCounter : currentReplica.getValue()) {
+                addToCloud(currentReplica.getKey(), currentCounter);
+            }
+            compactContext(currentReplica.getKey());
+        }
+
+        m_lamport = Math.max(m_lamport, _other.m_lamport);
+        if (_other.m_title != null && (m_title == null || _other.m_titleLamport > m_titleLamport ||
+                (_other.m_titleLamport == m_titleLamport && _other.m_titleReplica > m_titleReplica))) {
+            m_title        = _other.m_title;
+            m_titleLamport = _other.m_titleLamport;
+            m_titleReplica = _other.m_titleReplica;
+        }
+    }
+
+    /**
+     * @return The title last set or null, if no replica set one yet.
+     */
+    public String getTitle() {
+        return m_title;
+    }
+
+    /**
+     * @return Whether the list has an entry for the product.
+     */
+    public boolean containsEntry(int _productId) {
+        return m_entries.containsKey(_productId);
+    }
+
+    /**
+     * @return The value of an entry, or NaN if there is no such entry.
+     */
+    public float getEntry(int _productId) {
+        List<Write> writes = m_entries.get(_productId);
+        return (writes == null ? Float.NaN : winnerOf(writes).Value);
+    }
+
+    /**
+     * @return The count of entries.
+     */
+    public int size() {
+        return m_entries.size();
+    }
+
+    /**
+     * @return All entries with their current value, as used by a ShoppingList.
+     */
+    public SparseFloatArray toEntries() {
+        int productIds[] = new int[m_entries.size()];
+        int currentIndex = 0;
+        for (Integer currentProductId : m_entries.keySet()) {
+            productIds[currentIndex++] = currentProductId;
+        }
+        Arrays.sort(productIds);
+
+        SparseFloatArray rtn = new SparseFloatArray(productIds.length);
+        for (int currentProductId : productIds) {
+            rtn.append(currentProductId, winnerOf(m_entries.get(currentProductId)).Value);
+        }
+        return rtn;
+    }
+
+    /**
+     * Encodes the state or delta. Equal states give equal bytes, no matter in which order they were joined.
+     */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream rtn = new ByteArrayOutputStream(64 + 16 * m_writes.size());
+            DataOutputStream output = new DataOutputStream(rtn);
+            output.writeByte(FORMAT_VERSION);
+            Varint.writeLong(output, m_lamport);
+
+            output.writeBoolean(m_title != null);
+            if (m_title != null) {
+                byte titleBytes[] = m_title.getBytes(UTF_8);
+                Varint.writeLong(output, titleBytes.length);
+                output.write(titleBytes);
+                Varint.writeLong(output, m_titleLamport);
+                Varint.writeInt(output, m_titleReplica);
+            }
+
+            List<Integer> replicas = new ArrayList<>(m_versionVector.keySet());
+            Collections.sort(replicas);
+            Varint.writeLong(output, replicas.size());
+            for (int currentReplica : replicas) {
+                Varint.writeInt(output, currentReplica);
+                Varint.writeLong(output, m_versionVector.get(currentReplica));
+            }
+
+            List<Integer> cloudReplicas = new ArrayList<>(m_cloud.keySet());
+            Collections.sort(cloudReplicas);
+            Varint.writeLong(output, cloudReplicas.size());
+            for (int currentReplica : cloudReplicas) {
+                TreeSet<Long> counters = m_cloud.get(currentReplica);
+                Varint.writeInt(output, currentReplica);
+                Varint.writeLong(output, counters.size());
+                for (long currentCounter : counters) {
+                    Varint.writeLong(output, currentCounter);
+                }
+            }
+
+            List<Write> writes = new ArrayList<>(m_writes.values());
+            Collections.sort(writes);
+            Varint.writeLong(output, writes.size());
+            for (Write currentWrite : writes) {
+                Varint.writeInt(output, currentWrite.Id.Replica);
+                Varint.writeLong(output, currentWrite.Id.Counter);
+                Varint.writeInt(output, currentWrite.ProductId);
+                output.writeFloat(currentWrite.Value);
+                Varint.writeLong(output, currentWrite.Lamport);
+            }
+            output.flush();
+            return rtn.toByteArray();
+        } catch (IOException e) {
+            // Can't happen for byte arrays.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes a state or delta of {@link #encode()}.
+     * @param _replicaId Id of the replica owning the decoded state, or {@link #NO_REPLICA} for a delta.
+     * @throws SyncException If the bytes are damaged or of an unknown format version.
+     */
+    public static ListCrdt decode(byte _encoded[], int _replicaId) {
+        if (_encoded == null || _encoded.length < 1) {
+            throw new SyncException("State is empty.");
+        }
+        if (_encoded[0] != FORMAT_VERSION) {
+            throw new SyncException("State has unknown format version " + _encoded[0] + ".");
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(_encoded, 1, _encoded.length - 1));
+            ListCrdt rtn = new ListCrdt(_replicaId);
+            rtn.m_lamport = Varint.readLong(input);
+
+            if (input.readBoolean()) {
+                byte titleBytes[] = new byte[Varint.readCount(input, MAX_COUNT)];
+                input.readFully(titleBytes);
+                rtn.m_title        = new String(titleBytes, UTF_8);
+                rtn.m_titleLamport = Varint.readLong(input);
+                rtn.m_titleReplica = Varint.readInt(input);
+            }
+
+            int replicaCount = Varint.readCount(input, MAX_COUNT);
+            for (int currentIndex = 0; currentIndex < replicaCount; currentIndex++) {
+                int replica = Varint.readInt(input);
+                rtn.m_versionVector.put(replica, Varint.readLong(input));
+            }
+
+            int cloudReplicaCount = Varint.readCount(input, MAX_COUNT);
+            for (int currentIndex = 0; currentIndex < cloudReplicaCount; currentIndex++) {
+                int replica = Varint.readInt(input);
+                int counterCount = Varint.readCount(input, MAX_COUNT);
+                for (int currentCounter = 0; currentCounter < counterCount; currentCounter++) {
+                    rtn.addToCloud(replica, Varint.readLong(input));
+                }
+            }
+
+            int writeCount = Varint.readCount(input, MAX_COUNT);
+            for (int currentIndex = 0; currentIndex < writeCount; currentIndex++) {
+                int replica = Varint.readInt(input);
+                Dot dot = new Dot(replica, Varint.readLong(input));
+                int productId = Varint.readInt(input);
+                float value = input.readFloat();
+                Write write = new Write(dot, productId, value, Varint.readLong(input));
+                if (!rtn.hasSeen(dot) || rtn.m_writes.containsKey(dot)) {
+                    throw new SyncException("State contains a write outside of its context.");
+                }
+                rtn.addWrite(write);
+            }
+            return rtn;
+        } catch (EOFException e) {
+            throw new SyncException("State is truncated.", e);
+        } catch (IOException e) {
+            throw new SyncException("State is damaged.", e);
+        }
+    }
+
+    private void checkChangeable() {
+        if (m_replicaId == NO_REPLICA) {
+            throw new IllegalStateException("A state without replica can't be changed locally.");
+        }
+    }
+
+    private Dot nextDot() {
+        checkChangeable();
+        // Own dots are always seen in order, so the version vector holds the last one.
+        m_lamport++;
+        return new Dot(m_replicaId, seenCounter(m_replicaId) + 1);
+    }
+
+    private void addContextOf(int _productId, ListCrdt _delta) {
+        checkChangeable();
+        List<Write> writes = m_entries.get(_productId);
+        if (writes != null) {
+            for (Write currentWrite : writes) {
+                _delta.addToCloud(currentWrite.Id.Replica, currentWrite.Id.Counter);
+            }
+        }
+    }
+
+    private long seenCounter(int _replica) {
+        Long rtn = m_versionVector.get(_replica);
+        return (rtn == null ? 0 : rtn);
+    }
+
+    private boolean hasSeen(Dot _dot) {
+        if (_dot.Counter <= seenCounter(_dot.Replica)) {
+            return true;
+        }
+        TreeSet<Long> counters = m_cloud.get(_dot.Replica);
+        return counters != null && counters.contains(_dot.Counter);
+    }
+
+    private void addToCloud(int _replica, long _counter) {
+        TreeSet<Long> counters = m_cloud.get(_replica);
+        if (counters == null) {
+            counters = new TreeSet<>();
+            m_cloud.put(_replica, counters);
+        }
+        counters.add(_counter);
+    }
+
+    /**
+     * Moves the dots of a replica from the cloud to the version vector, as far as they continue it. Dots already
+     * covered by the version vector are dropped.
+     */
+    private void compactContext(int _replica) {
+        TreeSet<Long> counters = m_cloud.get(_replica);
+        if (counters == null) {
+            return;
+        }
+        long seenCounter = seenCounter(_replica);
+        while (!counters.isEmpty() && counters.first() <= seenCounter + 1) {
+            seenCounter = Math.max(seenCounter, counters.pollFirst());
+        }
+        if (seenCounter > 0) {
+            m_versionVector.put(_replica, seenCounter);
+        }
+        if (counters.isEmpty()) {
+            m_cloud.remove(_replica);
+        }
+    }
+
+    private void addWrite(Write _write) {
+        m_writes.put(_write.Id, _write);
+        List<Write> writes = m_entries.get(_write.ProductId);
+        if (writes == null) {
+            // Mostly there is a single write per entry; more only after concurrent writes.
+            writes = new ArrayList<>(1);
+            m_entries.put(_write.ProductId, writes);
+        }
+        writes.add(_write);
+    }
+
+    private void removeWrite(Write _write) {
+        m_writes.remove(_write.Id);
+        List<Write> writes = m_entries.get(_write.ProductId);
+        writes.remove(_write);
+        if (writes.isEmpty()) {
+            m_entries.remove(_write.ProductId);
+        }
+    }
+
+    private static Write winnerOf(List<Write> _writes) {
+        Write rtn = _writes.get(0);
+        for (int currentIndex = 1; currentIndex < _writes.size(); currentIndex++) {
+            if (_writes.get(currentIndex).winsOver(rtn)) {
+                rtn = _writes.get(currentIndex);
+            }
+        }
+        return rtn;
+    }
+}
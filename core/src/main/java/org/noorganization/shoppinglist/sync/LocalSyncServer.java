@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reference implementation of the server side, running in the same process. Used for testing sync offline and as
+ * specification for a real server: it keeps only the latest state of every object together with the server sequence
+ * of its last change and the device which made it. A pull therefore costs O(k log n) for k changed objects.
+ * <p>
+ * Conflicts are resolved by arrival: the change pushed last wins. Payloads are decoded and encoded like a remote server
+ * would do, so the counted bytes are what would go over the network.
+ */
+public class LocalSyncServer implements SyncTransport {
+
+    private static class StoredChange {
+        final SyncChange Change;
+        final String     DeviceId;
+        final long       Sequence;
+
+        StoredChange(SyncChange _change, String _deviceId, long _sequence) {
+            Change   = _change;
+            DeviceId = _deviceId;
+            Sequence = _sequence;
+        }
+    }
+
+    private Map<Long, StoredChange> m_changesByObject;
+    private TreeMap<Long, Long>     m_objectsBySequence;
+    private long                    m_sequence;
+    private long                    m_receivedBytes;
+    private long                    m_sentBytes;
+
+    public LocalSyncServer() {
+        m_changesByObject   = new HashMap<>();
+        m_objectsBySequence = new TreeMap<>();
+        m_sequence          = 0;
+        m_receivedBytes     = 0;
+        m_sentBytes         = 0;
+    }
+
+    @Override
+    public synchronized long push(String _deviceId, byte _payload[]) {
+        if (_deviceId == null) {
+            throw new IllegalArgumentException("Device id was null.");
+        }
+
+        m_receivedBytes += _payload.length;
+        for (SyncChange currentChange : SyncCodec.decode(_payload).Changes) {
+            long object = objectKey(currentChange.Kind, currentChange.Id);
+            m_sequence++;
+            StoredChange previousChange = m_changesByObject.put(object,
+                    new StoredChange(currentChange, _deviceId, m_sequence));
+            if (previousChange != null) {
+                m_objectsBySequence.remove(previousChange.Sequence);
+            }
+            m_objectsBySequence.put(m_sequence, object);
+        }
+        return m_sequence;
+    }
+
+    @Override
+    public synchronized byte[] pull(String _deviceId, long _sinceSequence, int _maxChanges) {
+        if (_deviceId == null || _maxChanges <= 0) {
+            throw new IllegalArgumentException("Device id was null or batch was empty.");
+        }
+
+        SyncBatch batch = new SyncBatch();
+        batch.Sequence = m_sequence;
+        for (Map.Entry<Long, Long> currentEntry : m_objectsBySequence.tailMap(_sinceSequence, false).entrySet()) {
+            if (batch.Changes.size() == _maxChanges) {
+                batch.HasMore = true;
+                break;
+            }
+            StoredChange currentChange = m_changesByObject.get(currentEntry.getValue());
+            // Devices know their own changes, so they are skipped, but still passed by the sequence.
+            if (!currentChange.DeviceId.equals(_deviceId)) {
+                batch.Changes.add(currentChange.Change);
+            }
+            batch.Sequence = currentEntry.getKey();
+        }
+
+        byte rtn[] = SyncCodec.encode(batch);
+        m_sentBytes += rtn.length;
+        return rtn;
+    }
+
+    public synchronized long getSequence() {
+        return m_sequence;
+    }
+
+    /**
+     * @return How many objects the server knows, including deleted ones.
+     */
+    public synchronized int getObjectCount() {
+        return m_changesByObject.size();
+    }
+
+    public synchronized long getReceivedBytes() {
+        return m_receivedBytes;
+    }
+
+    public synchronized long getSentBytes() {
+        return m_sentBytes;
+    }
+
+    private static long objectKey(int _kind, int _id) {
+        return ((long) _kind << 32) | (_id & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import org.noorganization.shoppinglist.metrics.LatencyHistogram;
+import org.noorganization.shoppinglist.metrics.Metrics;
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.SparseFloatArray;
+import org.noorganization.shoppinglist.model.storage.ListStateStore;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Edits ShoppingLists shared with other replicas through their {@link ListCrdt}s. Every change returns an encoded delta
+ * to send to the other replicas, and received deltas are merged with {@link #merge(int, byte[])}. The merged entries
+ * and title are written to the model, so the rest of the app sees an ordinary ShoppingList. Entries of Products this
+ * replica doesn't know (yet) are kept in the merge state, but left out of the model list.
+ * <p>
+ * The merge states are stored beside the lists by a {@link ListStateStore}. A list without a stored state gets one
+ * with its current entries, when it's shared the first time. Deleting a whole list is not merged.
+ * <p>
+ * A shared list may still be edited like any other list, e.g. by the presenters. Before a shared list is changed or
+ * merged here, such edits are found by comparing the model list with the merge state, and made again as changes of
+ * this replica. They are sent with the delta of the next change, or taken by {@link #takeUnsentChanges(int)} after a
+ * merge.
+ * <p>
+ * Not thread safe; call it on the thread changing the model.
+ */
+public class SharedLists {
+
+    private static final LatencyHistogram TIME_MERGE = Metrics.histogram("SharedLists.merge");
+
+    private ModelManager           m_model;
+    private StorageProvider        m_storage;
+    private ListStateStore         m_stateStore;
+    private int                    m_replicaId;
+    private Map<Integer, ListCrdt> m_states;
+    // Edits of the model lists made outside of this class, grouped as one delta per list.
+    private Map<Integer, ListCrdt> m_unsent;
+
+    /**
+     * @param _storage Has to implement {@link ListStateStore}.
+     * @param _replicaId Id of this device, unique among all devices sharing lists, not negative.
+     */
+    public SharedLists(ModelManager _model, StorageProvider _storage, int _replicaId) {
+        if (_model == null || _storage == null) {
+            throw new IllegalArgumentException("A parameter was null.");
+        }
+        if (!(_storage instanceof ListStateStore)) {
+            throw new IllegalArgumentException("Storage can't store list states.");
+        }
+        if (_replicaId < 0) {
+            throw new IllegalArgumentException("Replica id was negative.");
+        }
+
+        m_model      = _model;
+        m_storage    = _storage;
+        m_stateStore = (ListStateStore) _storage;
+        m_replicaId  = _replicaId;
+        m_states     = new HashMap<>();
+        m_unsent     = new HashMap<>();
+    }
+
+    /**
+     * Sets the value of an entry in a shared list.
+     * @return The encoded delta for the other replicas, or null if the list does not exist or storing failed.
+     */
+    public byte[] setEntry(int _shoppingListId, int _productId, float _value) {
+        ListCrdt state = stateOf(_shoppingListId);
+        if (state == null) {
+            return null;
+        }
+        return commit(_shoppingListId, state, state.setEntry(_productId, _value));
+    }
+
+    /**
+     * Removes an entry from a shared list.
+     * @return The encoded delta for the other replicas, or null if the list does not exist or storing failed.
+     */
+    public byte[] removeEntry(int _shoppingListId, int _productId) {
+        ListCrdt state = stateOf(_shoppingListId);
+        if (state == null) {
+            return null;
+        }
+        return commit(_shoppingListId, state, state.removeEntry(_productId));
+    }
+
+    /**
+     * Renames a shared list.
+     * @return The encoded delta for the other replicas, or null if the list does not exist or storing failed.
+     */
+    public byte[] setTitle(int _shoppingListId, String _title) {
+        ListCrdt state = stateOf(_shoppingListId);
+        if (state == null) {
+            return null;
+        }
+        return commit(_shoppingListId, state, state.setTitle(_title));
+    }
+
+    /**
+     * @return The encoded whole state of a list, for a replica joining the share. Null if the list does not exist.
+     */
+    public byte[] getState(int _shoppingListId) {
+        ListCrdt state = stateOf(_shoppingListId);
+        return (state == null ? null : state.encode());
+    }
+
+    /**
+     * Merges a delta or a whole state received from another replica. A list not existing yet is created.
+     * @throws SyncException If the delta is damaged.
+     * @return Whether the list was stored.
+     */
+    public boolean merge(int _shoppingListId, byte _delta[]) {
+        long startTime = Metrics.start();
+        try {
+            ListCrdt delta = ListCrdt.decode(_delta, ListCrdt.NO_REPLICA);
+            ListCrdt state = stateOf(_shoppingListId);
+            if (state == null) {
+                state = new ListCrdt(m_replicaId);
+            }
+            state.join(delta);
+            if (!writeToModel(_shoppingListId, state)) {
+                forget(_shoppingListId);
+                return false;
+            }
+            m_states.put(_shoppingListId, state);
+            return true;
+        } finally {
+            TIME_MERGE.stop(startTime);
+        }
+    }
+
+    /**
+     * @return The encoded edits of the list made outside of this class and found by the last merge, or null if there
+     * are none. They have to be sent to the other replicas like any delta.
+     */
+    public byte[] takeUnsentChanges(int _shoppingListId) {
+        ListCrdt unsent = m_unsent.remove(_shoppingListId);
+        return (unsent == null ? null : unsent.encode());
+    }
+
+    private byte[] commit(int _shoppingListId, ListCrdt _state, ListCrdt _delta) {
+        if (!writeToModel(_shoppingListId, _state)) {
+            forget(_shoppingListId);
+            return null;
+        }
+        ListCrdt unsent = m_unsent.remove(_shoppingListId);
+        if (unsent == null) {
+            return _delta.encode();
+        }
+        unsent.join(_delta);
+        return unsent.encode();
+    }
+
+    /**
+     * The cached state is ahead of the stored one after a failed write; it's loaded and compared again next time.
+     */
+    private void forget(int _shoppingListId) {
+        m_states.remove(_shoppingListId);
+        m_unsent.remove(_shoppingListId);
+    }
+
+    /**
+     * @return The merge state of an existing list, or null if there is no such list. It contains the edits of the
+     * model list made outside of this class.
+     */
+    private ListCrdt stateOf(int _shoppingListId) {
+        ListCrdt rtn = m_states.get(_shoppingListId);
+        if (rtn != null) {
+            addEditsOfModel(_shoppingListId, rtn);
+            return rtn;
+        }
+
+        byte storedState[] = m_stateStore.loadListState(_shoppingListId);
+        if (storedState != null) {
+            rtn = new ListCrdt(m_replicaId);
+            rtn.join(ListCrdt.decode(storedState, ListCrdt.NO_REPLICA));
+            addEditsOfModel(_shoppingListId, rtn);
+        } else {
+            ShoppingList list = m_model.getShoppingListById(_shoppingListId);
+            if (list == null) {
+                return null;
+            }
+            rtn = new ListCrdt(m_replicaId);
+            rtn.setTitle(list.Title);
+            for (int currentEntry = 0; currentEntry < list.ListEntries.size(); currentEntry++) {
+                rtn.setEntry(list.ListEntries.keyAt(currentEntry), list.ListEntries.valueAt(currentEntry));
+            }
+        }
+        m_states.put(_shoppingListId, rtn);
+        return rtn;
+    }
+
+    /**
+     * Makes the differences of the model list to the merge state changes of this replica, as they were made after the
+     * state was written to the model. Entries of Products unknown to the model are not in the model list, so they are
+     * kept.
+     */
+    private void addEditsOfModel(int _shoppingListId, ListCrdt _state) {
+        ShoppingList list = m_model.getShoppingListById(_shoppingListId);
+        if (list == null) {
+            return;
+        }
+
+        ListCrdt edits = new ListCrdt(ListCrdt.NO_REPLICA);
+        boolean edited = false;
+        if (list.Title != null && !list.Title.equals(_state.getTitle())) {
+            edits.join(_state.setTitle(list.Title));
+            edited = true;
+        }
+        for (int currentEntry = 0; currentEntry < list.ListEntries.size(); currentEntry++) {
+            int productId = list.ListEntries.keyAt(currentEntry);
+            float value = list.ListEntries.valueAt(currentEntry);
+            if (Float.compare(_state.getEntry(productId), value) != 0) {
+                edits.join(_state.setEntry(productId, value));
+                edited = true;
+            }
+        }
+        SparseFloatArray mergedEntries = _state.toEntries();
+        for (int currentEntry = 0; currentEntry < mergedEntries.size(); currentEntry++) {
+            int productId = mergedEntries.keyAt(currentEntry);
+            if (list.ListEntries.indexOfKey(productId) < 0 && m_model.getProductById(productId) != null) {
+                edits.join(_state.removeEntry(productId));
+                edited = true;
+            }
+        }
+
+        if (!edited) {
+            return;
+        }
+        ListCrdt unsent = m_unsent.get(_shoppingListId);
+        if (unsent == null) {
+            m_unsent.put(_shoppingListId, edits);
+        } else {
+            unsent.join(edits);
+        }
+    }
+
+    /**
+     * Puts the merged list to the model and stores its state afterwards, as the list has to exist for it.
+     */
+    private boolean writeToModel(int _shoppingListId, ListCrdt _state) {
+        ShoppingList list = new ShoppingList();
+        list.Id = _shoppingListId;
+        if (_state.getTitle() != null) {
+            list.Title = _state.getTitle();
+        }
+        SparseFloatArray entries = _state.toEntries();
+        for (int currentEntry = 0; currentEntry < entries.size(); currentEntry++) {
+            if (m_model.getProductById(entries.keyAt(currentEntry)) != null) {
+                list.ListEntries.append(entries.keyAt(currentEntry), entries.valueAt(currentEntry));
+            }
+        }
+
+        return m_model.putShoppingList(list, m_storage) &&
+                m_stateStore.saveListState(_shoppingListId, _state.encode());
+    }
+}
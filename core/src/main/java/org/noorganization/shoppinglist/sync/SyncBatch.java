@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes sent in one payload.
+ */
+public class SyncBatch {
+
+    public List<SyncChange> Changes;
+    /**
+     * For pulled batches the server sequence to continue pulling from.
+     */
+    public long             Sequence;
+    /**
+     * Whether the server has more changes than fitted into this batch.
+     */
+    public boolean          HasMore;
+
+    public SyncBatch() {
+        Changes  = new ArrayList<>();
+        Sequence = 0;
+        HasMore  = false;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import org.noorganization.shoppinglist.model.ChangeLog;
+import org.noorganization.shoppinglist.model.IdentificableModelObject;
+
+/**
+ * The latest state of one Unit, Product or ShoppingList: its current values or its deletion.
+ */
+public class SyncChange {
+
+    /**
+     * One of the kinds of {@link ChangeLog}.
+     */
+    public int                      Kind;
+    public int                      Id;
+    /**
+     * The Unit, Product or ShoppingList. Null if the object was deleted.
+     */
+    public IdentificableModelObject Value;
+
+    public SyncChange(int _kind, int _id, IdentificableModelObject _value) {
+        Kind  = _kind;
+        Id    = _id;
+        Value = _value;
+    }
+
+    public boolean isDeletion() {
+        return Value == null;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import org.noorganization.shoppinglist.metrics.LatencyHistogram;
+import org.noorganization.shoppinglist.metrics.Metrics;
+import org.noorganization.shoppinglist.model.ChangeLog;
+import org.noorganization.shoppinglist.model.IdentificableModelObject;
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.SparseFloatArray;
+import org.noorganization.shoppinglist.model.Unit;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synchronizes the model of this device with a server. A sync pushes the objects changed since the last sync (as told
+ * by the {@link ChangeLog}) and pulls the objects other devices changed since the last pulled server sequence, so its
+ * cost depends on the count of changes, not on the size of the catalog. Only after the model was loaded again (which
+ * starts a new change log) all objects are pushed once.
+ * <p>
+ * Not thread safe; call it on the thread changing the model.
+ */
+public class SyncClient {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final LatencyHistogram TIME_SYNC = Metrics.histogram("SyncClient.sync");
+
+    private ModelManager    m_model;
+    private StorageProvider m_storage;
+    private SyncTransport   m_transport;
+    private String          m_deviceId;
+    private int             m_batchSize;
+    private int             m_pushedEpoch;
+    private long            m_pushedSequence;
+    private long            m_pulledSequence;
+
+    /**
+     * @param _deviceId Unique id of this device, e.g. a random UUID kept in the preferences.
+     */
+    public SyncClient(ModelManager _model, StorageProvider _storage, SyncTransport _transport, String _deviceId) {
+        if (_model == null || _storage == null || _transport == null || _deviceId == null) {
+            throw new IllegalArgumentException("A parameter was null.");
+        }
+
+        m_model          = _model;
+        m_storage        = _storage;
+        m_transport      = _transport;
+        m_deviceId       = _deviceId;
+        m_batchSize      = DEFAULT_BATCH_SIZE;
+        m_pushedEpoch    = 0;
+        m_pushedSequence = 0;
+        m_pulledSequence = 0;
+    }
+
+    public void setBatchSize(int _batchSize) {
+        m_batchSize = Math.max(_batchSize, 1);
+    }
+
+    /**
+     * @return The server sequence pulled up to. Keep it to continue from there after a restart.
+     */
+    public long getPulledSequence() {
+        return m_pulledSequence;
+    }
+
+    public void setPulledSequence(long _pulledSequence) {
+        m_pulledSequence = _pulledSequence;
+    }
+
+    /**
+     * Pushes the local changes, then pulls and applies the remote ones.
+     * @throws SyncException If the transport failed or sent garbage. Nothing pulled was applied then.
+     */
+    public SyncResult sync() {
+        long startTime = Metrics.start();
+        try {
+            SyncResult rtn = new SyncResult();
+            push(rtn);
+
+            List<SyncChange> pulledChanges = new ArrayList<>();
+            long pulledSequence = m_pulledSequence;
+            SyncBatch currentBatch;
+            do {
+                byte payload[] = m_transport.pull(m_deviceId, pulledSequence, m_batchSize);
+                rtn.ReceivedBytes += payload.length;
+                currentBatch = SyncCodec.decode(payload);
+                pulledChanges.addAll(currentBatch.Changes);
+                pulledSequence = currentBatch.Sequence;
+            } while (currentBatch.HasMore);
+
+            // Changes of one object are in the last batch only, but a Product may come before a changed Unit it
+            // uses. So all batches are applied together.
+            apply(pulledChanges, rtn);
+            m_pulledSequence = pulledSequence;
+            // Applying changed the model, but the server already knows these changes.
+            m_pushedSequence = m_model.getChangeLog().getSequence();
+            return rtn;
+        } finally {
+            TIME_SYNC.stop(startTime);
+        }
+    }
+
+    private void push(SyncResult _result) {
+        ChangeLog changeLog = m_model.getChangeLog();
+        final List<SyncChange> changes = new ArrayList<>();
+        if (changeLog.getEpoch() != m_pushedEpoch) {
+            _result.FullPush = true;
+            for (Unit currentUnit : m_model.getAllUnits()) {
+                changes.add(new SyncChange(ChangeLog.KIND_UNIT, currentUnit.Id, currentUnit));
+            }
+            for (Product currentProduct : m_model.getAllProducts()) {
+                changes.add(new SyncChange(ChangeLog.KIND_PRODUCT, currentProduct.Id, currentProduct));
+            }
+            for (ShoppingList currentList : m_model.getAllShoppingLists()) {
+                changes.add(new SyncChange(ChangeLog.KIND_SHOPPING_LIST, currentList.Id, currentList));
+            }
+        } else {
+            changeLog.visitChangesSince(m_pushedSequence, new ChangeLog.Visitor() {
+                @Override
+                public void visit(int _kind, int _id, long _sequence) {
+                    changes.add(new SyncChange(_kind, _id, currentValue(_kind, _id)));
+                }
+            });
+        }
+
+        for (int batchStart = 0; batchStart < changes.size(); batchStart += m_batchSize) {
+            SyncBatch batch = new SyncBatch();
+            batch.Changes = changes.subList(batchStart, Math.min(batchStart + m_batchSize, changes.size()));
+            byte payload[] = SyncCodec.encode(batch);
+            m_transport.push(m_deviceId, payload);
+            _result.SentBytes += payload.length;
+        }
+        _result.PushedChanges = changes.size();
+
+        m_pushedEpoch    = changeLog.getEpoch();
+        m_pushedSequence = changeLog.getSequence();
+    }
+
+    /**
+     * @return The current state of the object or null, if it was deleted.
+     */
+    private IdentificableModelObject currentValue(int _kind, int _id) {
+        switch (_kind) {
+            case ChangeLog.KIND_UNIT:
+                return m_model.getUnitById(_id);
+            case ChangeLog.KIND_PRODUCT:
+                return m_model.getProductById(_id);
+            case ChangeLog.KIND_SHOPPING_LIST:
+                return m_model.getShoppingListById(_id);
+            default:
+                throw new SyncException("Unknown kind " + _kind);
+        }
+    }
+
+    /**
+     * Applies the changes in an order, which never breaks a reference: Units, Products and lists are written before
+     * deletions, which run the other way round.
+     */
+    private void apply(List<SyncChange> _changes, SyncResult _result) {
+        _result.PulledChanges = _changes.size();
+        int kindsInWriteOrder[] = { ChangeLog.KIND_UNIT, ChangeLog.KIND_PRODUCT, ChangeLog.KIND_SHOPPING_LIST };
+        for (int currentKind : kindsInWriteOrder) {
+            for (SyncChange currentChange : _changes) {
+                if (currentChange.Kind == currentKind && !currentChange.isDeletion() && !write(currentChange)) {
+                    _result.RejectedChanges++;
+                }
+            }
+        }
+        for (int currentKindIndex = kindsInWriteOrder.length - 1; currentKindIndex >= 0; currentKindIndex--) {
+            for (SyncChange currentChange : _changes) {
+                if (currentChange.Kind == kindsInWriteOrder[currentKindIndex] && currentChange.isDeletion()) {
+                    delete(currentChange);
+                }
+            }
+        }
+    }
+
+    private boolean write(SyncChange _change) {
+        switch (_change.Kind) {
+            case ChangeLog.KIND_UNIT:
+                return m_model.putUnit((Unit) _change.Value, m_storage);
+            case ChangeLog.KIND_PRODUCT:
+                Product product = (Product) _change.Value;
+                if (product.UnitId != ModelManager.INVALID_ID && m_model.getUnitById(product.UnitId) == null) {
+                    return false;
+                }
+                return m_model.putProduct(product, m_storage);
+            case ChangeLog.KIND_SHOPPING_LIST:
+                ShoppingList list = (ShoppingList) _change.Value;
+                // Entries of Products deleted here are dropped instead of rejecting the whole list.
+                SparseFloatArray knownEntries = new SparseFloatArray(list.ListEntries.size());
+                for (int currentIndex = 0; currentIndex < list.ListEntries.size(); currentIndex++) {
+                    int productId = list.ListEntries.keyAt(currentIndex);
+                    if (m_model.getProductById(productId) != null) {
+                        knownEntries.append(productId, list.ListEntries.valueAt(currentIndex));
+                    }
+                }
+                list.ListEntries = knownEntries;
+                return m_model.putShoppingList(list, m_storage);
+            default:
+                return false;
+        }
+    }
+
+    private void delete(SyncChange _change) {
+        switch (_change.Kind) {
+            case ChangeLog.KIND_UNIT:
+                m_model.deleteUnit(m_model.getUnitById(_change.Id), m_storage);
+                break;
+            case ChangeLog.KIND_PRODUCT:
+                m_model.deleteProduct(m_model.getProductById(_change.Id), m_storage);
+                break;
+            case ChangeLog.KIND_SHOPPING_LIST:
+                m_model.deleteShoppingList(m_model.getShoppingListById(_change.Id), m_storage);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import org.noorganization.shoppinglist.model.ChangeLog;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.SparseFloatArray;
+import org.noorganization.shoppinglist.model.Unit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes {@link SyncBatch}es compactly: ids and counts as variable length integers, so small values take one byte, and
+ * strings as UTF-8. Bodies of more than {@link #DEFLATE_THRESHOLD} bytes are deflated if that makes them smaller, which
+ * pays off for the repeated titles and units of larger batches.
+ * <p>
+ * Layout: format version, flags, then the (maybe deflated) body: sequence, has-more flag, change count and the changes.
+ * A change starts with its kind and a deletion flag in one byte, followed by the id and, unless deleted, the fields.
+ */
+public class SyncCodec {
+
+    public static final int FORMAT_VERSION    = 1;
+    public static final int DEFLATE_THRESHOLD = 256;
+
+    private static final int FLAG_DEFLATED = 1;
+    /**
+     * Limit for counts and lengths read from payloads, so a damaged one can't allocate huge arrays.
+     */
+    private static final int MAX_COUNT     = 16 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private SyncCodec() {
+    }
+
+    public static byte[] encode(SyncBatch _batch) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64 + 32 * _batch.Changes.size());
+            DataOutputStream output = new DataOutputStream(body);
+            Varint.writeLong(output, _batch.Sequence);
+            output.writeBoolean(_batch.HasMore);
+            Varint.writeLong(output, _batch.Changes.size());
+            for (SyncChange currentChange : _batch.Changes) {
+                writeChange(output, currentChange);
+            }
+            output.flush();
+
+            byte bodyBytes[] = body.toByteArray();
+            int flags = 0;
+            if (bodyBytes.length > DEFLATE_THRESHOLD) {
+                ByteArrayOutputStream deflatedBody = new ByteArrayOutputStream(bodyBytes.length / 2);
+                DeflaterOutputStream deflater = new DeflaterOutputStream(deflatedBody);
+                deflater.write(bodyBytes);
+                deflater.close();
+                if (deflatedBody.size() < bodyBytes.length) {
+                    bodyBytes = deflatedBody.toByteArray();
+                    flags |= FLAG_DEFLATED;
+                }
+            }
+
+            byte rtn[] = new byte[2 + bodyBytes.length];
+            rtn[0] = FORMAT_VERSION;
+            rtn[1] = (byte) flags;
+            System.arraycopy(bodyBytes, 0, rtn, 2, bodyBytes.length);
+            return rtn;
+        } catch (IOException e) {
+            // Only in-memory streams are involved.
+            throw new SyncException("Could not encode batch.", e);
+        }
+    }
+
+    public static SyncBatch decode(byte _payload[]) {
+        if (_payload == null || _payload.length < 2) {
+            throw new SyncException("Payload is too short.");
+        }
+        if (_payload[0] != FORMAT_VERSION) {
+            throw new SyncException("Unsupported payload version " + _payload[0]);
+        }
+
+        try {
+            InputStream body = new ByteArrayInputStream(_payload, 2, _payload.length - 2);
+            if ((_payload[1] & FLAG_DEFLATED) != 0) {
+                body = new InflaterInputStream(body);
+            }
+            DataInputStream input = new DataInputStream(body);
+
+            SyncBatch rtn = new SyncBatch();
+            rtn.Sequence = Varint.readLong(input);
+            rtn.HasMore  = input.readBoolean();
+            int changeCount = Varint.readCount(input, MAX_COUNT);
+            for (int currentChange = 0; currentChange < changeCount; currentChange++) {
+                rtn.Changes.add(readChange(input));
+            }
+            return rtn;
+        } catch (EOFException e) {
+            throw new SyncException("Payload is truncated.", e);
+        } catch (IOException e) {
+            throw new SyncException("Payload is damaged.", e);
+        }
+    }
+
+    private static void writeChange(DataOutputStream _output, SyncChange _change) throws IOException {
+        _output.writeByte((_change.Kind << 1) | (_change.isDeletion() ? 1 : 0));
+        Varint.writeInt(_output, _change.Id);
+        if (_change.isDeletion()) {
+            return;
+        }
+
+        switch (_change.Kind) {
+            case ChangeLog.KIND_UNIT:
+                writeString(_output, ((Unit) _change.Value).UnitText);
+                break;
+            case ChangeLog.KIND_PRODUCT:
+                Product product = (Product) _change.Value;
+                writeString(_output, product.Title);
+                _output.writeFloat(product.DefaultValue);
+                Varint.writeInt(_output, product.UnitId);
+                break;
+            case ChangeLog.KIND_SHOPPING_LIST:
+                ShoppingList list = (ShoppingList) _change.Value;
+                writeString(_output, list.Title);
+                Varint.writeLong(_output, list.ListEntries.size());
+                for (int currentIndex = 0; currentIndex < list.ListEntries.size(); currentIndex++) {
+                    Varint.writeInt(_output, list.ListEntries.keyAt(currentIndex));
+                    _output.writeFloat(list.ListEntries.valueAt(currentIndex));
+                }
+                break;
+            default:
+                throw new SyncException("Unknown kind " + _change.Kind);
+        }
+    }
+
+    private static SyncChange readChange(DataInputStream _input) throws IOException {
+        int header = _input.readUnsignedByte();
+        int kind = header >>> 1;
+        int id = Varint.readInt(_input);
+        if ((header & 1) != 0) {
+            return new SyncChange(kind, id, null);
+        }
+
+        switch (kind) {
+            case ChangeLog.KIND_UNIT: {
+                Unit unit = new Unit();
+                unit.Id       = id;
+                unit.UnitText = readString(_input);
+                return new SyncChange(kind, id, unit);
+            }
+            case ChangeLog.KIND_PRODUCT: {
+                Product product = new Product();
+                product.Id           = id;
+                product.Title        = readString(_input);
+                product.DefaultValue = _input.readFloat();
+                product.UnitId       = Varint.readInt(_input);
+                return new SyncChange(kind, id, product);
+            }
+            case ChangeLog.KIND_SHOPPING_LIST: {
+                ShoppingList list = new ShoppingList();
+                list.Id    = id;
+                list.Title = readString(_input);
+                int entryCount = Varint.readCount(_input, MAX_COUNT);
+                list.ListEntries = new SparseFloatArray(entryCount);
+                for (int currentEntry = 0; currentEntry < entryCount; currentEntry++) {
+                    int productId = Varint.readInt(_input);
+                    list.ListEntries.put(productId, _input.readFloat());
+                }
+                return new SyncChange(kind, id, list);
+            }
+            default:
+                throw new SyncException("Unknown kind " + kind);
+        }
+    }
+
+    private static void writeString(DataOutputStream _output, String _string) throws IOException {
+        byte bytes[] = _string.getBytes(UTF_8);
+        Varint.writeLong(_output, bytes.length);
+        _output.write(bytes);
+    }
+
+    private static String readString(DataInputStream _input) throws IOException {
+        byte bytes[] = new byte[Varint.readCount(_input, MAX_COUNT)];
+        _input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+/**
+ * What a {@link SyncClient#sync()} did.
+ */
+public class SyncResult {
+
+    public int     PushedChanges;
+    public int     PulledChanges;
+    /**
+     * Pulled changes, which could not be applied, e.g. a Product of a Unit deleted on this device.
+     */
+    public int     RejectedChanges;
+    public long    SentBytes;
+    public long    ReceivedBytes;
+    /**
+     * Whether all objects were pushed, because the model was loaded since the last sync.
+     */
+    public boolean FullPush;
+
+    @Override
+    public String toString() {
+        return "pushed " + PushedChanges + (FullPush ? " (full)" : "") + ", pulled " + PulledChanges + ", rejected " +
+                RejectedChanges + ", sent " + SentBytes + " bytes, received " + ReceivedBytes + " bytes";
+    }
+}
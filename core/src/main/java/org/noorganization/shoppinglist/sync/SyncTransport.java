@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+/**
+ * Connection to a sync server. Payloads are batches encoded by {@link SyncCodec}, so a transport only moves bytes.
+ */
+public interface SyncTransport {
+
+    /**
+     * Sends changes of a device. The server keeps the latest state per object; the last push wins.
+     * @return The sequence of the server after storing the changes.
+     */
+    long push(String _deviceId, byte _payload[]);
+
+    /**
+     * Fetches the objects changed after a server sequence by other devices than the requesting one.
+     * @param _maxChanges Maximal count of changes in the returned batch.
+     * @return An encoded {@link SyncBatch}, which tells the sequence to continue from.
+     */
+    byte[] pull(String _deviceId, long _sinceSequence, int _maxChanges);
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Variable length integers for the payloads: seven bits per byte, lowest first, the high bit marks following bytes.
+ * Small values take one byte.
+ */
+final class Varint {
+
+    private Varint() {
+    }
+
+    /**
+     * Writes an int zigzag encoded, so small negative values like {@link
+     * org.noorganization.shoppinglist.model.ModelManager#INVALID_ID} stay short, too.
+     */
+    static void writeInt(DataOutputStream _output, int _value) throws IOException {
+        writeLong(_output, ((_value << 1) ^ (_value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    static int readInt(DataInputStream _input) throws IOException {
+        int zigzag = (int) readLong(_input);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * @param _value Not negative.
+     */
+    static void writeLong(DataOutputStream _output, long _value) throws IOException {
+        long remaining = _value;
+        while ((remaining & ~0x7FL) != 0) {
+            _output.writeByte((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        _output.writeByte((int) remaining);
+    }
+
+    static long readLong(DataInputStream _input) throws IOException {
+        long rtn = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int currentByte = _input.readUnsignedByte();
+            rtn |= (long) (currentByte & 0x7F) << shift;
+            if ((currentByte & 0x80) == 0) {
+                return rtn;
+            }
+        }
+        throw new SyncException("Variable length number is too long.");
+    }
+
+    /**
+     * @return A count read as variable length number, checked against a limit for damaged payloads.
+     */
+    static int readCount(DataInputStream _input, int _maxCount) throws IOException {
+        long rtn = readLong(_input);
+        if (rtn > _maxCount) {
+            throw new SyncException("Count " + rtn + " is too large.");
+        }
+        return (int) rtn;
+    }
+}
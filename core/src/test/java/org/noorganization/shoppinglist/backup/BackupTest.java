@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.backup;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.Unit;
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.JdbcSqlDatabase;
+import org.noorganization.shoppinglist.model.storage.JournalStorage;
+import org.noorganization.shoppinglist.model.storage.SqlStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class BackupTest extends TestCase {
+
+    StorageProvider m_storage;
+    File            m_tempFile;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        m_storage  = new InMemoryStorage();
+        m_tempFile = File.createTempFile("BackupTest", ".db");
+
+        Unit unit = new Unit();
+        unit.Id       = 1;
+        unit.UnitText = "kg";
+        assertTrue(m_storage.insertUnit(unit));
+        // Titles and values, which are easily broken by encodings.
+        assertTrue(m_storage.insertProduct(createProduct(3, "Reis äß€ 🍚", 1.5f, 1)));
+        assertTrue(m_storage.insertProduct(createProduct(2, "", 0.0f, ModelManager.INVALID_ID)));
+        assertTrue(m_storage.insertProduct(createProduct(5, "half \ud83c", Float.MIN_VALUE, ModelManager.INVALID_ID)));
+        ShoppingList list = new ShoppingList();
+        list.Id    = 7;
+        list.Title = "Wocheneinkauf";
+        list.ListEntries.put(3, 0.5f);
+        list.ListEntries.put(2, Float.MAX_VALUE);
+        assertTrue(m_storage.insertShoppingList(list));
+        ShoppingList emptyList = new ShoppingList();
+        emptyList.Id    = 8;
+        emptyList.Title = "Leer";
+        assertTrue(m_storage.insertShoppingList(emptyList));
+    }
+
+    public void tearDown() throws Exception {
+        m_storage.close();
+        m_tempFile.delete();
+
+        super.tearDown();
+    }
+
+    static Product createProduct(int _id, String _title, float _defaultValue, int _unitId) {
+        Product rtn = new Product();
+        rtn.Id           = _id;
+        rtn.Title        = _title;
+        rtn.DefaultValue = _defaultValue;
+        rtn.UnitId       = _unitId;
+        return rtn;
+    }
+
+    public void testRoundTripIsLossless() throws Exception {
+        byte backup[] = export(m_storage);
+
+        StorageProvider restored = new InMemoryStorage();
+        assertTrue(BackupReader.restore(new ByteArrayInputStream(backup), restored));
+
+        assertEquals(dump(m_storage), dump(restored));
+        assertTrue(Arrays.equals(backup, export(restored)));
+    }
+
+    public void testRoundTripThroughSql() throws Exception {
+        StorageProvider restored = new SqlStorage(JdbcSqlDatabase.openSqlite(m_tempFile.getPath()));
+        try {
+            assertTrue(BackupReader.restore(new ByteArrayInputStream(export(m_storage)), restored));
+
+            assertEquals(dump(m_storage), dump(restored));
+        } finally {
+            restored.close();
+        }
+    }
+
+    public void testRoundTripThroughJournal() throws Exception {
+        assertTrue(m_tempFile.delete());
+        assertTrue(m_tempFile.mkdir());
+        JournalStorage restored = new JournalStorage(m_tempFile);
+        assertTrue(BackupReader.restore(new ByteArrayInputStream(export(m_storage)), restored));
+        restored.close();
+
+        restored = new JournalStorage(m_tempFile);
+        try {
+            assertEquals(dump(m_storage), dump(restored));
+        } finally {
+            restored.close();
+            for (File currentFile : m_tempFile.listFiles()) {
+                assertTrue(currentFile.delete());
+            }
+        }
+    }
+
+    public void testDamagedBackupIsRolledBack() throws Exception {
+        byte backup[] = export(m_storage);
+        backup[backup.length / 2] ^= 0x01;
+
+        StorageProvider restored = new SqlStorage(JdbcSqlDatabase.openSqlite(m_tempFile.getPath()));
+        try {
+            BackupReader.restore(new ByteArrayInputStream(backup), restored);
+            fail("Damaged backup was restored.");
+        } catch (BackupException e) {
+            assertEquals("", dump(restored));
+        } finally {
+            restored.close();
+        }
+    }
+
+    public void testTruncatedBackupIsRejected() throws Exception {
+        byte backup[] = export(m_storage);
+
+        for (int currentLength = 0; currentLength < backup.length; currentLength++) {
+            try {
+                BackupReader.restore(new ByteArrayInputStream(backup, 0, currentLength), new InMemoryStorage());
+                fail("Backup truncated to " + currentLength + " bytes was restored.");
+            } catch (BackupException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testFailedInsertFailsRestore() throws Exception {
+        StorageProvider restored = new InMemoryStorage();
+        Unit unit = new Unit();
+        unit.Id       = 1;
+        unit.UnitText = "g";
+        assertTrue(restored.insertUnit(unit));
+
+        assertFalse(BackupReader.restore(new ByteArrayInputStream(export(m_storage)), restored));
+    }
+
+    /**
+     * A million list entries go through a file. Neither side keeps them.
+     */
+    public void testMillionEntries() throws Exception {
+        StorageProvider storage = new InMemoryStorage();
+        for (int currentProduct = 0; currentProduct < 1000; currentProduct++) {
+            assertTrue(storage.insertProduct(createProduct(currentProduct, "Produkt " + currentProduct, 1.0f,
+                    ModelManager.INVALID_ID)));
+        }
+        for (int currentList = 0; currentList < 1000; currentList++) {
+            ShoppingList list = new ShoppingList();
+            list.Id    = currentList;
+            list.Title = "Liste " + currentList;
+            for (int currentProduct = 0; currentProduct < 1000; currentProduct++) {
+                list.ListEntries.append(currentProduct, currentList);
+            }
+            assertTrue(storage.insertShoppingList(list));
+        }
+
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(m_tempFile));
+        BackupWriter.export(storage, output);
+        output.close();
+        storage.close();
+
+        final long counts[] = new long[2];
+        InputStream input = new FileInputStream(m_tempFile);
+        try {
+            BackupReader.read(input, new StorageProvider.LoadCallback() {
+                @Override
+                public void onUnit(int _id, String _unitText) {
+                }
+
+                @Override
+                public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                }
+
+                @Override
+                public void onShoppingList(int _id, String _title) {
+                }
+
+                @Override
+                public void onListEntry(int _shoppingListId, int _productId, float _value) {
+                    counts[0]++;
+                    counts[1] += (_value == _shoppingListId ? 1 : 0);
+                }
+            });
+        } finally {
+            input.close();
+        }
+
+        assertEquals(1000000, counts[0]);
+        assertEquals(1000000, counts[1]);
+    }
+
+    static byte[] export(StorageProvider _storage) throws Exception {
+        ByteArrayOutputStream rtn = new ByteArrayOutputStream();
+        BackupWriter.export(_storage, rtn);
+        return rtn.toByteArray();
+    }
+
+    /**
+     * @return Everything stored, with the exact bits of the floats.
+     */
+    static String dump(StorageProvider _storage) {
+        final StringBuilder rtn = new StringBuilder();
+        _storage.load(new StorageProvider.LoadCallback() {
+            @Override
+            public void onUnit(int _id, String _unitText) {
+                rtn.append("unit ").append(_id).append(' ').append(_unitText).append('\n');
+            }
+
+            @Override
+            public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                rtn.append("product ").append(_id).append(' ').append(_title).append(' ')
+                        .append(Float.floatToRawIntBits(_defaultValue)).append(' ').append(_unitId).append('\n');
+            }
+
+            @Override
+            public void onShoppingList(int _id, String _title) {
+                rtn.append("list ").append(_id).append(' ').append(_title).append('\n');
+            }
+
+            @Override
+            public void onListEntry(int _shoppingListId, int _productId, float _value) {
+                rtn.append("entry ").append(_shoppingListId).append(' ').append(_productId).append(' ')
+                        .append(Float.floatToRawIntBits(_value)).append('\n');
+            }
+        });
+        return rtn.toString();
+    }
+}
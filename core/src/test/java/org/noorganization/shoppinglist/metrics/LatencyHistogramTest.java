@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.metrics;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBucketBounds() throws Exception {
+        for (long currentValue = 0; currentValue < 100000; currentValue += 7) {
+            int bucket = LatencyHistogram.bucketIndex(currentValue);
+            assertTrue(currentValue <= LatencyHistogram.bucketUpperBound(bucket));
+            assertTrue(bucket == 0 || currentValue > LatencyHistogram.bucketUpperBound(bucket - 1));
+        }
+        assertTrue(LatencyHistogram.bucketIndex(Long.MAX_VALUE) < LatencyHistogram.BUCKET_COUNT);
+    }
+
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int currentValue = 1; currentValue <= 1000; currentValue++) {
+            histogram.record(currentValue * 1000L);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.Count);
+        assertEquals(1000000L, snapshot.MaxNanos);
+        assertEquals(500500L, snapshot.getMeanNanos());
+        assertEquals(500000.0, snapshot.getPercentileNanos(50.0), 500000.0 * 0.125);
+        assertEquals(990000.0, snapshot.getPercentileNanos(99.0), 990000.0 * 0.125);
+        assertEquals(1000000L, snapshot.getPercentileNanos(100.0));
+    }
+
+    public void testDisabledMetricsRecordNothing() throws Exception {
+        Metrics.setEnabled(false);
+        LatencyHistogram histogram = Metrics.histogram("LatencyHistogramTest.disabled");
+        long startTime = Metrics.start();
+        assertEquals(Metrics.NOT_STARTED, startTime);
+        histogram.stop(startTime);
+        assertEquals(0, histogram.snapshot().Count);
+
+        Metrics.setEnabled(true);
+        histogram.stop(Metrics.start());
+        assertEquals(1, histogram.snapshot().Count);
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+}
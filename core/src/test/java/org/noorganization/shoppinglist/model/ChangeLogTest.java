@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.Arrays;
+
+public class ChangeLogTest extends TestCase {
+
+    /**
+     * Keeps the changes as text.
+     */
+    private static class RecordingListener implements ChangeLog.Listener {
+        StringBuilder m_changes = new StringBuilder();
+
+        @Override
+        public void onChanged(int _kind, int _id) {
+            m_changes.append(_kind).append(':').append(_id).append(' ');
+        }
+
+        @Override
+        public void onReset() {
+            m_changes.append("reset ");
+        }
+    }
+
+    ModelManager    m_model;
+    StorageProvider m_storage;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        ModelManager.m_sInstance = null;
+        m_model   = ModelManager.getInstance();
+        m_storage = m_model.load(new InMemoryStorage());
+    }
+
+    public void tearDown() throws Exception {
+        ModelManager.m_sInstance = null;
+
+        super.tearDown();
+    }
+
+    public void testChangesSince() throws Exception {
+        ChangeLog changeLog = m_model.getChangeLog();
+        Product rice = m_model.createProduct("Reis", 1.0f, ModelManager.INVALID_ID, m_storage);
+        long sequence = changeLog.getSequence();
+        ShoppingList list = m_model.createShoppingList("Wocheneinkauf", m_storage);
+        rice.Title = "Basmati";
+        assertTrue(m_model.updateProduct(rice, m_storage));
+
+        final StringBuilder changes = new StringBuilder();
+        changeLog.visitChangesSince(sequence, new ChangeLog.Visitor() {
+            @Override
+            public void visit(int _kind, int _id, long _sequence) {
+                changes.append(_kind).append(':').append(_id).append(' ');
+            }
+        });
+        assertEquals(ChangeLog.KIND_SHOPPING_LIST + ":" + list.Id + " " + ChangeLog.KIND_PRODUCT + ":" + rice.Id + " ",
+                changes.toString());
+    }
+
+    public void testListenersAreTold() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        m_model.getChangeLog().addListener(listener);
+        Product rice = m_model.createProduct("Reis", 1.0f, ModelManager.INVALID_ID, m_storage);
+        ShoppingList list = m_model.createShoppingList("Wocheneinkauf", m_storage);
+        m_model.changeListEntries(list.Id, new ListEntryChanges().put(rice.Id, 1.0f), m_storage);
+        m_model.load(m_storage);
+        m_model.getChangeLog().removeListener(listener);
+        m_model.createUnit("kg", m_storage);
+
+        assertEquals(ChangeLog.KIND_PRODUCT + ":" + rice.Id + " " + ChangeLog.KIND_SHOPPING_LIST + ":" + list.Id + " " +
+                ChangeLog.KIND_SHOPPING_LIST + ":" + list.Id + " reset ", listener.m_changes.toString());
+        assertEquals(Arrays.toString(new int[] { list.Id }), Arrays.toString(m_model.getShoppingListIdsWith(rice.Id)));
+        assertEquals(0, m_model.getShoppingListIdsWith(42).length);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class ConsumptionPredictionTest extends TestCase {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    public void testRegularPurchasesAreDueAfterTheirInterval() throws Exception {
+        ConsumptionPrediction prediction = new ConsumptionPrediction();
+        prediction.record(1, 0, 1.0f);
+        assertEquals(ConsumptionPrediction.UNKNOWN, prediction.getDueMillis(1));
+
+        prediction.record(1, 7 * DAY_MILLIS, 1.0f);
+        prediction.record(1, 14 * DAY_MILLIS, 1.0f);
+        assertEquals(3, prediction.getPurchaseCount(1));
+        assertEquals(7.0 * DAY_MILLIS, prediction.getIntervalMeanMillis(1), 1e-6);
+        assertEquals(0.0, prediction.getIntervalDeviationMillis(1), 1e-6);
+        assertEquals(21 * DAY_MILLIS, prediction.getDueMillis(1));
+        assertEquals(ConsumptionPrediction.UNKNOWN, prediction.getDueMillis(2));
+    }
+
+    public void testRunningStatisticsMatchTwoPasses() throws Exception {
+        ConsumptionPrediction prediction = new ConsumptionPrediction();
+        Random random = new Random(47);
+        long intervals[] = new long[50];
+        long time = 0;
+        prediction.record(1, time, 1.0f);
+        for (int currentIndex = 0; currentIndex < intervals.length; currentIndex++) {
+            intervals[currentIndex] = DAY_MILLIS + random.nextInt(10) * DAY_MILLIS;
+            time += intervals[currentIndex];
+            prediction.record(1, time, 1.0f);
+        }
+
+        double mean = 0.0;
+        for (long currentInterval : intervals) {
+            mean += currentInterval;
+        }
+        mean /= intervals.length;
+        double squaredDeviations = 0.0;
+        for (long currentInterval : intervals) {
+            squaredDeviations += (currentInterval - mean) * (currentInterval - mean);
+        }
+        double deviation = Math.sqrt(squaredDeviations / (intervals.length - 1));
+
+        assertEquals(mean, prediction.getIntervalMeanMillis(1), 1e-3);
+        assertEquals(deviation, prediction.getIntervalDeviationMillis(1), 1e-3);
+        // Irregular purchases are due one deviation early.
+        assertEquals(time + (long) (mean - deviation), prediction.getDueMillis(1), 1.0);
+    }
+
+    public void testBiggerPurchaseLastsLonger() throws Exception {
+        ConsumptionPrediction prediction = new ConsumptionPrediction();
+        prediction.record(1, 0, 1.0f);
+        prediction.record(1, 10 * DAY_MILLIS, 1.0f);
+        prediction.record(1, 20 * DAY_MILLIS, 4.0f);
+
+        assertEquals(2.0, prediction.getValueMean(1), 1e-6);
+        // Twice the usual value was bought, so it lasts two intervals.
+        assertEquals(40 * DAY_MILLIS, prediction.getDueMillis(1));
+    }
+
+    public void testClosePurchasesAreMerged() throws Exception {
+        ConsumptionPrediction prediction = new ConsumptionPrediction();
+        prediction.record(1, 0, 1.0f);
+        prediction.record(1, 10 * DAY_MILLIS, 1.0f);
+        prediction.record(1, 10 * DAY_MILLIS + 1000, 1.0f);
+
+        assertEquals(2, prediction.getPurchaseCount(1));
+        assertEquals(1.5, prediction.getValueMean(1), 1e-6);
+        assertEquals(10.0 * DAY_MILLIS, prediction.getIntervalMeanMillis(1), 1e-6);
+    }
+
+    public void testDueProductsAreOrdered() throws Exception {
+        ConsumptionPrediction prediction = new ConsumptionPrediction();
+        for (int currentId = 1; currentId <= 5; currentId++) {
+            prediction.record(currentId, 0, 1.0f);
+            prediction.record(currentId, (6 - currentId) * DAY_MILLIS, 1.0f);
+        }
+        prediction.record(6, 0, 1.0f);
+
+        assertEquals("[5, 4, 3]", Arrays.toString(prediction.getDueProductIds(6 * DAY_MILLIS)));
+        assertEquals("[5, 4, 3, 2, 1]", Arrays.toString(prediction.getDueProductIds(Long.MAX_VALUE - 1)));
+
+        prediction.record(5, 20 * DAY_MILLIS, 1.0f);
+        prediction.remove(4);
+        assertEquals("[3]", Arrays.toString(prediction.getDueProductIds(6 * DAY_MILLIS)));
+        assertEquals(5, prediction.size());
+    }
+
+    public void testModelPersistsConsumption() throws Exception {
+        ModelManager.m_sInstance = null;
+        ModelManager model = ModelManager.getInstance();
+        StorageProvider storage = model.load(new InMemoryStorage());
+        try {
+            Product rice = model.createProduct("Reis", 2.0f, ModelManager.INVALID_ID, storage);
+            Product milk = model.createProduct("Milch", 1.0f, ModelManager.INVALID_ID, storage);
+            assertTrue(model.recordPurchase(milk.Id, 0L, 1.0f, storage));
+            assertTrue(model.recordPurchase(milk.Id, 3 * DAY_MILLIS, 1.0f, storage));
+            assertTrue(model.recordPurchase(rice.Id, 0L, 0.0f, storage));
+            assertFalse(model.recordPurchase(42, 0L, 1.0f, storage));
+            assertFalse(model.recordPurchase(42, 0L, 0.0f, storage));
+
+            model.load(storage);
+            ConsumptionPrediction prediction = model.getConsumptionPrediction();
+            assertEquals(6 * DAY_MILLIS, prediction.getDueMillis(milk.Id));
+            // The default value counts if the bought value is unknown.
+            assertEquals(2.0, prediction.getValueMean(rice.Id), 1e-6);
+
+            model.deleteProduct(milk, storage);
+            assertEquals(ConsumptionPrediction.UNKNOWN, prediction.getDueMillis(milk.Id));
+            model.load(storage);
+            assertEquals(1, model.getConsumptionPrediction().size());
+        } finally {
+            ModelManager.m_sInstance = null;
+        }
+    }
+}
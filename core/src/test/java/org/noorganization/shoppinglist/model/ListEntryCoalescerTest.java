@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+
+public class ListEntryCoalescerTest extends TestCase {
+
+    /**
+     * Runs the task only when told to.
+     */
+    private static class ManualScheduler implements ListEntryCoalescer.Scheduler {
+        Runnable m_task;
+        long     m_delayMillis;
+
+        @Override
+        public void schedule(Runnable _task, long _delayMillis) {
+            m_task        = _task;
+            m_delayMillis = _delayMillis;
+        }
+
+        @Override
+        public void cancel(Runnable _task) {
+            if (m_task == _task) {
+                m_task = null;
+            }
+        }
+
+        void runPending() {
+            Runnable task = m_task;
+            m_task = null;
+            task.run();
+        }
+    }
+
+    /**
+     * Counts the entry batches reaching the storage, and rejects them if told to.
+     */
+    private static class CountingStorage extends InMemoryStorage {
+        int     m_batchCount;
+        boolean m_rejectBatches;
+
+        @Override
+        public synchronized boolean changeListEntries(int _shoppingListId, ListEntryChanges _changes) {
+            m_batchCount++;
+            return !m_rejectBatches && super.changeListEntries(_shoppingListId, _changes);
+        }
+    }
+
+    ModelManager       m_model;
+    CountingStorage    m_storage;
+    ManualScheduler    m_scheduler;
+    ListEntryCoalescer m_coalescer;
+    Product            m_rice;
+    ShoppingList       m_list;
+    int                m_failedListId;
+    long               m_writtenVersion;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        ModelManager.m_sInstance = null;
+        m_model     = ModelManager.getInstance();
+        m_storage   = new CountingStorage();
+        m_scheduler = new ManualScheduler();
+        m_model.load(m_storage);
+        m_rice = m_model.createProduct("Reis", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_list = m_model.createShoppingList("Wocheneinkauf", m_storage);
+
+        m_failedListId   = ModelManager.INVALID_ID;
+        m_writtenVersion = ModelManager.ANY_VERSION;
+        m_coalescer      = new ListEntryCoalescer(m_model, m_storage, m_scheduler, 300,
+                new ListEntryCoalescer.Listener() {
+                    @Override
+                    public void onWritten(int _shoppingListId, long _newVersion) {
+                        m_writtenVersion = _newVersion;
+                    }
+
+                    @Override
+                    public void onWriteFailed(int _shoppingListId, ListEntryChanges _changes) {
+                        m_failedListId = _shoppingListId;
+                    }
+                });
+    }
+
+    public void tearDown() throws Exception {
+        ModelManager.m_sInstance = null;
+
+        super.tearDown();
+    }
+
+    public void testOnlyLatestValueIsWrittenAfterQuietPeriod() throws Exception {
+        for (int currentTap = 1; currentTap <= 10; currentTap++) {
+            m_coalescer.put(m_list.Id, m_rice.Id, currentTap);
+        }
+
+        assertTrue(m_coalescer.hasPending());
+        assertEquals(300, m_scheduler.m_delayMillis);
+        assertEquals(0, m_storage.m_batchCount);
+
+        m_scheduler.runPending();
+        assertFalse(m_coalescer.hasPending());
+        assertEquals(1, m_storage.m_batchCount);
+        assertEquals(10.0f, m_model.getShoppingListById(m_list.Id).ListEntries.get(m_rice.Id), 0.001f);
+        assertEquals(m_model.getShoppingListVersion(m_list.Id), m_writtenVersion);
+    }
+
+    public void testFlushWritesAtOnce() throws Exception {
+        m_coalescer.put(m_list.Id, m_rice.Id, 2.0f);
+        assertTrue(m_coalescer.flush());
+
+        assertNull(m_scheduler.m_task);
+        assertEquals(2.0f, m_model.getShoppingListById(m_list.Id).ListEntries.get(m_rice.Id), 0.001f);
+
+        m_coalescer.put(m_list.Id, m_rice.Id, 3.0f);
+        m_coalescer.remove(m_list.Id, m_rice.Id);
+        assertTrue(m_coalescer.flush());
+        assertEquals(0, m_model.getShoppingListById(m_list.Id).ListEntries.size());
+        assertEquals(2, m_storage.m_batchCount);
+    }
+
+    public void testModelSeesChangesAtOnce() throws Exception {
+        m_coalescer.put(m_list.Id, m_rice.Id, 2.0f);
+
+        assertEquals(0, m_storage.m_batchCount);
+        assertEquals(2.0f, m_model.getListEntryValue(m_list.Id, m_rice.Id), 0.001f);
+        ReadTransaction transaction = m_model.beginRead();
+        assertEquals(2.0f, transaction.getListEntryValue(m_list.Id, m_rice.Id), 0.001f);
+        transaction.close();
+    }
+
+    public void testFailedWriteIsReverted() throws Exception {
+        m_coalescer.put(m_list.Id, m_rice.Id, 2.0f);
+        m_coalescer.put(m_list.Id, m_rice.Id, 3.0f);
+        m_storage.m_rejectBatches = true;
+
+        assertFalse(m_coalescer.flush());
+        assertEquals(m_list.Id, m_failedListId);
+        assertFalse(m_coalescer.hasPending());
+        assertTrue(Float.isNaN(m_model.getListEntryValue(m_list.Id, m_rice.Id)));
+    }
+
+    public void testChangeOfMissingListIsReported() throws Exception {
+        m_coalescer.put(42, m_rice.Id, 2.0f);
+
+        assertEquals(42, m_failedListId);
+        assertFalse(m_coalescer.hasPending());
+    }
+
+    public void testLaterChangeIsNotOverwritten() throws Exception {
+        m_coalescer.put(m_list.Id, m_rice.Id, 2.0f);
+        ShoppingList otherWrite = m_model.getShoppingListById(m_list.Id);
+        otherWrite.ListEntries.put(m_rice.Id, 5.0f);
+        assertTrue(m_model.updateShoppingList(otherWrite, m_storage));
+
+        // The current value is written.
+        assertTrue(m_coalescer.flush());
+        assertEquals(ModelManager.INVALID_ID, m_failedListId);
+        assertEquals(5.0f, m_model.getListEntryValue(m_list.Id, m_rice.Id), 0.001f);
+        m_model.load(m_storage);
+        assertEquals(5.0f, m_model.getListEntryValue(m_list.Id, m_rice.Id), 0.001f);
+    }
+
+    public void testWithoutQuietPeriodEveryChangeIsWritten() throws Exception {
+        m_coalescer = new ListEntryCoalescer(m_model, m_storage, m_scheduler, 0, null);
+        m_coalescer.put(m_list.Id, m_rice.Id, 2.0f);
+
+        assertNull(m_scheduler.m_task);
+        assertEquals(2.0f, m_model.getShoppingListById(m_list.Id).ListEntries.get(m_rice.Id), 0.001f);
+    }
+}
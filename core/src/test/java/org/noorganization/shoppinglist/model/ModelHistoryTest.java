@@ -0,0 +1,268 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+
+public class ModelHistoryTest extends TestCase {
+
+    /**
+     * Counts the writes reaching the storage.
+     */
+    private static class CountingStorage extends InMemoryStorage {
+        int m_writeCount;
+
+        @Override
+        public synchronized boolean insertUnit(Unit _unit) {
+            m_writeCount++;
+            return super.insertUnit(_unit);
+        }
+
+        @Override
+        public synchronized boolean insertProduct(Product _product) {
+            m_writeCount++;
+            return super.insertProduct(_product);
+        }
+
+        @Override
+        public synchronized boolean updateProduct(Product _product) {
+            m_writeCount++;
+            return super.updateProduct(_product);
+        }
+
+        @Override
+        public synchronized void deleteProduct(int _productId) {
+            m_writeCount++;
+            super.deleteProduct(_productId);
+        }
+
+        @Override
+        public synchronized boolean insertShoppingList(ShoppingList _shoppingList) {
+            m_writeCount++;
+            return super.insertShoppingList(_shoppingList);
+        }
+
+        @Override
+        public synchronized boolean updateShoppingList(ShoppingList _shoppingList) {
+            m_writeCount++;
+            return super.updateShoppingList(_shoppingList);
+        }
+
+        @Override
+        public synchronized void deleteShoppingList(int _shoppingListId) {
+            m_writeCount++;
+            super.deleteShoppingList(_shoppingListId);
+        }
+    }
+
+    ModelManager    m_model;
+    CountingStorage m_storage;
+    Product         m_rice;
+    ShoppingList    m_list;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        ModelManager.m_sInstance = null;
+        m_model   = ModelManager.getInstance();
+        m_storage = new CountingStorage();
+        m_model.load(m_storage);
+        m_model.setHistoryLimit(ModelManager.DEFAULT_HISTORY_LIMIT);
+
+        Unit kilogram = m_model.createUnit("kg", m_storage);
+        for (int currentProduct = 0; currentProduct < 100; currentProduct++) {
+            m_model.createProduct("Produkt " + currentProduct, 1.0f, ModelManager.INVALID_ID, m_storage);
+        }
+        m_rice = m_model.createProduct("Reis", 1.0f, kilogram.Id, m_storage);
+        m_list = m_model.createShoppingList("Wocheneinkauf", m_storage);
+        m_list.ListEntries.put(m_rice.Id, 0.5f);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+    }
+
+    public void tearDown() throws Exception {
+        ModelManager.m_sInstance = null;
+
+        super.tearDown();
+    }
+
+    public void testUndoDeleteProduct() throws Exception {
+        m_model.deleteProduct(m_rice, m_storage);
+        assertNull(m_model.getProductById(m_rice.Id));
+        m_storage.m_writeCount = 0;
+
+        assertTrue(m_model.undo(m_storage));
+
+        // Only the Product and the list holding it are written again.
+        assertEquals(2, m_storage.m_writeCount);
+        assertEquals("Reis", m_model.getProductById(m_rice.Id).Title);
+        assertEquals(0.5f, m_model.getShoppingListById(m_list.Id).ListEntries.get(m_rice.Id), 0.001f);
+
+        m_model.load(m_storage);
+        assertEquals(0.5f, m_model.getShoppingListById(m_list.Id).ListEntries.get(m_rice.Id), 0.001f);
+    }
+
+    public void testUndoAndRedoListChanges() throws Exception {
+        m_list.ListEntries.remove(m_rice.Id);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+        m_model.deleteShoppingList(m_list, m_storage);
+
+        assertTrue(m_model.undo(m_storage));
+        assertEquals(0, m_model.getShoppingListById(m_list.Id).ListEntries.size());
+        assertTrue(m_model.undo(m_storage));
+        assertEquals(1, m_model.getShoppingListById(m_list.Id).ListEntries.size());
+
+        assertTrue(m_model.redo(m_storage));
+        assertTrue(m_model.redo(m_storage));
+        assertFalse(m_model.canRedo());
+        assertNull(m_model.getShoppingListById(m_list.Id));
+    }
+
+    public void testChangeListEntries() throws Exception {
+        Product milk = m_model.createProduct("Milch", 1.0f, ModelManager.INVALID_ID, m_storage);
+        Product flour = m_model.createProduct("Mehl", 1.0f, ModelManager.INVALID_ID, m_storage);
+        long changeSequence = m_model.getChangeLog().getSequence();
+        m_storage.m_writeCount = 0;
+
+        ShoppingList changedList = m_model.changeListEntries(m_list.Id, new ListEntryChanges()
+                .remove(m_rice.Id).put(milk.Id, 2.0f).put(flour.Id, 0.5f), m_storage);
+
+        // The entries are written without rewriting the list.
+        assertEquals(0, m_storage.m_writeCount);
+        assertEquals(changeSequence + 1, m_model.getChangeLog().getSequence());
+        assertEquals(2, changedList.ListEntries.size());
+        assertEquals(2.0f, m_model.getShoppingListById(m_list.Id).ListEntries.get(milk.Id), 0.001f);
+        assertTrue(m_model.undo(m_storage));
+        assertEquals(1, m_model.getShoppingListById(m_list.Id).ListEntries.size());
+        assertTrue(m_model.redo(m_storage));
+        m_model.load(m_storage);
+        assertEquals(0.5f, m_model.getShoppingListById(m_list.Id).ListEntries.get(flour.Id), 0.001f);
+
+        assertNull(m_model.changeListEntries(m_list.Id, new ListEntryChanges().put(ModelManager.INVALID_ID, 1.0f),
+                m_storage));
+        assertEquals(2, m_model.getShoppingListById(m_list.Id).ListEntries.size());
+    }
+
+    public void testVersionConflict() throws Exception {
+        long readVersion = m_model.getShoppingListVersion(m_list.Id);
+        assertEquals(readVersion, m_model.getShoppingListVersion(m_list.Id));
+        long otherListVersion = m_model.getShoppingListVersion(m_model.createShoppingList("Party", m_storage).Id);
+        assertEquals(readVersion, m_model.getShoppingListVersion(m_list.Id));
+        assertFalse(readVersion == otherListVersion);
+
+        ShoppingList concurrentChange = m_model.getShoppingListById(m_list.Id);
+        concurrentChange.ListEntries.put(m_rice.Id, 3.0f);
+        assertTrue(m_model.updateShoppingList(concurrentChange, m_storage));
+        assertNull(m_model.changeListEntries(m_list.Id, new ListEntryChanges().remove(m_rice.Id), readVersion,
+                m_storage));
+        assertEquals(3.0f, m_model.getListEntryValue(m_list.Id, m_rice.Id), 0.001f);
+
+        long currentVersion = m_model.getShoppingListVersion(m_list.Id);
+        assertNotNull(m_model.changeListEntries(m_list.Id, new ListEntryChanges().remove(m_rice.Id), currentVersion,
+                m_storage));
+        assertTrue(Float.isNaN(m_model.getListEntryValue(m_list.Id, m_rice.Id)));
+        assertFalse(currentVersion == m_model.getShoppingListVersion(m_list.Id));
+
+        // Loading starts over, so versions read before are outdated.
+        currentVersion = m_model.getShoppingListVersion(m_list.Id);
+        m_model.load(m_storage);
+        assertFalse(currentVersion == m_model.getShoppingListVersion(m_list.Id));
+    }
+
+    public void testCloneShoppingList() throws Exception {
+        m_storage.m_writeCount = 0;
+        ShoppingList clone = m_model.cloneShoppingList(m_list, "Party", m_storage);
+
+        // The storage copies the list itself.
+        assertEquals(0, m_storage.m_writeCount);
+        assertFalse(clone.Id == m_list.Id);
+        assertEquals(0.5f, clone.ListEntries.get(m_rice.Id), 0.001f);
+        assertFalse(m_model.isTemplate(clone.Id));
+        clone.ListEntries.put(m_rice.Id, 2.0f);
+        assertTrue(m_model.updateShoppingList(clone, m_storage));
+        assertEquals(0.5f, m_model.getShoppingListById(m_list.Id).ListEntries.get(m_rice.Id), 0.001f);
+
+        ShoppingList template = m_model.createTemplate(m_list, "Vorlage", m_storage);
+        assertTrue(m_model.isTemplate(template.Id));
+        assertEquals(1, m_model.getTemplateIds().length);
+        m_model.load(m_storage);
+        assertTrue(m_model.isTemplate(template.Id));
+        assertEquals(0.5f, m_model.getShoppingListById(template.Id).ListEntries.get(m_rice.Id), 0.001f);
+
+        assertNull(m_model.cloneShoppingList(new ShoppingList(), "Party", m_storage));
+    }
+
+    public void testUndoClone() throws Exception {
+        ShoppingList template = m_model.createTemplate(m_list, "Vorlage", m_storage);
+
+        assertTrue(m_model.undo(m_storage));
+        assertNull(m_model.getShoppingListById(template.Id));
+        assertFalse(m_model.isTemplate(template.Id));
+        assertTrue(m_model.redo(m_storage));
+        assertEquals(0.5f, m_model.getShoppingListById(template.Id).ListEntries.get(m_rice.Id), 0.001f);
+    }
+
+    public void testNewChangeDropsRedo() throws Exception {
+        m_model.deleteShoppingList(m_list, m_storage);
+        assertTrue(m_model.undo(m_storage));
+        assertTrue(m_model.canRedo());
+
+        m_model.createUnit("l", m_storage);
+
+        assertFalse(m_model.canRedo());
+        assertFalse(m_model.redo(m_storage));
+    }
+
+    public void testUndoDeleteUnitRestoresProducts() throws Exception {
+        m_model.deleteUnit(m_model.getUnitById(m_rice.UnitId), m_storage);
+        assertNull(m_model.getProductById(m_rice.Id));
+
+        assertTrue(m_model.undo(m_storage));
+
+        assertEquals("kg", m_model.getUnitById(m_rice.UnitId).UnitText);
+        assertEquals(m_rice.UnitId, m_model.getProductById(m_rice.Id).UnitId);
+        assertEquals(1, m_model.getShoppingListById(m_list.Id).ListEntries.size());
+    }
+
+    public void testHistoryLimit() throws Exception {
+        m_model.setHistoryLimit(1);
+        m_model.deleteProduct(m_rice, m_storage);
+        m_model.deleteShoppingList(m_list, m_storage);
+
+        assertTrue(m_model.undo(m_storage));
+        assertFalse(m_model.undo(m_storage));
+        assertNull(m_model.getProductById(m_rice.Id));
+
+        m_model.setHistoryLimit(0);
+        m_model.deleteShoppingList(m_list, m_storage);
+        assertFalse(m_model.canUndo());
+    }
+
+    public void testHistoryIsOffByDefault() throws Exception {
+        ModelManager.m_sInstance = null;
+        m_model = ModelManager.getInstance();
+        m_model.load(m_storage);
+
+        assertNull(m_model.m_history.getCurrent());
+        m_model.deleteShoppingList(m_model.getShoppingListById(m_list.Id), m_storage);
+        assertFalse(m_model.canUndo());
+        assertNull(m_model.m_history.getCurrent());
+    }
+}
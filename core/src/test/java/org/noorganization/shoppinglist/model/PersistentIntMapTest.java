@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class PersistentIntMapTest extends TestCase {
+
+    public void testOldVersionsStayValid() throws Exception {
+        PersistentIntMap<String> empty = PersistentIntMap.empty();
+        PersistentIntMap<String> first = empty.put(1, "eins");
+        PersistentIntMap<String> second = first.put(33, "dreiunddreißig").put(1, "one");
+
+        assertEquals(0, empty.size());
+        assertEquals(1, first.size());
+        assertEquals("eins", first.get(1));
+        assertNull(first.get(33));
+        assertEquals(2, second.size());
+        assertEquals("one", second.get(1));
+        assertEquals("dreiunddreißig", second.get(33));
+    }
+
+    public void testUnchangedMapIsReturned() throws Exception {
+        PersistentIntMap<String> map = PersistentIntMap.<String>empty().put(7, "sieben");
+
+        assertSame(map, map.put(7, "sieben"));
+        assertSame(map, map.remove(8));
+    }
+
+    public void testMatchesHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentIntMap<Integer> map = PersistentIntMap.empty();
+        for (int currentStep = 0; currentStep < 20000; currentStep++) {
+            // Few distinct keys with all bits used, so keys collide on several levels and get removed again.
+            int key = random.nextInt(2000) * 0x9E3779B1;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                expected.put(key, currentStep);
+                map = map.put(key, currentStep);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> currentEntry : expected.entrySet()) {
+            assertEquals(currentEntry.getValue(), map.get(currentEntry.getKey()));
+        }
+        final Map<Integer, Integer> visited = new HashMap<>();
+        map.forEach(new PersistentIntMap.Visitor<Integer>() {
+            @Override
+            public void visit(int _key, Integer _value) {
+                visited.put(_key, _value);
+            }
+        });
+        assertEquals(expected, visited);
+    }
+
+    public void testDiff() throws Exception {
+        PersistentIntMap<String> from = PersistentIntMap.empty();
+        for (int currentKey = 0; currentKey < 1000; currentKey++) {
+            from = from.put(currentKey * 7919, "value " + currentKey);
+        }
+        PersistentIntMap<String> to = from.remove(7919).put(2 * 7919, "changed").put(-1, "added");
+
+        final StringBuilder differences = new StringBuilder();
+        PersistentIntMap.diff(from, to, new PersistentIntMap.DiffVisitor<String>() {
+            @Override
+            public void onDifference(int _key, String _fromValue, String _toValue) {
+                differences.append(_key).append(':').append(_fromValue).append("->").append(_toValue).append(';');
+            }
+        });
+
+        String result = differences.toString();
+        assertTrue(result, result.contains("7919:value 1->null;"));
+        assertTrue(result, result.contains("15838:value 2->changed;"));
+        assertTrue(result, result.contains("-1:null->added;"));
+        assertEquals(result, 3, result.split(";").length);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.JdbcSqlDatabase;
+import org.noorganization.shoppinglist.model.storage.SqlStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.io.File;
+import java.util.Locale;
+
+public class ProductPagesTest extends TestCase {
+
+    private static final int PRODUCT_COUNT = 1000;
+
+    ModelManager    m_model;
+    StorageProvider m_storage;
+    File            m_dbFile;
+    Unit            m_unit;
+    ShoppingList    m_list;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        ModelManager.m_sInstance = null;
+        m_model  = ModelManager.getInstance();
+        m_dbFile = File.createTempFile("ProductPagesTest", ".db");
+        SqlStorage sqlStorage = new SqlStorage(JdbcSqlDatabase.openSqlite(m_dbFile.getPath()));
+        m_storage = m_model.load(sqlStorage);
+
+        m_unit = m_model.createUnit("kg", m_storage);
+        m_list = m_model.createShoppingList("Wocheneinkauf", m_storage);
+        // Titles repeat, so the order by id decides within a title.
+        for (int currentIndex = 0; currentIndex < PRODUCT_COUNT; currentIndex++) {
+            Product newProduct = m_model.createProduct(titleOf(currentIndex), 1.0f,
+                    (currentIndex % 10 == 0 ? m_unit.Id : ModelManager.INVALID_ID), m_storage);
+            if (currentIndex % 4 == 0) {
+                m_list.ListEntries.put(newProduct.Id, 1.0f);
+            }
+        }
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+    }
+
+    public void tearDown() throws Exception {
+        ModelManager.m_sInstance = null;
+        m_storage.close();
+        assertTrue(m_dbFile.delete());
+
+        super.tearDown();
+    }
+
+    private static String titleOf(int _index) {
+        return String.format(Locale.US, "Produkt %03d", _index % 300);
+    }
+
+    public void testPagedViewMatchesMemory() throws Exception {
+        ProductPages inMemory = m_model.getProductPages(ModelManager.INVALID_ID);
+        String expected = describe(inMemory);
+
+        m_model.loadPaged(m_storage);
+        assertTrue(m_model.isPaged());
+        ProductPages paged = m_model.getProductPages(ModelManager.INVALID_ID, 16, 4);
+        assertEquals(PRODUCT_COUNT, paged.size());
+        assertEquals(expected, describe(paged));
+        assertTrue(paged.getCachedPageCount() <= 4);
+
+        for (int currentPosition = 1; currentPosition < paged.size(); currentPosition++) {
+            int titleOrder = paged.getTitleAt(currentPosition - 1).compareTo(paged.getTitleAt(currentPosition));
+            assertTrue(titleOrder < 0 || (titleOrder == 0 &&
+                    paged.getIdAt(currentPosition - 1) < paged.getIdAt(currentPosition)));
+        }
+    }
+
+    public void testExcludedList() throws Exception {
+        String expected = describe(m_model.getProductPages(m_list.Id));
+
+        m_model.loadPaged(m_storage);
+        ProductPages paged = m_model.getProductPages(m_list.Id, 16, 4);
+        assertEquals(PRODUCT_COUNT - m_list.ListEntries.size(), paged.size());
+        assertEquals(expected, describe(paged));
+        for (int currentPosition = 0; currentPosition < paged.size(); currentPosition++) {
+            assertTrue(m_list.ListEntries.indexOfKey(paged.getIdAt(currentPosition)) < 0);
+        }
+    }
+
+    public void testCacheIsBoundedAndReused() throws Exception {
+        m_model.loadPaged(m_storage);
+        ProductPages paged = m_model.getProductPages(ModelManager.INVALID_ID, 10, 3);
+
+        paged.getIdAt(0);
+        paged.getIdAt(9);
+        assertEquals(1, paged.getLoadCount());
+        paged.getIdAt(10);
+        paged.getIdAt(20);
+        paged.getIdAt(30);
+        assertEquals(4, paged.getLoadCount());
+        assertEquals(3, paged.getCachedPageCount());
+        paged.getIdAt(0);
+        assertEquals(5, paged.getLoadCount());
+
+        try {
+            paged.getIdAt(PRODUCT_COUNT);
+            fail("Position behind the end was served.");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testChangesInvalidatePages() throws Exception {
+        m_model.loadPaged(m_storage);
+        ProductPages paged = m_model.getProductPages(ModelManager.INVALID_ID, 16, 4);
+        assertEquals("Produkt 000", paged.getTitleAt(0));
+
+        Product first = m_model.createProduct("Apfel", 2.0f, ModelManager.INVALID_ID, m_storage);
+        assertEquals(PRODUCT_COUNT + 1, paged.size());
+        assertEquals("Apfel", paged.getTitleAt(0));
+        assertEquals(first.Id, paged.getIdAt(0));
+    }
+
+    public void testMemoryOrderFollowsProductChanges() throws Exception {
+        ProductPages inMemory = m_model.getProductPages(ModelManager.INVALID_ID, 16, 4);
+        describe(inMemory);
+
+        Product held[] = m_model.getAllProducts();
+        Product created = m_model.createProduct("Produkt 150", 1.0f, ModelManager.INVALID_ID, m_storage);
+        Product renamed = held[500];
+        renamed.Title = "Apfel";
+        assertTrue(m_model.updateProduct(renamed, m_storage));
+        Product revalued = held[501];
+        revalued.DefaultValue = 3.0f;
+        assertTrue(m_model.updateProduct(revalued, m_storage));
+        m_model.deleteProduct(held[502], m_storage);
+        ShoppingList list = m_model.getShoppingListById(m_list.Id);
+        list.ListEntries.put(created.Id, 2.0f);
+        assertTrue(m_model.updateShoppingList(list, m_storage));
+
+        assertEquals(PRODUCT_COUNT, inMemory.size());
+        assertEquals("Apfel", inMemory.getTitleAt(0));
+        assertEquals(describe(m_model.getProductPages(ModelManager.INVALID_ID)), describe(inMemory));
+    }
+
+    public void testModelOperationsInPagedMode() throws Exception {
+        m_model.loadPaged(m_storage);
+        assertEquals(1, m_model.getCountOfShoppingLists());
+        assertEquals(PRODUCT_COUNT / 4, m_model.getShoppingListById(m_list.Id).ListEntries.size());
+
+        Product created = m_model.createProduct("Zucker", 1.0f, m_unit.Id, m_storage);
+        assertEquals("Zucker", m_model.getProductById(created.Id).Title);
+        created.Title = "Rohrzucker";
+        assertTrue(m_model.updateProduct(created, m_storage));
+        assertEquals("Rohrzucker", m_model.getProductById(created.Id).Title);
+        assertEquals(PRODUCT_COUNT + 1, m_model.getAllProducts().length);
+
+        m_model.deleteUnit(m_unit, m_storage);
+        assertNull(m_model.getProductById(created.Id));
+        assertEquals(PRODUCT_COUNT - PRODUCT_COUNT / 10, m_model.getProductPages(ModelManager.INVALID_ID).size());
+        // Every fourth Product is on the list; every twentieth one had the Unit.
+        assertEquals(PRODUCT_COUNT / 4 - PRODUCT_COUNT / 20,
+                m_model.getShoppingListById(m_list.Id).ListEntries.size());
+
+        assertFalse(m_model.canUndo());
+        try {
+            m_model.getProductStore();
+            fail("ProductStore was served in paged mode.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            m_model.beginRead();
+            fail("Read transaction started in paged mode.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        m_model.load(m_storage);
+        assertFalse(m_model.isPaged());
+        assertEquals(PRODUCT_COUNT - PRODUCT_COUNT / 10, m_model.getProductStore().size());
+    }
+
+    public void testStorageWithoutPagingIsRejected() throws Exception {
+        try {
+            m_model.loadPaged(null);
+            fail("Missing storage was accepted.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(m_model.isPaged());
+        m_model.loadPaged(new InMemoryStorage());
+        assertTrue(m_model.isPaged());
+    }
+
+    private static String describe(ProductPages _pages) {
+        StringBuilder rtn = new StringBuilder();
+        for (int currentPosition = 0; currentPosition < _pages.size(); currentPosition++) {
+            rtn.append(_pages.getIdAt(currentPosition)).append(' ').append(_pages.getTitleAt(currentPosition))
+                    .append(' ').append(_pages.getUnitIdAt(currentPosition)).append('\n');
+        }
+        return rtn.toString();
+    }
+}
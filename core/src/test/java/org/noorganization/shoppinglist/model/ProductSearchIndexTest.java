@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class ProductSearchIndexTest extends TestCase {
+
+    ModelManager    m_model;
+    StorageProvider m_storage;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        ModelManager.m_sInstance = null;
+        m_model   = ModelManager.getInstance();
+        m_storage = m_model.load(new InMemoryStorage());
+    }
+
+    public void tearDown() throws Exception {
+        ModelManager.m_sInstance = null;
+
+        super.tearDown();
+    }
+
+    public void testNormalize() throws Exception {
+        assertEquals("suesskartoffel", ProductSearchIndex.normalize("S\u00fc\u00dfkartoffel"));
+        assertEquals("oel aepfel", ProductSearchIndex.normalize("\u00d6L,  \u00c4pfel!"));
+        assertEquals("creme fraiche", ProductSearchIndex.normalize("Cr\u00e8me fra\u00eeche"));
+        assertEquals("", ProductSearchIndex.normalize(" - "));
+    }
+
+    public void testTrigrams() throws Exception {
+        // " ab", "abc", "bc " and " x " - nothing spans two words.
+        assertEquals(4, ProductSearchIndex.trigramsOf("abc x").length);
+        // Repeated trigrams are counted once.
+        assertEquals(3, ProductSearchIndex.trigramsOf("aaaa").length);
+        assertEquals(0, ProductSearchIndex.trigramsOf("").length);
+    }
+
+    public void testFindsCompoundsAndTypos() throws Exception {
+        Product bread = m_model.createProduct("Brot", 1.0f, ModelManager.INVALID_ID, m_storage);
+        Product wholeGrain = m_model.createProduct("Vollkornbrot", 1.0f, ModelManager.INVALID_ID, m_storage);
+        Product sweetPotato = m_model.createProduct("S\u00fc\u00dfkartoffel", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_model.createProduct("Milch", 1.0f, ModelManager.INVALID_ID, m_storage);
+
+        assertIds(m_model.searchProducts("brot", 10), bread.Id, wholeGrain.Id);
+        assertIds(m_model.searchProducts("Volkornbrot", 10), wholeGrain.Id);
+        assertIds(m_model.searchProducts("suesskartofel", 10), sweetPotato.Id);
+        assertIds(m_model.searchProducts("brot", 1), bread.Id);
+        assertIds(m_model.searchProducts("Zucker", 10));
+        assertIds(m_model.searchProducts("", 10));
+    }
+
+    public void testIndexFollowsChanges() throws Exception {
+        m_model.setHistoryLimit(ModelManager.DEFAULT_HISTORY_LIMIT);
+        Product bread = m_model.createProduct("Brot", 1.0f, ModelManager.INVALID_ID, m_storage);
+        assertEquals(1, m_model.getSearchIndex().size());
+
+        bread.Title = "Semmel";
+        assertTrue(m_model.updateProduct(bread, m_storage));
+        assertIds(m_model.searchProducts("brot", 10));
+        assertIds(m_model.searchProducts("semmel", 10), bread.Id);
+
+        assertTrue(m_model.undo(m_storage));
+        assertIds(m_model.searchProducts("brot", 10), bread.Id);
+        assertIds(m_model.searchProducts("semmel", 10));
+
+        Unit unit = m_model.createUnit("Stk", m_storage);
+        Product roll = m_model.createProduct("Br\u00f6tchen", 1.0f, unit.Id, m_storage);
+        assertIds(m_model.searchProducts("broetchen", 10), roll.Id);
+        m_model.deleteUnit(unit, m_storage);
+        m_model.deleteProduct(bread, m_storage);
+        assertEquals(0, m_model.getSearchIndex().size());
+        assertEquals(0, m_model.getSearchIndex().getTrigramCount());
+    }
+
+    public void testPagedMode() throws Exception {
+        Product bread = m_model.createProduct("Vollkornbrot", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_model.loadPaged(m_storage);
+
+        assertIds(m_model.searchProducts("brot", 10), bread.Id);
+        bread.Title = "Roggenbrot";
+        assertTrue(m_model.updateProduct(bread, m_storage));
+        assertIds(m_model.searchProducts("vollkorn", 10));
+        m_model.deleteProduct(bread, m_storage);
+        assertEquals(0, m_model.getSearchIndex().size());
+    }
+
+    public void testMatchesFullScan() throws Exception {
+        Random random = new Random(42);
+        String syllables[] = { "brot", "voll", "korn", "milch", "k\u00e4se", "wurst", "apfel", "saft", "s\u00fc\u00df" };
+        for (int currentProduct = 0; currentProduct < 2000; currentProduct++) {
+            String title = syllables[random.nextInt(syllables.length)] + syllables[random.nextInt(syllables.length)];
+            m_model.createProduct(title, 1.0f, ModelManager.INVALID_ID, m_storage);
+        }
+        // Removed documents are reused afterwards.
+        for (Product currentProduct : m_model.getAllProducts()) {
+            if (random.nextInt(4) == 0) {
+                m_model.deleteProduct(currentProduct, m_storage);
+            }
+        }
+        m_model.getSearchIndex();
+        for (int currentProduct = 0; currentProduct < 200; currentProduct++) {
+            m_model.createProduct(syllables[random.nextInt(syllables.length)], 1.0f, ModelManager.INVALID_ID,
+                    m_storage);
+        }
+
+        long queryTrigrams[] = ProductSearchIndex.trigramsOf(ProductSearchIndex.normalize("K\u00e4sebrot"));
+        int expectedCount = 0;
+        for (Product currentProduct : m_model.getAllProducts()) {
+            long titleTrigrams[] = ProductSearchIndex.trigramsOf(ProductSearchIndex.normalize(currentProduct.Title));
+            int sharedCount = 0;
+            for (long currentTrigram : queryTrigrams) {
+                if (Arrays.binarySearch(titleTrigrams, currentTrigram) >= 0) {
+                    sharedCount++;
+                }
+            }
+            if (sharedCount * 2 >= queryTrigrams.length) {
+                expectedCount++;
+            }
+        }
+        assertEquals(expectedCount, m_model.searchProducts("K\u00e4sebrot", Integer.MAX_VALUE).length);
+    }
+
+    private static void assertIds(int _actualIds[], int... _expectedIds) {
+        assertEquals(Arrays.toString(_expectedIds), Arrays.toString(_actualIds));
+    }
+}
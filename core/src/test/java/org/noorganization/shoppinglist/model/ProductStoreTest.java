@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+public class ProductStoreTest extends TestCase {
+
+    ProductStore m_store;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        m_store = new ProductStore();
+        m_store.put(createProduct(5, "Milch", 1.0f, 3));
+        m_store.put(createProduct(-7, "Reis", 2.0f, 1));
+        m_store.put(createProduct(2, "Milch", 0.5f, 1));
+    }
+
+    private static Product createProduct(int _id, String _title, float _defaultValue, int _unitId) {
+        Product rtn = new Product();
+        rtn.Id           = _id;
+        rtn.Title        = _title;
+        rtn.DefaultValue = _defaultValue;
+        rtn.UnitId       = _unitId;
+        return rtn;
+    }
+
+    public void testPutKeepsIdOrder() throws Exception {
+        assertEquals(3, m_store.size());
+        assertEquals(-7, m_store.idAt(0));
+        assertEquals(2, m_store.idAt(1));
+        assertEquals(5, m_store.idAt(2));
+
+        assertEquals("Reis", m_store.titleAt(0));
+        assertEquals(0.5f, m_store.defaultValueAt(1), 0.001f);
+        assertEquals(3, m_store.unitIdAt(2));
+    }
+
+    public void testPutReplacesExisting() throws Exception {
+        m_store.put(createProduct(2, "Vollmilch", 1.5f, ModelManager.INVALID_ID));
+
+        assertEquals(3, m_store.size());
+        int index = m_store.indexOfId(2);
+        assertEquals("Vollmilch", m_store.titleAt(index));
+        assertEquals(1.5f, m_store.defaultValueAt(index), 0.001f);
+        assertEquals(ModelManager.INVALID_ID, m_store.unitIdAt(index));
+        assertEquals("Milch", m_store.titleAt(m_store.indexOfId(5)));
+    }
+
+    public void testRemove() throws Exception {
+        assertTrue(m_store.remove(2));
+        assertFalse(m_store.remove(2));
+
+        assertEquals(2, m_store.size());
+        assertTrue(m_store.indexOfId(2) < 0);
+        assertEquals(5, m_store.idAt(1));
+        assertEquals(m_store.indexOfId(5), m_store.indexOfTitle("Milch"));
+
+        assertTrue(m_store.remove(5));
+        assertTrue(m_store.indexOfTitle("Milch") < 0);
+    }
+
+    public void testGetIdsByUnit() throws Exception {
+        int idsOfUnit1[] = m_store.getIdsByUnit(1);
+        assertEquals(2, idsOfUnit1.length);
+        assertEquals(-7, idsOfUnit1[0]);
+        assertEquals(2, idsOfUnit1[1]);
+
+        assertEquals(0, m_store.getIdsByUnit(42).length);
+    }
+
+    public void testGetCopies() throws Exception {
+        Product copy = m_store.get(m_store.indexOfId(-7));
+        assertEquals(-7, copy.Id);
+        assertEquals("Reis", copy.Title);
+        assertEquals(2.0f, copy.DefaultValue, 0.001f);
+        assertEquals(1, copy.UnitId);
+        assertNotSame(copy, m_store.get(m_store.indexOfId(-7)));
+    }
+
+    public void testTitlesAreFoundAfterRemovals() throws Exception {
+        for (int currentId = 100; currentId < 3100; currentId++) {
+            m_store.put(createProduct(currentId, "Produkt " + currentId, 1.0f, 1));
+        }
+        for (int currentId = 100; currentId < 3100; currentId += 3) {
+            assertTrue(m_store.remove(currentId));
+        }
+
+        for (int currentId = 100; currentId < 3100; currentId++) {
+            int index = m_store.indexOfTitle("Produkt " + currentId);
+            if ((currentId - 100) % 3 == 0) {
+                assertTrue(index < 0);
+            } else {
+                assertEquals(currentId, m_store.idAt(index));
+            }
+        }
+        assertTrue(m_store.indexOfTitle("Produkt 99") < 0);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.storage.ConsumptionStore;
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.PurchaseHistoryStore;
+
+public class PurchaseHistoryTest extends TestCase {
+
+    /**
+     * Sums up the passed purchases.
+     */
+    private static class Sum implements PurchaseHistoryStore.PurchaseCallback {
+        int    m_rowCount;
+        int    m_purchaseCount;
+        double m_valueSum;
+
+        @Override
+        public void onPurchases(int _productId, long _startMillis, long _spanMillis, int _count, double _valueSum) {
+            m_rowCount++;
+            m_purchaseCount += _count;
+            m_valueSum      += _valueSum;
+        }
+    }
+
+    ModelManager    m_model;
+    InMemoryStorage m_storage;
+    PurchaseHistory m_history;
+    Product         m_milk;
+    Product         m_rice;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        ModelManager.m_sInstance = null;
+        m_model   = ModelManager.getInstance();
+        m_storage = new InMemoryStorage();
+        m_model.load(m_storage);
+        m_milk    = m_model.createProduct("Milch", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_rice    = m_model.createProduct("Reis", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_history = new PurchaseHistory(m_storage);
+    }
+
+    public void tearDown() throws Exception {
+        ModelManager.m_sInstance = null;
+
+        super.tearDown();
+    }
+
+    public void testRecordQueuesWorkOnce() throws Exception {
+        long now = System.currentTimeMillis();
+        assertTrue(m_history.record(m_milk.Id, now - 2000, 1.0f));
+        assertFalse(m_history.record(m_milk.Id, now - 1000, 1.0f));
+        assertEquals(2, m_history.getPendingCount());
+        assertEquals(0, m_storage.countPurchaseRows());
+
+        while (m_history.runChunk()) {
+            // Until the work is done.
+        }
+        assertEquals(0, m_history.getPendingCount());
+        assertEquals(2, m_storage.countPurchaseRows());
+        assertTrue(m_history.record(m_milk.Id, now, 1.0f));
+    }
+
+    public void testStatisticsAreSavedByTheWork() throws Exception {
+        final int savedCounts[] = new int[] { 0, 0 };
+        ConsumptionStore.ConsumptionCallback countSaved = new ConsumptionStore.ConsumptionCallback() {
+            @Override
+            public void onConsumption(int _productId, int _purchaseCount, long _lastPurchaseMillis, float _lastValue,
+                                      double _intervalMean, double _intervalSquaredDeviations, double _valueMean) {
+                savedCounts[0]++;
+                savedCounts[1] = _purchaseCount;
+            }
+        };
+        PurchaseHistory history = new PurchaseHistory(m_storage, m_storage);
+        long now = System.currentTimeMillis();
+
+        assertTrue(history.record(m_milk.Id, now - 2 * PurchaseHistory.DAY_MILLIS, 1.0f,
+                m_model.countPurchase(m_milk.Id, now - 2 * PurchaseHistory.DAY_MILLIS, 1.0f)));
+        assertFalse(history.record(m_milk.Id, now, 1.0f, m_model.countPurchase(m_milk.Id, now, 1.0f)));
+        assertNull(m_model.countPurchase(42, now, 1.0f));
+        assertEquals(3, history.getPendingCount());
+        m_storage.loadConsumption(countSaved);
+        assertEquals(0, savedCounts[0]);
+
+        while (history.runChunk()) {
+            // Until the work is done.
+        }
+        m_storage.loadConsumption(countSaved);
+        assertEquals(1, savedCounts[0]);
+        assertEquals(2, savedCounts[1]);
+    }
+
+    public void testChunksAreBounded() throws Exception {
+        for (int currentPurchase = 0; currentPurchase < PurchaseHistory.CHUNK_SIZE + 1; currentPurchase++) {
+            m_history.record(m_rice.Id, currentPurchase, 1.0f);
+        }
+        assertTrue(m_history.runChunk());
+        assertEquals(1, m_history.getPendingCount());
+        assertEquals(PurchaseHistory.CHUNK_SIZE, m_storage.countPurchaseRows());
+    }
+
+    public void testQueriesIncludePending() throws Exception {
+        m_history.record(m_milk.Id, 1000, 1.0f);
+        m_history.flush();
+        m_history.record(m_milk.Id, 5000, 2.0f);
+        m_history.record(m_rice.Id, 6000, 4.0f);
+
+        assertEquals(5000, m_history.getLastPurchaseMillis(m_milk.Id));
+        assertEquals(PurchaseHistory.NEVER, m_history.getLastPurchaseMillis(42));
+        Sum milk = new Sum();
+        m_history.readPurchases(m_milk.Id, 0, 6000, milk);
+        assertEquals(2, milk.m_purchaseCount);
+        assertEquals(3.0, milk.m_valueSum, 0.001);
+    }
+
+    public void testDeletedProductIsDropped() throws Exception {
+        m_history.record(m_milk.Id, 1000, 1.0f);
+        m_history.record(m_rice.Id, 2000, 1.0f);
+        m_model.deleteProduct(m_milk, m_storage);
+
+        m_history.flush();
+        assertEquals(0, m_history.getPendingCount());
+        assertEquals(1, m_storage.countPurchaseRows());
+        assertEquals(2000, m_history.getLastPurchaseMillis(m_rice.Id));
+    }
+
+    public void testCompactionBoundsRows() throws Exception {
+        long now = 3000 * PurchaseHistory.DAY_MILLIS;
+        // Three purchases a day, for eight years.
+        for (long currentTime = now - 8 * 365 * PurchaseHistory.DAY_MILLIS; currentTime < now;
+             currentTime += PurchaseHistory.DAY_MILLIS / 3) {
+            m_history.record(m_milk.Id, currentTime, 1.0f);
+        }
+        m_history.flush();
+        m_history.compact(now);
+
+        int maxRows = 3 * 31 + 366 + 5 * 53 + 4;
+        assertTrue(m_storage.countPurchaseRows() <= maxRows);
+        Sum recent = new Sum();
+        m_history.readPurchases(m_milk.Id, now - 7 * PurchaseHistory.DAY_MILLIS, now, recent);
+        assertEquals(21, recent.m_purchaseCount);
+        assertEquals(recent.m_purchaseCount, recent.m_rowCount);
+        Sum all = new Sum();
+        m_history.readPurchases(m_milk.Id, 0, now, all);
+        assertEquals(m_storage.countPurchaseRows(), all.m_rowCount);
+        assertTrue(all.m_purchaseCount < 3 * 8 * 365);
+        assertTrue(all.m_purchaseCount > 3 * 5 * 365);
+    }
+
+    public void testCompactionIsBackgroundWork() throws Exception {
+        long now = System.currentTimeMillis();
+        m_history.record(m_milk.Id, now - 60 * PurchaseHistory.DAY_MILLIS, 1.0f);
+        m_history.record(m_milk.Id, now - 60 * PurchaseHistory.DAY_MILLIS + 1, 1.0f);
+
+        int chunkCount = 0;
+        while (m_history.runChunk()) {
+            chunkCount++;
+        }
+        // One write, then the three compaction steps.
+        assertEquals(4, chunkCount);
+        assertEquals(1, m_storage.countPurchaseRows());
+
+        // The next compaction is due tomorrow.
+        m_history.record(m_rice.Id, now, 1.0f);
+        assertTrue(m_history.runChunk());
+        assertFalse(m_history.runChunk());
+    }
+
+    public void testCompactionChunksAreBounded() throws Exception {
+        for (int currentProduct = 0; currentProduct < PurchaseHistory.COMPACTION_PRODUCT_COUNT; currentProduct++) {
+            m_model.createProduct("Produkt " + currentProduct, 1.0f, ModelManager.INVALID_ID, m_storage);
+        }
+        long now = System.currentTimeMillis();
+        // Two purchases of each Product on the same day, in two write chunks.
+        Product products[] = m_model.getAllProducts();
+        for (Product currentProduct : products) {
+            m_history.record(currentProduct.Id, now - 60 * PurchaseHistory.DAY_MILLIS, 1.0f);
+        }
+        for (Product currentProduct : products) {
+            m_history.record(currentProduct.Id, now - 60 * PurchaseHistory.DAY_MILLIS + 1, 1.0f);
+        }
+
+        int chunkCount = 0;
+        while (m_history.runChunk()) {
+            chunkCount++;
+        }
+        // Then the three compaction steps, each for two groups of Products.
+        assertEquals(products.length * 2 / PurchaseHistory.CHUNK_SIZE + 1 + 3 * 2, chunkCount);
+        assertEquals(products.length, m_storage.countPurchaseRows());
+        Sum milk = new Sum();
+        m_history.readPurchases(m_milk.Id, 0, now, milk);
+        assertEquals(1, milk.m_rowCount);
+        assertEquals(2, milk.m_purchaseCount);
+    }
+
+    public void testLastCompactionIsKept() throws Exception {
+        long now = System.currentTimeMillis();
+        assertEquals(0, m_history.getLastCompactionMillis());
+        m_history.setLastCompactionMillis(now - PurchaseHistory.DAY_MILLIS / 2);
+
+        m_history.record(m_milk.Id, now, 1.0f);
+        assertTrue(m_history.runChunk());
+        assertFalse(m_history.runChunk());
+        assertEquals(now - PurchaseHistory.DAY_MILLIS / 2, m_history.getLastCompactionMillis());
+
+        m_history.compact(now);
+        assertEquals(now, m_history.getLastCompactionMillis());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.Arrays;
+
+public class ReadTransactionTest extends TestCase {
+
+    ModelManager    m_model;
+    StorageProvider m_storage;
+    Product         m_rice;
+    ShoppingList    m_list;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        ModelManager.m_sInstance = null;
+        m_model   = ModelManager.getInstance();
+        m_storage = m_model.load(new InMemoryStorage());
+
+        m_rice = m_model.createProduct("Reis", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_list = m_model.createShoppingList("Wocheneinkauf", m_storage);
+        m_list.ListEntries.put(m_rice.Id, 0.5f);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+    }
+
+    public void tearDown() throws Exception {
+        ModelManager.m_sInstance = null;
+
+        super.tearDown();
+    }
+
+    public void testReaderSeesPinnedState() throws Exception {
+        ReadTransaction transaction = m_model.beginRead();
+
+        m_list.ListEntries.put(m_rice.Id, 2.0f);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+        m_model.createProduct("Milch", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_model.deleteShoppingList(m_list, m_storage);
+
+        assertEquals(1, transaction.getCountOfProducts());
+        assertEquals(0.5f, transaction.getShoppingListById(m_list.Id).ListEntries.get(m_rice.Id), 0.001f);
+        assertEquals("Reis", transaction.getAllProducts()[0].Title);
+        assertEquals(2, m_model.getAllProducts().length);
+        assertNull(m_model.getShoppingListById(m_list.Id));
+
+        ReadTransaction laterTransaction = m_model.beginRead();
+        assertEquals(2, laterTransaction.getCountOfProducts());
+        assertEquals(0, laterTransaction.getCountOfShoppingLists());
+        laterTransaction.close();
+        transaction.close();
+    }
+
+    public void testCopiesAreIndependent() throws Exception {
+        ReadTransaction transaction = m_model.beginRead();
+
+        transaction.getShoppingListById(m_list.Id).ListEntries.clear();
+        transaction.getProductById(m_rice.Id).Title = "Mehl";
+
+        assertEquals(1, transaction.getShoppingListById(m_list.Id).ListEntries.size());
+        assertEquals("Reis", transaction.getProductById(m_rice.Id).Title);
+        transaction.close();
+    }
+
+    public void testFieldsAreReadInPlace() throws Exception {
+        Unit kilos = m_model.createUnit("kg", m_storage);
+        Product flour = m_model.createProduct("Mehl", 2.0f, kilos.Id, m_storage);
+        m_list.ListEntries.put(flour.Id, 1.5f);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+        ReadTransaction transaction = m_model.beginRead();
+        m_model.deleteProduct(flour, m_storage);
+        // Ids are random, but returned in ascending order.
+        int productIds[] = { m_rice.Id, flour.Id };
+        Arrays.sort(productIds);
+
+        assertEquals(Arrays.toString(productIds), Arrays.toString(transaction.getProductIds()));
+        assertEquals(Arrays.toString(new int[] { kilos.Id }), Arrays.toString(transaction.getUnitIds()));
+        assertEquals(Arrays.toString(new int[] { m_list.Id }), Arrays.toString(transaction.getShoppingListIds()));
+        assertEquals(Arrays.toString(productIds), Arrays.toString(transaction.getListEntryProductIds(m_list.Id)));
+        assertEquals(0, transaction.getListEntryProductIds(42).length);
+        assertEquals("Mehl", transaction.getProductTitle(flour.Id));
+        assertEquals(2.0f, transaction.getProductDefaultValue(flour.Id), 0.001f);
+        assertEquals(kilos.Id, transaction.getProductUnitId(flour.Id));
+        assertEquals("kg", transaction.getUnitText(kilos.Id));
+        assertEquals("Wocheneinkauf", transaction.getShoppingListTitle(m_list.Id));
+        assertEquals(1.5f, transaction.getListEntryValue(m_list.Id, flour.Id), 0.001f);
+        assertTrue(Float.isNaN(transaction.getListEntryValue(m_list.Id, 42)));
+        assertNull(transaction.getProductTitle(42));
+        assertEquals(ModelManager.INVALID_ID, transaction.getProductUnitId(42));
+        transaction.close();
+    }
+
+    public void testVersionIsKeptAfterClose() throws Exception {
+        m_model.setHistoryLimit(0);
+        assertNull(m_model.m_history.getCurrent());
+
+        ReadTransaction transaction = m_model.beginRead();
+        assertEquals(1, m_model.getOpenReadCount());
+        m_model.deleteProduct(m_rice, m_storage);
+        assertNotNull(m_model.m_history.getCurrent());
+
+        transaction.close();
+        transaction.close();
+        assertEquals(0, m_model.getOpenReadCount());
+        Unit kilo = m_model.createUnit("kg", m_storage);
+        assertNotNull(m_model.m_history.getCurrent());
+        assertTrue(m_model.m_history.getCurrent().Units.containsKey(kilo.Id));
+
+        try {
+            transaction.getAllUnits();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testReadAfterChangeCopiesNoProducts() throws Exception {
+        Product milk = m_model.createProduct("Milch", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_model.beginRead().close();
+        Product riceInVersion = m_model.m_history.getCurrent().Products.get(m_rice.Id);
+
+        milk.DefaultValue = 2.0f;
+        assertTrue(m_model.updateProduct(milk, m_storage));
+        ReadTransaction transaction = m_model.beginRead();
+
+        assertSame(riceInVersion, m_model.m_history.getCurrent().Products.get(m_rice.Id));
+        assertEquals(2.0f, transaction.getProductById(milk.Id).DefaultValue);
+        transaction.close();
+    }
+
+    public void testReadingOnAnotherThread() throws Exception {
+        final ReadTransaction transaction = m_model.beginRead();
+        final int productCount[] = new int[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                productCount[0] = transaction.getAllProducts().length;
+                transaction.close();
+            }
+        });
+        reader.start();
+        for (int currentProduct = 0; currentProduct < 100; currentProduct++) {
+            m_model.createProduct("Produkt " + currentProduct, 1.0f, ModelManager.INVALID_ID, m_storage);
+        }
+        reader.join();
+
+        assertEquals(1, productCount[0]);
+        assertEquals(0, m_model.getOpenReadCount());
+    }
+}
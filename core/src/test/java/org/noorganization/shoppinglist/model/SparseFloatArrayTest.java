@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+public class SparseFloatArrayTest extends TestCase {
+
+    public void testPutKeepsKeysSorted() throws Exception {
+        SparseFloatArray testArray = new SparseFloatArray(1);
+        testArray.put(5, 5.0f);
+        testArray.put(-3, -3.0f);
+        testArray.append(9, 9.0f);
+        testArray.append(1, 1.0f);
+        testArray.put(5, 6.0f);
+
+        assertEquals(4, testArray.size());
+        assertEquals(-3, testArray.keyAt(0));
+        assertEquals(1, testArray.keyAt(1));
+        assertEquals(5, testArray.keyAt(2));
+        assertEquals(9, testArray.keyAt(3));
+        assertEquals(6.0f, testArray.valueAt(2), 0.001f);
+    }
+
+    public void testGetAndDelete() throws Exception {
+        SparseFloatArray testArray = new SparseFloatArray();
+        testArray.put(2, 2.0f);
+        testArray.put(4, 4.0f);
+
+        assertEquals(2.0f, testArray.get(2), 0.001f);
+        assertEquals(0.0f, testArray.get(3), 0.001f);
+        assertTrue(Float.isNaN(testArray.get(3, Float.NaN)));
+
+        testArray.delete(2);
+        testArray.remove(3);
+        assertEquals(1, testArray.size());
+        assertTrue(testArray.indexOfKey(2) < 0);
+        assertEquals(0, testArray.indexOfKey(4));
+    }
+
+    public void testCopyIsIndependent() throws Exception {
+        SparseFloatArray original = new SparseFloatArray();
+        original.put(1, 1.0f);
+        SparseFloatArray copy = new SparseFloatArray(original);
+        copy.put(2, 2.0f);
+        copy.setValueAt(0, 1.5f);
+
+        assertEquals(1, original.size());
+        assertEquals(1.0f, original.get(1), 0.001f);
+        assertEquals(2, copy.size());
+        assertEquals(1.5f, copy.get(1), 0.001f);
+    }
+
+    public void testCopySharesUntilChanged() throws Exception {
+        SparseFloatArray original = new SparseFloatArray();
+        original.put(1, 1.0f);
+        original.put(2, 2.0f);
+        SparseFloatArray copy = new SparseFloatArray(original);
+        SparseFloatArray secondCopy = new SparseFloatArray(original);
+        assertTrue(copy.sharesEntriesWith(original));
+
+        original.removeAt(0);
+        assertFalse(copy.sharesEntriesWith(original));
+        assertTrue(copy.sharesEntriesWith(secondCopy));
+        assertEquals(2, copy.size());
+        assertEquals(1.0f, copy.get(1), 0.001f);
+
+        copy.put(1, 1.5f);
+        assertEquals(1.0f, secondCopy.get(1), 0.001f);
+        assertEquals(1, original.size());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+public class StringPoolTest extends TestCase {
+
+    public void testIntern() throws Exception {
+        StringPool pool = new StringPool();
+
+        String firstKg = new String("kg");
+        String secondKg = new String("kg");
+        assertNotSame(firstKg, secondKg);
+
+        assertSame(firstKg, pool.intern(firstKg));
+        assertSame(firstKg, pool.intern(secondKg));
+        assertNull(pool.intern(null));
+
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.size());
+
+        pool.resetCounters();
+        assertEquals(0, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+    }
+
+    public void testSharedTitles() throws Exception {
+        ProductStore store = new ProductStore();
+        Product product = new Product();
+        product.Id    = 1;
+        product.Title = new String("Milch");
+        store.put(product);
+        product.Id    = 2;
+        product.Title = new String("Milch");
+        store.put(product);
+
+        assertSame(store.titleAt(0), store.titleAt(1));
+    }
+}
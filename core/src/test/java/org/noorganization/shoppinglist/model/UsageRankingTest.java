@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+public class UsageRankingTest extends TestCase {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    public void testRecentUseOutweighsOldUse() throws Exception {
+        UsageRanking ranking = new UsageRanking(2, 7 * DAY_MILLIS);
+        ranking.record(1, 0);
+        ranking.record(1, DAY_MILLIS);
+        ranking.record(1, 2 * DAY_MILLIS);
+        ranking.record(2, 30 * DAY_MILLIS);
+        ranking.record(3, 29 * DAY_MILLIS);
+
+        // Three uses four weeks ago are worth less than one use now.
+        assertEquals("[2, 3]", Arrays.toString(ranking.getTopProductIds()));
+        assertEquals(3, ranking.getUseCount(1));
+        assertEquals(1.0, ranking.getDecayedCount(2, 30 * DAY_MILLIS), 1e-9);
+        assertEquals(0.5, ranking.getDecayedCount(2, 37 * DAY_MILLIS), 1e-9);
+        assertEquals(0.0, ranking.getDecayedCount(4, 0), 0.0);
+    }
+
+    public void testScoresDoNotOverflow() throws Exception {
+        // 2^36500 is far beyond the range of doubles.
+        long now = 36500 * DAY_MILLIS;
+        UsageRanking ranking = new UsageRanking(1, DAY_MILLIS);
+        ranking.record(1, now);
+        ranking.record(1, now);
+        assertEquals(2.0, ranking.getDecayedCount(1, now), 1e-9);
+        assertEquals(1.0, ranking.getDecayedCount(1, now + DAY_MILLIS), 1e-9);
+    }
+
+    public void testTopMatchesSortingAll() throws Exception {
+        Random random = new Random(42);
+        UsageRanking ranking = new UsageRanking(10, 7 * DAY_MILLIS);
+        long now = 0;
+        for (int currentUse = 0; currentUse < 5000; currentUse++) {
+            now += random.nextInt((int) (DAY_MILLIS / 10));
+            // Some Products are used much more often than others.
+            int productId = (int) Math.abs(random.nextGaussian() * 40);
+            ranking.record(productId, now);
+            if (currentUse % 500 == 0) {
+                ranking.remove(random.nextInt(20));
+            }
+            if (currentUse % 100 == 0) {
+                assertEquals(Arrays.toString(topBySorting(ranking, 10)), Arrays.toString(ranking.getTopProductIds()));
+            }
+        }
+    }
+
+    public void testModelPersistsUsage() throws Exception {
+        ModelManager.m_sInstance = null;
+        ModelManager model = ModelManager.getInstance();
+        StorageProvider storage = model.load(new InMemoryStorage());
+        try {
+            Product rice = model.createProduct("Reis", 1.0f, ModelManager.INVALID_ID, storage);
+            Product milk = model.createProduct("Milch", 1.0f, ModelManager.INVALID_ID, storage);
+            assertTrue(model.recordUsage(rice.Id, 1000L, storage));
+            assertTrue(model.recordUsage(milk.Id, 2000L, storage));
+            assertTrue(model.recordUsage(milk.Id, 3000L, storage));
+            assertFalse(model.recordUsage(42, 3000L, storage));
+            assertEquals(1, model.recordUsages(new int[] { rice.Id, 42 }, 500L, storage));
+
+            model.load(storage);
+            assertEquals(Arrays.toString(new int[] { milk.Id, rice.Id }),
+                    Arrays.toString(model.getUsageRanking().getTopProductIds()));
+            assertEquals(2, model.getUsageRanking().getUseCount(milk.Id));
+
+            model.deleteProduct(milk, storage);
+            assertEquals(Arrays.toString(new int[] { rice.Id }),
+                    Arrays.toString(model.getUsageRanking().getTopProductIds()));
+            model.load(storage);
+            assertEquals(1, model.getUsageRanking().size());
+        } finally {
+            ModelManager.m_sInstance = null;
+        }
+    }
+
+    private static int[] topBySorting(UsageRanking _ranking, int _count) {
+        Integer allIds[] = new Integer[200];
+        int usedCount = 0;
+        for (int currentId = 0; currentId < allIds.length; currentId++) {
+            if (_ranking.getUseCount(currentId) > 0) {
+                allIds[usedCount] = currentId;
+                usedCount++;
+            }
+        }
+        final UsageRanking ranking = _ranking;
+        Integer usedIds[] = Arrays.copyOf(allIds, usedCount);
+        Arrays.sort(usedIds, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer _left, Integer _right) {
+                int scoreOrder = Double.compare(ranking.getScore(_right), ranking.getScore(_left));
+                return (scoreOrder != 0 ? scoreOrder : Integer.compare(_left, _right));
+            }
+        });
+        int rtn[] = new int[Math.min(_count, usedCount)];
+        for (int currentIndex = 0; currentIndex < rtn.length; currentIndex++) {
+            rtn[currentIndex] = usedIds[currentIndex];
+        }
+        return rtn;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+
+import java.io.File;
+
+public class DatabaseMaintenanceTest extends TestCase {
+
+    File       m_dbFile;
+    SqlStorage m_storage;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        m_dbFile  = File.createTempFile("DatabaseMaintenanceTest", ".db");
+        m_storage = new SqlStorage(JdbcSqlDatabase.openSqlite(m_dbFile.getPath()));
+    }
+
+    public void tearDown() throws Exception {
+        m_storage.close();
+        assertTrue(m_dbFile.delete());
+
+        super.tearDown();
+    }
+
+    public void testNewDatabaseIsIncremental() throws Exception {
+        assertEquals(2, queryInt("PRAGMA auto_vacuum"));
+        insertAndDeleteProducts(0);
+        int freePagesBefore = queryInt("PRAGMA freelist_count");
+        assertTrue(freePagesBefore > 0);
+
+        DatabaseMaintenance maintenance = new DatabaseMaintenance(m_storage);
+        runToEnd(maintenance);
+        DatabaseMaintenance.Report report = maintenance.getLastReport();
+
+        assertEquals(0, queryInt("PRAGMA freelist_count"));
+        assertEquals(freePagesBefore, report.FreePagesBefore);
+        assertEquals(0, report.FullVacuumNanos);
+        assertTrue(report.ChunkCount > 0);
+    }
+
+    public void testFreesPagesOfDeletedRows() throws Exception {
+        makeLegacy();
+        insertAndDeleteProducts(0);
+        assertEquals(0, queryInt("PRAGMA auto_vacuum"));
+        assertTrue(queryInt("PRAGMA freelist_count") >= DatabaseMaintenance.MIN_FREE_PAGES);
+
+        DatabaseMaintenance maintenance = new DatabaseMaintenance(m_storage);
+        maintenance.setMaxFullVacuumBytes(Long.MAX_VALUE);
+        assertNull(maintenance.getLastReport());
+        runToEnd(maintenance);
+        DatabaseMaintenance.Report report = maintenance.getLastReport();
+
+        assertEquals(2, queryInt("PRAGMA auto_vacuum"));
+        assertTrue(report.FullVacuumNanos > 0);
+        assertEquals(0, queryInt("PRAGMA freelist_count"));
+        assertEquals(1, queryInt("SELECT COUNT(*) FROM sqlite_master WHERE name = 'sqlite_stat1'"));
+        assertTrue(report.getFreedBytes() > 0);
+        assertEquals(report.PagesBefore - report.PagesAfter, (int) (report.getFreedBytes() / report.PageSize));
+        assertEquals(0, report.FreePagesAfter);
+        assertTrue(report.ChunkCount > 0);
+
+        // Now incrementally.
+        insertAndDeleteProducts(100000);
+        int pagesBefore = queryInt("PRAGMA page_count");
+        int freePagesBefore = queryInt("PRAGMA freelist_count");
+        assertTrue(freePagesBefore > 0);
+        runToEnd(maintenance);
+
+        assertEquals(0, queryInt("PRAGMA freelist_count"));
+        // Pointer map pages may be dropped, too.
+        assertTrue(queryInt("PRAGMA page_count") <= pagesBefore - freePagesBefore);
+        assertEquals(freePagesBefore, maintenance.getLastReport().FreePagesBefore);
+        assertNotSame(report, maintenance.getLastReport());
+        assertEquals(0, maintenance.getLastReport().FullVacuumNanos);
+    }
+
+    public void testLargeLegacyDatabaseIsNotRebuilt() throws Exception {
+        makeLegacy();
+        insertAndDeleteProducts(0);
+        int freePagesBefore = queryInt("PRAGMA freelist_count");
+
+        DatabaseMaintenance maintenance = new DatabaseMaintenance(m_storage);
+        maintenance.setMaxFullVacuumBytes(queryInt("PRAGMA page_count") * (long) queryInt("PRAGMA page_size") - 1);
+        runToEnd(maintenance);
+
+        assertEquals(0, queryInt("PRAGMA auto_vacuum"));
+        // The new statistics may take some of the free pages, but nothing was given back.
+        assertEquals(freePagesBefore, maintenance.getLastReport().FreePagesBefore);
+        assertTrue(queryInt("PRAGMA freelist_count") > 0);
+        assertEquals(0, maintenance.getLastReport().FullVacuumNanos);
+    }
+
+    public void testRunsOnceAtATime() throws Exception {
+        DatabaseMaintenance maintenance = new DatabaseMaintenance(m_storage);
+
+        assertTrue(maintenance.start());
+        assertTrue(maintenance.isRunning());
+        assertFalse(maintenance.start());
+        while (maintenance.runChunk()) {
+            // Until done.
+        }
+        assertFalse(maintenance.isRunning());
+        assertEquals(0, maintenance.getLastReport().FreePagesAfter);
+        assertEquals(0, maintenance.getLastReport().CheckpointedFrames);
+        assertTrue(maintenance.start());
+    }
+
+    /**
+     * Turns the new database into one created before incremental vacuum was enabled.
+     */
+    private void makeLegacy() {
+        m_storage.getDatabase().execute("PRAGMA auto_vacuum = NONE");
+        m_storage.getDatabase().execute("VACUUM");
+        assertEquals(0, queryInt("PRAGMA auto_vacuum"));
+    }
+
+    private void runToEnd(DatabaseMaintenance _maintenance) {
+        assertTrue(_maintenance.start());
+        while (_maintenance.runChunk()) {
+            // Until done.
+        }
+    }
+
+    private void insertAndDeleteProducts(int _firstId) {
+        BulkInsert bulkInsert = m_storage.beginBulkInsert();
+        for (int currentId = _firstId; currentId < _firstId + 5000; currentId++) {
+            bulkInsert.onProduct(currentId, "A product with a long enough title " + currentId, 1.0f,
+                    ModelManager.INVALID_ID);
+        }
+        assertTrue(bulkInsert.commit());
+        m_storage.getDatabase().execute("DELETE FROM Products WHERE id >= ?", _firstId + 100);
+    }
+
+    private int queryInt(String _sql) {
+        SqlCursor cursor = m_storage.getDatabase().query(_sql);
+        assertTrue(cursor.moveToNext());
+        int rtn = cursor.getInt(0);
+        cursor.close();
+        return rtn;
+    }
+}
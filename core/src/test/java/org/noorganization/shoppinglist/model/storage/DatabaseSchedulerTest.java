@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DatabaseSchedulerTest extends TestCase {
+
+    private List<String>   m_order;
+    private CountDownLatch m_workerBlocked;
+    private CountDownLatch m_workerMayGoOn;
+
+    public void setUp() throws Exception {
+        m_order         = new ArrayList<>();
+        m_workerBlocked = new CountDownLatch(1);
+        m_workerMayGoOn = new CountDownLatch(1);
+    }
+
+    public void testMostUrgentFirst() throws Exception {
+        DatabaseScheduler scheduler = new DatabaseScheduler("Test", 1, 10000, 1000);
+        CountDownLatch done = new CountDownLatch(3);
+        scheduler.execute(DatabaseScheduler.PRIORITY_BACKGROUND, blockWorker());
+        assertTrue(m_workerBlocked.await(5, TimeUnit.SECONDS));
+        scheduler.execute(DatabaseScheduler.PRIORITY_BACKGROUND, record("background", done));
+        scheduler.execute(DatabaseScheduler.PRIORITY_USER_VISIBLE, record("user visible", done));
+        scheduler.execute(DatabaseScheduler.PRIORITY_INTERACTIVE, record("interactive", done));
+        assertEquals(3, scheduler.getQueuedCount());
+        assertTrue(scheduler.hasQueuedMoreUrgent(DatabaseScheduler.PRIORITY_USER_VISIBLE));
+
+        m_workerMayGoOn.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("interactive", "user visible", "background"), order());
+        assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    public void testAgingPreventsStarvation() throws Exception {
+        DatabaseScheduler scheduler = new DatabaseScheduler("Test", 1, 1, 1000);
+        CountDownLatch done = new CountDownLatch(2);
+        scheduler.execute(DatabaseScheduler.PRIORITY_INTERACTIVE, blockWorker());
+        assertTrue(m_workerBlocked.await(5, TimeUnit.SECONDS));
+        scheduler.execute(DatabaseScheduler.PRIORITY_BACKGROUND, record("background", done));
+        Thread.sleep(20);
+        scheduler.execute(DatabaseScheduler.PRIORITY_INTERACTIVE, record("interactive", done));
+
+        m_workerMayGoOn.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("background", "interactive"), order());
+    }
+
+    public void testChunkedWorkGivesWay() throws Exception {
+        final DatabaseScheduler scheduler = new DatabaseScheduler("Test", 1, 10000, 10000);
+        final CountDownLatch done = new CountDownLatch(2);
+        scheduler.executeChunked(DatabaseScheduler.PRIORITY_BACKGROUND, new DatabaseScheduler.ChunkedWork() {
+            private int m_chunk = 0;
+
+            @Override
+            public boolean runChunk() {
+                record("chunk " + m_chunk, null).run();
+                if (m_chunk == 1) {
+                    scheduler.execute(DatabaseScheduler.PRIORITY_INTERACTIVE, record("interactive", done));
+                }
+                m_chunk++;
+                if (m_chunk == 3) {
+                    done.countDown();
+                    return false;
+                }
+                return true;
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("chunk 0", "chunk 1", "interactive", "chunk 2"), order());
+    }
+
+    public void testUnknownPriority() throws Exception {
+        DatabaseScheduler scheduler = new DatabaseScheduler("Test", 1, 10000, 1000);
+        try {
+            scheduler.execute(DatabaseScheduler.PRIORITY_BACKGROUND + 1, record("unknown", null));
+            fail("An unknown priority was accepted.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private Runnable blockWorker() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                m_workerBlocked.countDown();
+                try {
+                    m_workerMayGoOn.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    private Runnable record(final String _name, final CountDownLatch _done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (m_order) {
+                    m_order.add(_name);
+                }
+                if (_done != null) {
+                    _done.countDown();
+                }
+            }
+        };
+    }
+
+    private List<String> order() {
+        synchronized (m_order) {
+            return new ArrayList<>(m_order);
+        }
+    }
+}
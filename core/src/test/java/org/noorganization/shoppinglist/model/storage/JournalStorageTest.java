@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+public class JournalStorageTest extends StorageProviderTest {
+
+    File m_directory;
+
+    @Override
+    protected StorageProvider createStorage() throws Exception {
+        m_directory = File.createTempFile("JournalStorageTest", "");
+        assertTrue(m_directory.delete());
+        return new JournalStorage(m_directory);
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+
+        for (File currentFile : m_directory.listFiles()) {
+            assertTrue(currentFile.delete());
+        }
+        assertTrue(m_directory.delete());
+    }
+
+    private void reopen() {
+        m_storage.close();
+        m_storage = new JournalStorage(m_directory);
+    }
+
+    public void testStateIsReplayedOnReopen() throws Exception {
+        assertTrue(m_storage.updateProduct(createProduct(2, "Vollmilch", 1.5f, 1)));
+        m_storage.deleteProduct(3);
+        String expected = loadAsText();
+
+        reopen();
+
+        assertEquals(expected, loadAsText());
+    }
+
+    public void testTornRecordIsCutOff() throws Exception {
+        String expected = loadAsText();
+        m_storage.close();
+        File journal = new File(m_directory, JournalStorage.JOURNAL_PREFIX + "0");
+        long intactLength = journal.length();
+        // A crash in the middle of an append leaves a partial frame.
+        FileOutputStream output = new FileOutputStream(journal, true);
+        output.write(new byte[] { 0, 0, 0, 20, 1, 2, 3 });
+        output.close();
+
+        m_storage = new JournalStorage(m_directory);
+
+        assertEquals(expected, loadAsText());
+        assertEquals(intactLength, journal.length());
+        assertTrue(m_storage.insertUnit(createUnit(2, "l")));
+        reopen();
+        assertTrue(loadAsText().contains("unit 2 l\n"));
+    }
+
+    public void testDamagedRecordIsCutOff() throws Exception {
+        m_storage.close();
+        File journal = new File(m_directory, JournalStorage.JOURNAL_PREFIX + "0");
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        // Flips a byte in the last record, the shopping list.
+        file.seek(file.length() - 1);
+        byte lastByte = file.readByte();
+        file.seek(file.length() - 1);
+        file.writeByte(lastByte ^ 0xff);
+        file.close();
+
+        m_storage = new JournalStorage(m_directory);
+
+        assertFalse(loadAsText().contains("list 7"));
+        assertTrue(loadAsText().contains("product 3 Reis"));
+    }
+
+    public void testCompaction() throws Exception {
+        JournalStorage journalStorage = (JournalStorage) m_storage;
+        journalStorage.setCompactionThreshold(1);
+        for (int currentId = 10; currentId < 50; currentId++) {
+            assertTrue(m_storage.insertProduct(createProduct(currentId, "Produkt " + currentId, 1.0f, 1)));
+            m_storage.deleteProduct(currentId);
+        }
+        assertTrue(m_storage.updateUnit(createUnit(1, "g")));
+        journalStorage.awaitCompaction();
+        String expected = loadAsText();
+        int generation = journalStorage.getGeneration();
+        assertTrue(generation > 0);
+
+        reopen();
+
+        assertEquals(expected, loadAsText());
+        for (File currentFile : m_directory.listFiles()) {
+            String name = currentFile.getName();
+            assertTrue(name, name.equals(JournalStorage.JOURNAL_PREFIX + generation) ||
+                    name.startsWith(JournalStorage.SNAPSHOT_PREFIX));
+        }
+    }
+
+    public void testSyncsAreShared() throws Exception {
+        JournalStorage journalStorage = (JournalStorage) m_storage;
+        journalStorage.setCommitDelayMillis(50);
+        for (int currentId = 10; currentId < 30; currentId++) {
+            assertTrue(m_storage.insertProduct(createProduct(currentId, "Produkt " + currentId, 1.0f, 1)));
+        }
+        journalStorage.flush();
+
+        assertTrue(journalStorage.getSyncCount() < journalStorage.getRecordCount());
+    }
+
+    public void testSynchronousMode() throws Exception {
+        JournalStorage journalStorage = (JournalStorage) m_storage;
+        journalStorage.setSynchronous(true);
+        journalStorage.setCommitDelayMillis(0);
+        long syncCount = journalStorage.getSyncCount();
+
+        assertTrue(m_storage.insertUnit(createUnit(2, "l")));
+
+        assertTrue(journalStorage.getSyncCount() > syncCount);
+    }
+
+    public void testSynchronousModeWhileRotating() throws Exception {
+        JournalStorage journalStorage = (JournalStorage) m_storage;
+        journalStorage.setSynchronous(true);
+        journalStorage.setCommitDelayMillis(0);
+        journalStorage.setCompactionThreshold(1);
+        // Every insert waits for its sync, also the ones still in a rotated journal.
+        for (int currentId = 10; currentId < 50; currentId++) {
+            assertTrue(m_storage.insertProduct(createProduct(currentId, "Produkt " + currentId, 1.0f, 1)));
+        }
+        journalStorage.awaitCompaction();
+        String expected = loadAsText();
+        assertTrue(journalStorage.getGeneration() > 1);
+
+        reopen();
+
+        assertEquals(expected, loadAsText());
+    }
+
+    public void testClosedStorageThrows() throws Exception {
+        m_storage.close();
+        try {
+            m_storage.insertUnit(createUnit(2, "l"));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        m_storage = new JournalStorage(m_directory);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import java.io.File;
+
+public class SqlStorageTest extends StorageProviderTest {
+
+    File m_dbFile;
+
+    @Override
+    protected StorageProvider createStorage() throws Exception {
+        m_dbFile = File.createTempFile("SqlStorageTest", ".db");
+        return new SqlStorage(JdbcSqlDatabase.openSqlite(m_dbFile.getPath()));
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+
+        assertTrue(m_dbFile.delete());
+    }
+
+    public void testSchemaIsKeptOnReopen() throws Exception {
+        m_storage.close();
+        m_storage = new SqlStorage(JdbcSqlDatabase.openSqlite(m_dbFile.getPath()));
+
+        assertTrue(loadAsText().startsWith("unit 1 kg\n"));
+    }
+
+    public void testUpgradeFromVersion1() throws Exception {
+        assertTrue(((SqlStorage) m_storage).saveListState(7, new byte[] { 1 }));
+        m_storage.close();
+        SqlDatabase db = JdbcSqlDatabase.openSqlite(m_dbFile.getPath());
+        db.execute("DROP TABLE ListStates");
+        db.execute("DROP INDEX ProductsByTitle");
+        db.execute("DROP TABLE ProductUsage");
+        db.execute("DROP TABLE ListTemplates");
+        db.execute("DROP TABLE PurchaseHistory");
+        db.execute("DROP TABLE ProductConsumption");
+        db.execute("PRAGMA user_version = 1");
+        db.close();
+
+        m_storage = new SqlStorage(JdbcSqlDatabase.openSqlite(m_dbFile.getPath()));
+
+        assertTrue(loadAsText().startsWith("unit 1 kg\n"));
+        assertNull(((SqlStorage) m_storage).loadListState(7));
+        assertTrue(((SqlStorage) m_storage).saveListState(7, new byte[] { 2 }));
+        SqlCursor versionCursor = ((SqlStorage) m_storage).getDatabase().query("PRAGMA user_version");
+        assertTrue(versionCursor.moveToNext());
+        assertEquals(SqlStorage.CURRENT_SCHEMA_VERSION, versionCursor.getInt(0));
+        versionCursor.close();
+        SqlCursor indexCursor = ((SqlStorage) m_storage).getDatabase().query(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND name = 'ProductsByTitle'");
+        assertTrue(indexCursor.moveToNext());
+        indexCursor.close();
+        assertEquals(0, ((SqlStorage) m_storage).loadTemplateIds().length);
+        assertEquals(0, ((SqlStorage) m_storage).countPurchaseRows());
+        assertEquals("", StorageProviderTest.loadConsumptionAsText((SqlStorage) m_storage));
+    }
+
+    public void testTraceLog() throws Exception {
+        SqlTraceLog traceLog = ((SqlStorage) m_storage).getTraceLog();
+        traceLog.setRecordRecent(true);
+
+        assertTrue(m_storage.updateUnit(createUnit(1, "g")));
+        loadAsText();
+
+        assertEquals("UPDATE Units SET title = ? WHERE id = ?", traceLog.getRecent().get(0).Statement);
+        assertEquals(2, traceLog.getRecent().get(0).BindCount);
+        assertEquals(1, traceLog.getRecent().get(0).RowsAffected);
+        assertEquals("SELECT id, title FROM Units", traceLog.getRecent().get(1).Statement);
+        assertEquals(1, traceLog.getRecent().get(1).RowsAffected);
+        assertEquals(5, traceLog.getRecent().size());
+    }
+
+    public void testHistogramNamesAreGroupedByTable() throws Exception {
+        assertEquals("SQL SELECT Units", TracedSqlDatabase.histogramNameOf("SELECT id, title FROM Units"));
+        assertEquals("SQL SELECT Products",
+                TracedSqlDatabase.histogramNameOf("SELECT COUNT(*) FROM Products WHERE title > ? LIMIT 5"));
+        assertEquals("SQL UPDATE Units", TracedSqlDatabase.histogramNameOf("UPDATE Units SET title = ? WHERE id = ?"));
+        assertEquals("SQL INSERT Products",
+                TracedSqlDatabase.histogramNameOf("INSERT OR REPLACE INTO Products (id, title) VALUES (?, ?)"));
+        assertEquals("SQL DELETE Products", TracedSqlDatabase.histogramNameOf("DELETE FROM Products WHERE id = ?"));
+        assertEquals("SQL PRAGMA incremental_vacuum",
+                TracedSqlDatabase.histogramNameOf("PRAGMA incremental_vacuum(1)"));
+        assertEquals("SQL BEGIN", TracedSqlDatabase.histogramNameOf("BEGIN TRANSACTION"));
+        assertEquals("SQL ANALYZE", TracedSqlDatabase.histogramNameOf("ANALYZE Products"));
+    }
+}
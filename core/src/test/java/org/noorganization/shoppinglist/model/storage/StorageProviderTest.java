@@ -0,0 +1,427 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.model.storage;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.ListEntryChanges;
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.Unit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Behaviour every {@link StorageProvider} has to show. Subclassed once per backend.
+ */
+public abstract class StorageProviderTest extends TestCase {
+
+    StorageProvider m_storage;
+
+    protected abstract StorageProvider createStorage() throws Exception;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        m_storage = createStorage();
+        assertTrue(m_storage.insertUnit(createUnit(1, "kg")));
+        assertTrue(m_storage.insertProduct(createProduct(3, "Reis", 1.0f, 1)));
+        assertTrue(m_storage.insertProduct(createProduct(2, "Milch", 2.0f, ModelManager.INVALID_ID)));
+        ShoppingList list = createShoppingList(7, "Wocheneinkauf");
+        list.ListEntries.put(3, 0.5f);
+        list.ListEntries.put(2, 1.0f);
+        assertTrue(m_storage.insertShoppingList(list));
+    }
+
+    public void tearDown() throws Exception {
+        m_storage.close();
+
+        super.tearDown();
+    }
+
+    static Unit createUnit(int _id, String _unitText) {
+        Unit rtn = new Unit();
+        rtn.Id       = _id;
+        rtn.UnitText = _unitText;
+        return rtn;
+    }
+
+    static Product createProduct(int _id, String _title, float _defaultValue, int _unitId) {
+        Product rtn = new Product();
+        rtn.Id           = _id;
+        rtn.Title        = _title;
+        rtn.DefaultValue = _defaultValue;
+        rtn.UnitId       = _unitId;
+        return rtn;
+    }
+
+    static ShoppingList createShoppingList(int _id, String _title) {
+        ShoppingList rtn = new ShoppingList();
+        rtn.Id    = _id;
+        rtn.Title = _title;
+        return rtn;
+    }
+
+    public void testLoadOrder() throws Exception {
+        assertEquals("unit 1 kg\n" +
+                "product 2 Milch 2.0 " + ModelManager.INVALID_ID + "\n" +
+                "product 3 Reis 1.0 1\n" +
+                "list 7 Wocheneinkauf\n" +
+                "entry 7 2 1.0\n" +
+                "entry 7 3 0.5\n", loadAsText());
+    }
+
+    public void testDuplicateIdsAreRejected() throws Exception {
+        assertFalse(m_storage.insertUnit(createUnit(1, "l")));
+        assertFalse(m_storage.insertProduct(createProduct(3, "Mehl", 1.0f, ModelManager.INVALID_ID)));
+        assertFalse(m_storage.insertShoppingList(createShoppingList(7, "Party")));
+    }
+
+    public void testReferencesAreChecked() throws Exception {
+        assertFalse(m_storage.insertProduct(createProduct(4, "Mehl", 1.0f, 42)));
+        assertFalse(m_storage.updateProduct(createProduct(3, "Reis", 1.0f, 42)));
+
+        ShoppingList invalidList = createShoppingList(7, "Wocheneinkauf");
+        invalidList.ListEntries.put(3, 2.0f);
+        invalidList.ListEntries.put(42, 1.0f);
+        assertFalse(m_storage.updateShoppingList(invalidList));
+
+        // A failed update leaves the list untouched.
+        assertTrue(loadAsText().contains("entry 7 3 0.5\n"));
+    }
+
+    public void testUpdates() throws Exception {
+        assertTrue(m_storage.updateUnit(createUnit(1, "g")));
+        assertFalse(m_storage.updateUnit(createUnit(2, "g")));
+        assertTrue(m_storage.updateProduct(createProduct(2, "Vollmilch", 1.5f, 1)));
+        assertFalse(m_storage.updateProduct(createProduct(4, "Mehl", 1.0f, 1)));
+        ShoppingList changedList = createShoppingList(7, "Party");
+        changedList.ListEntries.put(2, 3.0f);
+        assertTrue(m_storage.updateShoppingList(changedList));
+        assertFalse(m_storage.updateShoppingList(createShoppingList(8, "Party")));
+
+        assertEquals("unit 1 g\n" +
+                "product 2 Vollmilch 1.5 1\n" +
+                "product 3 Reis 1.0 1\n" +
+                "list 7 Party\n" +
+                "entry 7 2 3.0\n", loadAsText());
+    }
+
+    public void testDeletesCascade() throws Exception {
+        m_storage.deleteProduct(2);
+        assertFalse(loadAsText().contains("entry 7 2"));
+
+        m_storage.deleteUnit(1);
+        assertEquals("list 7 Wocheneinkauf\n", loadAsText());
+
+        m_storage.deleteShoppingList(7);
+        assertEquals("", loadAsText());
+    }
+
+    public void testBulkInsert() throws Exception {
+        BulkInsert bulkInsert = m_storage.beginBulkInsert();
+        bulkInsert.onUnit(4, "g");
+        bulkInsert.onProduct(9, "Mehl", 500.0f, 4);
+        bulkInsert.onShoppingList(10, "Backen");
+        bulkInsert.onListEntry(10, 9, 1000.0f);
+        assertTrue(bulkInsert.commit());
+
+        assertTrue(loadAsText().contains("product 9 Mehl 500.0 4\n"));
+        assertTrue(loadAsText().endsWith("entry 10 9 1000.0\n"));
+
+        bulkInsert = m_storage.beginBulkInsert();
+        bulkInsert.onListEntry(10, 42, 1.0f);
+        assertFalse(bulkInsert.commit());
+    }
+
+    public void testListStates() throws Exception {
+        if (!(m_storage instanceof ListStateStore)) {
+            return;
+        }
+        ListStateStore stateStore = (ListStateStore) m_storage;
+
+        assertNull(stateStore.loadListState(7));
+        assertFalse(stateStore.saveListState(8, new byte[] { 1 }));
+        assertTrue(stateStore.saveListState(7, new byte[] { 1, 2 }));
+        assertTrue(stateStore.saveListState(7, new byte[] { 3 }));
+        assertTrue(Arrays.equals(new byte[] { 3 }, stateStore.loadListState(7)));
+
+        m_storage.deleteShoppingList(7);
+        assertNull(stateStore.loadListState(7));
+    }
+
+    public void testPagedProducts() throws Exception {
+        if (!(m_storage instanceof PagedProductSource)) {
+            return;
+        }
+        PagedProductSource pagedSource = (PagedProductSource) m_storage;
+        assertTrue(m_storage.insertProduct(createProduct(4, "Milch", 1.0f, 1)));
+        assertTrue(m_storage.insertProduct(createProduct(5, "Apfel", 6.0f, ModelManager.INVALID_ID)));
+
+        assertEquals(4, pagedSource.countProducts(ModelManager.INVALID_ID));
+        assertEquals(2, pagedSource.countProducts(7));
+        assertEquals("5 Apfel,2 Milch,4 Milch,3 Reis,", readPage(pagedSource, ModelManager.INVALID_ID, 0, 10));
+        assertEquals("2 Milch,4 Milch,", readPage(pagedSource, ModelManager.INVALID_ID, 1, 2));
+        assertEquals("5 Apfel,4 Milch,", readPage(pagedSource, 7, 0, 10));
+
+        final StringBuilder following = new StringBuilder();
+        PagedProductSource.ProductCallback appender = new PagedProductSource.ProductCallback() {
+            @Override
+            public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                following.append(_id).append(' ').append(_title).append(',');
+            }
+        };
+        pagedSource.readProductsAfter(ModelManager.INVALID_ID, "Milch", 2, 2, appender);
+        assertEquals("4 Milch,3 Reis,", following.toString());
+        following.setLength(0);
+        pagedSource.readProductsAfter(7, "Apfel", 5, 10, appender);
+        assertEquals("4 Milch,", following.toString());
+
+        assertTrue(pagedSource.readProduct(3, appender));
+        assertFalse(pagedSource.readProduct(42, appender));
+        assertTrue(Arrays.equals(new int[] { 3, 4 }, sorted(pagedSource.getProductIdsByUnit(1))));
+
+        m_storage.deleteProduct(3);
+        assertEquals(2, pagedSource.countProducts(7));
+    }
+
+    public void testUsage() throws Exception {
+        if (!(m_storage instanceof UsageStore)) {
+            return;
+        }
+        UsageStore usageStore = (UsageStore) m_storage;
+
+        assertFalse(usageStore.saveUsage(42, 1.0, 1, 1000L));
+        assertTrue(usageStore.saveUsage(3, 1.0, 1, 1000L));
+        assertTrue(usageStore.saveUsage(3, 2.5, 2, 2000L));
+        assertTrue(usageStore.saveUsage(2, 0.5, 1, 500L));
+        assertEquals("2 0.5 1 500,3 2.5 2 2000,", loadUsageAsText(usageStore));
+
+        assertFalse(usageStore.saveUsages(new int[] { 2, 42 }, new double[] { 4.0, 1.0 }, new int[] { 4, 1 },
+                new long[] { 4000L, 4000L }));
+        assertEquals("2 0.5 1 500,3 2.5 2 2000,", loadUsageAsText(usageStore));
+        assertTrue(usageStore.saveUsages(new int[] { 2, 3 }, new double[] { 4.0, 3.0 }, new int[] { 4, 3 },
+                new long[] { 4000L, 3000L }));
+        assertEquals("2 4.0 4 4000,3 3.0 3 3000,", loadUsageAsText(usageStore));
+
+        m_storage.deleteProduct(3);
+        assertEquals("2 4.0 4 4000,", loadUsageAsText(usageStore));
+    }
+
+    public void testConsumption() throws Exception {
+        if (!(m_storage instanceof ConsumptionStore)) {
+            return;
+        }
+        ConsumptionStore consumptionStore = (ConsumptionStore) m_storage;
+
+        assertFalse(consumptionStore.saveConsumption(42, 1, 1000L, 1.0f, 0.0, 0.0, 1.0));
+        assertTrue(consumptionStore.saveConsumption(3, 1, 1000L, 1.0f, 0.0, 0.0, 1.0));
+        assertTrue(consumptionStore.saveConsumption(3, 3, 5000L, 2.0f, 2000.0, 8.0, 1.5));
+        assertTrue(consumptionStore.saveConsumption(2, 1, 500L, 0.5f, 0.0, 0.0, 0.5));
+        assertEquals("2 1 500 0.5 0.0 0.0 0.5,3 3 5000 2.0 2000.0 8.0 1.5,", loadConsumptionAsText(consumptionStore));
+
+        m_storage.deleteProduct(3);
+        assertEquals("2 1 500 0.5 0.0 0.0 0.5,", loadConsumptionAsText(consumptionStore));
+    }
+
+    public void testChangeListEntries() throws Exception {
+        if (!(m_storage instanceof ListEntryStore)) {
+            return;
+        }
+        ListEntryStore entryStore = (ListEntryStore) m_storage;
+
+        assertFalse(entryStore.changeListEntries(8, new ListEntryChanges().put(3, 1.0f)));
+        assertFalse(entryStore.changeListEntries(7, new ListEntryChanges().put(3, 1.0f).put(42, 1.0f)));
+        assertTrue(loadAsText().endsWith("entry 7 2 1.0\n" +
+                "entry 7 3 0.5\n"));
+
+        assertTrue(m_storage.insertProduct(createProduct(4, "Mehl", 1.0f, 1)));
+        assertTrue(entryStore.changeListEntries(7, new ListEntryChanges().remove(2).put(3, 1.5f).put(4, 2.0f)
+                .remove(42)));
+        assertTrue(loadAsText().endsWith("list 7 Wocheneinkauf\n" +
+                "entry 7 3 1.5\n" +
+                "entry 7 4 2.0\n"));
+    }
+
+    public void testPurchaseHistory() throws Exception {
+        if (!(m_storage instanceof PurchaseHistoryStore)) {
+            return;
+        }
+        PurchaseHistoryStore historyStore = (PurchaseHistoryStore) m_storage;
+        final StringBuilder purchases = new StringBuilder();
+        PurchaseHistoryStore.PurchaseCallback asText = new PurchaseHistoryStore.PurchaseCallback() {
+            @Override
+            public void onPurchases(int _productId, long _startMillis, long _spanMillis, int _count,
+                                    double _valueSum) {
+                purchases.append(_productId).append(' ').append(_startMillis).append(' ').append(_spanMillis)
+                        .append(' ').append(_count).append(' ').append(_valueSum).append('\n');
+            }
+        };
+
+        assertFalse(historyStore.appendPurchases(new int[] { 2, 42 }, new long[] { 10, 20 }, new float[] { 1, 1 },
+                0, 2));
+        assertEquals(0, historyStore.countPurchaseRows());
+        assertFalse(historyStore.readLastPurchase(2, asText));
+        assertTrue(historyStore.appendPurchases(new int[] { 3, 2, 2, 3, 2 }, new long[] { 1, 150, 110, 120, 260 },
+                new float[] { 9, 1, 2, 0.5f, 3 }, 1, 4));
+        historyStore.readPurchases(2, 100, 200, asText);
+        assertEquals("2 110 0 1 2.0\n" +
+                "2 150 0 1 1.0\n", purchases.toString());
+        purchases.setLength(0);
+        assertTrue(historyStore.readLastPurchase(2, asText));
+        assertEquals("2 260 0 1 3.0\n", purchases.toString());
+
+        assertTrue(Arrays.equals(new int[] { 2, 3 }, historyStore.getPurchasedProductIds()));
+        assertEquals(1, historyStore.rollUpPurchases(100, 200, 3, 3));
+        assertEquals(2, historyStore.rollUpPurchases(100, 200, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(0, historyStore.rollUpPurchases(100, 200, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        purchases.setLength(0);
+        historyStore.readPurchases(2, 0, 1000, asText);
+        historyStore.readPurchases(3, 0, 1000, asText);
+        assertEquals("2 100 100 2 3.0\n" +
+                "2 260 0 1 3.0\n" +
+                "3 100 100 1 0.5\n", purchases.toString());
+
+        assertEquals(0, historyStore.dropPurchases(200, 0, 1));
+        assertEquals(2, historyStore.dropPurchases(200, 2, 3));
+        assertEquals(1, historyStore.countPurchaseRows());
+        m_storage.deleteProduct(2);
+        assertEquals(0, historyStore.countPurchaseRows());
+        assertEquals(0, historyStore.getPurchasedProductIds().length);
+    }
+
+    public void testTemplates() throws Exception {
+        if (!(m_storage instanceof TemplateStore)) {
+            return;
+        }
+        TemplateStore templateStore = (TemplateStore) m_storage;
+
+        assertFalse(templateStore.cloneShoppingList(42, 8, "Party", false));
+        assertFalse(templateStore.cloneShoppingList(7, 7, "Party", false));
+        assertTrue(templateStore.cloneShoppingList(7, 8, "Party", false));
+        assertTrue(templateStore.cloneShoppingList(7, 9, "Vorlage", true));
+        assertTrue(loadAsText().endsWith("list 7 Wocheneinkauf\n" +
+                "list 8 Party\n" +
+                "list 9 Vorlage\n" +
+                "entry 7 2 1.0\n" +
+                "entry 7 3 0.5\n" +
+                "entry 8 2 1.0\n" +
+                "entry 8 3 0.5\n" +
+                "entry 9 2 1.0\n" +
+                "entry 9 3 0.5\n"));
+        assertTrue(Arrays.equals(new int[] { 9 }, templateStore.loadTemplateIds()));
+
+        // The copies are independent of their source.
+        ShoppingList changedList = createShoppingList(7, "Wocheneinkauf");
+        changedList.ListEntries.put(2, 4.0f);
+        assertTrue(m_storage.updateShoppingList(changedList));
+        assertTrue(loadAsText().contains("entry 9 3 0.5\n"));
+
+        m_storage.deleteShoppingList(9);
+        assertEquals(0, templateStore.loadTemplateIds().length);
+    }
+
+    static String loadUsageAsText(UsageStore _usageStore) {
+        final List<String> usages = new ArrayList<>();
+        _usageStore.loadUsage(new UsageStore.UsageCallback() {
+            @Override
+            public void onUsage(int _productId, double _score, int _useCount, long _lastUsedMillis) {
+                usages.add(_productId + " " + _score + " " + _useCount + " " + _lastUsedMillis + ",");
+            }
+        });
+        // The order is not defined.
+        Collections.sort(usages);
+        StringBuilder rtn = new StringBuilder();
+        for (String currentUsage : usages) {
+            rtn.append(currentUsage);
+        }
+        return rtn.toString();
+    }
+
+    static String loadConsumptionAsText(ConsumptionStore _consumptionStore) {
+        final List<String> consumptions = new ArrayList<>();
+        _consumptionStore.loadConsumption(new ConsumptionStore.ConsumptionCallback() {
+            @Override
+            public void onConsumption(int _productId, int _purchaseCount, long _lastPurchaseMillis, float _lastValue,
+                                      double _intervalMean, double _intervalSquaredDeviations, double _valueMean) {
+                consumptions.add(_productId + " " + _purchaseCount + " " + _lastPurchaseMillis + " " + _lastValue +
+                        " " + _intervalMean + " " + _intervalSquaredDeviations + " " + _valueMean + ",");
+            }
+        });
+        // The order is not defined.
+        Collections.sort(consumptions);
+        StringBuilder rtn = new StringBuilder();
+        for (String currentConsumption : consumptions) {
+            rtn.append(currentConsumption);
+        }
+        return rtn.toString();
+    }
+
+    static String readPage(PagedProductSource _source, int _excludedListId, int _offset, int _limit) {
+        final StringBuilder rtn = new StringBuilder();
+        _source.readProductsAt(_excludedListId, _offset, _limit, new PagedProductSource.ProductCallback() {
+            @Override
+            public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                rtn.append(_id).append(' ').append(_title).append(',');
+            }
+        });
+        return rtn.toString();
+    }
+
+    static int[] sorted(int _values[]) {
+        int rtn[] = _values.clone();
+        Arrays.sort(rtn);
+        return rtn;
+    }
+
+    String loadAsText() {
+        final List<String> lines = new ArrayList<>();
+        m_storage.load(new StorageProvider.LoadCallback() {
+            @Override
+            public void onUnit(int _id, String _unitText) {
+                lines.add("unit " + _id + " " + _unitText);
+            }
+
+            @Override
+            public void onProduct(int _id, String _title, float _defaultValue, int _unitId) {
+                lines.add("product " + _id + " " + _title + " " + _defaultValue + " " + _unitId);
+            }
+
+            @Override
+            public void onShoppingList(int _id, String _title) {
+                lines.add("list " + _id + " " + _title);
+            }
+
+            @Override
+            public void onListEntry(int _shoppingListId, int _productId, float _value) {
+                lines.add("entry " + _shoppingListId + " " + _productId + " " + _value);
+            }
+        });
+
+        StringBuilder rtn = new StringBuilder();
+        for (String currentLine : lines) {
+            rtn.append(currentLine).append('\n');
+        }
+        return rtn.toString();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.SparseFloatArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class ListCrdtTest extends TestCase {
+
+    static final int REPLICA_COUNT = 3;
+    static final int PRODUCT_COUNT = 20;
+
+    public void testSingleReplica() throws Exception {
+        ListCrdt list = new ListCrdt(1);
+        list.setTitle("Wocheneinkauf");
+        list.setEntry(3, 0.5f);
+        list.setEntry(2, 1.0f);
+        list.setEntry(3, 1.5f);
+        list.removeEntry(2);
+
+        assertEquals("Wocheneinkauf", list.getTitle());
+        assertEquals(1, list.size());
+        assertEquals(1.5f, list.getEntry(3));
+        assertTrue(Float.isNaN(list.getEntry(2)));
+    }
+
+    public void testDeltasAreSmall() throws Exception {
+        ListCrdt list = new ListCrdt(1);
+        for (int currentProduct = 0; currentProduct < 1000; currentProduct++) {
+            list.setEntry(currentProduct, 1.0f);
+        }
+
+        byte delta[] = list.setEntry(500, 2.0f).encode();
+
+        assertTrue(delta.length < 32);
+        assertTrue(list.encode().length > 1000 * 5);
+    }
+
+    public void testConcurrentWritesLastWriterWins() throws Exception {
+        ListCrdt first = new ListCrdt(1);
+        ListCrdt second = new ListCrdt(2);
+        ListCrdt firstDelta = first.setEntry(3, 1.0f);
+        second.join(firstDelta);
+
+        ListCrdt secondDelta = second.setEntry(3, 2.0f);
+        ListCrdt concurrentDelta = first.setEntry(3, 3.0f);
+        first.join(secondDelta);
+        second.join(concurrentDelta);
+
+        // Both saw the first write, so both of the later ones have the same Lamport time; the higher replica wins.
+        assertEquals(2.0f, first.getEntry(3));
+        assertEquals(2.0f, second.getEntry(3));
+    }
+
+    public void testConcurrentWriteSurvivesRemoval() throws Exception {
+        ListCrdt first = new ListCrdt(1);
+        ListCrdt second = new ListCrdt(2);
+        second.join(first.setEntry(3, 1.0f));
+
+        ListCrdt removal = second.removeEntry(3);
+        ListCrdt write = first.setEntry(3, 2.0f);
+        first.join(removal);
+        second.join(write);
+
+        assertEquals(2.0f, first.getEntry(3));
+        assertEquals(2.0f, second.getEntry(3));
+    }
+
+    public void testRemovalBeforeWriteArrives() throws Exception {
+        ListCrdt first = new ListCrdt(1);
+        ListCrdt second = new ListCrdt(2);
+        ListCrdt third = new ListCrdt(3);
+        ListCrdt write = first.setEntry(3, 1.0f);
+        second.join(write);
+        ListCrdt removal = second.removeEntry(3);
+
+        third.join(removal);
+        third.join(write);
+
+        assertFalse(third.containsEntry(3));
+    }
+
+    public void testEncodeRoundTrip() throws Exception {
+        ListCrdt list = randomReplicas(new Random(1), 200).get(0);
+
+        ListCrdt decoded = ListCrdt.decode(list.encode(), 1);
+
+        assertTrue(Arrays.equals(list.encode(), decoded.encode()));
+        assertEquals(list.getTitle(), decoded.getTitle());
+    }
+
+    public void testDamagedStateIsRejected() throws Exception {
+        byte state[] = new ListCrdt(1).setEntry(3, 1.0f).encode();
+
+        try {
+            ListCrdt.decode(Arrays.copyOf(state, state.length - 2), 1);
+            fail("Truncated state was decoded.");
+        } catch (SyncException e) {
+            // expected
+        }
+        state[0] = 99;
+        try {
+            ListCrdt.decode(state, 1);
+            fail("Unknown format was decoded.");
+        } catch (SyncException e) {
+            // expected
+        }
+    }
+
+    public void testLocalChangesNeedReplica() throws Exception {
+        try {
+            new ListCrdt(ListCrdt.NO_REPLICA).setEntry(3, 1.0f);
+            fail("Delta was changed.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Random operations at several replicas; the deltas are delivered shuffled, duplicated and partly grouped, and
+     * every replica has to end with the same state.
+     */
+    public void testDeltasConverge() throws Exception {
+        for (int currentSeed = 0; currentSeed < 50; currentSeed++) {
+            Random random = new Random(currentSeed);
+            List<ListCrdt> replicas = new ArrayList<>();
+            for (int currentReplica = 0; currentReplica < REPLICA_COUNT; currentReplica++) {
+                replicas.add(new ListCrdt(currentReplica));
+            }
+            List<byte[]> deltas = new ArrayList<>();
+
+            for (int currentOperation = 0; currentOperation < 200; currentOperation++) {
+                ListCrdt replica = replicas.get(random.nextInt(REPLICA_COUNT));
+                deltas.add(randomOperation(random, replica).encode());
+                // Sometimes deliver a random earlier delta, so replicas see each other's changes.
+                if (random.nextInt(3) == 0) {
+                    replica.join(ListCrdt.decode(deltas.get(random.nextInt(deltas.size())), ListCrdt.NO_REPLICA));
+                }
+            }
+
+            for (ListCrdt currentReplica : replicas) {
+                List<byte[]> delivery = new ArrayList<>(deltas);
+                delivery.addAll(deltas.subList(0, deltas.size() / 3));
+                Collections.shuffle(delivery, random);
+                ListCrdt group = new ListCrdt(ListCrdt.NO_REPLICA);
+                for (byte currentDelta[] : delivery) {
+                    ListCrdt delta = ListCrdt.decode(currentDelta, ListCrdt.NO_REPLICA);
+                    if (random.nextBoolean()) {
+                        group.join(delta);
+                    } else {
+                        currentReplica.join(delta);
+                    }
+                }
+                currentReplica.join(group);
+            }
+
+            assertConverged(replicas, "seed " + currentSeed);
+        }
+    }
+
+    public void testJoinIsCommutativeAssociativeAndIdempotent() throws Exception {
+        for (int currentSeed = 0; currentSeed < 50; currentSeed++) {
+            List<ListCrdt> states = randomReplicas(new Random(currentSeed), 100);
+            ListCrdt first = states.get(0);
+            ListCrdt second = states.get(1);
+            ListCrdt third = states.get(2);
+
+            assertTrue(Arrays.equals(joined(first, second).encode(), joined(second, first).encode()));
+            assertTrue(Arrays.equals(joined(joined(first, second), third).encode(),
+                    joined(first, joined(second, third)).encode()));
+            assertTrue(Arrays.equals(joined(first, first).encode(), joined(first).encode()));
+        }
+    }
+
+    private static ListCrdt randomOperation(Random _random, ListCrdt _replica) {
+        int productId = _random.nextInt(PRODUCT_COUNT);
+        switch (_random.nextInt(10)) {
+            case 0:
+                return _replica.setTitle("Liste " + _random.nextInt(100));
+            case 1:
+            case 2:
+                return _replica.removeEntry(productId);
+            default:
+                return _replica.setEntry(productId, _random.nextInt(10));
+        }
+    }
+
+    /**
+     * @return Replicas which changed concurrently and exchanged some of their deltas.
+     */
+    private static List<ListCrdt> randomReplicas(Random _random, int _operationCount) {
+        List<ListCrdt> rtn = new ArrayList<>();
+        for (int currentReplica = 0; currentReplica < REPLICA_COUNT; currentReplica++) {
+            rtn.add(new ListCrdt(currentReplica));
+        }
+        for (int currentOperation = 0; currentOperation < _operationCount; currentOperation++) {
+            ListCrdt delta = randomOperation(_random, rtn.get(_random.nextInt(REPLICA_COUNT)));
+            if (_random.nextInt(4) == 0) {
+                rtn.get(_random.nextInt(REPLICA_COUNT)).join(delta);
+            }
+        }
+        return rtn;
+    }
+
+    private static ListCrdt joined(ListCrdt... _states) {
+        ListCrdt rtn = new ListCrdt(ListCrdt.NO_REPLICA);
+        for (ListCrdt currentState : _states) {
+            rtn.join(ListCrdt.decode(currentState.encode(), ListCrdt.NO_REPLICA));
+        }
+        return rtn;
+    }
+
+    private static void assertConverged(List<ListCrdt> _replicas, String _message) {
+        ListCrdt first = _replicas.get(0);
+        SparseFloatArray firstEntries = first.toEntries();
+        for (ListCrdt currentReplica : _replicas) {
+            assertTrue(_message, Arrays.equals(first.encode(), currentReplica.encode()));
+            assertEquals(_message, first.getTitle(), currentReplica.getTitle());
+            SparseFloatArray entries = currentReplica.toEntries();
+            assertEquals(_message, firstEntries.size(), entries.size());
+            for (int currentEntry = 0; currentEntry < entries.size(); currentEntry++) {
+                assertEquals(_message, firstEntries.keyAt(currentEntry), entries.keyAt(currentEntry));
+                assertEquals(_message, firstEntries.valueAt(currentEntry), entries.valueAt(currentEntry));
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+import java.util.Arrays;
+
+public class SharedListsTest extends TestCase {
+
+    ModelManager    m_model;
+    StorageProvider m_storage;
+    SharedLists     m_sharedLists;
+    Product         m_rice;
+    Product         m_milk;
+    ShoppingList    m_list;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        m_model       = ModelManager.getInstance();
+        m_storage     = m_model.load(new InMemoryStorage());
+        m_sharedLists = new SharedLists(m_model, m_storage, 1);
+
+        m_rice = m_model.createProduct("Reis", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_milk = m_model.createProduct("Milch", 1.0f, ModelManager.INVALID_ID, m_storage);
+        m_list = m_model.createShoppingList("Wocheneinkauf", m_storage);
+        m_list.ListEntries.put(m_rice.Id, 0.5f);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+    }
+
+    public void testChangesAreMergedIntoModel() throws Exception {
+        ListCrdt other = new ListCrdt(2);
+        other.join(ListCrdt.decode(m_sharedLists.getState(m_list.Id), ListCrdt.NO_REPLICA));
+        assertEquals(0.5f, other.getEntry(m_rice.Id));
+
+        byte localDelta[] = m_sharedLists.setEntry(m_list.Id, m_milk.Id, 2.0f);
+        ListCrdt otherDelta = other.removeEntry(m_rice.Id);
+        other.join(ListCrdt.decode(localDelta, ListCrdt.NO_REPLICA));
+        assertTrue(m_sharedLists.merge(m_list.Id, otherDelta.encode()));
+
+        ShoppingList mergedList = m_model.getShoppingListById(m_list.Id);
+        assertEquals(1, mergedList.ListEntries.size());
+        assertEquals(2.0f, mergedList.ListEntries.get(m_milk.Id));
+        assertEquals(other.toEntries().size(), mergedList.ListEntries.size());
+    }
+
+    public void testUnknownListIsCreated() throws Exception {
+        ListCrdt other = new ListCrdt(2);
+        other.setTitle("Party");
+        other.setEntry(m_milk.Id, 6.0f);
+        // Not known on this replica, so it's left out of the model list.
+        other.setEntry(12345, 1.0f);
+
+        assertTrue(m_sharedLists.merge(4711, other.encode()));
+
+        ShoppingList mergedList = m_model.getShoppingListById(4711);
+        assertEquals("Party", mergedList.Title);
+        assertEquals(1, mergedList.ListEntries.size());
+        assertEquals(6.0f, mergedList.ListEntries.get(m_milk.Id));
+    }
+
+    public void testStateIsStored() throws Exception {
+        assertNotNull(m_sharedLists.setTitle(m_list.Id, "Monatseinkauf"));
+        byte state[] = m_sharedLists.getState(m_list.Id);
+
+        SharedLists reopened = new SharedLists(m_model, m_storage, 1);
+
+        assertTrue(Arrays.equals(state, reopened.getState(m_list.Id)));
+        assertEquals("Monatseinkauf", m_model.getShoppingListById(m_list.Id).Title);
+    }
+
+    public void testMissingList() throws Exception {
+        assertNull(m_sharedLists.setEntry(4711, m_rice.Id, 1.0f));
+        assertNull(m_sharedLists.getState(4711));
+    }
+
+    public void testEditsOfModelAreKept() throws Exception {
+        ListCrdt other = new ListCrdt(2);
+        other.join(ListCrdt.decode(m_sharedLists.getState(m_list.Id), ListCrdt.NO_REPLICA));
+        m_list.ListEntries.remove(m_rice.Id);
+        m_list.ListEntries.put(m_milk.Id, 3.0f);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+
+        other.join(ListCrdt.decode(m_sharedLists.setTitle(m_list.Id, "Monatseinkauf"), ListCrdt.NO_REPLICA));
+
+        assertEquals("Monatseinkauf", other.getTitle());
+        assertFalse(other.containsEntry(m_rice.Id));
+        assertEquals(3.0f, other.getEntry(m_milk.Id));
+        assertEquals(3.0f, m_model.getShoppingListById(m_list.Id).ListEntries.get(m_milk.Id));
+
+        m_list = m_model.getShoppingListById(m_list.Id);
+        m_list.ListEntries.put(m_milk.Id, 4.0f);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+        assertTrue(m_sharedLists.merge(m_list.Id, other.setEntry(m_rice.Id, 1.0f).encode()));
+
+        ShoppingList mergedList = m_model.getShoppingListById(m_list.Id);
+        assertEquals(4.0f, mergedList.ListEntries.get(m_milk.Id));
+        assertEquals(1.0f, mergedList.ListEntries.get(m_rice.Id));
+        byte unsent[] = m_sharedLists.takeUnsentChanges(m_list.Id);
+        assertNotNull(unsent);
+        assertNull(m_sharedLists.takeUnsentChanges(m_list.Id));
+        other.join(ListCrdt.decode(unsent, ListCrdt.NO_REPLICA));
+        assertEquals(4.0f, other.getEntry(m_milk.Id));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Michael Wodniok
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  This file is part of Einkaufsliste.
+ */
+
+package org.noorganization.shoppinglist.sync;
+
+import junit.framework.TestCase;
+
+import org.noorganization.shoppinglist.model.ChangeLog;
+import org.noorganization.shoppinglist.model.ModelManager;
+import org.noorganization.shoppinglist.model.Product;
+import org.noorganization.shoppinglist.model.ShoppingList;
+import org.noorganization.shoppinglist.model.Unit;
+import org.noorganization.shoppinglist.model.storage.InMemoryStorage;
+import org.noorganization.shoppinglist.model.storage.StorageProvider;
+
+public class SyncClientTest extends TestCase {
+
+    static final String OTHER_DEVICE = "other";
+
+    ModelManager    m_model;
+    StorageProvider m_storage;
+    LocalSyncServer m_server;
+    SyncClient      m_client;
+    Unit            m_kilogram;
+    Product         m_rice;
+    ShoppingList    m_list;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        m_model   = ModelManager.getInstance();
+        m_storage = m_model.load(new InMemoryStorage());
+        m_server  = new LocalSyncServer();
+        m_client  = new SyncClient(m_model, m_storage, m_server, "this");
+
+        m_kilogram = m_model.createUnit("kg", m_storage);
+        for (int currentProduct = 0; currentProduct < 1000; currentProduct++) {
+            m_model.createProduct("Produkt " + currentProduct, 1.0f, ModelManager.INVALID_ID, m_storage);
+        }
+        m_rice = m_model.createProduct("Reis", 1.0f, m_kilogram.Id, m_storage);
+        m_list = m_model.createShoppingList("Wocheneinkauf", m_storage);
+        m_list.ListEntries.put(m_rice.Id, 0.5f);
+        assertTrue(m_model.updateShoppingList(m_list, m_storage));
+    }
+
+    /**
+     * Pushes changes like another device would.
+     */
+    private void pushFromOtherDevice(SyncChange... _changes) {
+        SyncBatch batch = new SyncBatch();
+        for (SyncChange currentChange : _changes) {
+            batch.Changes.add(currentChange);
+        }
+        m_server.push(OTHER_DEVICE, SyncCodec.encode(batch));
+    }
+
+    private SyncBatch pullAsOtherDevice() {
+        return SyncCodec.decode(m_server.pull(OTHER_DEVICE, 0, 10000));
+    }
+
+    public void testFirstSyncPushesEverything() throws Exception {
+        SyncResult result = m_client.sync();
+
+        assertTrue(result.FullPush);
+        assertEquals(1003, result.PushedChanges);
+        assertEquals(0, result.PulledChanges);
+        assertEquals(1003, m_server.getObjectCount());
+    }
+
+    public void testLaterSyncsOnlySendChanges() throws Exception {
+        SyncResult firstResult = m_client.sync();
+
+        m_rice.DefaultValue = 2.0f;
+        assertTrue(m_model.updateProduct(m_rice, m_storage));
+        SyncResult result = m_client.sync();
+
+        assertFalse(result.FullPush);
+        assertEquals(1, result.PushedChanges);
+        assertTrue(result.SentBytes < 32);
+        assertTrue(result.ReceivedBytes < 16);
+        assertTrue(firstResult.SentBytes > 100 * result.SentBytes);
+
+        SyncResult idleResult = m_client.sync();
+        assertEquals(0, idleResult.PushedChanges);
+        assertEquals(0, idleResult.SentBytes);
+    }
+
+    public void testRemoteChangesAreApplied() throws Exception {
+        m_client.sync();
+
+        Unit liter = new Unit();
+        liter.Id       = 42;
+        liter.UnitText = "l";
+        Product milk = new Product();
+        milk.Id     = 43;
+        milk.Title  = "Milch";
+        milk.UnitId = liter.Id;
+        ShoppingList changedList = new ShoppingList(m_list);
+        changedList.ListEntries.put(milk.Id, 2.0f);
+        // The list comes first, so it references the Product before it's known.
+        pushFromOtherDevice(new SyncChange(ChangeLog.KIND_SHOPPING_LIST, changedList.Id, changedList),
+                new SyncChange(ChangeLog.KIND_PRODUCT, milk.Id, milk),
+                new SyncChange(ChangeLog.KIND_UNIT, liter.Id, liter));
+
+        SyncResult result = m_client.sync();
+
+        assertEquals(3, result.PulledChanges);
+        assertEquals(0, result.RejectedChanges);
+        assertEquals("l", m_model.getUnitById(42).UnitText);
+        assertEquals(42, m_model.getProductById(43).UnitId);
+        assertEquals(2.0f, m_model.getShoppingListById(m_list.Id).ListEntries.get(43), 0.001f);
+
+        // Applied changes are not sent back.
+        assertEquals(0, m_client.sync().PushedChanges);
+    }
+
+    public void testDeletionsArePropagated() throws Exception {
+        m_client.sync();
+
+        m_model.deleteUnit(m_kilogram, m_storage);
+        m_client.sync();
+
+        SyncBatch otherView = pullAsOtherDevice();
+        int deletions = 0;
+        for (SyncChange currentChange : otherView.Changes) {
+            if (currentChange.isDeletion()) {
+                deletions++;
+            }
+        }
+        // The Unit and the Product using it.
+        assertEquals(2, deletions);
+
+        pushFromOtherDevice(new SyncChange(ChangeLog.KIND_SHOPPING_LIST, m_list.Id, null));
+        m_client.sync();
+        assertNull(m_model.getShoppingListById(m_list.Id));
+    }
+
+    public void testOwnChangesAreNotPulled() throws Exception {
+        m_client.sync();
+
+        SyncResult result = m_client.sync();
+
+        assertEquals(0, result.PulledChanges);
+        assertEquals(m_server.getSequence(), m_client.getPulledSequence());
+    }
+
+    public void testPullInBatches() throws Exception {
+        SyncChange changes[] = new SyncChange[10];
+        for (int currentIndex = 0; currentIndex < changes.length; currentIndex++) {
+            Unit newUnit = new Unit();
+            newUnit.Id       = 100 + currentIndex;
+            newUnit.UnitText = "Einheit " + currentIndex;
+            changes[currentIndex] = new SyncChange(ChangeLog.KIND_UNIT, newUnit.Id, newUnit);
+        }
+        pushFromOtherDevice(changes);
+        m_client.setBatchSize(3);
+
+        SyncResult result = m_client.sync();
+
+        assertEquals(10, result.PulledChanges);
+        assertEquals("Einheit 9", m_model.getUnitById(109).UnitText);
+    }
+
+    public void testReloadPushesEverythingAgain() throws Exception {
+        m_client.sync();
+
+        m_model.load(m_storage);
+
+        assertTrue(m_client.sync().FullPush);
+    }
+
+    public void testCodecRoundTrip() throws Exception {
+        SyncBatch batch = new SyncBatch();
+        batch.Sequence = 300;
+        batch.HasMore  = true;
+        batch.Changes.add(new SyncChange(ChangeLog.KIND_PRODUCT, m_rice.Id, m_rice));
+        batch.Changes.add(new SyncChange(ChangeLog.KIND_SHOPPING_LIST, m_list.Id, m_list));
+        batch.Changes.add(new SyncChange(ChangeLog.KIND_UNIT, -5, null));
+
+        SyncBatch decoded = SyncCodec.decode(SyncCodec.encode(batch));
+
+        assertEquals(300, decoded.Sequence);
+        assertTrue(decoded.HasMore);
+        Product decodedRice = (Product) decoded.Changes.get(0).Value;
+        assertEquals("Reis", decodedRice.Title);
+        assertEquals(m_kilogram.Id, decodedRice.UnitId);
+        ShoppingList decodedList = (ShoppingList) decoded.Changes.get(1).Value;
+        assertEquals(0.5f, decodedList.ListEntries.get(m_rice.Id), 0.001f);
+        assertTrue(decoded.Changes.get(2).isDeletion());
+        assertEquals(-5, decoded.Changes.get(2).Id);
+    }
+
+    public void testDamagedPayloadIsRejected() throws Exception {
+        byte payload[] = SyncCodec.encode(pullAsOtherDevice());
+        byte truncatedPayload[] = new byte[payload.length - 1];
+        System.arraycopy(payload, 0, truncatedPayload, 0, truncatedPayload.length);
+
+        try {
+            SyncCodec.decode(truncatedPayload);
+            fail();
+        } catch (SyncException e) {
+            // expected
+        }
+    }
+}